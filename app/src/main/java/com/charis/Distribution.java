@@ -21,7 +21,12 @@ import com.charis.data.Kit;
 import com.charis.data.NonSellableItem;
 import com.charis.data.SellableItem;
 import com.charis.data.User;
+import com.charis.util.BarcodeMatch;
 import com.charis.util.Database;
+import com.charis.util.ReadPolicy;
+import com.charis.util.Result;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -35,11 +40,12 @@ public class Distribution extends AppCompatActivity
     private View.OnClickListener listener; // Listener for table rows
     private int viewIndex;  // Index of currently selected row
     private User user;
+    private String cartID; // Distribution ID of the cart, kept until it is saved
 
     /**
      * Sales tax used to calculate price.
      */
-    public final static double SALES_TAX = 0.0825;
+    public final static double SALES_TAX = Database.SALES_TAX;
 
 
     @Override
@@ -47,7 +53,7 @@ public class Distribution extends AppCompatActivity
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_distribution);
 
-        this.db = new Database(); // Get instance of database
+        this.db = Database.acquire(); // Get instance of database
         this.user = (User)getIntent().getSerializableExtra("user");
         this.layout = (TableLayout)findViewById(R.id.tablelayout);
         findViewById(R.id.btnDelete).setEnabled(false);
@@ -134,16 +140,68 @@ public class Distribution extends AppCompatActivity
 
     /**
      * Handles the event when a barcode is
-     * entered.
+     * entered. Stock decides which line is added,
+     * so items are always read from the server off
+     * the UI thread. A kit the barcode index knows
+     * goes straight to loading its items, which
+     * reads their quantities from the server too.
      * @param id ID of item
      */
     private void handleBarcode(String id)
     {
-        // Look for item
-        NonSellableItem nonSell = db.getNonSellableItem(id);
-        SellableItem sell = db.getSellableItem(id);
-        Kit kit = db.getKit(id);
+        BarcodeMatch hit = db.resolveCached(id, ReadPolicy.STRICT); // Index only, for identity
+        if(hit != null && hit.getKit() != null && hit.getSellable() == null && hit.getNonSellable() == null)
+        {
+            addFromKit(hit.getKit());
+            ((TextView)findViewById(R.id.txtBarcode)).setText("");
+            findViewById(R.id.txtBarcode).requestFocus();
+            return;
+        }
+
+        // Look up barcode and stock on the server
+        db.resolveBarcodeAsync(id).addOnCompleteListener(this, new OnCompleteListener<Result<BarcodeMatch>>()
+        {
+            @Override
+            public void onComplete(Task<Result<BarcodeMatch>> task)
+            {
+                Result<BarcodeMatch> r = Database.resultOf(task);
+                if(isLookupError(r)) // Unknown if item exists
+                {
+                    Toast.makeText(Distribution.this, "Connection problem, scan again", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+
+                BarcodeMatch match = r.getValue();
+                showBarcode(match.getSellable(), match.getNonSellable(), match.getKit());
+            }
+        });
+
+        // Reset TextView so the next scan can start
+        ((TextView)findViewById(R.id.txtBarcode)).setText("");
+        findViewById(R.id.txtBarcode).requestFocus();
+    }
+
+
+    /**
+     * Checks if a lookup did not finish, so it is
+     * unknown whether the record exists.
+     * @param r Lookup result, null if the task failed
+     * @return True if the lookup timed out or failed
+     */
+    private boolean isLookupError(Result<?> r)
+    {
+        return r == null || r.isError();
+    }
 
+
+    /**
+     * Adds the scanned item or kit to the table.
+     * @param sell Sellable item or null
+     * @param nonSell NonSellable item or null
+     * @param kit Kit or null
+     */
+    private void showBarcode(SellableItem sell, NonSellableItem nonSell, Kit kit)
+    {
         if(sell != null)
         {
             if(nonSell != null) // Sell and nonSell exist
@@ -171,15 +229,14 @@ public class Distribution extends AppCompatActivity
         else // Kit
         {
             if(kit != null)
+            {
                 addFromKit(kit); // Add items from kit
+                return; // Totals update once kit items load
+            }
         }
 
 
         updatePrice(); // Update totals
-
-        // Reset TextView
-        ((TextView)findViewById(R.id.txtBarcode)).setText("");
-        findViewById(R.id.txtBarcode).requestFocus();
     }
 
 
@@ -189,12 +246,23 @@ public class Distribution extends AppCompatActivity
      */
     private void addFromKit(Kit kit)
     {
-        Item[] items = db.getItemsFromKit(kit); // Get items
-
-        for(int i = 0; i < items.length; i++)
+        db.getItemsFromKitAsync(kit).addOnCompleteListener(this, new OnCompleteListener<Item[]>()
         {
-            addToTable(items[i]);
-        }
+            @Override
+            public void onComplete(Task<Item[]> task)
+            {
+                Item[] items = Database.resultOf(task); // Get items
+                if(items == null)
+                    return;
+
+                for(int i = 0; i < items.length; i++)
+                {
+                    addToTable(items[i]);
+                }
+
+                updatePrice();
+            }
+        });
     }
 
 
@@ -482,19 +550,47 @@ public class Distribution extends AppCompatActivity
         int[] c2 = toArrayI(nonsellCount.toArray());
         String memo = ((EditText)findViewById(R.id.txtMemo)).getText().toString();
 
-        boolean suc = this.db.createDistItemRelation(i1, c1, i2, c2, total, new Date(), this.user, memo);
+        if(this.cartID == null) // Retries reuse the ID so the sale is saved once
+            this.cartID = this.db.newDistributionID();
+
+        this.db.createDistItemRelationAsync(this.cartID, i1, c1, i2, c2, total, new Date(), this.user, memo).addOnCompleteListener(this, new OnCompleteListener<Result<String>>()
+        {
+            @Override
+            public void onComplete(Task<Result<String>> task)
+            {
+                Result<String> r = Database.resultOf(task);
+                finishCheckout((r != null) ? r.getStatus() : Result.Status.FAILED);
+            }
+        });
+    }
+
 
+    /**
+     * Resets the form after a checkout has been
+     * saved or queued. A queued checkout is saved
+     * by the database once it is reached, so the
+     * cart is cleared rather than sent again.
+     * @param status OK if saved, TIMED_OUT if queued, FAILED otherwise
+     */
+    private void finishCheckout(Result.Status status)
+    {
         // Reset frame components
-        if(suc)
+        if(status == Result.Status.OK || status == Result.Status.TIMED_OUT)
         {
+            this.cartID = null;
             this.layout.removeAllViews(); // Reset table to empty
             this.list = new ArrayList<Item>(20); // New list
             findViewById(R.id.txtBarcode).requestFocus();
             ((TextView)findViewById(R.id.txtTax)).setText("$0.00");
             ((TextView)findViewById(R.id.txtTotal)).setText("$0.00");
             ((TextView)findViewById(R.id.txtSubTotal)).setText("$0.00");
-            Toast.makeText(this, "Saved", Toast.LENGTH_SHORT).show();
+            if(status == Result.Status.OK)
+                Toast.makeText(this, "Saved", Toast.LENGTH_SHORT).show();
+            else
+                Toast.makeText(this, "Saved on this device, it will be sent when the connection returns", Toast.LENGTH_LONG).show();
         }
+        else
+            Toast.makeText(this, "Checkout could not be saved, try again", Toast.LENGTH_SHORT).show();
 
         findViewById(R.id.btnFinish).setEnabled(true);
     }
@@ -12,6 +12,7 @@ import android.view.Gravity;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.EditText;
@@ -25,9 +26,17 @@ import com.charis.data.Item;
 import com.charis.data.Kit;
 import com.charis.data.NonSellableItem;
 import com.charis.data.SellableItem;
+import com.charis.util.BarcodeMatch;
 import com.charis.util.Database;
+import com.charis.util.DeleteJob;
+import com.charis.util.KitSave;
+import com.charis.util.ReadPolicy;
+import com.charis.util.Result;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 
 import java.util.ArrayList;
+import java.util.Collections;
 
 public class KitActivity extends AppCompatActivity
 {
@@ -47,7 +56,7 @@ public class KitActivity extends AppCompatActivity
         setContentView(R.layout.activity_kit);
 
         // Set variables
-        this.database = new Database(); // Get instance
+        this.database = Database.acquire(); // Get instance
         this.viewIndex = -1;
         this.layout = findViewById(R.id.tablelayout);
         this.currentKit = null;
@@ -121,6 +130,7 @@ public class KitActivity extends AppCompatActivity
                     resetForm();
                 }
 
+                findViewById(R.id.btnDeleteKit).setEnabled(currentKit != null);
                 populateForm();
             }
 
@@ -128,6 +138,7 @@ public class KitActivity extends AppCompatActivity
             public void onNothingSelected(AdapterView<?> parent)
             {
                 currentKit = null;
+                findViewById(R.id.btnDeleteKit).setEnabled(false);
                 populateForm();
             }
         });
@@ -141,35 +152,85 @@ public class KitActivity extends AppCompatActivity
     {
         if(currentKit != null)
         {
-            Item[] items = this.database.getItemsFromKit(currentKit);
+            final Kit kit = currentKit;
 
-            if(items.length == 0)
-                return;
+            ReadPolicy policy = ReadPolicy.staleWhileRevalidate(ReadPolicy.DEFAULT_MAX_STALENESS, null);
+            this.database.getItemsFromKitAsync(kit, policy).addOnCompleteListener(this, new OnCompleteListener<Item[]>()
+            {
+                @Override
+                public void onComplete(Task<Item[]> task)
+                {
+                    Item[] items = Database.resultOf(task);
 
-            // Fill form components
-            ((TextView)findViewById(R.id.txtName)).setText(currentKit.getName());
-            ((TextView)findViewById(R.id.txtDesc)).setText(currentKit.getDescription());
+                    if(kit != currentKit || items == null || items.length == 0) // Selection changed while loading
+                        return;
 
-            for(int i = 0; i < items.length; i++)
-            {
-                addToTable(items[i]);
-            }
+                    // Fill form components
+                    ((TextView)findViewById(R.id.txtName)).setText(kit.getName());
+                    ((TextView)findViewById(R.id.txtDesc)).setText(kit.getDescription());
 
-            findViewById(R.id.txtID).requestFocus();
+                    for(int i = 0; i < items.length; i++)
+                    {
+                        addToTable(items[i]);
+                    }
+
+                    findViewById(R.id.txtID).requestFocus();
+                }
+            });
         }
     }
 
 
     /**
      * Handles the event when a barcode is
-     * entered.
+     * entered. The barcode index answers most
+     * scans at once. Otherwise both lookups run
+     * in parallel off the UI thread.
      * @param id ID of item
      */
     private void handleBarcode(String id)
     {
-        NonSellableItem nonSell = database.getNonSellableItem(id); // Look for item
-        SellableItem sell = database.getSellableItem(id);
+        BarcodeMatch hit = database.resolveCached(id); // Try index first
+        if(hit != null)
+        {
+            showBarcode(hit.getSellable(), hit.getNonSellable());
+            ((TextView)findViewById(R.id.txtID)).setText("");
+            findViewById(R.id.txtID).requestFocus();
+            return;
+        }
+
+        // Look up barcode through the registry
+        ReadPolicy policy = ReadPolicy.staleWhileRevalidate(ReadPolicy.DEFAULT_MAX_STALENESS, null);
+        database.resolveBarcodeAsync(id, policy).addOnCompleteListener(this, new OnCompleteListener<Result<BarcodeMatch>>()
+        {
+            @Override
+            public void onComplete(Task<Result<BarcodeMatch>> task)
+            {
+                Result<BarcodeMatch> r = Database.resultOf(task);
+                if(r == null || r.isError()) // Unknown if item exists
+                {
+                    Toast.makeText(KitActivity.this, "Connection problem, scan again", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+
+                showBarcode(r.getValue().getSellable(), r.getValue().getNonSellable());
+            }
+        });
+
+
+        // Reset TextView
+        ((TextView)findViewById(R.id.txtID)).setText("");
+        findViewById(R.id.txtID).requestFocus();
+    }
 
+
+    /**
+     * Adds the scanned item to the table.
+     * @param sell Sellable item or null
+     * @param nonSell NonSellable item or null
+     */
+    private void showBarcode(SellableItem sell, NonSellableItem nonSell)
+    {
         if(sell != null)
         {
             if(nonSell != null) // Sell and nonSell exist
@@ -197,11 +258,6 @@ public class KitActivity extends AppCompatActivity
                 addToTable(nonSell); // Launch for nonSell
             }
         }
-
-
-        // Reset TextView
-        ((TextView)findViewById(R.id.txtID)).setText("");
-        findViewById(R.id.txtID).requestFocus();
     }
 
 
@@ -401,22 +457,52 @@ public class KitActivity extends AppCompatActivity
 
 
     /**
-     * Fill the spinner with kit names
+     * Fill the spinner with kit names. Kits come
+     * from the local cache when recent enough and
+     * the names are refreshed if the server has
+     * newer ones.
      */
     private void fillSpinner()
     {
-        kits = database.getAllKits(); // Get all kits
-        Spinner kit_dropdown = findViewById(R.id.spinKit);
-        String[] names = new String[this.kits.length + 1];
+        ReadPolicy policy = ReadPolicy.staleWhileRevalidate(ReadPolicy.DEFAULT_MAX_STALENESS, new ReadPolicy.Listener()
+        {
+            @Override
+            public void onChanged()
+            {
+                if(!isFinishing())
+                    fillSpinner();
+            }
+        });
 
-        names[0] = "New";
-        for(int i = 0; i < kits.length; i++)
+        database.getAllKitsAsync(policy).addOnCompleteListener(this, new OnCompleteListener<Kit[]>()
         {
-            names[i + 1] = this.kits[i].getName();
-        }
+            @Override
+            public void onComplete(Task<Kit[]> task)
+            {
+                Kit[] result = Database.resultOf(task); // Get all kits
+                kits = (result != null) ? result : new Kit[0];
+                Spinner kit_dropdown = findViewById(R.id.spinKit);
+                ArrayList<String> names = new ArrayList<>(kits.length + 1);
+
+                names.add("New");
+                for(int i = 0; i < kits.length; i++)
+                {
+                    names.add(kits[i].getName());
+                }
 
-        ArrayAdapter<String> adapter = new ArrayAdapter(this, android.R.layout.simple_spinner_dropdown_item, names);
-        kit_dropdown.setAdapter(adapter);
+                ArrayAdapter<String> adapter = (ArrayAdapter<String>) kit_dropdown.getAdapter();
+                if(adapter != null) // Refresh names without changing the selection
+                {
+                    adapter.clear();
+                    adapter.addAll(names);
+                }
+                else
+                {
+                    adapter = new ArrayAdapter(KitActivity.this, android.R.layout.simple_spinner_dropdown_item, names);
+                    kit_dropdown.setAdapter(adapter);
+                }
+            }
+        });
     }
 
 
@@ -489,15 +575,102 @@ public class KitActivity extends AppCompatActivity
         boolean[] sellable = getSellable();
         Item[] items = objectToItem();
 
-        boolean suc = this.database.saveKit(currentKit, name, desc, items, sellable, quantity);
+        findViewById(R.id.btnSave).setEnabled(false);
 
-        if(suc)
-            Toast.makeText(this, "Save Successful", Toast.LENGTH_SHORT).show();
-        else
-            Toast.makeText(this, "Save Not Successful", Toast.LENGTH_SHORT).show();
+        this.database.saveKitAsync(currentKit, name, desc, items, sellable, quantity).addOnCompleteListener(this, new OnCompleteListener<KitSave>()
+        {
+            @Override
+            public void onComplete(Task<KitSave> task)
+            {
+                KitSave save = Database.resultOf(task);
 
-        fillSpinner();
-        resetForm();
+                if(save != null && save.isSuccessful())
+                {
+                    String msg = "Save Successful (" + save.getInserted() + " added, " + save.getUpdated() + " changed, " + save.getRemoved() + " removed)";
+                    Toast.makeText(KitActivity.this, msg, Toast.LENGTH_SHORT).show();
+                }
+                else
+                    Toast.makeText(KitActivity.this, "Save Not Successful", Toast.LENGTH_SHORT).show();
+
+                findViewById(R.id.btnSave).setEnabled(true);
+                fillSpinner();
+                ((Spinner)findViewById(R.id.spinKit)).setSelection(0); // Back to a new kit
+                resetForm();
+            }
+        });
+    }
+
+
+    /**
+     * Deletes the selected kit and its item relations
+     * after the user confirms. The items stay.
+     * @param view
+     */
+    public void deleteKit(View view)
+    {
+        if(this.currentKit == null)
+            return;
+
+        final Kit kit = this.currentKit;
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Delete " + kit.getName() + "?");
+        builder.setIcon(android.R.drawable.ic_dialog_alert);
+        builder.setNegativeButton("Cancel", null);
+        builder.setPositiveButton("Delete", new DialogInterface.OnClickListener()
+        {
+            @Override
+            public void onClick(DialogInterface dialog, int which)
+            {
+                runDeleteKit(kit);
+            }
+        });
+
+        builder.create().show();
+    }
+
+
+    /**
+     * Runs the delete of a kit, showing progress on
+     * the button.
+     * @param kit Kit to delete
+     */
+    private void runDeleteKit(Kit kit)
+    {
+        final Button button = findViewById(R.id.btnDeleteKit);
+        button.setEnabled(false);
+
+        DeleteJob job = this.database.deleteKits(Collections.singletonList(kit.getID()));
+        this.database.runDeleteAsync(job, new DeleteJob.Listener()
+        {
+            @Override
+            public void onProgress(final int deleted, final int total)
+            {
+                runOnUiThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        button.setText("Deleting " + deleted + "/" + total);
+                    }
+                });
+            }
+        }).addOnCompleteListener(this, new OnCompleteListener<Boolean>()
+        {
+            @Override
+            public void onComplete(Task<Boolean> task)
+            {
+                button.setText("Delete Kit");
+
+                if(Boolean.TRUE.equals(Database.resultOf(task)))
+                    Toast.makeText(KitActivity.this, "Kit Deleted", Toast.LENGTH_SHORT).show();
+                else
+                    Toast.makeText(KitActivity.this, "Delete Not Finished, Try Again", Toast.LENGTH_SHORT).show();
+
+                fillSpinner();
+                ((Spinner)findViewById(R.id.spinKit)).setSelection(0); // Back to a new kit
+                resetForm();
+            }
+        });
     }
 
 
@@ -592,6 +765,7 @@ public class KitActivity extends AppCompatActivity
     private void resetForm()
     {
         this.currentKit = null;
+        findViewById(R.id.btnDeleteKit).setEnabled(false);
         this.layout.removeAllViews(); // Clear table layout
         this.list.clear(); // Clear item list
         findViewById(R.id.txtName).requestFocus();
@@ -12,7 +12,10 @@ import android.widget.EditText;
 import android.widget.Toast;
 
 import com.charis.util.Database;
+import com.charis.util.Result;
 import com.charis.data.User;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 
 public class LoginActivity extends AppCompatActivity implements View.OnClickListener
 {
@@ -32,7 +35,17 @@ public class LoginActivity extends AppCompatActivity implements View.OnClickList
 
         submit.setOnClickListener(this);
 
-        this.access = new Database(); // Open database
+        Database.attachLocalStore(this); // Open on-device mirror before the first instance
+        Database.attachCatalogImage(this); // Map barcode snapshot so scans resolve at once
+        this.access = Database.acquire(); // Shared database
+    }
+
+
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        this.access.close(); // Release database, it stays open
     }
 
 
@@ -41,45 +54,69 @@ public class LoginActivity extends AppCompatActivity implements View.OnClickList
     {
         switch (v.getId()) {
             case R.id.submit:
-                String username = name.getText().toString(); // Username input
-                String pass = password.getText().toString(); // Password input
-
-                User user = this.access.getUser(username); // Query database for user
+                final String username = name.getText().toString(); // Username input
+                final String pass = password.getText().toString(); // Password input
 
-                // Check for valid user object
-                if(user != null)
+                v.setEnabled(false); // One lookup at a time
+                this.access.lookupLoginAsync(username).addOnCompleteListener(this, new OnCompleteListener<Result<User>>()
                 {
-                    if(access.checkHashedPassword(pass, user.getPassword())) // Check password match
+                    @Override
+                    public void onComplete(Task<Result<User>> task)
                     {
-                        if(user.isActive()) // Is user allowed to log in?
-                        {
-                            this.access.close(); // Close database
-
-                            // Create intent to open MainActivity
-                            Intent intent = new Intent(this, MainActivity.class);
-                            intent.putExtra("user", user); // Pass user object
-                            startActivity(intent);
-                        }
+                        findViewById(R.id.submit).setEnabled(true);
+                        Result<User> r = Database.resultOf(task);
+
+                        if(r == null || r.isError()) // Unknown if user exists
+                            Toast.makeText(LoginActivity.this, "Connection problem, try again", Toast.LENGTH_SHORT).show();
                         else
-                        {
-                            Toast.makeText(getApplicationContext(), "Log in access denied", Toast.LENGTH_LONG).show();
-                            resetComponents(); // Reset window components
-                        }
-                    }
-                    else
-                    {
-                        Toast.makeText(getApplicationContext(), "Incorrect password", Toast.LENGTH_SHORT).show();
-                        this.password.setText("");
-                        password.setBackgroundColor(Color.RED);
+                            logIn(r.getValue(), username, pass);
                     }
+                });
+
+                break;
+        }
+    }
+
+
+    /**
+     * Checks the password and opens the menu.
+     * @param user User read for username, null if not found
+     * @param username Username input
+     * @param pass Password input
+     */
+    private void logIn(User user, String username, String pass)
+    {
+        // Check for valid user object
+        if(user != null)
+        {
+            if(access.checkHashedPassword(pass, user.getPassword())) // Check password match
+            {
+                if(user.isActive()) // Is user allowed to log in?
+                {
+                    this.access.prefetch(); // Warm caches for the menu screens
+
+                    // Create intent to open MainActivity
+                    Intent intent = new Intent(this, MainActivity.class);
+                    intent.putExtra("user", user); // Pass user object
+                    startActivity(intent);
                 }
                 else
                 {
-                    Toast.makeText(this, username + " not found", Toast.LENGTH_SHORT).show();
-                    resetComponents();
+                    Toast.makeText(getApplicationContext(), "Log in access denied", Toast.LENGTH_LONG).show();
+                    resetComponents(); // Reset window components
                 }
-
-                break;
+            }
+            else
+            {
+                Toast.makeText(getApplicationContext(), "Incorrect password", Toast.LENGTH_SHORT).show();
+                this.password.setText("");
+                password.setBackgroundColor(Color.RED);
+            }
+        }
+        else
+        {
+            Toast.makeText(this, username + " not found", Toast.LENGTH_SHORT).show();
+            resetComponents();
         }
     }
 
@@ -1,13 +1,21 @@
 package com.charis;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.view.View;
+import android.widget.Toast;
 
 import com.charis.data.User;
+import com.charis.util.Database;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity
 {
@@ -46,6 +54,9 @@ public class MainActivity extends AppCompatActivity
             findViewById(R.id.textView15).setVisibility(View.INVISIBLE);
             findViewById(R.id.imageButton5).setVisibility(View.INVISIBLE);
             findViewById(R.id.textView13).setVisibility(View.INVISIBLE);
+
+            findViewById(R.id.btnMaintenance).setEnabled(false);
+            findViewById(R.id.btnMaintenance).setVisibility(View.INVISIBLE);
         }
     }
 
@@ -64,6 +75,57 @@ public class MainActivity extends AppCompatActivity
     }
 
 
+    /**
+     * Asks an admin to confirm, then rebuilds the
+     * report summaries from the saved data.
+     * @param view
+     */
+    public void runMaintenance(View view)
+    {
+        new AlertDialog.Builder(this)
+                .setTitle("Rebuild Summaries")
+                .setMessage("Rebuild report summaries from all saved sales? Sales made while it runs may be left out, so run it when no sales are being made.")
+                .setPositiveButton("Rebuild", new DialogInterface.OnClickListener()
+                {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which)
+                    {
+                        rebuildSummaries();
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+
+    /**
+     * Runs the rebuild on the database's workers and
+     * reports how it went.
+     */
+    private void rebuildSummaries()
+    {
+        final Database db = Database.acquire();
+        findViewById(R.id.btnMaintenance).setEnabled(false);
+        Toast.makeText(this, "Rebuilding summaries", Toast.LENGTH_SHORT).show();
+
+        db.rebuildSummariesAsync().addOnCompleteListener(this, new OnCompleteListener<List<String>>()
+        {
+            @Override
+            public void onComplete(Task<List<String>> task)
+            {
+                db.close();
+                findViewById(R.id.btnMaintenance).setEnabled(true);
+
+                List<String> failed = Database.resultOf(task);
+                if(failed != null && failed.isEmpty())
+                    Toast.makeText(MainActivity.this, "Summaries rebuilt", Toast.LENGTH_SHORT).show();
+                else
+                    Toast.makeText(MainActivity.this, "Could not rebuild " + ((failed != null) ? failed.toString() : "summaries"), Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+
     /**
      * Opens thte report activity.
      * @param view
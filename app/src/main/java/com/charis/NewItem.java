@@ -14,6 +14,7 @@ import android.util.Log;
 import android.view.Gravity;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.Button;
 import android.widget.DatePicker;
 import android.widget.EditText;
 import android.widget.LinearLayout;
@@ -36,10 +37,17 @@ import com.charis.data.Item;
 import com.charis.data.Location;
 import com.charis.data.NonSellableItem;
 import com.charis.data.SellableItem;
+import com.charis.util.BarcodeMatch;
 import com.charis.util.Database;
+import com.charis.util.DeleteJob;
+import com.charis.util.Result;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Objects;
 
 public class NewItem extends AppCompatActivity
@@ -62,6 +70,7 @@ public class NewItem extends AppCompatActivity
     private Condition condition; // Current selected condition in spinner
     private Category[] categories; // List of all categories in database
     private Category currentCat; // Current selected category in spinner
+    private Item loadedItem; // Item shown by find_item(), edited in place
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,7 +78,7 @@ public class NewItem extends AppCompatActivity
         setContentView(R.layout.activity_newitem);
 
         //open the database
-        this.database = new Database();
+        this.database = Database.acquire();
 
         //create condition spinner and set values in it
         Spinner condition_dropdown = findViewById(R.id.spinner1);
@@ -79,15 +88,10 @@ public class NewItem extends AppCompatActivity
 
         //category spinner
         Spinner category_dropdown = findViewById(R.id.spinner2);
-        String[] categories_spinner = getCategoryStrings();
-        ArrayAdapter<String> category_adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_dropdown_item, categories_spinner);
-        category_dropdown.setAdapter(category_adapter);
+        loadCategories();
 
         // Location spinner
-        Spinner locDropdown = findViewById(R.id.locSpinner);
-        String[] locSpinner = getLocationStrings();
-        ArrayAdapter<String> location_adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_dropdown_item, locSpinner);
-        locDropdown.setAdapter(location_adapter);
+        loadLocations();
 
         //create the calendar
         final TextView DisplayDate = findViewById(R.id.Select_Date);
@@ -209,12 +213,42 @@ public class NewItem extends AppCompatActivity
     {
         EditText barcode = findViewById(R.id.edit_barcode);
 
-        SellableItem sell_item_found;
-        NonSellableItem non_sell_item_found;
+        BarcodeMatch hit = database.resolveCached(barcode.getText().toString()); // Try index first
+        if(hit != null)
+        {
+            showFoundItem(hit.getSellable(), hit.getNonSellable());
+            return;
+        }
+
+        findViewById(R.id.find_button).setEnabled(false);
+        database.resolveBarcodeAsync(barcode.getText().toString()).addOnCompleteListener(this, new OnCompleteListener<Result<BarcodeMatch>>()
+        {
+            @Override
+            public void onComplete(Task<Result<BarcodeMatch>> task)
+            {
+                findViewById(R.id.find_button).setEnabled(true);
+                Result<BarcodeMatch> r = Database.resultOf(task);
 
-        non_sell_item_found = database.getNonSellableItem(barcode.getText().toString());
-        sell_item_found = database.getSellableItem(barcode.getText().toString());
+                if(r == null || r.isError()) // Unknown if item exists
+                {
+                    Toast.makeText(getApplicationContext(), "Could not reach database, try again", Toast.LENGTH_SHORT).show();
+                    return;
+                }
 
+                showFoundItem(r.getValue().getSellable(), r.getValue().getNonSellable());
+            }
+        });
+    }
+
+
+    /**
+     * Fills the form with the item found
+     * by find_item().
+     * @param sell_item_found Sellable item or null
+     * @param non_sell_item_found NonSellable item or null
+     */
+    private void showFoundItem(SellableItem sell_item_found, NonSellableItem non_sell_item_found)
+    {
         if (non_sell_item_found != null && sell_item_found == null)
         {
             findViewById(R.id.edit_barcode).setEnabled(false);
@@ -242,6 +276,8 @@ public class NewItem extends AppCompatActivity
             Toast message = Toast.makeText(context, "Item Does Not Exist", duration);
             message.show();
         }
+
+        findViewById(R.id.delete_button).setEnabled(this.update);
     }
 
 
@@ -317,6 +353,7 @@ public class NewItem extends AppCompatActivity
      */
     private void fillCommonElements(Item ITEM)
     {
+        this.loadedItem = ITEM; // Track edits to this item
         RadioButton Non_Sell = findViewById(R.id.radio_nonsellable);
         RadioButton Radio_Sell = findViewById(R.id.radio_sellable);
         EditText price = findViewById(R.id.edit_price);
@@ -408,73 +445,137 @@ public class NewItem extends AppCompatActivity
 
         EditText source = findViewById(R.id.edit_source);
 
-        boolean success;
-        Context context = getApplicationContext();
-        int duration = Toast.LENGTH_SHORT;
-
-        Toast success_toast = Toast.makeText(context, "Item Created Successfully", duration);
-        Toast failure_toast = Toast.makeText(context, "Failed to Create Item", duration);
+        Task<Boolean> task;
 
         if(this.update)
         {
-
-            String id = ((TextView)findViewById(R.id.edit_barcode)).getText().toString();
+            // Only fields that differ from the loaded item are saved
+            applyForm(this.loadedItem, description.getText().toString(), item_quantity, item_price);
 
             if(sellable == 1) // Update sellable
             {
-                SellableItem item = new SellableItem(id, pickedDate, description.getText().toString(), item_quantity, condition, item_price, currentCat, currentLoc);
-                success = database.updateSellable(item);
-
-                if(success)
-                {
-                    findViewById(R.id.edit_barcode).setEnabled(true); // Allow changes
-                    Toast.makeText(this, "Update Succeeded", Toast.LENGTH_SHORT).show();
-                    clear_form(view);
-                }
-                else
-                {
-                    Toast.makeText(this, "Update Failed", Toast.LENGTH_SHORT).show();
-                }
+                task = database.updateSellableAsync((SellableItem) this.loadedItem);
             }
             else // Update nonsellable
             {
-                NonSellableItem item = new NonSellableItem(id, pickedDate, description.getText().toString(), item_quantity, condition, item_price, currentCat, source.getText().toString(), currentLoc);
-                success = database.updateNonSellable(item);
+                NonSellableItem item = (NonSellableItem) this.loadedItem;
+                item.setSource(source.getText().toString());
+                task = database.updateNonSellableAsync(item);
+            }
+
+            handleSave(task, "Update Succeeded", "Update Failed", view);
+        }
+        else // Make new item
+        {
+                if (sellable == 1) {//sellable
+                    task = database.createSellableItemAsync(pickedDate, description.getText().toString(), condition, item_price, currentCat, item_quantity, currentLoc);
+                } else {
+                    task = database.createNonSellableItemAsync(pickedDate, description.getText().toString(), condition, item_price, currentCat, source.getText().toString(), item_quantity, currentLoc);
+                }
+
+                handleSave(task, "Item Created Successfully", "Failed to Create Item", view);
+        }
+    }
+
+
+    /**
+     * Copies the form values into item.
+     * @param item Item being edited
+     * @param desc Description entered
+     * @param quantity Quantity entered
+     * @param price Price entered
+     */
+    private void applyForm(Item item, String desc, int quantity, double price)
+    {
+        item.setReceived(this.pickedDate);
+        item.setDescription(desc);
+        item.setQuantity(quantity);
+        item.setCondition(this.condition);
+        item.setPrice(price);
+        item.setCategory(this.currentCat);
+        item.setLocation(this.currentLoc);
+    }
+
+
+    /**
+     * Shows the outcome of a save once the
+     * database task completes and clears the
+     * form on success.
+     * @param task Save task
+     * @param success Message on success
+     * @param failure Message on failure
+     * @param view View passed to clear_form()
+     */
+    private void handleSave(Task<Boolean> task, final String success, final String failure, final View view)
+    {
+        findViewById(R.id.save_button).setEnabled(false);
+
+        task.addOnCompleteListener(this, new OnCompleteListener<Boolean>()
+        {
+            @Override
+            public void onComplete(Task<Boolean> task)
+            {
+                findViewById(R.id.save_button).setEnabled(true);
 
-                if(success)
+                if(Boolean.TRUE.equals(Database.resultOf(task)))
                 {
                     findViewById(R.id.edit_barcode).setEnabled(true); // Allow changes
-                    Toast.makeText(this, "Update Succeeded", Toast.LENGTH_SHORT).show();
+                    Toast.makeText(getApplicationContext(), success, Toast.LENGTH_SHORT).show();
                     clear_form(view);
                 }
                 else
                 {
-                    Toast.makeText(this, "Update Failed", Toast.LENGTH_SHORT).show();
+                    Toast.makeText(getApplicationContext(), failure, Toast.LENGTH_SHORT).show();
                 }
             }
-        }
-        else // Make new item
+        });
+    }
+
+
+    /**
+     * Deletes the item shown after the user confirms.
+     * Past distributions of it stay in the reports.
+     */
+    public void delete_item(final View view)
+    {
+        if(this.loadedItem == null)
+            return;
+
+        final Item item = this.loadedItem;
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Delete " + item.getDescription() + "?");
+        builder.setIcon(android.R.drawable.ic_dialog_alert);
+        builder.setNegativeButton("Cancel", null);
+        builder.setPositiveButton("Delete", new DialogInterface.OnClickListener()
         {
-                if (sellable == 1) {//sellable
-                    success = database.createSellableItem(pickedDate, description.getText().toString(), condition, item_price, currentCat, item_quantity, currentLoc);
-                    if (success) {
-                        findViewById(R.id.edit_barcode).setEnabled(true); // Allow changes
-                        success_toast.show();
-                        clear_form(view);
-                    } else {
-                        failure_toast.show();
-                    }
-                } else {
-                    success = database.createNonSellableItem(pickedDate, description.getText().toString(), condition, item_price, currentCat, source.getText().toString(), item_quantity, currentLoc);
-                    if (success) {
-                        findViewById(R.id.edit_barcode).setEnabled(true); // Allow changes
-                        success_toast.show();
-                        clear_form(view);
-                    } else {
-                        failure_toast.show();
+            @Override
+            public void onClick(DialogInterface dialog, int which)
+            {
+                final Button button = findViewById(R.id.delete_button);
+                button.setEnabled(false);
+
+                DeleteJob job = database.deleteItems(Collections.singletonList(item.getID()));
+                database.runDeleteAsync(job, null).addOnCompleteListener(NewItem.this, new OnCompleteListener<Boolean>()
+                {
+                    @Override
+                    public void onComplete(Task<Boolean> task)
+                    {
+                        if(Boolean.TRUE.equals(Database.resultOf(task)))
+                        {
+                            Toast.makeText(getApplicationContext(), "Item Deleted", Toast.LENGTH_SHORT).show();
+                            clear_form(view);
+                        }
+                        else
+                        {
+                            button.setEnabled(true); // Pressing again continues the delete
+                            Toast.makeText(getApplicationContext(), "Delete Failed", Toast.LENGTH_SHORT).show();
+                        }
                     }
-                }
-        }
+                });
+            }
+        });
+
+        builder.create().show();
     }
 
 
@@ -523,12 +624,14 @@ public class NewItem extends AppCompatActivity
 
 
         this.pickedDate = null;
+        this.loadedItem = null;
+        findViewById(R.id.delete_button).setEnabled(false);
+        this.update = false; // Next save creates an item
         ((TextView)findViewById(R.id.Select_Date)).setText("");
         findViewById(R.id.edit_barcode).setEnabled(true); // Allow changes
 
         ((Spinner)findViewById(R.id.spinner1)).setSelection(0);
-        ((Spinner)findViewById(R.id.spinner2)).setSelection(0);
-        ((Spinner)findViewById(R.id.locSpinner)).setSelection(0);
+        refreshSpinners(); // Resets category and location selection
 
 
         Non_Sell.setEnabled(true);
@@ -545,7 +648,6 @@ public class NewItem extends AppCompatActivity
      */
     private String[] getCategoryStrings()
     {
-        this.categories = this.database.getAllCategories();
         int length = categories.length;
         String[] names = new String[length + 1];
         names[length] = "New";
@@ -563,7 +665,6 @@ public class NewItem extends AppCompatActivity
      *
      */
     private String[] getLocationStrings() {
-        this.locations = this.database.getAllLocations();
         int length = locations.length;
         String[] names = new String[length+1];
         names[length] = "New";
@@ -575,6 +676,127 @@ public class NewItem extends AppCompatActivity
         return names;
     }
 
+
+    /**
+     * Refills the category and location spinners
+     * from the shared cache. Falls back to loading
+     * them if the cache is not ready.
+     */
+    private void refreshSpinners()
+    {
+        Category[] cats = this.database.getCachedCategories();
+        if(cats != null)
+            showCategories(cats);
+        else
+            loadCategories();
+
+        Location[] locs = this.database.getCachedLocations();
+        if(locs != null)
+            showLocations(locs);
+        else
+            loadLocations();
+    }
+
+
+    /**
+     * Loads all categories off the UI thread
+     * and refreshes the category spinner.
+     */
+    private void loadCategories()
+    {
+        this.database.getAllCategoriesAsync().addOnCompleteListener(this, new OnCompleteListener<Category[]>()
+        {
+            @Override
+            public void onComplete(Task<Category[]> task)
+            {
+                Category[] result = Database.resultOf(task);
+                showCategories((result != null) ? result : new Category[0]);
+            }
+        });
+    }
+
+
+    /**
+     * Sets the category spinner to cats.
+     * @param cats Categories to show
+     */
+    private void showCategories(Category[] cats)
+    {
+        categories = cats;
+
+        Spinner category_dropdown = findViewById(R.id.spinner2);
+        ArrayAdapter<String> category_adapter = new ArrayAdapter<>(NewItem.this, android.R.layout.simple_spinner_dropdown_item, getCategoryStrings());
+        category_dropdown.setAdapter(category_adapter);
+    }
+
+
+    /**
+     * Loads all locations off the UI thread
+     * and refreshes the location spinner.
+     */
+    private void loadLocations()
+    {
+        this.database.getAllLocationsAsync().addOnCompleteListener(this, new OnCompleteListener<Location[]>()
+        {
+            @Override
+            public void onComplete(Task<Location[]> task)
+            {
+                Location[] result = Database.resultOf(task);
+                showLocations((result != null) ? result : new Location[0]);
+            }
+        });
+    }
+
+
+    /**
+     * Sets the location spinner to locs.
+     * @param locs Locations to show
+     */
+    private void showLocations(Location[] locs)
+    {
+        locations = locs;
+
+        Spinner location_dropdown = findViewById(R.id.locSpinner);
+        ArrayAdapter<String> location_adapter = new ArrayAdapter<>(NewItem.this, android.R.layout.simple_spinner_dropdown_item, getLocationStrings());
+        location_dropdown.setAdapter(location_adapter);
+    }
+
+
+    /**
+     * Reloads the category spinner once
+     * the given save finishes.
+     * @param task Save task
+     */
+    private void reloadCategoriesAfter(Task<?> task)
+    {
+        task.addOnCompleteListener(this, new OnCompleteListener()
+        {
+            @Override
+            public void onComplete(Task t)
+            {
+                loadCategories();
+            }
+        });
+    }
+
+
+    /**
+     * Reloads the location spinner once
+     * the given save finishes.
+     * @param task Save task
+     */
+    private void reloadLocationsAfter(Task<?> task)
+    {
+        task.addOnCompleteListener(this, new OnCompleteListener()
+        {
+            @Override
+            public void onComplete(Task t)
+            {
+                loadLocations();
+            }
+        });
+    }
+
     /**
      *  create new category
      */
@@ -595,12 +817,7 @@ public class NewItem extends AppCompatActivity
             public void onClick(DialogInterface dialog, int which) {
                 //update spinner
                 category_Text = input.getText().toString();
-                database.createCategory(category_Text);
-
-                Spinner category_dropdown = findViewById(R.id.spinner2);
-                String[] categories_spinner = getCategoryStrings();
-                ArrayAdapter<String> category_adapter = new ArrayAdapter<>(view.getContext(), android.R.layout.simple_spinner_dropdown_item, categories_spinner);
-                category_dropdown.setAdapter(category_adapter);
+                reloadCategoriesAfter(database.createCategoryAsync(category_Text));
             }
         });
         builder.setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
@@ -633,12 +850,7 @@ public class NewItem extends AppCompatActivity
 
                 String edit_cat_text = input.getText().toString();
                 currentCat.setName(edit_cat_text);
-                database.updateCategory(currentCat);
-
-                Spinner category_dropdown = findViewById(R.id.spinner2);
-                String[] categories_spinner = getCategoryStrings();
-                ArrayAdapter<String> category_adapter = new ArrayAdapter<>(view.getContext(), android.R.layout.simple_spinner_dropdown_item, categories_spinner);
-                category_dropdown.setAdapter(category_adapter);
+                reloadCategoriesAfter(database.updateCategoryAsync(currentCat));
             }
         });
         builder.setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
@@ -670,12 +882,7 @@ public class NewItem extends AppCompatActivity
             public void onClick(DialogInterface dialog, int which) {
                 //update spinner
                 location_Text = input.getText().toString();
-                database.createLocation(location_Text);
-
-                Spinner location_dropdown = findViewById(R.id.locSpinner);
-                String[] location_spinner = getLocationStrings();
-                ArrayAdapter<String> location_adapter = new ArrayAdapter<>(view.getContext(), android.R.layout.simple_spinner_dropdown_item, location_spinner);
-                location_dropdown.setAdapter(location_adapter);
+                reloadLocationsAfter(database.createLocationAsync(location_Text));
             }
         });
         builder.setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
@@ -704,12 +911,7 @@ public class NewItem extends AppCompatActivity
 
                 String edit_loc_text = input.getText().toString();
                 currentLoc.setName(edit_loc_text);
-                database.updateLocation(currentLoc);
-
-                Spinner location_dropdown = findViewById(R.id.locSpinner);
-                String[] location_spinner = getLocationStrings();
-                ArrayAdapter<String> location_adapter = new ArrayAdapter<>(view.getContext(), android.R.layout.simple_spinner_dropdown_item, location_spinner);
-                location_dropdown.setAdapter(location_adapter);
+                reloadLocationsAfter(database.updateLocationAsync(currentLoc));
             }
         });
         builder.setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
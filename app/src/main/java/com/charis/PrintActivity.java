@@ -14,15 +14,20 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.charis.data.Kit;
+import com.charis.util.CatalogEntry;
 import com.charis.util.Database;
+import com.charis.util.PageCursor;
+import com.charis.util.Result;
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.WriterException;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
 
 public class PrintActivity extends AppCompatActivity
 {
@@ -38,7 +43,7 @@ public class PrintActivity extends AppCompatActivity
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_print);
 
-        this.db = new Database();
+        this.db = Database.acquire();
         this.layout = findViewById(R.id.tableLayout);
         this.viewIndex = -1;
         findViewById(R.id.btnPrint).setEnabled(false);
@@ -50,51 +55,142 @@ public class PrintActivity extends AppCompatActivity
 
     /**
      * Set table information from database.
+     * The catalog manifest lists every barcode
+     * in a few reads. Until it is built, items
+     * and kits are read directly.
      */
     private void setTable()
     {
-        HashMap<String, String> items = this.db.getUniqueItems();  // Get items
-        Kit[] kits = this.db.getAllKits(); // Get kits
-
-        // Fill table with all barcode stuff
-        if(items != null)
+        this.db.getCatalogAsync().addOnCompleteListener(this, new OnCompleteListener<Result<List<CatalogEntry>>>()
         {
-            // Create header for items
-            String[] header = {"ID", "Name"};
-            addRow(header, false);
-            String[] it = {"Items", "-----"};
-            addRow(it, false);
+            @Override
+            public void onComplete(Task<Result<List<CatalogEntry>>> task)
+            {
+                Result<List<CatalogEntry>> r = Database.resultOf(task);
+
+                if(r != null && r.isOk())
+                    fillCatalog(r.getValue());
+                else
+                    streamTable();
+            }
+        });
+    }
 
-            Set<String> set = items.keySet(); // Set of keys
-            Iterator<String> iter = set.iterator();
-            String key, val;
 
-            while(iter.hasNext())
+    /**
+     * Fill the table from the catalog manifest.
+     * @param entries Items then kits
+     */
+    private void fillCatalog(List<CatalogEntry> entries)
+    {
+        CatalogEntry.Kind kind = null;
+
+        for(CatalogEntry e : entries)
+        {
+            if(e.getKind() != kind) // Start of a section
             {
-                key = iter.next();
-                val = items.get(key);
-                String[] row = {key, val};
-                addRow(row, true);
+                kind = e.getKind();
+
+                if(kind == CatalogEntry.Kind.ITEM)
+                {
+                    String[] header = {"ID", "Name"};
+                    addRow(header, false);
+                    String[] it = {"Items", "-----"};
+                    addRow(it, false);
+                }
+                else
+                {
+                    String[] header = {"Kits", "-----"};
+                    addRow(header, false);
+                }
             }
+
+            String[] row = {e.getID(), e.getName()};
+            addRow(row, true);
         }
+    }
 
 
-        // Fill table with kits
-        if(kits.length > 0)
+    /**
+     * Set table information by reading items and
+     * kits. Items stream in a page at a time off
+     * the UI thread, then kits.
+     */
+    private void streamTable()
+    {
+        PageCursor<Map.Entry<String, String>> items = this.db.uniqueItemCursor(PageCursor.DEFAULT_PAGE_SIZE); // Get items
+        this.db.streamAsync(this, items, new PageCursor.Consumer<Map.Entry<String, String>>()
         {
-            // Create header for kits
-            String[] header = {"Kits", "-----"};
-            addRow(header, false);
+            private boolean started;
 
-            String key, val;
+            @Override
+            public void onPage(List<Map.Entry<String, String>> page)
+            {
+                if(!this.started && !page.isEmpty())
+                {
+                    // Create header for items
+                    String[] header = {"ID", "Name"};
+                    addRow(header, false);
+                    String[] it = {"Items", "-----"};
+                    addRow(it, false);
+                    this.started = true;
+                }
 
-            for(Kit k : kits)
+                fillItems(page);
+            }
+        }).continueWithTask(new Continuation<Boolean, Task<Boolean>>()
+        {
+            @Override
+            public Task<Boolean> then(Task<Boolean> task)
             {
-                key = k.getID();
-                val = k.getName();
-                String[] row = {key, val};
-                addRow(row, true);
+                PageCursor<Kit> kits = db.kitCursor(PageCursor.DEFAULT_PAGE_SIZE); // Get kits
+                return db.streamAsync(PrintActivity.this, kits, new PageCursor.Consumer<Kit>()
+                {
+                    private boolean started;
+
+                    @Override
+                    public void onPage(List<Kit> page)
+                    {
+                        if(!this.started && !page.isEmpty())
+                        {
+                            // Create header for kits
+                            String[] header = {"Kits", "-----"};
+                            addRow(header, false);
+                            this.started = true;
+                        }
+
+                        fillKits(page);
+                    }
+                });
             }
+        });
+    }
+
+
+    /**
+     * Adds a page of item barcodes to the table.
+     * @param items Item IDs and descriptions
+     */
+    private void fillItems(List<Map.Entry<String, String>> items)
+    {
+        for(Map.Entry<String, String> e : items)
+        {
+            String[] row = {e.getKey(), e.getValue()};
+            addRow(row, true);
+        }
+    }
+
+
+    /**
+     * Adds a page of kit barcodes to the table.
+     * @param kits Kits
+     */
+    private void fillKits(List<Kit> kits)
+    {
+        for(Kit k : kits)
+        {
+            String[] row = {k.getID(), k.getName()};
+            addRow(row, true);
         }
     }
 
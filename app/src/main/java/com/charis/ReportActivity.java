@@ -2,10 +2,8 @@ package com.charis;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import android.app.ProgressDialog;
 import android.graphics.Color;
 import android.os.Bundle;
-import android.os.Handler;
 import android.view.Gravity;
 import android.view.View;
 import android.widget.AdapterView;
@@ -17,26 +15,41 @@ import android.widget.Spinner;
 import android.widget.TableLayout;
 import android.widget.TableRow;
 import android.widget.TextView;
+import android.widget.Toast;
 
-import com.charis.data.Distribution;
 import com.charis.data.Item;
 import com.charis.data.NonSellableItem;
 import com.charis.data.SellableItem;
+import com.charis.util.Aggregate;
 import com.charis.util.Database;
+import com.charis.util.OutflowEntry;
+import com.charis.util.PageCursor;
+import com.charis.util.ReportCache;
+import com.charis.util.ReportRunner;
+import com.charis.util.Result;
+import com.charis.util.SalesTotals;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.Iterator;
-
-import static com.charis.Distribution.SALES_TAX;
+import java.util.List;
 
 public class ReportActivity extends AppCompatActivity
 {
     private Database database;
     private TableLayout layout;
+    private ProgressBar progress;
+    private TextView status;
+    private final ReportRunner runner = new ReportRunner();
+    private ReportCache cache;
+
+    // Totals of the last period passed, shared by the reports built from them
+    private String periodKey;
+    private long periodMark;
+    private PeriodTotals periodTotals;
 
     @Override
     protected void onCreate(Bundle savedInstanceState)
@@ -44,13 +57,24 @@ public class ReportActivity extends AppCompatActivity
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_report);
 
-        this.database = new Database();
+        this.database = Database.acquire();
         this.layout = findViewById(R.id.tableLayout);
+        this.progress = findViewById(R.id.progressReport);
+        this.status = findViewById(R.id.txtReportStatus);
+        this.cache = ReportCache.shared(this);
 
         setComponents();
     }
 
 
+    @Override
+    protected void onDestroy()
+    {
+        this.runner.cancel(); // Drop rows still coming
+        super.onDestroy();
+    }
+
+
     /**
      * Set up the UI components.
      */
@@ -58,7 +82,7 @@ public class ReportActivity extends AppCompatActivity
     {
         // Set spinner
         Spinner spin = findViewById(R.id.spinReport);
-        String[] reports = {"Sales Tax", "Inventory Age", "Stock Report", "Item Outflow"};
+        String[] reports = {"Sales Tax", "Inventory Age", "Stock Report", "Item Outflow", "Sales by Volunteer", "Busiest Hours", "Sales by Category"};
         ArrayAdapter<String> adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_dropdown_item, reports);
         spin.setAdapter(adapter);
         spin.setSelection(0); // Set to default value
@@ -81,7 +105,9 @@ public class ReportActivity extends AppCompatActivity
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id)
             {
-                if(position == 0 || position == 3) // Require month/year
+                cancelReport(); // Selection changed
+
+                if(position != 1 && position != 2) // Require month/year
                 {
                     findViewById(R.id.spinMonth).setEnabled(true);
                     findViewById(R.id.spinYear).setEnabled(true);
@@ -96,6 +122,21 @@ public class ReportActivity extends AppCompatActivity
             @Override
             public void onNothingSelected(AdapterView<?> parent) {}
         });
+
+        // Changing the period stops the report running
+        AdapterView.OnItemSelectedListener cancel = new AdapterView.OnItemSelectedListener()
+        {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id)
+            {
+                cancelReport();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        };
+        spin2.setOnItemSelectedListener(cancel);
+        spin3.setOnItemSelectedListener(cancel);
     }
 
 
@@ -139,220 +180,600 @@ public class ReportActivity extends AppCompatActivity
 
 
     /**
-     * Run the selected report.
+     * Run the selected report on the report
+     * runner. Rows are added as they are ready
+     * and the run button stays disabled until
+     * the report has finished.
      * @param view
      */
     public void runReport(View view)
     {
-        ((TableLayout)findViewById(R.id.tableLayout)).removeAllViews();
+        this.layout.removeAllViews();
         int pos = ((Spinner)findViewById(R.id.spinReport)).getSelectedItemPosition();
+        ReportRunner.Report report = null;
 
         switch(pos)
         {
             case 0: // Sales Tax
-                salesTax();
+                report = salesTax();
                 break;
             case 1: // Inventory Age
-                inventoryAge();
+                report = inventoryAge();
                 break;
             case 2: // Stock Report
-                stockReport();
+                report = stockReport();
                 break;
             case 3: // Outflow
-                outFlow();
+                report = outFlow();
+                break;
+            case 4: // Sales by Volunteer
+                report = byVolunteer();
+                break;
+            case 5: // Busiest Hours
+                report = busiestHours();
+                break;
+            case 6: // Sales by Category
+                report = byCategory();
                 break;
         }
+
+        if(report == null)
+            return;
+
+        findViewById(R.id.btnRun).setEnabled(false);
+        showProgress(0, -1);
+
+        this.runner.start(report, new ReportRunner.Listener()
+        {
+            @Override
+            public void onRows(List<String[]> rows)
+            {
+                for(String[] row : rows)
+                {
+                    addRowToTable(row);
+                }
+            }
+
+            @Override
+            public void onProgress(int done, int total)
+            {
+                showProgress(done, total);
+            }
+
+            @Override
+            public void onFinished(boolean complete, RuntimeException error)
+            {
+                endRun();
+                if(error != null)
+                    Toast.makeText(ReportActivity.this, "Report failed: " + error, Toast.LENGTH_LONG).show();
+                else if(!complete)
+                    Toast.makeText(ReportActivity.this, "Report could not be completed", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
 
     /**
-     * Performs a sales tax report on
-     * sold goods for selected month
-     * and year.
+     * Cancels the report running, if any,
+     * keeping the rows already shown.
      */
-    private void salesTax()
+    private void cancelReport()
     {
-        // Get selected month
-        int month = ((Spinner)findViewById(R.id.spinMonth)).getSelectedItemPosition();
-
-        // Get selected year
-        int year = ((Spinner)findViewById(R.id.spinYear)).getSelectedItemPosition();
+        this.runner.cancel();
+        endRun();
+    }
 
-        // Get sales records for month
-        int yearOffset = Integer.parseInt((String)((Spinner)findViewById(R.id.spinYear)).getSelectedItem());
-        Distribution[] dists = this.database.getDistributionsByDate(month, year + yearOffset);
 
-        // Make column header
-        String[] col = {"# of Sales", "Total Sales", "Tax Total", "Gross Total"};
-        addRowToTable(col);
+    /**
+     * Shows the progress of the running report.
+     * @param done Pages or items processed
+     * @param total Total expected or -1 if unknown
+     */
+    private void showProgress(int done, int total)
+    {
+        this.progress.setVisibility(View.VISIBLE);
+        this.progress.setIndeterminate(total < 0);
+        if(total >= 0)
+        {
+            this.progress.setMax(total);
+            this.progress.setProgress(done);
+        }
 
-        // Calculate totals
-        // gross(1 + tax%) = total
-        double total = calcDistTotal(dists);
-        double gross = total/(1 + SALES_TAX);
-        double tax = total - gross;
+        this.status.setText((total < 0) ? done + " processed" : done + " of " + total);
+    }
 
-        int saleCount = calcSalesCount(dists);
 
-        // Fill table
-        String[] values = {String.valueOf(saleCount), String.format("$%.2f", total), String.format("$%.2f", tax), String.format("$%.2f", gross)};
-        addRowToTable(values);
+    /**
+     * Resets the screen after a run.
+     */
+    private void endRun()
+    {
+        findViewById(R.id.btnRun).setEnabled(true);
+        this.progress.setVisibility(View.GONE);
+        this.status.setText("");
     }
 
 
     /**
-     * Returns the number of sales with
-     * a price above 0.0;
-     * @param dists Array of sales
-     * @return Count of sales
+     * Wraps a report so a saved result is shown when it
+     * is still current, and a newly built one is saved.
+     * A result saved after its month closed is shown
+     * without a read; otherwise the watermark is read
+     * before building, so changes landing during the
+     * build make the saved result stale.
+     * @param key Cache key
+     * @param closed True if the report's month has ended
+     * @param depends What the report is built from
+     * @param report Report to build on a miss
+     * @return Report to run
      */
-    private int calcSalesCount(Distribution[] dists)
+    private ReportRunner.Report cached(final String key, final boolean closed, final ReportCache.Depends depends, final ReportRunner.Report report)
     {
-        int total = 0;
-
-        if(dists != null)
+        return new ReportRunner.Report()
         {
-            for(int i = 0; i < dists.length; i++)
+            @Override
+            public boolean build(ReportRunner.Run run)
             {
-                if(dists[i].getAmount() > 0.0)
-                    total++;
+                List<String[]> rows = closed ? cache.getClosed(key) : null;
+                long mark = -1;
+                if(rows == null)
+                {
+                    Result<Long> w = database.getWatermark(depends);
+                    mark = w.isOk() ? w.getValue() : -1; // Offline, build without saving
+                    if(mark >= 0)
+                        rows = cache.get(key, mark);
+                }
+
+                if(rows != null)
+                {
+                    run.add(rows);
+                    return true;
+                }
+
+                if(!report.build(run))
+                    return false;
+
+                if(mark >= 0 && !run.isCancelled())
+                    cache.put(key, mark, closed, run.getRows());
+
+                return true;
             }
-        }
+        };
+    }
+
 
-        return total;
+    /**
+     * Returns the year selected.
+     * @return Year
+     */
+    private int selectedYear()
+    {
+        Spinner spin = findViewById(R.id.spinYear);
+        int yearOffset = Integer.parseInt((String) spin.getSelectedItem());
+        return spin.getSelectedItemPosition() + yearOffset;
     }
 
 
     /**
-     * Calculates the total sales from an
-     * array of distributions.
-     * @param dists Array of distributions
-     * @return Total sales amount
+     * Performs a sales tax report on
+     * sold goods for selected month
+     * and year.
+     * @return Report to run
      */
-    private double calcDistTotal(Distribution[] dists)
+    private ReportRunner.Report salesTax()
     {
-        double total = 0.0;
+        final int month = ((Spinner)findViewById(R.id.spinMonth)).getSelectedItemPosition();
+        final int year = selectedYear();
 
-        if(dists != null)
+        return cached(ReportCache.key("sales", month, year), ReportCache.isClosed(month, year), ReportCache.Depends.DISTRIBUTIONS, new ReportRunner.Report()
         {
-            for(int i = 0; i < dists.length; i++)
+            @Override
+            public boolean build(ReportRunner.Run run)
             {
-                total += dists[i].getAmount();
+                Result<SalesTotals> r = database.getSalesTotals(month, year);
+                run.add(salesTaxRows(r.isOk() ? r.getValue() : null));
+                return r.isOk();
             }
-        }
+        });
+    }
+
 
-        return total;
+    /**
+     * Builds the rows of the sales tax report.
+     * @param totals Totals of the month, null shows zeros
+     * @return Header and values
+     */
+    private static List<String[]> salesTaxRows(SalesTotals totals)
+    {
+        ArrayList<String[]> rows = new ArrayList<>(2);
+
+        // Make column header
+        String[] col = {"# of Sales", "Total Sales", "Tax Total", "Gross Total"};
+        rows.add(col);
+
+        // Totals are split into gross and tax when saved
+        long saleCount = (totals != null) ? totals.getSales() : 0;
+        double total = (totals != null) ? totals.getTotal() : 0.0;
+        double tax = (totals != null) ? totals.getTax() : 0.0;
+        double gross = (totals != null) ? totals.getGross() : 0.0;
+
+        String[] values = {String.valueOf(saleCount), String.format("$%.2f", total), String.format("$%.2f", tax), String.format("$%.2f", gross)};
+        rows.add(values);
+        return rows;
     }
 
 
     /**
      * Displays an inventory report of
      * sellable items by received date.
+     * Rows are added a page at a time.
+     * @return Report to run
+     */
+    private ReportRunner.Report inventoryAge()
+    {
+        return cached(ReportCache.key("age"), false, ReportCache.Depends.STOCK, new ReportRunner.Report()
+        {
+            @Override
+            public boolean build(ReportRunner.Run run)
+            {
+                String[] col = {"ID", "Name", "Quantity", "Received"};
+                run.add(col);
+
+                // Stream sellable items, oldest first
+                DateFormat format = new SimpleDateFormat("MM/dd/yyyy");
+                PageCursor<SellableItem> cursor = database.sellableByReceivedCursor(PageCursor.DEFAULT_PAGE_SIZE);
+                int count = 0;
+                while(cursor.hasNext() && !run.isCancelled())
+                {
+                    Result<List<SellableItem>> page = cursor.next();
+                    if(!page.isOk())
+                        return false;
+
+                    ArrayList<String[]> rows = new ArrayList<>(page.getValue().size());
+                    for(SellableItem item : page.getValue())
+                    {
+                        String received = (item.getReceived() != null) ? format.format(item.getReceived()) : "";
+                        rows.add(new String[]{item.getID(), item.getDescription(), String.valueOf(item.getQuantity()), received});
+                    }
+
+                    run.add(rows);
+                    count += rows.size();
+                    run.progress(count, -1);
+                }
+
+                return !cursor.hasNext();
+            }
+        });
+    }
+
+
+    /**
+     * Create an inventory report of all items.
+     * Sellable items stream in first, then
+     * nonsellable items.
+     * @return Report to run
      */
-    private void inventoryAge()
+    private ReportRunner.Report stockReport()
     {
-        // Get sellable items
-        SellableItem[] sell = this.database.getAllSellable();
-        DateFormat format = new SimpleDateFormat("MM/dd/yyyy");
+        return cached(ReportCache.key("stock"), false, ReportCache.Depends.STOCK, new ReportRunner.Report()
+        {
+            @Override
+            public boolean build(ReportRunner.Run run)
+            {
+                String[] col = {"ID", "Name", "Quantity"};
+                run.add(col);
 
-        String[] col = {"ID", "Name", "Quantity", "Received"};
-        addRowToTable(col);
+                String[] sellCol = {"For Sale", "----", "----"};
+                String[] nonSellCol = {"For Free", "----", "----"};
 
-        if(sell != null)
+                int count = streamStock(run, database.sellableCursor(PageCursor.DEFAULT_PAGE_SIZE), sellCol, 0);
+                if(count < 0)
+                    return false;
+
+                return streamStock(run, database.nonSellableCursor(PageCursor.DEFAULT_PAGE_SIZE), nonSellCol, count) >= 0;
+            }
+        });
+    }
+
+
+    /**
+     * Adds pages of items to the stock report
+     * under a section header, which is added
+     * with the first item.
+     * @param run Run to add to
+     * @param cursor Items to add
+     * @param header Section header
+     * @param count Items added before this section
+     * @return Items added so far or -1 if a page could not be read or the run was cancelled
+     */
+    private static <T extends Item> int streamStock(ReportRunner.Run run, PageCursor<T> cursor, String[] header, int count)
+    {
+        boolean started = false;
+        while(cursor.hasNext())
         {
-            Arrays.sort(sell); // Order by received date
+            if(run.isCancelled())
+                return -1;
+
+            Result<List<T>> page = cursor.next();
+            if(!page.isOk())
+                return -1;
+
+            ArrayList<String[]> rows = new ArrayList<>(page.getValue().size() + 1);
+            if(!started && !page.getValue().isEmpty())
+            {
+                rows.add(header);
+                started = true;
+            }
 
-            for(int i = 0; i < sell.length; i++)
+            for(T item : page.getValue())
             {
-                String[] sellRow = {sell[i].getID(), sell[i].getDescription(), String.valueOf(sell[i].getQuantity()), format.format(sell[i].getReceived())};
-                addRowToTable(sellRow);
+                rows.add(new String[]{item.getID(), item.getDescription(), String.valueOf(item.getQuantity())});
             }
+
+            run.add(rows);
+            count += page.getValue().size();
+            run.progress(count, -1);
         }
+
+        return count;
     }
 
 
     /**
-     * Create an inventory report of all items.
+     * For all items, calculate the outflow
+     * for a give month.
+     * @return Report to run
      */
-    private void stockReport()
+    private ReportRunner.Report outFlow()
     {
-        SellableItem[] sell = this.database.getAllSellable(); // Get all the sellables
-        NonSellableItem[] nonSell = this.database.getAllNonSellable(); // Get all the nonsellables
-
-        String[] col = {"ID", "Name", "Quantity"};
-        addRowToTable(col);
+        final int month = ((Spinner)findViewById(R.id.spinMonth)).getSelectedItemPosition();
+        final int year = selectedYear();
 
-        if(sell != null)
+        return cached(ReportCache.key("outflow", month, year), ReportCache.isClosed(month, year), ReportCache.Depends.DISTRIBUTIONS, new ReportRunner.Report()
         {
-            String[] sellCol = {"For Sale", "----", "----"};
-            addRowToTable(sellCol);
-
-            for (int i = 0; i < sell.length; i++)
+            @Override
+            public boolean build(ReportRunner.Run run)
             {
-                String[] sellRow = {sell[i].getID(), sell[i].getDescription(), String.valueOf(sell[i].getQuantity())};
-                addRowToTable(sellRow);
+                Result<List<OutflowEntry>> r = database.getOutflow(month, year);
+                if(!r.isOk())
+                    return false;
+
+                // Make column header
+                String[] col = {"ID", "Name", "Quantity", "Value"};
+                run.add(col);
+
+                List<OutflowEntry> entries = r.getValue();
+                List<String[]> sellRows = outFlowRows(entries, true);
+                String[] sellCol = {"For Sale", "----", "----", "----"};
+                run.add(sellCol);
+                run.add(sellRows);
+                run.progress(sellRows.size(), entries.size());
+
+                String[] nonSellCol = {"For Free", "----", "----", "----"};
+                run.add(nonSellCol);
+                run.add(outFlowRows(entries, false));
+                run.progress(entries.size(), entries.size());
+
+                return true;
             }
+        });
+    }
+
+
+    /**
+     * Builds the rows of one kind for outFlow().
+     * @param entries Outflow of each item
+     * @param sellable True for sellable items, false for nonsellable
+     * @return Rows of the entries of that kind
+     */
+    private static List<String[]> outFlowRows(List<OutflowEntry> entries, boolean sellable)
+    {
+        ArrayList<String[]> rows = new ArrayList<>();
+        for (OutflowEntry e : entries)
+        {
+            if(e.isSellable() != sellable)
+                continue;
+
+            String quant = String.valueOf(e.getQuantity());
+            String value = String.format("$%.2f", e.getValue());
+            String[] col = {e.getID(), e.getDescription(), quant, value};
+            rows.add(col);
         }
 
-        if(nonSell != null)
+        return rows;
+    }
+
+
+    /**
+     * Totals of a month used by the volunteer, hour
+     * and category reports, filled in one pass.
+     */
+    private static final class PeriodTotals
+    {
+        final Aggregate userCount = new Aggregate(Aggregate.Key.USER, Aggregate.Measure.DISTRIBUTIONS);
+        final Aggregate userAmount = new Aggregate(Aggregate.Key.USER, Aggregate.Measure.AMOUNT);
+        final Aggregate hourCount = new Aggregate(Aggregate.Key.HOUR, Aggregate.Measure.DISTRIBUTIONS);
+        final Aggregate hourAmount = new Aggregate(Aggregate.Key.HOUR, Aggregate.Measure.AMOUNT);
+        final Aggregate categoryQuantity = new Aggregate(Aggregate.Key.CATEGORY, Aggregate.Measure.QUANTITY);
+        final Aggregate categoryValue = new Aggregate(Aggregate.Key.CATEGORY, Aggregate.Measure.VALUE);
+        final Aggregate kindQuantity = new Aggregate(Aggregate.Key.SELLABLE, Aggregate.Measure.QUANTITY);
+        final Aggregate kindValue = new Aggregate(Aggregate.Key.SELLABLE, Aggregate.Measure.VALUE);
+
+        Aggregate[] all()
         {
-            String[] nonSellCol = {"For Free", "----", "----"};
-            addRowToTable(nonSellCol);
+            return new Aggregate[]{this.userCount, this.userAmount, this.hourCount, this.hourAmount,
+                    this.categoryQuantity, this.categoryValue, this.kindQuantity, this.kindValue};
+        }
+    }
+
 
-            for(int i = 0; i < nonSell.length; i++)
+    /**
+     * Returns the totals of a month, passing its
+     * distributions only if the last totals were of
+     * another month or sales have been saved since.
+     * A closed month is reused without a read.
+     * @param month Month 0-11 for JAN-DEC
+     * @param year Year
+     * @return Totals or null if they could not be read
+     */
+    private synchronized PeriodTotals periodTotals(int month, int year)
+    {
+        String key = ReportCache.key("period", month, year);
+        boolean same = key.equals(this.periodKey) && this.periodTotals != null;
+        if(same && ReportCache.isClosed(month, year))
+            return this.periodTotals;
+
+        Result<Long> mark = this.database.getWatermark(ReportCache.Depends.DISTRIBUTIONS);
+        if(same && mark.isOk() && mark.getValue() == this.periodMark)
+            return this.periodTotals;
+
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, 1);
+        Date from = cal.getTime();
+        cal.add(Calendar.MONTH, 1);
+
+        PeriodTotals totals = new PeriodTotals();
+        if(!this.database.aggregate(from, cal.getTime(), totals.all()).isOk())
+            return null;
+
+        this.periodKey = key;
+        this.periodMark = mark.isOk() ? mark.getValue() : -1; // Passed again next time if unknown
+        this.periodTotals = totals;
+        return totals;
+    }
+
+
+    /**
+     * Shows the distributions and sales of each
+     * volunteer in the selected month, most sold first.
+     * @return Report to run
+     */
+    private ReportRunner.Report byVolunteer()
+    {
+        final int month = ((Spinner)findViewById(R.id.spinMonth)).getSelectedItemPosition();
+        final int year = selectedYear();
+
+        return new ReportRunner.Report()
+        {
+            @Override
+            public boolean build(ReportRunner.Run run)
             {
-                String[] nonSellRow = {nonSell[i].getID(), nonSell[i].getDescription(), String.valueOf(nonSell[i].getQuantity())};
-                addRowToTable(nonSellRow);
+                PeriodTotals totals = periodTotals(month, year);
+                if(totals == null)
+                    return false;
+
+                String[] col = {"Volunteer", "Distributions", "Total Sales"};
+                run.add(col);
+
+                Aggregate amount = totals.userAmount;
+                ArrayList<String[]> rows = new ArrayList<>(amount.size());
+                for(int i : amount.byValue())
+                {
+                    String user = amount.getLabel(i);
+                    rows.add(new String[]{user.isEmpty() ? "Unknown" : user, String.valueOf(totals.userCount.getValue(user)),
+                            String.format("$%.2f", amount.getDollars(i))});
+                }
+
+                run.add(rows);
+                return true;
             }
-        }
+        };
     }
 
 
     /**
-     * For all items, calculate the outflow
-     * for a give month.
+     * Shows the distributions and sales in each hour
+     * of the day over the selected month.
+     * @return Report to run
      */
-    private void outFlow()
+    private ReportRunner.Report busiestHours()
     {
-        // Get selected month
-        int month = ((Spinner)findViewById(R.id.spinMonth)).getSelectedItemPosition();
+        final int month = ((Spinner)findViewById(R.id.spinMonth)).getSelectedItemPosition();
+        final int year = selectedYear();
 
-        // Get selected year
-        int year = ((Spinner)findViewById(R.id.spinYear)).getSelectedItemPosition();
+        return new ReportRunner.Report()
+        {
+            @Override
+            public boolean build(ReportRunner.Run run)
+            {
+                PeriodTotals totals = periodTotals(month, year);
+                if(totals == null)
+                    return false;
 
-        // Get sales records for month
-        int yearOffset = Integer.parseInt((String)((Spinner)findViewById(R.id.spinYear)).getSelectedItem());
-        HashMap<String, Item>[] maps = this.database.getDistItemCountByDate(month, year + yearOffset);
+                String[] col = {"Hour", "Distributions", "Total Sales"};
+                run.add(col);
 
-        // Make column header
-        String[] col = {"ID", "Name", "Quantity", "Value"};
-        addRowToTable(col);
+                Aggregate count = totals.hourCount;
+                ArrayList<String[]> rows = new ArrayList<>(count.size());
+                for(int i = 0; i < count.size(); i++)
+                {
+                    if(count.getValue(i) == 0) // Closed hours left out
+                        continue;
 
-        String[] sellCol = {"For Sale", "----", "----", "----"};
-        addRowToTable(sellCol);
-        fillTableMap(maps[0]);
+                    String hour = count.getLabel(i);
+                    rows.add(new String[]{hour, String.valueOf(count.getValue(i)), String.format("$%.2f", totals.hourAmount.getValue(hour) / 100.0)});
+                }
 
-        String[] nonSellCol = {"For Free", "----", "----", "----"};
-        addRowToTable(nonSellCol);
-        fillTableMap(maps[1]);
+                run.add(rows);
+                return true;
+            }
+        };
     }
 
 
     /**
-     * Fills the table with the given map information for outFlow().
-     * @param map Map of data
+     * Shows the quantity and value of items distributed
+     * in each category in the selected month, then the
+     * totals for sale and for free.
+     * @return Report to run
      */
-    private void fillTableMap(HashMap<String, Item> map)
+    private ReportRunner.Report byCategory()
     {
-        Collection<Item> c = map.values(); // Get values
+        final int month = ((Spinner)findViewById(R.id.spinMonth)).getSelectedItemPosition();
+        final int year = selectedYear();
 
-        for (Item i : c)
+        return new ReportRunner.Report()
         {
-            String quant = String.valueOf(i.getQuantity());
-            String value = String.format("$%.2f", (i.getQuantity() * i.getPrice()));
-            String[] col = {i.getID(), i.getDescription(), quant, value};
-            addRowToTable(col);
+            @Override
+            public boolean build(ReportRunner.Run run)
+            {
+                PeriodTotals totals = periodTotals(month, year);
+                if(totals == null)
+                    return false;
+
+                String[] col = {"Category", "Quantity", "Value"};
+                run.add(col);
+                run.add(categoryRows(totals.categoryValue, totals.categoryQuantity, "None"));
+
+                String[] kindCol = {"Totals", "----", "----"};
+                run.add(kindCol);
+                run.add(categoryRows(totals.kindValue, totals.kindQuantity, ""));
+                return true;
+            }
+        };
+    }
+
+
+    /**
+     * Builds rows of value and quantity for each
+     * group, highest value first.
+     * @param value Value of each group
+     * @param quantity Quantity of each group
+     * @param unnamed Label of the group without a name
+     * @return Rows of the groups
+     */
+    private static List<String[]> categoryRows(Aggregate value, Aggregate quantity, String unnamed)
+    {
+        ArrayList<String[]> rows = new ArrayList<>(value.size());
+        for(int i : value.byValue())
+        {
+            String label = value.getLabel(i);
+            rows.add(new String[]{label.isEmpty() ? unnamed : label, String.valueOf(quantity.getValue(label)),
+                    String.format("$%.2f", value.getDollars(i))});
         }
+
+        return rows;
     }
 
 
@@ -363,6 +784,7 @@ public class ReportActivity extends AppCompatActivity
      */
     public void closeForm(View view)
     {
+        this.runner.cancel();
         this.database.close();
         this.finish();
     }
@@ -2,13 +2,25 @@ package com.charis.data;
 
 
 import com.charis.data.Enum.Condition;
+import java.util.Collection;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * Encapsulates properties for items in inventory.
  */
 public abstract class Item implements Comparable
 {
+    /**
+     * Fields that can be changed after an item is built.
+     */
+    public enum Field
+    {
+        RECEIVED, DESCRIPTION, CONDITION, QUANTITY, PRICE, CATEGORY, LOCATION, SOURCE
+    }
+
     private final String ID;
     private Date received;
     private String description;
@@ -17,6 +29,7 @@ public abstract class Item implements Comparable
     private double price;
     private Category category;
     private Location location;
+    private final EnumSet<Field> changes = EnumSet.noneOf(Field.class); // Changed since built or saved
 
 
     /**
@@ -40,6 +53,7 @@ public abstract class Item implements Comparable
         this.setPrice(price);
         this.setCategory(cat);
         this.setLocation(loc);
+        this.changes.clear(); // Nothing changed yet
     }
 
 
@@ -52,6 +66,9 @@ public abstract class Item implements Comparable
     }
 
     public void setReceived(Date received) {
+        if(!Objects.equals(this.received, received))
+            this.markChanged(Field.RECEIVED);
+
         this.received = received;
     }
 
@@ -60,6 +77,9 @@ public abstract class Item implements Comparable
     }
 
     public void setDescription(String description) {
+        if(!Objects.equals(this.description, description))
+            this.markChanged(Field.DESCRIPTION);
+
         this.description = description;
     }
 
@@ -68,6 +88,9 @@ public abstract class Item implements Comparable
     }
 
     public void setCondition(Condition condition) {
+        if(this.condition != condition)
+            this.markChanged(Field.CONDITION);
+
         this.condition = condition;
     }
 
@@ -82,6 +105,9 @@ public abstract class Item implements Comparable
      */
     public void setQuantity(int quantity)
     {
+        if(this.quantity != quantity)
+            this.markChanged(Field.QUANTITY);
+
         this.quantity = quantity;
     }
 
@@ -97,6 +123,7 @@ public abstract class Item implements Comparable
             return;
 
         this.quantity -= quantity;
+        this.markChanged(Field.QUANTITY);
     }
 
 
@@ -111,10 +138,13 @@ public abstract class Item implements Comparable
      */
     public void setPrice(double price)
     {
-        if(price >= 0)
-            this.price = price;
-        else
-            this.price = 0.0;
+        if(price < 0)
+            price = 0.0;
+
+        if(this.price != price)
+            this.markChanged(Field.PRICE);
+
+        this.price = price;
     }
 
     public Category getCategory() {
@@ -122,6 +152,9 @@ public abstract class Item implements Comparable
     }
 
     public void setCategory(Category category) {
+        if(!Objects.equals(idOf(this.category), idOf(category)))
+            this.markChanged(Field.CATEGORY);
+
         this.category = category;
     }
 
@@ -131,8 +164,55 @@ public abstract class Item implements Comparable
 
     public void setLocation(Location location)
     {
-        if(location != null)
-            this.location = location;
+        if(location == null)
+            return;
+
+        if(this.location == null || !Objects.equals(this.location.getID(), location.getID()))
+            this.markChanged(Field.LOCATION);
+
+        this.location = location;
+    }
+
+
+    /**
+     * Returns the fields changed since the item was
+     * built or since they were last cleared.
+     * @return Copy of the changed fields
+     */
+    public Set<Field> getChanges()
+    {
+        return EnumSet.copyOf(this.changes);
+    }
+
+
+    /**
+     * Marks fields as saved.
+     * @param fields Fields that were saved
+     */
+    public void clearChanges(Collection<Field> fields)
+    {
+        this.changes.removeAll(fields);
+    }
+
+
+    /**
+     * Records that a field was changed.
+     * @param field Changed field
+     */
+    protected void markChanged(Field field)
+    {
+        this.changes.add(field);
+    }
+
+
+    /**
+     * Returns the ID of category or null.
+     * @param category Category or null
+     * @return ID of category
+     */
+    private static String idOf(Category category)
+    {
+        return (category != null) ? category.getID() : null;
     }
 
     @Override
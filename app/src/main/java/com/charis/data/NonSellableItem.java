@@ -2,6 +2,7 @@ package com.charis.data;
 
 import com.charis.data.Enum.Condition;
 import java.util.Date;
+import java.util.EnumSet;
 
 
 /**
@@ -28,6 +29,7 @@ public final class NonSellableItem extends Item
     {
         super(id, date, desc, quant, c, value, cat, loc);
         this.setSource(source);
+        this.clearChanges(EnumSet.of(Field.SOURCE)); // Nothing changed yet
     }
 
     public String getSource() {
@@ -41,9 +43,12 @@ public final class NonSellableItem extends Item
      */
     public void setSource(String source)
     {
-        if(source != null)
-            this.source = source;
-        else
-            this.source = "";
+        if(source == null)
+            source = "";
+
+        if(!source.equals(this.source))
+            this.markChanged(Field.SOURCE);
+
+        this.source = source;
     }
 }
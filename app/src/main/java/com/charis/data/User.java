@@ -1,17 +1,31 @@
 package com.charis.data;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * Encapsulates the properties of a user.
  */
 public final class User implements Serializable
 {
+    /**
+     * Fields saved by Database.updateUser(). The
+     * password is saved by updatePassword() instead.
+     */
+    public enum Field
+    {
+        FIRST_NAME, LAST_NAME, ADMIN, ACTIVE
+    }
+
     private final String username;
     private String firstName;
     private String lastName;
     private String password;
     private boolean admin; // Is the user an admin?
     private boolean active; // Inactive accounts cannot log in
+    private final EnumSet<Field> changes = EnumSet.noneOf(Field.class); // Changed since built or saved
 
 
     /**
@@ -31,6 +45,7 @@ public final class User implements Serializable
         this.setPassword(pass);
         this.setAdmin(admin);
         this.setActive(active);
+        this.changes.clear(); // Nothing changed yet
     }
 
 
@@ -41,6 +56,9 @@ public final class User implements Serializable
 
     public void setFirstName(String s)
     {
+        if(!Objects.equals(this.firstName, s))
+            this.changes.add(Field.FIRST_NAME);
+
         this.firstName = s;
     }
 
@@ -50,6 +68,9 @@ public final class User implements Serializable
 
     public void setLastName(String s)
     {
+        if(!Objects.equals(this.lastName, s))
+            this.changes.add(Field.LAST_NAME);
+
         this.lastName = s;
     }
 
@@ -72,6 +93,9 @@ public final class User implements Serializable
 
     public void setAdmin(boolean admin)
     {
+        if(this.admin != admin)
+            this.changes.add(Field.ADMIN);
+
         this.admin = admin;
     }
 
@@ -80,6 +104,30 @@ public final class User implements Serializable
     }
 
     public void setActive(boolean active) {
+        if(this.active != active)
+            this.changes.add(Field.ACTIVE);
+
         this.active = active;
     }
+
+
+    /**
+     * Returns the fields changed since the user was
+     * built or since they were last cleared.
+     * @return Copy of the changed fields
+     */
+    public Set<Field> getChanges()
+    {
+        return EnumSet.copyOf(this.changes);
+    }
+
+
+    /**
+     * Marks fields as saved.
+     * @param fields Fields that were saved
+     */
+    public void clearChanges(Collection<Field> fields)
+    {
+        this.changes.removeAll(fields);
+    }
 }
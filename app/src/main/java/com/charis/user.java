@@ -17,7 +17,12 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.charis.util.Database;
+import com.charis.util.Result;
 import com.charis.data.User;
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 
 public class user extends AppCompatActivity {
 
@@ -34,7 +39,7 @@ public class user extends AppCompatActivity {
         setContentView(R.layout.activity_user);
 
         //open the database
-        this.database = new Database();
+        this.database = Database.acquire();
         this.user = null;
 
         // Linking buttons
@@ -56,13 +61,20 @@ public class user extends AppCompatActivity {
             {
                 if(s.length() > 0)
                 {
-                    User u = database.getUser(s.toString()); // Look for user
-
-                    if (u != null)
+                    final String typed = s.toString();
+                    database.lookupUserAsync(typed).addOnCompleteListener(user.this, new OnCompleteListener<Result<User>>()
                     {
-                        user = u;
-                        fillForm(user);
-                    }
+                        @Override
+                        public void onComplete(Task<Result<User>> task)
+                        {
+                            Result<User> r = Database.resultOf(task); // Look for user
+                            if(r == null || !r.isOk() || !typed.equals(name.getText().toString())) // Missing or typed over
+                                return;
+
+                            user = r.getValue();
+                            fillForm(user);
+                        }
+                    });
                 }
             }
 
@@ -124,7 +136,6 @@ public class user extends AppCompatActivity {
         String first_name = firstname.getText().toString();
         String last_name = lastname.getText().toString();
 
-        boolean success;
         Context context = getApplicationContext();
         int duration = Toast.LENGTH_SHORT;
 
@@ -132,12 +143,14 @@ public class user extends AppCompatActivity {
 
         if(user != null) //update user if exist
         {
+            final User u = user;
+            Task<Boolean> passwordTask;
             if(pass.length() > 0) // Check if password should update
             {
                 if(pass.equals(pass1))
                 {
-                    user.setPassword(pass); // Set new password
-                    update = this.database.updatePassword(user); //updates to new password
+                    u.setPassword(pass); // Set new password
+                    passwordTask = this.database.updatePasswordAsync(u); //updates to new password
                 }
                 else
                 {
@@ -147,26 +160,40 @@ public class user extends AppCompatActivity {
                 }
             }
             else
-                update = true; // Assume no password update
-
-
-            // Update user data
-            user.setFirstName(first_name);
-            user.setLastName(last_name);
-            user.setAdmin(admin);
-            user.setActive(active);
-            success = database.updateUser(user);
+                passwordTask = Tasks.forResult(true); // Assume no password update
 
 
-            if (update && success)
+            // Update user data once the password is saved
+            u.setFirstName(first_name);
+            u.setLastName(last_name);
+            u.setAdmin(admin);
+            u.setActive(active);
+            passwordTask.continueWithTask(new Continuation<Boolean, Task<Boolean>>()
             {
-                Toast.makeText(this, "Update Success", Toast.LENGTH_SHORT).show();
-                clear_form();
-            }
-            else
+                @Override
+                public Task<Boolean> then(Task<Boolean> task)
+                {
+                    update = Boolean.TRUE.equals(Database.resultOf(task));
+                    return database.updateUserAsync(u);
+                }
+            }).addOnCompleteListener(this, new OnCompleteListener<Boolean>()
             {
-                Toast.makeText(this, "Update Failed", Toast.LENGTH_SHORT).show();
-            }
+                @Override
+                public void onComplete(Task<Boolean> task)
+                {
+                    boolean success = Boolean.TRUE.equals(Database.resultOf(task));
+
+                    if (update && success)
+                    {
+                        Toast.makeText(user.this, "Update Success", Toast.LENGTH_SHORT).show();
+                        clear_form();
+                    }
+                    else
+                    {
+                        Toast.makeText(user.this, "Update Failed", Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
         else //create new user
         {
@@ -0,0 +1,206 @@
+package com.charis.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+
+
+/**
+ * One total of a report: a measure summed per group,
+ * such as the amount sold by each user. Any number of
+ * aggregates are filled by one pass of
+ * Database.aggregate(). Groups hold longs, with money
+ * in cents.
+ */
+public final class Aggregate
+{
+    /**
+     * What distributions or lines are grouped by.
+     */
+    public enum Key
+    {
+        USER(false), DAY(false), HOUR(false), CATEGORY(true), SELLABLE(true), ITEM(true);
+
+        final boolean line; // True if it needs Dist_Item records
+
+        Key(boolean line)
+        {
+            this.line = line;
+        }
+    }
+
+    /**
+     * What is summed in each group.
+     */
+    public enum Measure
+    {
+        DISTRIBUTIONS(false), AMOUNT(false), LINES(false), QUANTITY(true), VALUE(true);
+
+        final boolean line; // True if it needs Dist_Item records
+
+        Measure(boolean line)
+        {
+            this.line = line;
+        }
+    }
+
+    private final Key key;
+    private final Measure measure;
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private String[] labels = new String[16];
+    private long[] values = new long[16];
+    private int size;
+
+
+    /**
+     * Builds an empty aggregate. Line keys take only
+     * LINES, QUANTITY or VALUE, since a distribution's
+     * amount can't be split between its lines.
+     * @param key What to group by
+     * @param measure What to sum
+     */
+    public Aggregate(Key key, Measure measure)
+    {
+        if(key.line && !(measure == Measure.LINES || measure.line))
+            throw new IllegalArgumentException(measure + " can't be grouped by " + key);
+
+        this.key = key;
+        this.measure = measure;
+        reset();
+    }
+
+
+    public Key getKey()
+    {
+        return this.key;
+    }
+
+    public Measure getMeasure()
+    {
+        return this.measure;
+    }
+
+    /**
+     * Returns the number of groups.
+     * @return Number of groups
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    public String getLabel(int i)
+    {
+        return this.labels[i];
+    }
+
+    /**
+     * Returns the sum of a group.
+     * @param i Index of group
+     * @return Sum, in cents for AMOUNT and VALUE
+     */
+    public long getValue(int i)
+    {
+        return this.values[i];
+    }
+
+    /**
+     * Returns the sum of a group in dollars.
+     * @param i Index of group
+     * @return Sum / 100
+     */
+    public double getDollars(int i)
+    {
+        return this.values[i] / 100.0;
+    }
+
+
+    /**
+     * Returns the sum of a group by its label.
+     * @param label Label of group
+     * @return Sum or 0 if the group is empty
+     */
+    public long getValue(String label)
+    {
+        Integer i = this.slots.get(label);
+        return (i != null) ? this.values[i] : 0;
+    }
+
+
+    /**
+     * Returns the group indexes from the largest sum
+     * to the smallest.
+     * @return Indexes of groups
+     */
+    public Integer[] byValue()
+    {
+        Integer[] order = new Integer[this.size];
+        for(int i = 0; i < order.length; i++)
+        {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                long x = values[a];
+                long y = values[b];
+                return (x < y) ? 1 : (x > y) ? -1 : 0;
+            }
+        });
+
+        return order;
+    }
+
+
+    /**
+     * Returns the index of a group, adding it if new.
+     * @param label Label of group
+     * @return Index of group
+     */
+    int slot(String label)
+    {
+        Integer i = this.slots.get(label);
+        if(i != null)
+            return i;
+
+        if(this.size == this.labels.length)
+        {
+            this.labels = Arrays.copyOf(this.labels, this.size * 2);
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+        }
+
+        this.labels[this.size] = label;
+        this.slots.put(label, this.size);
+        return this.size++;
+    }
+
+
+    /**
+     * Removes every group.
+     */
+    void reset()
+    {
+        this.slots.clear();
+        Arrays.fill(this.labels, null);
+        Arrays.fill(this.values, 0);
+        this.size = 0;
+
+        if(this.key == Key.HOUR) // Group i is hour i
+        {
+            for(int h = 0; h < 24; h++)
+            {
+                slot(String.format(Locale.US, "%02d:00", h));
+            }
+        }
+    }
+
+
+    void add(int slot, long value)
+    {
+        this.values[slot] += value;
+    }
+}
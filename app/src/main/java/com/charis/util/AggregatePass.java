@@ -0,0 +1,196 @@
+package com.charis.util;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+
+/**
+ * Feeds every aggregate of a report from one stream of
+ * distributions, each followed by its lines. Group
+ * indexes of a distribution are found once and reused
+ * for its lines; the day and hour are kept for the
+ * current hour, so a Calendar is only used when the
+ * hour changes.
+ */
+final class AggregatePass
+{
+    private final Aggregate[] aggregates;
+    private final int[] slot; // Group of the current distribution in each aggregate
+    private final boolean lines;
+    private final Calendar cal = Calendar.getInstance();
+    private long hourStart = Long.MAX_VALUE; // Bounds of the hour last seen
+    private long hourEnd = Long.MIN_VALUE;
+    private int hour;
+    private int dayNumber = -1; // Year * 400 + day of year
+    private String day;
+    private int count;
+
+
+    AggregatePass(Aggregate[] aggregates)
+    {
+        this.aggregates = aggregates;
+        this.slot = new int[aggregates.length];
+
+        boolean lines = false;
+        for(Aggregate a : aggregates)
+        {
+            lines |= a.getKey().line || a.getMeasure().line;
+        }
+        this.lines = lines;
+    }
+
+
+    /**
+     * Checks if any aggregate needs Dist_Item records.
+     * If none does, distributions alone are passed.
+     * @return True if lines are needed
+     */
+    boolean needsLines()
+    {
+        return this.lines;
+    }
+
+
+    /**
+     * Returns the number of distributions passed.
+     * @return Number of distributions
+     */
+    int count()
+    {
+        return this.count;
+    }
+
+
+    /**
+     * Empties every aggregate so the pass can start over.
+     */
+    void reset()
+    {
+        for(Aggregate a : this.aggregates)
+        {
+            a.reset();
+        }
+
+        this.count = 0;
+    }
+
+
+    /**
+     * Passes a distribution. Its lines follow.
+     * @param time Epoch ms
+     * @param cents Total + tax in cents
+     * @param user Username or null
+     * @param lines Number of lines
+     */
+    void distribution(long time, long cents, String user, int lines)
+    {
+        this.count++;
+        if(time < this.hourStart || time >= this.hourEnd)
+            moveToHour(time);
+
+        for(int i = 0; i < this.aggregates.length; i++)
+        {
+            Aggregate a = this.aggregates[i];
+            int s;
+            switch(a.getKey())
+            {
+                case USER:
+                    s = a.slot((user != null) ? user : "");
+                    break;
+                case DAY:
+                    s = a.slot(this.day);
+                    break;
+                case HOUR:
+                    s = this.hour; // First 24 slots are the hours
+                    break;
+                default: // Grouped by line
+                    continue;
+            }
+
+            this.slot[i] = s;
+            switch(a.getMeasure())
+            {
+                case DISTRIBUTIONS:
+                    a.add(s, 1);
+                    break;
+                case AMOUNT:
+                    a.add(s, cents);
+                    break;
+                case LINES:
+                    a.add(s, lines);
+                    break;
+            }
+        }
+    }
+
+
+    /**
+     * Passes a line of the last distribution.
+     * @param item Barcode of item
+     * @param sellable True for sellable, false for nonsellable
+     * @param quantity Quantity distributed
+     * @param price Price of item in cents
+     * @param category Category name or null
+     */
+    void line(String item, boolean sellable, int quantity, long price, String category)
+    {
+        for(int i = 0; i < this.aggregates.length; i++)
+        {
+            Aggregate a = this.aggregates[i];
+            int s;
+            switch(a.getKey())
+            {
+                case CATEGORY:
+                    s = a.slot((category != null) ? category : "");
+                    break;
+                case SELLABLE:
+                    s = a.slot(sellable ? "For Sale" : "For Free");
+                    break;
+                case ITEM:
+                    s = a.slot(item);
+                    break;
+                default: // Grouped by distribution
+                    if(!a.getMeasure().line)
+                        continue;
+
+                    s = this.slot[i];
+            }
+
+            switch(a.getMeasure())
+            {
+                case LINES:
+                    a.add(s, 1);
+                    break;
+                case QUANTITY:
+                    a.add(s, quantity);
+                    break;
+                case VALUE:
+                    a.add(s, quantity * price);
+                    break;
+            }
+        }
+    }
+
+
+    /**
+     * Finds the bounds of the hour of a time, and the
+     * label of its day if the day changed.
+     */
+    private void moveToHour(long time)
+    {
+        this.cal.setTimeInMillis(time);
+        this.hour = this.cal.get(Calendar.HOUR_OF_DAY);
+        this.cal.set(Calendar.MINUTE, 0);
+        this.cal.set(Calendar.SECOND, 0);
+        this.cal.set(Calendar.MILLISECOND, 0);
+        this.hourStart = this.cal.getTimeInMillis();
+        this.hourEnd = this.hourStart + 3600000L;
+
+        int number = this.cal.get(Calendar.YEAR) * 400 + this.cal.get(Calendar.DAY_OF_YEAR);
+        if(number != this.dayNumber)
+        {
+            this.dayNumber = number;
+            this.day = String.format(Locale.US, "%04d-%02d-%02d", this.cal.get(Calendar.YEAR), this.cal.get(Calendar.MONTH) + 1, this.cal.get(Calendar.DAY_OF_MONTH));
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.charis.util;
+
+import com.charis.data.Category;
+import com.charis.data.Enum.Condition;
+import com.charis.data.Kit;
+import com.charis.data.Location;
+import com.charis.data.NonSellableItem;
+import com.charis.data.SellableItem;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * In-memory index from barcode to the sellable item,
+ * nonsellable item or kit with that ID. Item, Sellable,
+ * NonSellable and Kit are each mirrored by a
+ * ReferenceCache, so the index loads once and is kept
+ * current by snapshot listeners. Lookups answer only
+ * when the mirrors can: a hit, or a miss in a complete
+ * mirror. Anything else is left to the database.
+ * Listener events, and the image deltas they send,
+ * run in order on one background thread, so copying
+ * large snapshots never holds the main thread.
+ */
+final class BarcodeIndex
+{
+    /**
+     * Decoder that keeps the raw fields.
+     */
+    private static final ReferenceCache.Decoder<Map<String, Object>> FIELDS = new ReferenceCache.Decoder<Map<String, Object>>()
+    {
+        @Override
+        public Map<String, Object> decode(String id, Map<String, Object> data)
+        {
+            return new HashMap<>(data);
+        }
+    };
+
+    /**
+     * Runs the snapshot events of every mirror in order.
+     */
+    private static final ExecutorService EVENTS = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "BarcodeIndex-events");
+            t.setDaemon(true); // Never keep the process alive
+            return t;
+        }
+    });
+
+    private final ReferenceCache<Map<String, Object>> items;
+    private final ReferenceCache<Map<String, Object>> sellables;
+    private final ReferenceCache<Map<String, Object>> nonSellables;
+    private final ReferenceCache<Map<String, Object>> kits;
+    private final ReferenceCache<Category> categories;
+    private final ReferenceCache<Location> locations;
+    private final int maxSize;
+    private final LinkedHashSet<String> unresolved = new LinkedHashSet<>(); // Changed but not resolvable yet
+    private CatalogImage image; // Told about changes, null for none
+
+
+    /**
+     * Builds an empty index.
+     * @param maxSize Most documents kept from each collection
+     * @param ttl Time in ms entries are trusted without the listeners
+     * @param categories Cache used to name item categories
+     * @param locations Cache used to name item locations
+     */
+    BarcodeIndex(int maxSize, long ttl, ReferenceCache<Category> categories, ReferenceCache<Location> locations)
+    {
+        this.items = new ReferenceCache<>("Item", maxSize, ttl, FIELDS, EVENTS);
+        this.sellables = new ReferenceCache<>("Sellable", maxSize, ttl, FIELDS, EVENTS);
+        this.nonSellables = new ReferenceCache<>("NonSellable", maxSize, ttl, FIELDS, EVENTS);
+        this.kits = new ReferenceCache<>("Kit", maxSize, ttl, FIELDS, EVENTS);
+        this.maxSize = maxSize;
+        this.categories = categories;
+        this.locations = locations;
+    }
+
+
+    /**
+     * Attaches the snapshot listeners to db.
+     * @param db Firestore instance
+     */
+    void listen(FirebaseFirestore db)
+    {
+        this.items.listen(db);
+        this.sellables.listen(db);
+        this.nonSellables.listen(db);
+        this.kits.listen(db);
+    }
+
+
+    /**
+     * Removes the snapshot listeners from db.
+     * @param db Firestore instance being closed
+     */
+    void stop(FirebaseFirestore db)
+    {
+        this.items.stop(db);
+        this.sellables.stop(db);
+        this.nonSellables.stop(db);
+        this.kits.stop(db);
+    }
+
+
+    /**
+     * Sends every barcode the listeners change to image
+     * as a delta. Barcodes that can't be resolved yet,
+     * because another mirror hasn't loaded, are tried
+     * again on the next change.
+     * @param image Catalog image to keep current
+     */
+    void mirrorTo(CatalogImage image)
+    {
+        synchronized(this.unresolved)
+        {
+            this.image = image;
+        }
+
+        ReferenceCache.ChangeListener listener = new ReferenceCache.ChangeListener()
+        {
+            @Override
+            public void onChanged(List<String> ids)
+            {
+                publish(ids);
+            }
+        };
+
+        this.items.setChangeListener(listener);
+        this.sellables.setChangeListener(listener);
+        this.nonSellables.setChangeListener(listener);
+        this.kits.setChangeListener(listener);
+    }
+
+
+    /**
+     * Resolves changed barcodes and any left over from
+     * before, and sends the ones that resolve to the image.
+     * @param ids Changed barcodes
+     */
+    private void publish(List<String> ids)
+    {
+        synchronized(this.unresolved)
+        {
+            if(this.image == null)
+                return;
+
+            this.unresolved.addAll(ids);
+            Iterator<String> it = this.unresolved.iterator();
+            for(int extra = this.unresolved.size() - this.maxSize; extra > 0; extra--) // Drop the oldest
+            {
+                it.next();
+                it.remove();
+            }
+
+
+            while(it.hasNext())
+            {
+                String id = it.next();
+                BarcodeMatch m = resolve(id);
+                if(m != null)
+                {
+                    this.image.put(id, m);
+                    it.remove();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Resolves a barcode against the index.
+     * @param id Barcode
+     * @return Match, possibly empty, or null if the index can't tell
+     */
+    BarcodeMatch resolve(String id)
+    {
+        Result<SellableItem> sell = findSellable(id);
+        Result<NonSellableItem> nonSell = findNonSellable(id);
+        Result<Kit> kit = findKit(id);
+
+        if(sell == null || nonSell == null || kit == null)
+            return null;
+
+        return new BarcodeMatch(sell.getValue(), nonSell.getValue(), kit.getValue());
+    }
+
+
+    /**
+     * Looks up a sellable item.
+     * @param id Barcode
+     * @return OK, NOT_FOUND or null if the index can't tell
+     */
+    Result<SellableItem> findSellable(String id)
+    {
+        Map<String, Object> type = this.sellables.get(id);
+        if(type == null)
+            return this.sellables.isComplete() ? Result.<SellableItem>notFound() : null;
+
+        Map<String, Object> item = this.items.get(id);
+        if(item == null)
+            return this.items.isComplete() ? Result.<SellableItem>notFound() : null;
+
+        Category cat = category((String) item.get("category"));
+        Location loc = location((String) type.get("location"));
+        if(cat == null || loc == null)
+            return null;
+
+        return Result.ok(new SellableItem(id, received(item), (String) item.get("description"), quantity(type),
+                condition(item), price(item), cat, loc));
+    }
+
+
+    /**
+     * Looks up a nonsellable item.
+     * @param id Barcode
+     * @return OK, NOT_FOUND or null if the index can't tell
+     */
+    Result<NonSellableItem> findNonSellable(String id)
+    {
+        Map<String, Object> type = this.nonSellables.get(id);
+        if(type == null)
+            return this.nonSellables.isComplete() ? Result.<NonSellableItem>notFound() : null;
+
+        Map<String, Object> item = this.items.get(id);
+        if(item == null)
+            return this.items.isComplete() ? Result.<NonSellableItem>notFound() : null;
+
+        Category cat = category((String) item.get("category"));
+        Location loc = location((String) type.get("location"));
+        if(cat == null || loc == null)
+            return null;
+
+        return Result.ok(new NonSellableItem(id, received(item), (String) item.get("description"), quantity(type),
+                condition(item), price(item), cat, (String) type.get("source"), loc));
+    }
+
+
+    /**
+     * Looks up a kit.
+     * @param id Barcode
+     * @return OK, NOT_FOUND or null if the index can't tell
+     */
+    Result<Kit> findKit(String id)
+    {
+        Map<String, Object> kit = this.kits.get(id);
+        if(kit == null)
+            return this.kits.isComplete() ? Result.<Kit>notFound() : null;
+
+        return Result.ok(new Kit(id, (String) kit.get("name"), (String) kit.get("description")));
+    }
+
+
+    /**
+     * Returns the category with ID, a blank one if
+     * the complete cache doesn't have it, or null if
+     * the cache can't tell.
+     * @param id ID of category
+     * @return Category or null
+     */
+    private Category category(String id)
+    {
+        Category c = this.categories.get(id);
+        if(c == null && this.categories.isComplete()) // Missing from database
+            c = new Category(id, "");
+
+        return c;
+    }
+
+
+    /**
+     * Returns the location with ID, a blank one if
+     * the complete cache doesn't have it, or null if
+     * the cache can't tell.
+     * @param id ID of location
+     * @return Location or null
+     */
+    private Location location(String id)
+    {
+        Location l = this.locations.get(id);
+        if(l == null && this.locations.isComplete()) // Missing from database
+            l = new Location(id, "");
+
+        return l;
+    }
+
+
+    private static Date received(Map<String, Object> item)
+    {
+        Object o = item.get("received");
+        return (o instanceof Timestamp) ? ((Timestamp) o).toDate() : (Date) o;
+    }
+
+    private static Condition condition(Map<String, Object> item)
+    {
+        return Condition.toCondition(((Number) item.get("condition")).longValue());
+    }
+
+    private static double price(Map<String, Object> item)
+    {
+        return ((Number) item.get("price")).doubleValue();
+    }
+
+    private static int quantity(Map<String, Object> type)
+    {
+        return ((Number) type.get("quantity")).intValue();
+    }
+}
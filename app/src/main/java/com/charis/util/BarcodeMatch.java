@@ -0,0 +1,58 @@
+package com.charis.util;
+
+import com.charis.data.Kit;
+import com.charis.data.NonSellableItem;
+import com.charis.data.SellableItem;
+
+
+/**
+ * Everything a barcode refers to. Items and kits share
+ * one ID space and an item can be both sellable and
+ * nonsellable, so any of the three may be set.
+ */
+public final class BarcodeMatch
+{
+    private final SellableItem sellable;
+    private final NonSellableItem nonSellable;
+    private final Kit kit;
+
+
+    /**
+     * Builds a match.
+     * @param sell Sellable item or null
+     * @param nonSell Nonsellable item or null
+     * @param kit Kit or null
+     */
+    BarcodeMatch(SellableItem sell, NonSellableItem nonSell, Kit kit)
+    {
+        this.sellable = sell;
+        this.nonSellable = nonSell;
+        this.kit = kit;
+    }
+
+
+    public SellableItem getSellable()
+    {
+        return this.sellable;
+    }
+
+    public NonSellableItem getNonSellable()
+    {
+        return this.nonSellable;
+    }
+
+    public Kit getKit()
+    {
+        return this.kit;
+    }
+
+
+    /**
+     * Checks if the barcode matched nothing.
+     * @return True if no item or kit has the barcode
+     */
+    public boolean isEmpty()
+    {
+        return this.sellable == null && this.nonSellable == null && this.kit == null;
+    }
+}
@@ -0,0 +1,51 @@
+package com.charis.util;
+
+
+/**
+ * One barcode in the catalog manifest: an item with
+ * its description or a kit with its name.
+ */
+public final class CatalogEntry
+{
+    /**
+     * What the barcode belongs to.
+     */
+    public enum Kind
+    {
+        ITEM, KIT
+    }
+
+    private final String id;
+    private final String name;
+    private final Kind kind;
+
+
+    /**
+     * Builds an entry.
+     * @param id Barcode
+     * @param name Item description or kit name
+     * @param kind Item or kit
+     */
+    CatalogEntry(String id, String name, Kind kind)
+    {
+        this.id = id;
+        this.name = name;
+        this.kind = kind;
+    }
+
+
+    public String getID()
+    {
+        return this.id;
+    }
+
+    public String getName()
+    {
+        return this.name;
+    }
+
+    public Kind getKind()
+    {
+        return this.kind;
+    }
+}
@@ -0,0 +1,529 @@
+package com.charis.util;
+
+import com.charis.data.Category;
+import com.charis.data.Enum.Condition;
+import com.charis.data.Item;
+import com.charis.data.Kit;
+import com.charis.data.Location;
+import com.charis.data.NonSellableItem;
+import com.charis.data.SellableItem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Binary snapshot of every barcode, memory-mapped so
+ * scans resolve from the first frame after a cold start,
+ * before any listener has answered. The file holds a
+ * header, fixed-size records sorted by barcode bytes,
+ * and a pool of length-prefixed UTF-8 strings the
+ * records point into. Lookups binary search the mapped
+ * records without reading the file. Changes from the
+ * live data are kept as deltas over the mapping and
+ * written out together in the background: a new file
+ * is written next to the old one, synced and renamed
+ * over it, then mapped in its place.
+ */
+final class CatalogImage
+{
+    private static final int MAGIC = 0x43484931; // "CHI1"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16; // magic, version, count, pool offset
+
+    // Record layout, offsets in bytes
+    private static final int KEY = 0;
+    private static final int FLAGS = 4;
+    private static final int CONDITION = 5;
+    private static final int PRICE = 8;
+    private static final int RECEIVED = 16;
+    private static final int SELL_QUANTITY = 24;
+    private static final int NONSELL_QUANTITY = 28;
+    private static final int DESCRIPTION = 32;
+    private static final int CATEGORY = 36; // ID, then name
+    private static final int SELL_LOCATION = 44; // ID, then name
+    private static final int NONSELL_LOCATION = 52; // ID, then name
+    private static final int SOURCE = 60;
+    private static final int KIT_NAME = 64;
+    private static final int KIT_DESCRIPTION = 68;
+    private static final int RECORD = 72;
+
+    private static final int HAS_SELLABLE = 1;
+    private static final int HAS_NONSELLABLE = 2;
+    private static final int HAS_KIT = 4;
+
+    private static final int NO_STRING = -1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    /**
+     * Delay that lets a burst of deltas, such as a first
+     * listener snapshot, go out in one write.
+     */
+    private static final long WRITE_DELAY = 2000; // ms
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "CatalogImage-writer");
+            t.setDaemon(true); // Never keep the process alive
+            return t;
+        }
+    });
+
+    private final File file;
+    private volatile ByteBuffer image; // Mapped file, null if none
+    private final HashMap<String, BarcodeMatch> deltas = new HashMap<>(); // Newer than the image, empty match if deleted
+    private boolean scheduled; // A write is pending
+
+
+    /**
+     * Builds an image backed by file. Nothing
+     * is read until open().
+     * @param file Image file
+     */
+    CatalogImage(File file)
+    {
+        this.file = file;
+    }
+
+
+    /**
+     * Maps the image file. A missing or unreadable file
+     * leaves the image empty until the first write.
+     */
+    void open()
+    {
+        this.image = map(this.file);
+    }
+
+
+    /**
+     * Resolves a barcode against the deltas, then the
+     * mapped file. Safe to call on the UI thread.
+     * @param id Barcode
+     * @return Match, possibly empty, or null if the image doesn't have it
+     */
+    BarcodeMatch resolve(String id)
+    {
+        synchronized(this)
+        {
+            BarcodeMatch delta = this.deltas.get(id);
+            if(delta != null)
+                return delta;
+        }
+
+        ByteBuffer buf = this.image;
+        if(buf == null)
+            return null;
+
+        int at = find(buf, id.getBytes(UTF8));
+        return (at >= 0) ? read(buf, at) : null;
+    }
+
+
+    /**
+     * Records what a barcode refers to now and
+     * schedules a rewrite of the file.
+     * @param id Barcode
+     * @param match Current match, empty if the barcode is gone
+     */
+    synchronized void put(String id, BarcodeMatch match)
+    {
+        this.deltas.put(id, match);
+        if(this.scheduled)
+            return;
+
+        this.scheduled = true;
+        WRITER.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                rewrite();
+            }
+        }, WRITE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Merges the deltas into a new file, swaps it in
+     * and drops the deltas it holds. Runs on the writer.
+     */
+    private void rewrite()
+    {
+        HashMap<String, BarcodeMatch> written;
+        synchronized(this)
+        {
+            this.scheduled = false;
+            written = new HashMap<>(this.deltas);
+        }
+
+        // Records of the old image with the deltas over them
+        TreeMap<byte[], BarcodeMatch> all = new TreeMap<>(BYTES);
+        ByteBuffer old = this.image;
+        if(old != null)
+        {
+            int count = old.getInt(8);
+            for(int i = 0; i < count; i++)
+            {
+                int at = HEADER + i * RECORD;
+                all.put(readString(old, at + KEY).getBytes(UTF8), read(old, at));
+            }
+        }
+
+        for(Map.Entry<String, BarcodeMatch> e : written.entrySet())
+        {
+            if(e.getValue().isEmpty())
+                all.remove(e.getKey().getBytes(UTF8));
+            else
+                all.put(e.getKey().getBytes(UTF8), e.getValue());
+        }
+
+        File tmp = new File(this.file.getPath() + ".tmp");
+        try
+        {
+            writeFile(tmp, all);
+            if(!tmp.renameTo(this.file)) // Atomic on the same file system
+                throw new IOException("rename failed");
+        }
+        catch(IOException e) // Keep the deltas, the next put tries again
+        {
+            tmp.delete();
+            return;
+        }
+
+        ByteBuffer mapped = map(this.file);
+        synchronized(this)
+        {
+            this.image = mapped;
+            for(Map.Entry<String, BarcodeMatch> e : written.entrySet())
+            {
+                if(this.deltas.get(e.getKey()) == e.getValue()) // Not replaced while writing
+                    this.deltas.remove(e.getKey());
+            }
+        }
+    }
+
+
+    /**
+     * Writes and syncs an image file.
+     * @param out File to write
+     * @param all Matches by barcode bytes in order
+     * @throws IOException If the file can't be written
+     */
+    private static void writeFile(File out, TreeMap<byte[], BarcodeMatch> all) throws IOException
+    {
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        DataOutputStream strings = new DataOutputStream(pool);
+        ByteBuffer records = ByteBuffer.allocate(all.size() * RECORD);
+
+        int i = 0;
+        for(Map.Entry<byte[], BarcodeMatch> e : all.entrySet())
+        {
+            writeRecord(records, i++ * RECORD, e.getKey(), e.getValue(), strings);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(all.size()).putInt(HEADER + all.size() * RECORD);
+
+        FileOutputStream fos = new FileOutputStream(out);
+        try
+        {
+            fos.write(header.array());
+            fos.write(records.array());
+            fos.write(pool.toByteArray());
+            fos.getFD().sync(); // On disk before the rename
+        }
+        finally
+        {
+            fos.close();
+        }
+    }
+
+
+    /**
+     * Packs one match into a record.
+     */
+    private static void writeRecord(ByteBuffer buf, int at, byte[] key, BarcodeMatch m, DataOutputStream pool) throws IOException
+    {
+        SellableItem sell = m.getSellable();
+        NonSellableItem nonSell = m.getNonSellable();
+        Kit kit = m.getKit();
+        Item item = (sell != null) ? sell : nonSell; // Both share the Item fields
+
+        int flags = ((sell != null) ? HAS_SELLABLE : 0) | ((nonSell != null) ? HAS_NONSELLABLE : 0) | ((kit != null) ? HAS_KIT : 0);
+        buf.putInt(at + KEY, addString(pool, key));
+        buf.put(at + FLAGS, (byte) flags);
+
+        if(item != null)
+        {
+            Date received = item.getReceived();
+            buf.put(at + CONDITION, (byte) Condition.toInt(item.getCondition()));
+            buf.putDouble(at + PRICE, item.getPrice());
+            buf.putLong(at + RECEIVED, (received != null) ? received.getTime() : NO_DATE);
+            buf.putInt(at + DESCRIPTION, addString(pool, item.getDescription()));
+            putCategory(buf, at + CATEGORY, item.getCategory(), pool);
+        }
+        else
+            putEmptyItem(buf, at);
+
+        buf.putInt(at + SELL_QUANTITY, (sell != null) ? sell.getQuantity() : 0);
+        putLocation(buf, at + SELL_LOCATION, (sell != null) ? sell.getLocation() : null, pool);
+
+        buf.putInt(at + NONSELL_QUANTITY, (nonSell != null) ? nonSell.getQuantity() : 0);
+        putLocation(buf, at + NONSELL_LOCATION, (nonSell != null) ? nonSell.getLocation() : null, pool);
+        buf.putInt(at + SOURCE, addString(pool, (nonSell != null) ? nonSell.getSource() : null));
+
+        buf.putInt(at + KIT_NAME, addString(pool, (kit != null) ? kit.getName() : null));
+        buf.putInt(at + KIT_DESCRIPTION, addString(pool, (kit != null) ? kit.getDescription() : null));
+    }
+
+
+    private static void putEmptyItem(ByteBuffer buf, int at)
+    {
+        buf.putLong(at + RECEIVED, NO_DATE);
+        buf.putInt(at + DESCRIPTION, NO_STRING);
+        buf.putInt(at + CATEGORY, NO_STRING);
+        buf.putInt(at + CATEGORY + 4, NO_STRING);
+    }
+
+    private static void putCategory(ByteBuffer buf, int at, Category c, DataOutputStream pool) throws IOException
+    {
+        buf.putInt(at, addString(pool, (c != null) ? c.getID() : null));
+        buf.putInt(at + 4, addString(pool, (c != null) ? c.getName() : null));
+    }
+
+    private static void putLocation(ByteBuffer buf, int at, Location l, DataOutputStream pool) throws IOException
+    {
+        buf.putInt(at, addString(pool, (l != null) ? l.getID() : null));
+        buf.putInt(at + 4, addString(pool, (l != null) ? l.getName() : null));
+    }
+
+    private static int addString(DataOutputStream pool, String s) throws IOException
+    {
+        return (s != null) ? addString(pool, s.getBytes(UTF8)) : NO_STRING;
+    }
+
+    /**
+     * Appends a length-prefixed string to the pool.
+     * @return Offset of the string in the pool
+     */
+    private static int addString(DataOutputStream pool, byte[] bytes) throws IOException
+    {
+        int offset = pool.size();
+        pool.writeInt(bytes.length);
+        pool.write(bytes);
+        return offset;
+    }
+
+
+    /**
+     * Binary searches the records for a barcode.
+     * @param buf Mapped image
+     * @param key Barcode bytes
+     * @return Offset of the record or -1 if missing
+     */
+    private static int find(ByteBuffer buf, byte[] key)
+    {
+        int lo = 0;
+        int hi = buf.getInt(8) - 1;
+        int pool = buf.getInt(12);
+
+        while(lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            int at = HEADER + mid * RECORD;
+            int c = compareKey(buf, pool + buf.getInt(at + KEY), key);
+
+            if(c < 0)
+                lo = mid + 1;
+            else if(c > 0)
+                hi = mid - 1;
+            else
+                return at;
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Compares a pooled string with key as unsigned bytes,
+     * the order the records are written in.
+     */
+    private static int compareKey(ByteBuffer buf, int at, byte[] key)
+    {
+        int len = buf.getInt(at);
+        int n = Math.min(len, key.length);
+
+        for(int i = 0; i < n; i++)
+        {
+            int c = (buf.get(at + 4 + i) & 0xff) - (key[i] & 0xff);
+            if(c != 0)
+                return c;
+        }
+
+        return len - key.length;
+    }
+
+
+    /**
+     * Unpacks the record at an offset.
+     * @param buf Mapped image
+     * @param at Offset of the record
+     * @return Match
+     */
+    private static BarcodeMatch read(ByteBuffer buf, int at)
+    {
+        String id = readString(buf, at + KEY);
+        int flags = buf.get(at + FLAGS);
+
+        SellableItem sell = null;
+        NonSellableItem nonSell = null;
+        Kit kit = null;
+
+        if((flags & (HAS_SELLABLE | HAS_NONSELLABLE)) != 0)
+        {
+            long time = buf.getLong(at + RECEIVED);
+            Date received = (time != NO_DATE) ? new Date(time) : null;
+            String desc = readString(buf, at + DESCRIPTION);
+            Condition cond = Condition.toCondition((int) buf.get(at + CONDITION));
+            double price = buf.getDouble(at + PRICE);
+
+            if((flags & HAS_SELLABLE) != 0)
+                sell = new SellableItem(id, received, desc, buf.getInt(at + SELL_QUANTITY), cond, price,
+                        readCategory(buf, at + CATEGORY), readLocation(buf, at + SELL_LOCATION));
+
+            if((flags & HAS_NONSELLABLE) != 0)
+                nonSell = new NonSellableItem(id, received, desc, buf.getInt(at + NONSELL_QUANTITY), cond, price,
+                        readCategory(buf, at + CATEGORY), readString(buf, at + SOURCE), readLocation(buf, at + NONSELL_LOCATION));
+        }
+
+        if((flags & HAS_KIT) != 0)
+            kit = new Kit(id, readString(buf, at + KIT_NAME), readString(buf, at + KIT_DESCRIPTION));
+
+        return new BarcodeMatch(sell, nonSell, kit);
+    }
+
+
+    private static Category readCategory(ByteBuffer buf, int at)
+    {
+        String name = readString(buf, at + 4);
+        return new Category(readString(buf, at), (name != null) ? name : "");
+    }
+
+    private static Location readLocation(ByteBuffer buf, int at)
+    {
+        String name = readString(buf, at + 4);
+        return new Location(readString(buf, at), (name != null) ? name : "");
+    }
+
+
+    /**
+     * Reads the pooled string a record field points to.
+     * @param buf Mapped image
+     * @param field Offset of the field
+     * @return String or null
+     */
+    private static String readString(ByteBuffer buf, int field)
+    {
+        int offset = buf.getInt(field);
+        if(offset == NO_STRING)
+            return null;
+
+        int at = buf.getInt(12) + offset;
+        byte[] bytes = new byte[buf.getInt(at)];
+        for(int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = buf.get(at + 4 + i);
+        }
+
+        return new String(bytes, UTF8);
+    }
+
+
+    /**
+     * Maps an image file read-only.
+     * @param f Image file
+     * @return Mapped buffer or null if missing or not an image
+     */
+    private static ByteBuffer map(File f)
+    {
+        if(!f.isFile() || f.length() < HEADER)
+            return null;
+
+        RandomAccessFile raf = null;
+        try
+        {
+            raf = new RandomAccessFile(f, "r");
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+
+            if(buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION)
+                return null;
+            if((long) HEADER + (long) buf.getInt(8) * RECORD > buf.getInt(12) || buf.getInt(12) > buf.capacity())
+                return null; // Truncated
+
+            return buf; // Mapping stays valid after close
+        }
+        catch(IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            if(raf != null)
+            {
+                try
+                {
+                    raf.close();
+                }
+                catch(IOException e)
+                {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Orders barcode bytes as unsigned values.
+     */
+    private static final Comparator<byte[]> BYTES = new Comparator<byte[]>()
+    {
+        @Override
+        public int compare(byte[] a, byte[] b)
+        {
+            int n = Math.min(a.length, b.length);
+            for(int i = 0; i < n; i++)
+            {
+                int c = (a[i] & 0xff) - (b[i] & 0xff);
+                if(c != 0)
+                    return c;
+            }
+
+            return a.length - b.length;
+        }
+    };
+}
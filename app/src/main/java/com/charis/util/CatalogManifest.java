@@ -0,0 +1,218 @@
+package com.charis.util;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Packed list of every item and kit barcode with its
+ * description or name. Entries are spread over CHUNKS
+ * documents of the Catalog collection by a hash of the
+ * barcode, each holding a map of barcode to a packed
+ * value: one kind character followed by the text.
+ * Every write to a chunk sets its server time, so a
+ * client queries only the chunks updated after the
+ * last one it read. The head document is written only
+ * by a rebuild, which marks the manifest complete, so
+ * item edits never contend on one document. Chunks
+ * read are kept in memory for the life of the process.
+ */
+final class CatalogManifest
+{
+    static final String COLLECTION = "Catalog";
+    static final String HEAD = "head";
+
+    /**
+     * Number of chunk documents. A chunk holds about ten
+     * thousand entries before reaching the document size limit.
+     */
+    static final int CHUNKS = 16;
+
+    private static final char ITEM = 'I';
+    private static final char KIT = 'K';
+
+    private Timestamp updated = new Timestamp(0, 0); // Latest server time of the chunks held
+    private final HashMap<String, Map<String, Object>> entries = new HashMap<>(); // Packed entries of each chunk
+
+
+    /**
+     * Returns the ID of the chunk holding a barcode.
+     * @param id Barcode
+     * @return Chunk document ID
+     */
+    static String chunkOf(String id)
+    {
+        return chunkName((id.hashCode() & 0x7fffffff) % CHUNKS);
+    }
+
+
+    /**
+     * Returns the ID of a chunk document.
+     * @param index Chunk number
+     * @return Chunk document ID
+     */
+    static String chunkName(int index)
+    {
+        return ((index < 10) ? "chunk_0" : "chunk_") + index;
+    }
+
+
+    /**
+     * Adds or replaces an entry in a write batch.
+     * Uses one write.
+     * @param db Firestore instance
+     * @param batch Batch to add to
+     * @param id Barcode
+     * @param name Item description or kit name
+     * @param kind Item or kit
+     */
+    static void put(FirebaseFirestore db, WriteBatch batch, String id, String name, CatalogEntry.Kind kind)
+    {
+        HashMap<String, Object> entries = new HashMap<>();
+        entries.put(id, pack(name, kind));
+
+        write(db, batch, chunkOf(id), entries);
+    }
+
+
+    /**
+     * Removes entries in a write batch. Uses one write
+     * per chunk touched.
+     * @param db Firestore instance
+     * @param batch Batch to add to
+     * @param ids Barcodes
+     */
+    static void remove(FirebaseFirestore db, WriteBatch batch, Collection<String> ids)
+    {
+        HashMap<String, Map<String, Object>> byChunk = new HashMap<>();
+        for(String id : ids)
+        {
+            Map<String, Object> entries = byChunk.get(chunkOf(id));
+            if(entries == null)
+            {
+                entries = new HashMap<>();
+                byChunk.put(chunkOf(id), entries);
+            }
+
+            entries.put(id, FieldValue.delete());
+        }
+
+        for(Map.Entry<String, Map<String, Object>> e : byChunk.entrySet())
+        {
+            write(db, batch, e.getKey(), e.getValue());
+        }
+    }
+
+
+    /**
+     * Merges entries into a chunk and sets its time.
+     */
+    private static void write(FirebaseFirestore db, WriteBatch batch, String chunk, Map<String, Object> entries)
+    {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("entries", entries);
+        map.put("updated", FieldValue.serverTimestamp());
+
+        batch.set(db.collection(COLLECTION).document(chunk), map, SetOptions.merge());
+    }
+
+
+    /**
+     * Packs an entry into its stored value.
+     * @param name Item description or kit name
+     * @param kind Item or kit
+     * @return Packed value
+     */
+    static String pack(String name, CatalogEntry.Kind kind)
+    {
+        return ((kind == CatalogEntry.Kind.KIT) ? KIT : ITEM) + ((name != null) ? name : "");
+    }
+
+
+    /**
+     * Checks if the head document says the manifest
+     * holds every barcode.
+     * @param head Head document
+     * @return True if built
+     */
+    static boolean isComplete(DocumentSnapshot head)
+    {
+        return head.exists() && Boolean.TRUE.equals(head.getBoolean("complete"));
+    }
+
+
+    /**
+     * Returns the latest time of the chunks held.
+     * Chunks updated after it need to be read.
+     * @return Server time, epoch if none are held
+     */
+    synchronized Timestamp updated()
+    {
+        return this.updated;
+    }
+
+
+    /**
+     * Saves chunks that were read.
+     * @param docs Chunk documents updated since updated()
+     */
+    synchronized void apply(List<DocumentSnapshot> docs)
+    {
+        for(DocumentSnapshot doc : docs)
+        {
+            Object entries = doc.get("entries");
+            Timestamp time = doc.getTimestamp("updated");
+
+            this.entries.put(doc.getId(), (entries instanceof Map) ? (Map<String, Object>) entries : new HashMap<String, Object>());
+            if(time != null && time.compareTo(this.updated) > 0)
+                this.updated = time;
+        }
+    }
+
+
+    /**
+     * Returns every entry held, items first,
+     * each kind ordered by barcode.
+     * @return List of entries
+     */
+    synchronized List<CatalogEntry> entries()
+    {
+        ArrayList<CatalogEntry> list = new ArrayList<>();
+        for(Map<String, Object> chunk : this.entries.values())
+        {
+            for(Map.Entry<String, Object> e : chunk.entrySet())
+            {
+                String packed = String.valueOf(e.getValue());
+                if(packed.isEmpty())
+                    continue;
+
+                CatalogEntry.Kind kind = (packed.charAt(0) == KIT) ? CatalogEntry.Kind.KIT : CatalogEntry.Kind.ITEM;
+                list.add(new CatalogEntry(e.getKey(), packed.substring(1), kind));
+            }
+        }
+
+        Collections.sort(list, new Comparator<CatalogEntry>()
+        {
+            @Override
+            public int compare(CatalogEntry a, CatalogEntry b)
+            {
+                int c = a.getKind().compareTo(b.getKind());
+                return (c != 0) ? c : a.getID().compareTo(b.getID());
+            }
+        });
+
+        return list;
+    }
+}
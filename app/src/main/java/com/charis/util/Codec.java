@@ -0,0 +1,45 @@
+package com.charis.util;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.util.Map;
+
+
+/**
+ * Turns the document of one entity into its object
+ * and back. Decoding reads typed fields straight from
+ * the document map, so it works the same on snapshots,
+ * cached field maps and synthetic data.
+ * @param <T> Type of object
+ */
+abstract class Codec<T> implements ReferenceCache.Decoder<T>
+{
+    /**
+     * Builds an object from document fields.
+     * @param id Document ID
+     * @param data Document fields
+     * @return Decoded object
+     */
+    @Override
+    public abstract T decode(String id, Map<String, Object> data);
+
+
+    /**
+     * Builds the document fields of an object.
+     * @param value Object to write
+     * @return Fields to set
+     */
+    abstract Map<String, Object> encode(T value);
+
+
+    /**
+     * Builds an object from a snapshot.
+     * @param snap Document snapshot
+     * @return Decoded object or null if the document doesn't exist
+     */
+    final T decode(DocumentSnapshot snap)
+    {
+        Map<String, Object> data = snap.getData();
+        return (data != null) ? decode(snap.getId(), data) : null;
+    }
+}
@@ -0,0 +1,380 @@
+package com.charis.util;
+
+import com.charis.data.Category;
+import com.charis.data.Distribution;
+import com.charis.data.Enum.Condition;
+import com.charis.data.Item;
+import com.charis.data.Kit;
+import com.charis.data.Location;
+import com.charis.data.NonSellableItem;
+import com.charis.data.SellableItem;
+import com.charis.data.User;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Codecs for every stored entity and the typed field
+ * readers they share. Readers take whatever Firestore
+ * stored, never go through strings, and fall back to
+ * a default when a field is missing or mistyped. Each
+ * reader also takes a snapshot, reading the one field
+ * without building the map of every field.
+ */
+final class Codecs
+{
+    static final Codec<Category> CATEGORY = new Codec<Category>()
+    {
+        @Override
+        public Category decode(String id, Map<String, Object> data)
+        {
+            return new Category(id, string(data, "name"));
+        }
+
+        @Override
+        Map<String, Object> encode(Category c)
+        {
+            HashMap<String, Object> map = new HashMap<>(2);
+            map.put("name", c.getName());
+            return map;
+        }
+    };
+
+    static final Codec<Location> LOCATION = new Codec<Location>()
+    {
+        @Override
+        public Location decode(String id, Map<String, Object> data)
+        {
+            return new Location(id, string(data, "name"));
+        }
+
+        @Override
+        Map<String, Object> encode(Location l)
+        {
+            HashMap<String, Object> map = new HashMap<>(2);
+            map.put("name", l.getName());
+            return map;
+        }
+    };
+
+    /**
+     * Users are stored under their lowercase username.
+     */
+    static final Codec<User> USER = new Codec<User>()
+    {
+        @Override
+        public User decode(String id, Map<String, Object> data)
+        {
+            return new User(id, string(data, "firstName"), string(data, "lastName"), string(data, "password"),
+                    flag(data, "admin"), flag(data, "active"));
+        }
+
+        @Override
+        Map<String, Object> encode(User u)
+        {
+            HashMap<String, Object> map = new HashMap<>(8);
+            map.put("password", u.getPassword());
+            map.put("admin", u.isAdmin());
+            map.put("active", u.isActive());
+            map.put("firstName", u.getFirstName());
+            map.put("lastName", u.getLastName());
+            return map;
+        }
+    };
+
+    static final Codec<Kit> KIT = new Codec<Kit>()
+    {
+        @Override
+        public Kit decode(String id, Map<String, Object> data)
+        {
+            return new Kit(id, string(data, "name"), string(data, "description"));
+        }
+
+        @Override
+        Map<String, Object> encode(Kit k)
+        {
+            HashMap<String, Object> map = new HashMap<>(4);
+            map.put("ID", k.getID());
+            map.put("name", k.getName());
+            map.put("description", k.getDescription());
+            return map;
+        }
+    };
+
+    static final ItemCodec<SellableItem> SELLABLE = new ItemCodec<SellableItem>()
+    {
+        @Override
+        SellableItem decode(String id, Map<String, Object> item, Map<String, Object> type, Category cat, Location loc)
+        {
+            return new SellableItem(id, date(item, "received"), string(item, "description"), integer(type, "quantity"),
+                    condition(item), decimal(item, "price"), cat, loc);
+        }
+    };
+
+    static final ItemCodec<NonSellableItem> NONSELLABLE = new ItemCodec<NonSellableItem>()
+    {
+        @Override
+        NonSellableItem decode(String id, Map<String, Object> item, Map<String, Object> type, Category cat, Location loc)
+        {
+            return new NonSellableItem(id, date(item, "received"), string(item, "description"), integer(type, "quantity"),
+                    condition(item), decimal(item, "price"), cat, string(type, "source"), loc);
+        }
+
+        @Override
+        Map<String, Object> encodeType(NonSellableItem i)
+        {
+            Map<String, Object> map = super.encodeType(i);
+            map.put("source", i.getSource());
+            return map;
+        }
+    };
+
+    static final DistributionCodec DISTRIBUTION = new DistributionCodec();
+
+
+    private Codecs() {}
+
+
+    /**
+     * Codec of an item, which is stored as an Item
+     * document plus a Sellable or NonSellable document
+     * with the same ID.
+     * @param <T> SellableItem or NonSellableItem
+     */
+    abstract static class ItemCodec<T extends Item>
+    {
+        /**
+         * Builds an item from both documents.
+         * @param id Barcode
+         * @param item Item document fields
+         * @param type Sellable or NonSellable document fields
+         * @param cat Category named by item
+         * @param loc Location named by type
+         * @return Item object
+         */
+        abstract T decode(String id, Map<String, Object> item, Map<String, Object> type, Category cat, Location loc);
+
+
+        /**
+         * Builds an item from both snapshots, naming its
+         * category and location from the maps given.
+         * References missing from them get blank placeholders
+         * so one bad reference doesn't hide the item.
+         * @param item Item document
+         * @param type Sellable or NonSellable document
+         * @param cats Categories by ID
+         * @param locs Locations by ID
+         * @return Item object
+         */
+        final T decode(DocumentSnapshot item, DocumentSnapshot type, Map<String, Category> cats, Map<String, Location> locs)
+        {
+            Map<String, Object> itemData = item.getData();
+            Map<String, Object> typeData = type.getData();
+
+            String catID = string(itemData, "category");
+            Category cat = cats.get(catID);
+            if(cat == null)
+                cat = new Category(catID, "");
+
+            String locID = string(typeData, "location");
+            Location loc = locs.get(locID);
+            if(loc == null)
+                loc = new Location(locID, "");
+
+            return decode(type.getId(), itemData, typeData, cat, loc);
+        }
+
+
+        /**
+         * Builds the Item document fields.
+         * @param i Item
+         * @return Fields to set
+         */
+        final Map<String, Object> encodeItem(T i)
+        {
+            HashMap<String, Object> map = new HashMap<>(8);
+            map.put("ID", i.getID());
+            map.put("received", (i.getReceived() != null) ? new Timestamp(i.getReceived()) : null);
+            map.put("description", i.getDescription());
+            map.put("condition", Condition.toInt(i.getCondition()));
+            map.put("price", i.getPrice());
+            map.put("category", (i.getCategory() != null) ? i.getCategory().getID() : null);
+            return map;
+        }
+
+
+        /**
+         * Builds the Sellable or NonSellable document fields.
+         * @param i Item
+         * @return Fields to set
+         */
+        Map<String, Object> encodeType(T i)
+        {
+            HashMap<String, Object> map = new HashMap<>(4);
+            map.put("quantity", i.getQuantity());
+            map.put("location", (i.getLocation() != null) ? i.getLocation().getID() : null);
+            return map;
+        }
+    }
+
+
+    /**
+     * Codec of a distribution. Its user is stored by
+     * username and its memo isn't kept on the object,
+     * so both are passed in.
+     */
+    static final class DistributionCodec
+    {
+        /**
+         * Builds a distribution.
+         * @param id Document ID
+         * @param data Document fields
+         * @param user User named by userOf(data)
+         * @return Distribution object
+         */
+        Distribution decode(String id, Map<String, Object> data, User user)
+        {
+            return new Distribution(id, decimal(data, "amount"), date(data, "date"), user);
+        }
+
+
+        /**
+         * Returns the username of the user who made a distribution.
+         * @param data Document fields
+         * @return Username or null
+         */
+        String userOf(Map<String, Object> data)
+        {
+            return string(data, "user");
+        }
+
+        String userOf(DocumentSnapshot doc)
+        {
+            return string(doc, "user");
+        }
+
+
+        /**
+         * Returns the number of items in a distribution.
+         * @param data Document fields
+         * @return Number of Dist_Item records or -1 if saved before it was kept
+         */
+        int linesOf(Map<String, Object> data)
+        {
+            return lines(data.get("lines"));
+        }
+
+        int linesOf(DocumentSnapshot doc)
+        {
+            return lines(doc.get("lines"));
+        }
+
+        private int lines(Object o)
+        {
+            return (o instanceof Number) ? ((Number) o).intValue() : -1;
+        }
+
+
+        /**
+         * Builds the document fields of a distribution.
+         * @param d Distribution
+         * @param memo Memo for the distribution
+         * @param lines Number of items distributed
+         * @return Fields to set
+         */
+        Map<String, Object> encode(Distribution d, String memo, int lines)
+        {
+            HashMap<String, Object> map = new HashMap<>(8);
+            map.put("amount", d.getAmount());
+            map.put("date", new Timestamp(d.getDate()));
+            map.put("user", (d.getUser() != null) ? d.getUser().getUsername() : null);
+            map.put("memo", memo);
+            map.put("lines", lines);
+            return map;
+        }
+    }
+
+
+    static String string(Map<String, Object> data, String field)
+    {
+        return asString(data.get(field));
+    }
+
+    static String string(DocumentSnapshot doc, String field)
+    {
+        return asString(doc.get(field));
+    }
+
+    static int integer(Map<String, Object> data, String field)
+    {
+        return asInteger(data.get(field));
+    }
+
+    static int integer(DocumentSnapshot doc, String field)
+    {
+        return asInteger(doc.get(field));
+    }
+
+    static double decimal(Map<String, Object> data, String field)
+    {
+        return asDecimal(data.get(field));
+    }
+
+    static double decimal(DocumentSnapshot doc, String field)
+    {
+        return asDecimal(doc.get(field));
+    }
+
+    static boolean flag(Map<String, Object> data, String field)
+    {
+        return Boolean.TRUE.equals(data.get(field));
+    }
+
+    static boolean flag(DocumentSnapshot doc, String field)
+    {
+        return Boolean.TRUE.equals(doc.get(field));
+    }
+
+    static Date date(Map<String, Object> data, String field)
+    {
+        return asDate(data.get(field));
+    }
+
+    static Date date(DocumentSnapshot doc, String field)
+    {
+        return asDate(doc.get(field));
+    }
+
+    static Condition condition(Map<String, Object> item)
+    {
+        return Condition.toCondition(integer(item, "condition"));
+    }
+
+
+    private static String asString(Object o)
+    {
+        return (o instanceof String) ? (String) o : null;
+    }
+
+    private static int asInteger(Object o)
+    {
+        return (o instanceof Number) ? ((Number) o).intValue() : 0;
+    }
+
+    private static double asDecimal(Object o)
+    {
+        return (o instanceof Number) ? ((Number) o).doubleValue() : 0.0;
+    }
+
+    private static Date asDate(Object o)
+    {
+        if(o instanceof Timestamp)
+            return ((Timestamp) o).toDate();
+
+        return (o instanceof Date) ? (Date) o : null;
+    }
+}
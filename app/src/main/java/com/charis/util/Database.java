@@ -1,5 +1,9 @@
 package com.charis.util;
 
+import android.app.Activity;
+import android.content.Context;
+import android.os.Looper;
+
 import com.charis.data.Category;
 import com.charis.data.Distribution;
 import com.charis.data.Enum.Condition;
@@ -9,23 +13,53 @@ import com.charis.data.Location;
 import com.charis.data.NonSellableItem;
 import com.charis.data.SellableItem;
 import com.charis.data.User;
+import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.Timestamp;
 import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.SnapshotMetadata;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.WriteBatch;
 
 
+import java.io.File;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class Database
 {
@@ -39,13 +73,307 @@ public final class Database
      */
     final static public int BARCODE_SIZE = 13;
 
+    /**
+     * ID of the Barcode registry document that marks
+     * the registry as holding every barcode.
+     */
+    final static private String REGISTRY_META = "_meta";
+
+    /**
+     * Most values Firestore accepts in one whereIn() query.
+     */
+    final static private int IN_QUERY_LIMIT = 10;
+
+    /**
+     * Most writes Firestore accepts in one batch.
+     */
+    final static int BATCH_LIMIT = 500;
+
+    /**
+     * Sales tax rate included in distribution amounts.
+     */
+    final static public double SALES_TAX = 0.0825;
+
+    /**
+     * Most documents kept by each reference cache.
+     */
+    final static private int REFERENCE_CACHE_SIZE = 256;
+
+    /**
+     * Time in ms a reference cache entry is trusted
+     * once its snapshot listener loses the server.
+     */
+    final static private long REFERENCE_CACHE_TTL = 10 * 60 * 1000;
+
+    /**
+     * Most documents the barcode index keeps from each collection.
+     */
+    final static private int BARCODE_INDEX_SIZE = 20000;
+
+    /**
+     * Number of worker threads for asynchronous operations.
+     */
+    final static private int WORKER_COUNT = 4;
+
+    /**
+     * Shared worker pool that runs the *Async() operations
+     * so the UI thread never waits on Firestore.
+     */
+    final static private ExecutorService EXECUTOR = Executors.newFixedThreadPool(WORKER_COUNT, new ThreadFactory()
+    {
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "Database-" + count.getAndIncrement());
+            t.setDaemon(true); // Never keep the process alive
+            return t;
+        }
+    });
+
+    /**
+     * Runs the independent branches of a hydration step
+     * while the worker that started them waits. Kept apart
+     * from EXECUTOR so waiting workers can't starve it.
+     * Branches only do blocking reads and never fork again.
+     */
+    final static private ExecutorService FANOUT = Executors.newCachedThreadPool(new ThreadFactory()
+    {
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "Database-fanout-" + count.getAndIncrement());
+            t.setDaemon(true); // Never keep the process alive
+            return t;
+        }
+    });
+
+    /**
+     * Shared cache of the Category collection.
+     */
+    final static private ReferenceCache<Category> CATEGORIES = new ReferenceCache<>("Category", REFERENCE_CACHE_SIZE, REFERENCE_CACHE_TTL, Codecs.CATEGORY);
+
+    /**
+     * Shared cache of the Location collection.
+     */
+    final static private ReferenceCache<Location> LOCATIONS = new ReferenceCache<>("Location", REFERENCE_CACHE_SIZE, REFERENCE_CACHE_TTL, Codecs.LOCATION);
+
+    /**
+     * Shared cache of the User collection, keyed by
+     * lowercase username. Password hashes are left out.
+     */
+    final static private ReferenceCache<User> USERS = new ReferenceCache<>("User", REFERENCE_CACHE_SIZE, REFERENCE_CACHE_TTL, Codecs.USER, "password");
+
+    /**
+     * Shared index of items and kits by barcode.
+     */
+    final static private BarcodeIndex INDEX = new BarcodeIndex(BARCODE_INDEX_SIZE, REFERENCE_CACHE_TTL, CATEGORIES, LOCATIONS);
+
+    /**
+     * Catalog manifest chunks read by this process.
+     */
+    final static private CatalogManifest CATALOG = new CatalogManifest();
+
+    /**
+     * SQLite mirror of the inventory, null until attached.
+     */
+    static private volatile LocalStore LOCAL;
+
+    /**
+     * Memory-mapped barcode snapshot, null until attached.
+     */
+    static private volatile CatalogImage IMAGE;
+
+    /**
+     * Set once the barcode snapshot is being mapped.
+     */
+    static private boolean imageAttached;
+
+    /**
+     * Set once the sales rollups are known to hold every
+     * distribution, which stays true for the process.
+     */
+    static private volatile boolean salesComplete;
+
+    /**
+     * Set once the outflow counters are known to hold
+     * every distribution, which stays true for the process.
+     */
+    static private volatile boolean outflowComplete;
+
+    /**
+     * Set once Barcode/_meta has been read. The registry
+     * is only used if it was complete then, or became
+     * complete since by backfillBarcodes().
+     */
+    static private volatile boolean registryChecked;
+    static private volatile boolean registryComplete;
+
+    /**
+     * Set once the catalog manifest is known to be
+     * built, which stays true for the process.
+     */
+    static private volatile boolean catalogComplete;
+
+    /**
+     * Columns of every distribution, null until first
+     * loaded. Replaced, never changed, under COLUMNS_LOCK.
+     */
+    static private volatile DistributionColumns COLUMNS;
+
+    /**
+     * Latest server save time of the distributions in
+     * COLUMNS, where loading more starts. Epoch if none.
+     */
+    static private Timestamp columnsSaved = new Timestamp(0, 0);
+
+    /**
+     * When COLUMNS was last brought up to date, on the
+     * RetryPolicy.now() clock. Zeroed by a checkout.
+     */
+    static private volatile long columnsChecked;
+
+    /**
+     * How long COLUMNS is returned without asking the
+     * server for newer distributions.
+     */
+    final static private long COLUMNS_FRESH = 60000;
+
+    final static private Object COLUMNS_LOCK = new Object();
+
+    /**
+     * Checkout batches the server hasn't confirmed yet,
+     * by distribution ID. Firestore keeps a batch queued
+     * after its wait times out, so a cart still here
+     * must not be saved again.
+     */
+    final static private HashMap<String, Task<Void>> CHECKOUTS = new HashMap<>();
+
+    /**
+     * The one instance shared by every screen, null until
+     * the first acquire().
+     */
+    static private Database SHARED;
+
+    /**
+     * Number of screens holding the shared instance.
+     */
+    static private int users;
+
+
+    /**
+     * Opens the on-device mirror of the inventory.
+     * Instances created afterwards keep it in sync, and
+     * reads are answered from it while it is in sync or
+     * the network is down. Call once before the first
+     * acquire(), usually from the launch activity.
+     * @param context Any context, the application context is kept
+     */
+    public static synchronized void attachLocalStore(Context context)
+    {
+        if(LOCAL == null)
+            LOCAL = new LocalStore(context.getApplicationContext());
+    }
+
+
+    /**
+     * Maps the barcode snapshot saved by earlier runs so
+     * resolveCached() answers before the listeners load.
+     * The snapshot is kept current from the listeners and
+     * rewritten in the background. The file is read and
+     * mapped on a worker thread, and resolveCached() uses
+     * it once mapped. Call once before the first
+     * acquire(), usually from the launch activity.
+     * @param context Any context
+     */
+    public static synchronized void attachCatalogImage(Context context)
+    {
+        if(imageAttached)
+            return;
+
+        imageAttached = true;
+        final Context app = context.getApplicationContext();
+        EXECUTOR.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                CatalogImage image = new CatalogImage(new File(app.getFilesDir(), "catalog.img"));
+                image.open();
+                INDEX.mirrorTo(image);
+                IMAGE = image;
+            }
+        });
+    }
+
+
+    /**
+     * Returns the instance shared by the whole app,
+     * opening it on first use. Each screen acquires it
+     * in onCreate and releases it with close().
+     * @return Shared database object
+     */
+    public static synchronized Database acquire()
+    {
+        if(SHARED == null)
+            SHARED = new Database();
+
+        users++;
+        return SHARED;
+    }
+
+
+    /**
+     * Terminates the shared instance if no screen holds
+     * it. Navigation never does this, since the next
+     * screen would pay for a cold cache and a new
+     * connection; it is for tearing the app down.
+     * @return True if terminated or never opened
+     */
+    public static synchronized boolean shutdown()
+    {
+        if(users > 0)
+            return false;
+        if(SHARED == null)
+            return true;
+
+        Database d = SHARED;
+        SHARED = null;
+
+        CATEGORIES.stop(d.db);
+        LOCATIONS.stop(d.db);
+        USERS.stop(d.db);
+        INDEX.stop(d.db);
+
+        LocalStore local = LOCAL;
+        if(local != null)
+            local.stop(d.db);
+
+        Task t = d.db.terminate();
+        d.waitForResponse(t);
+        return t.isSuccessful();
+    }
+
 
     /**
      * Creates a connection to firestore database.
      */
-    public Database()
+    private Database()
     {
         this.db = FirebaseFirestore.getInstance();
+
+        // Keep shared caches current
+        CATEGORIES.listen(this.db);
+        LOCATIONS.listen(this.db);
+        USERS.listen(this.db);
+        INDEX.listen(this.db);
+
+        LocalStore local = LOCAL;
+        if(local != null)
+            local.listen(this.db);
     }
 
 
@@ -60,14 +388,66 @@ public final class Database
 
 
     /**
-     * Closes the connection to the database.
-     * @return True if connection closed
+     * Releases the calling screen's hold on the shared
+     * instance. The connection, listeners and caches stay
+     * open so the next screen starts warm.
+     * @return True if the caller held the instance
      */
     public boolean close()
     {
-        Task t = this.db.terminate();
-        waitForResponse(t);
-        return t.isSuccessful();
+        synchronized(Database.class)
+        {
+            if(users == 0)
+                return false;
+
+            users--;
+            return true;
+        }
+    }
+
+
+    /**
+     * Warms the shared caches right after login by reading
+     * categories, locations, kits and the catalog in
+     * parallel, so menu screens open without waiting.
+     * @return Task that completes when every read has finished
+     */
+    public Task<Void> prefetch()
+    {
+        Task<Category[]> cats = fork(new Callable<Category[]>()
+        {
+            @Override
+            public Category[] call()
+            {
+                return getAllCategories();
+            }
+        });
+        Task<Location[]> locs = fork(new Callable<Location[]>()
+        {
+            @Override
+            public Location[] call()
+            {
+                return getAllLocations();
+            }
+        });
+        Task<Kit[]> kits = fork(new Callable<Kit[]>()
+        {
+            @Override
+            public Kit[] call()
+            {
+                return getAllKits();
+            }
+        });
+        Task<Result<List<CatalogEntry>>> catalog = fork(new Callable<Result<List<CatalogEntry>>>()
+        {
+            @Override
+            public Result<List<CatalogEntry>> call()
+            {
+                return getCatalog();
+            }
+        });
+
+        return Tasks.whenAll(cats, locs, kits, catalog);
     }
 
 
@@ -133,23 +513,70 @@ public final class Database
 
 
     /**
-     * Updates a user record with all values in u
+     * Updates a user record with the values changed in u
      * except for password. Use function updatePassword()
-     * to update the password.
+     * to update the password. Changed fields are sent
+     * as one update.
      * @param u User object to update
+     * @return True if successful or nothing changed
      */
     public boolean updateUser(User u)
     {
-        // Overwrite existing document
+        Set<User.Field> changes = u.getChanges();
+        if(changes.isEmpty()) // Nothing to save
+            return true;
+
+        HashMap<String, Object> fields = new HashMap<>();
+        for(User.Field f : changes)
+        {
+            switch(f)
+            {
+                case FIRST_NAME:
+                    fields.put("firstName", u.getFirstName());
+                    break;
+                case LAST_NAME:
+                    fields.put("lastName", u.getLastName());
+                    break;
+                case ADMIN:
+                    fields.put("admin", u.isAdmin());
+                    break;
+                case ACTIVE:
+                    fields.put("active", u.isActive());
+                    break;
+            }
+        }
+
         DocumentReference ref = getDatabase().collection("User").document(u.getUsername());
-        Task t1 = ref.update("firstName", u.getFirstName());
-        Task t2 = ref.update("lastName", u.getLastName());
-        Task t3 = ref.update("active", u.isActive());
-        Task t4 = ref.update("admin", u.isAdmin());
+        Task t = ref.update(fields);
+        waitForResponse(t);
+
+        if(t.isSuccessful()) // Write through to cache
+        {
+            u.clearChanges(changes);
+            USERS.update(ref.getId(), fields);
+        }
+        else // Unknown state
+            USERS.invalidate(ref.getId());
+
+        return t.isSuccessful();
+    }
 
-        Task t5 = Tasks.whenAll(t1, t2, t3, t4); // Combine to single task
-        waitForResponse(t5);
-        return t5.isSuccessful();
+
+    /**
+     * Updates the user record on a worker thread.
+     * @param u User object to update
+     * @return Task resolving to true if successful
+     */
+    public Task<Boolean> updateUserAsync(final User u)
+    {
+        return runAsync(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return updateUser(u);
+            }
+        });
     }
 
 
@@ -166,9 +593,29 @@ public final class Database
             return false;
 
         DocumentReference ref = getDatabase().collection("User").document(u.getUsername());
-        Task t = ref.update("password", hashPassword(u.getPassword()));
+        String hashed = hashPassword(u.getPassword());
+        Task t = ref.update("password", hashed);
         waitForResponse(t);
-        return t.isSuccessful();
+
+        return t.isSuccessful(); // Nothing cached, hashes are never kept
+    }
+
+
+    /**
+     * Saves the password in u on a worker thread.
+     * @param u Object with plaintext password
+     * @return Task resolving to true if successful
+     */
+    public Task<Boolean> updatePasswordAsync(final User u)
+    {
+        return runAsync(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return updatePassword(u);
+            }
+        });
     }
 
 
@@ -179,52 +626,111 @@ public final class Database
      */
     public User getUser(String uname)
     {
-        User user = null;
-        DocumentReference ref = getDatabase().collection("User").document(uname.toLowerCase());
-        Task t = ref.get();
-        waitForResponse(t); // Wait for data
+        return lookupUser(uname).getValue();
+    }
 
-        if(t.isSuccessful()) // Was successful?
-        {
-            DocumentSnapshot doc = (DocumentSnapshot) t.getResult();
 
-            if(doc.exists()) // Does it exist?
-            {
-                String fname = doc.getString("firstName");
-                String lname = doc.getString("lastName");
-                String password = doc.getString("password");
-                boolean admin = doc.getBoolean("admin");
-                boolean active = doc.getBoolean("active");
+    /**
+     * Retrieve user with given username. Users come
+     * from the cache, which holds no password hash,
+     * so getPassword() is null; use lookupLogin() to
+     * check a password.
+     * @param uname Username of user
+     * @return OK with the user, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    public Result<User> lookupUser(String uname)
+    {
+        String id = uname.toLowerCase();
+        User cached = USERS.get(id);
+        if(cached != null)
+            return Result.ok(cached);
 
-                user = new User(uname, fname, lname, password, admin, active);
+        DocumentReference ref = getDatabase().collection("User").document(id);
+        Result<DocumentSnapshot> r = readDocument(ref, RetryPolicy.READ.deadlineFromNow()); // Wait for data
+
+        if(!r.isOk()) // Was successful?
+            return Result.from(r);
+
+        USERS.put(id, r.getValue().getData());
+        return Result.ok(USERS.get(id));
+    }
+
+
+    /**
+     * Retrieves the user with given username on a worker thread.
+     * @param uname Username of user
+     * @return Task resolving to the result of lookupUser()
+     */
+    public Task<Result<User>> lookupUserAsync(final String uname)
+    {
+        return runAsync(new Callable<Result<User>>()
+        {
+            @Override
+            public Result<User> call()
+            {
+                return lookupUser(uname);
             }
-        }
+        });
+    }
+
+
+    /**
+     * Reads a user with the password hash from the
+     * server, never from a cache, to check a login.
+     * @param uname Username of user
+     * @return OK with the user, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    public Result<User> lookupLogin(String uname)
+    {
+        String id = uname.toLowerCase();
+        Result<DocumentSnapshot> r = readDocument(getDatabase().collection("User").document(id), RetryPolicy.READ.deadlineFromNow());
+        if(!r.isOk())
+            return Result.from(r);
+
+        Map<String, Object> data = r.getValue().getData();
+        USERS.put(id, data); // Cached without the hash
+        return Result.ok(Codecs.USER.decode(id, data));
+    }
 
-        return user;
+
+    /**
+     * Reads a user to check a login on a worker thread.
+     * @param uname Username of user
+     * @return Task resolving to the result of lookupLogin()
+     */
+    public Task<Result<User>> lookupLoginAsync(final String uname)
+    {
+        return runAsync(new Callable<Result<User>>()
+        {
+            @Override
+            public Result<User> call()
+            {
+                return lookupLogin(uname);
+            }
+        });
     }
 
 
     /**
-     * Create a distribution in the database.
+     * Adds a new distribution to the batch.
+     * @param batch Batch to add to
+     * @param id ID of the distribution
      * @param amount Total + tax of transaction
      * @param date Date of transaction
      * @param user User who performed transaction
      * @param memo Memo for the distribution
-     * @return Distribution object with given data
+     * @param lines Number of items distributed
+     * @return Reference of the new distribution
      */
-    private Distribution createDistribution(double amount, Date date, User user, String memo)
+    private DocumentReference addDistribution(WriteBatch batch, String id, double amount, Date date, User user, String memo, int lines)
     {
-        HashMap<String, Object> map = new HashMap();
-        map.put("amount", amount);
-        map.put("date", new Timestamp(date));
-        map.put("user", user.getUsername());
-        map.put("memo", memo);
-
-        Task t = getDatabase().collection("Distribution").add(map);
-        waitForResponse(t);
-        DocumentReference ref = (DocumentReference) t.getResult();
+        DocumentReference ref = getDatabase().collection("Distribution").document(id);
+        Map<String, Object> map = Codecs.DISTRIBUTION.encode(new Distribution(ref.getId(), amount, date, user), memo, lines);
+        map.put("saved", FieldValue.serverTimestamp()); // Commit time, unlike date which is the till's clock
+        batch.set(ref, map);
+        SalesRollup.add(getDatabase(), batch, date, amount); // Month and day totals
 
-        return new Distribution(ref.getId(), amount, date, user);
+        return ref;
     }
 
 
@@ -239,6 +745,19 @@ public final class Database
      * @return Array of Distribution objects in month, may be empty
      */
     public Distribution[] getDistributionsByDate(int month, int year)
+    {
+        Date[] range = monthRange(month, year);
+        return getDistributions(range[0], range[1]);
+    }
+
+
+    /**
+     * Returns the start of a month and of the next one.
+     * @param month Month 0-11 for JAN-DEC
+     * @param year Year
+     * @return [0] first date included, [1] first date not included
+     */
+    private static Date[] monthRange(int month, int year)
     {
         // Make calendars
         Calendar cal = Calendar.getInstance();
@@ -252,1102 +771,4327 @@ public final class Database
         cal2.set(year, month + 1, 1, 0, 0, 0);
         cal2.set(Calendar.MILLISECOND, 0);
 
-        Date d1 = cal.getTime();
-        Date d2 = cal2.getTime();
-
-        return getDistributions(cal.getTime(), cal2.getTime());
+        return new Date[]{cal.getTime(), cal2.getTime()};
     }
 
 
     /**
-     * Returns an array of hashmaps that hold the
-     * item ID and quantity sold in given
-     * month and year. Quantities are stored
-     * in each item's attribute, quantity.
+     * Returns all distributions in month and year on a worker thread.
      * @param month Month 0-11 for JAN-DEC
-     * @param year Year to search
-     * @return Array containing two hashmaps. [0] for SellableItem, [1] for NonSellableItem
+     * @param year Year of records needed
+     * @return Task resolving to an array of distributions, may be empty
      */
-    public HashMap<String, Item>[] getDistItemCountByDate(int month, int year)
+    public Task<Distribution[]> getDistributionsByDateAsync(final int month, final int year)
     {
-        // Set up hashmaps
-        HashMap<String, Item>[] maps = new HashMap[2];
-        HashMap<String, Item> sellMap = new HashMap<>();
-        HashMap<String, Item> nonsellMap = new HashMap<>();
-        maps[0] = sellMap;
-        maps[1] = nonsellMap;
-
-        Distribution[] dists = getDistributionsByDate(month, year); // Get all dists for month, year
+        return runAsync(new Callable<Distribution[]>()
+        {
+            @Override
+            public Distribution[] call()
+            {
+                return getDistributionsByDate(month, year);
+            }
+        });
+    }
 
-        // Get list of documents for each dist
-        for(int i = 0; i < dists.length; i++)
+
+    /**
+     * Returns the sales totals of a month from its rollup
+     * document. Until an admin has built the rollups with
+     * rebuildSummariesAsync(), or if they can't be read,
+     * the month's distributions are summed instead.
+     * @param month Month 0-11 for JAN-DEC
+     * @param year Year
+     * @return OK with the totals, TIMED_OUT or FAILED
+     */
+    public Result<SalesTotals> getSalesTotals(int month, int year)
+    {
+        long deadline = RetryPolicy.READ.deadlineFromNow();
+        CollectionReference ref = getDatabase().collection(SalesRollup.COLLECTION);
+
+        if(!salesComplete)
+        {
+            Result<DocumentSnapshot> head = readDocument(ref.document(SalesRollup.HEAD), deadline);
+            if(head.isOk() && SalesRollup.isComplete(head.getValue()))
+                salesComplete = true;
+        }
+
+        if(salesComplete)
+        {
+            Result<DocumentSnapshot> r = readDocument(ref.document(SalesRollup.monthKey(month, year)), RetryPolicy.READ.deadlineFromNow());
+            if(r.isOk())
+                return Result.ok(SalesRollup.read(r.getValue()));
+            if(r.getStatus() == Result.Status.NOT_FOUND) // No sales that month
+                return Result.ok(SalesRollup.read(null));
+        }
+
+        // Sum the month on the client
+        Date[] range = monthRange(month, year);
+        Result<Distribution[]> dists = readDistributions(range[0], range[1]);
+        if(!dists.isOk())
+            return Result.from(dists);
+
+        return Result.ok(SalesRollup.sum(dists.getValue()));
+    }
+
+
+    /**
+     * Returns the sales totals of a month on a worker thread.
+     * @param month Month 0-11 for JAN-DEC
+     * @param year Year
+     * @return Task resolving to the result of getSalesTotals()
+     */
+    public Task<Result<SalesTotals>> getSalesTotalsAsync(final int month, final int year)
+    {
+        return runAsync(new Callable<Result<SalesTotals>>()
         {
-            List<DocumentSnapshot> docs = getDistItemSnapshot(dists[i].getID()); // Get each item from dist_item
-            if(docs != null)
+            @Override
+            public Result<SalesTotals> call()
             {
-                for(int k = 0; k < docs.size(); k++) // Save each in corresponding hashmap, updating quantity
-                {
-                    String itemID = docs.get(k).getString("item");
-                    int quantity = Integer.parseInt(String.valueOf(docs.get(k).getLong("quantity")));
-                    boolean sellable = docs.get(k).getBoolean("sellable");
-
-                    if(sellable)
-                        updateHashmap(sellMap, quantity, itemID, sellable);
-                    else
-                        updateHashmap(nonsellMap, quantity, itemID, sellable);
-                }
+                return getSalesTotals(month, year);
+            }
+        });
+    }
+
+
+    /**
+     * Returns the sales totals from one time up to
+     * another, such as a day, week or quarter, from the
+     * distribution columns.
+     * @param from First time included
+     * @param to First time not included
+     * @return OK with the totals, TIMED_OUT or FAILED
+     */
+    public Result<SalesTotals> getSalesTotals(Date from, Date to)
+    {
+        Result<DistributionColumns> r = getDistributionColumns();
+        if(!r.isOk())
+            return Result.from(r);
+
+        return Result.ok(r.getValue().totals(from, to));
+    }
+
+
+    /**
+     * Returns the sales totals of a range on a worker thread.
+     * @param from First time included
+     * @param to First time not included
+     * @return Task resolving to the result of getSalesTotals()
+     */
+    public Task<Result<SalesTotals>> getSalesTotalsAsync(final Date from, final Date to)
+    {
+        return runAsync(new Callable<Result<SalesTotals>>()
+        {
+            @Override
+            public Result<SalesTotals> call()
+            {
+                return getSalesTotals(from, to);
             }
+        });
+    }
+
+
+    /**
+     * Returns every distribution as columns sorted by
+     * time. The first call loads them all; later calls
+     * load only the distributions the server saved since
+     * the last one held, so a sale synced late with an
+     * older date is merged in rather than loading all
+     * again. Columns brought up to date in the last
+     * minute are returned as they are, unless a checkout
+     * was made since. The last columns loaded are
+     * returned if the database can't be read.
+     * @return OK with the columns, TIMED_OUT or FAILED
+     */
+    public Result<DistributionColumns> getDistributionColumns()
+    {
+        synchronized(COLUMNS_LOCK)
+        {
+            DistributionColumns held = COLUMNS;
+            long now = RetryPolicy.now();
+            if(held != null && columnsChecked != 0 && now - columnsChecked < COLUMNS_FRESH)
+                return Result.ok(held);
+
+            Result<DistributionColumns> r = loadDistributionColumns((held != null) ? held : DistributionColumns.EMPTY);
+            if(!r.isOk())
+                return (held != null) ? Result.ok(held) : r;
+
+            COLUMNS = r.getValue();
+            columnsChecked = now;
+            return r;
         }
+    }
 
 
-        return maps;
+    /**
+     * Returns the distribution columns on a worker thread.
+     * @return Task resolving to the result of getDistributionColumns()
+     */
+    public Task<Result<DistributionColumns>> getDistributionColumnsAsync()
+    {
+        return runAsync(new Callable<Result<DistributionColumns>>()
+        {
+            @Override
+            public Result<DistributionColumns> call()
+            {
+                return getDistributionColumns();
+            }
+        });
     }
 
 
     /**
-     * Update the map with quantity using
-     * id as the key.
-     * @param map Map to update
-     * @param quantity Quantity to increment
-     * @param ID Item ID
-     * @param sellable If the item was sold or given away
+     * Loads the distributions the server saved after the
+     * last one held, and sets columnsSaved to the latest.
+     * Distributions saved before lines were kept on them
+     * have their Dist_Item records counted. Called under
+     * COLUMNS_LOCK.
+     * @param base Columns held, EMPTY to load all
+     * @return OK with the new columns, TIMED_OUT or FAILED
      */
-    private void updateHashmap(HashMap map, int quantity, String ID, boolean sellable)
+    private Result<DistributionColumns> loadDistributionColumns(DistributionColumns base)
     {
-        Item i = (Item)map.get(ID); // Get item
+        long deadline = RetryPolicy.READ.deadlineFromNow();
+        Query q = getDatabase().collection("Distribution").orderBy("date");
+        if(base.size() > 0) // Commits are atomic, so none at the latest time held is missing
+            q = getDatabase().collection("Distribution").whereGreaterThan("saved", columnsSaved).orderBy("saved");
+
+        Result<QuerySnapshot> r = readQuery(q, deadline);
+        if(!r.isOk())
+            return Result.from(r);
+
+        ArrayList<DocumentSnapshot> docs = new ArrayList<>();
+        ArrayList<String> uncounted = new ArrayList<>();
+        Timestamp saved = (base.size() > 0) ? columnsSaved : new Timestamp(0, 0);
+        for(DocumentSnapshot doc : r.getValue().getDocuments())
+        {
+            if(doc.getMetadata().hasPendingWrites()) // No save time yet, loaded once the server has it
+                continue;
+
+            docs.add(doc);
+            if(Codecs.DISTRIBUTION.linesOf(doc) < 0)
+                uncounted.add(doc.getId());
+
+            Timestamp t = doc.getTimestamp("saved"); // Null if saved before the field was kept
+            if(t != null && t.compareTo(saved) > 0)
+                saved = t;
+        }
 
-        if(i == null) // New map item
+        // Count lines of older distributions
+        HashMap<String, Integer> counts = new HashMap<>();
+        if(!uncounted.isEmpty())
         {
-            if(sellable)
-                i = getSellableItem(ID);
+            Result<List<DocumentSnapshot>> items;
+            if(base.size() == 0) // Cheaper to read them all than thousands of chunks
+            {
+                Result<QuerySnapshot> all = readQuery(getDatabase().collection("Dist_Item"), deadline);
+                items = all.isOk() ? Result.ok(all.getValue().getDocuments()) : Result.<List<DocumentSnapshot>>from(all);
+            }
             else
-                i = getNonSellableItem(ID);
+                items = queryIn("Dist_Item", FieldPath.of("dist"), uncounted, deadline);
+
+            if(!items.isOk())
+                return Result.from(items);
 
-            if(i != null) // Null if database read failed
+            for(DocumentSnapshot doc : items.getValue())
             {
-                i.setQuantity(quantity);
-                map.put(i.getID(), i); // Save new mapping
+                updateCount(counts, 1, Codecs.string(doc, "dist"));
             }
         }
-        else // Update map
+
+        DistributionColumns.Builder b = base.append();
+        for(DocumentSnapshot doc : docs)
         {
-            int newQuant = quantity + i.getQuantity();
-            i.setQuantity(newQuant);
-            map.put(i.getID(), i);
+            Date date = Codecs.date(doc, "date");
+            if(date == null)
+                continue;
+
+            int lines = Codecs.DISTRIBUTION.linesOf(doc);
+            if(lines < 0)
+                lines = counts.containsKey(doc.getId()) ? counts.get(doc.getId()) : 0;
+
+            b.add(date, Codecs.decimal(doc, "amount"), Codecs.DISTRIBUTION.userOf(doc), lines);
         }
+
+        columnsSaved = saved;
+        return Result.ok(b.build());
     }
 
 
     /**
-     * Returns the snapshots of dist_item that have
-     * the distribution ID given.
-     * @param id ID of distribution
-     * @return List of snapshots or null
+     * Fills any number of aggregates, such as sales by
+     * user and items by category, in one pass over the
+     * distributions from one time up to another. If none
+     * groups or sums lines, the pass runs over the
+     * distribution columns with no reads beyond their
+     * watermark. Otherwise each distribution is passed
+     * with its Dist_Item records, from the local store
+     * while in sync, or from the database with the
+     * records of every distribution read at once.
+     * @param from First time included
+     * @param to First time not included
+     * @param aggregates Empty aggregates to fill
+     * @return OK with the number of distributions passed, TIMED_OUT or FAILED
      */
-    private List<DocumentSnapshot> getDistItemSnapshot(String id)
+    public Result<Integer> aggregate(Date from, Date to, Aggregate... aggregates)
     {
-        CollectionReference ref = getDatabase().collection("Dist_Item");
+        AggregatePass pass = new AggregatePass(aggregates);
+        if(!pass.needsLines())
+        {
+            Result<DistributionColumns> r = getDistributionColumns();
+            if(!r.isOk())
+                return Result.from(r);
 
-        Task t = ref.whereEqualTo("dist", id).get();
-        waitForResponse(t);
+            DistributionColumns c = r.getValue();
+            int end = c.indexOf(to);
+            for(int i = c.indexOf(from); i < end; i++)
+            {
+                int user = c.getUser(i);
+                pass.distribution(c.getTime(i), c.getCents(i), (user >= 0) ? c.getUsername(user) : null, c.getLines(i));
+            }
 
-        if(t.isSuccessful())
+            return Result.ok(pass.count());
+        }
+
+        LocalStore local = LOCAL;
+        if(local != null && local.scanDistributions(from, to, false, pass)) // Answered by local store
+            return Result.ok(pass.count());
+
+        pass.reset();
+        Result<Integer> r = scanDistributions(from, to, pass);
+        if(!r.isOk())
         {
-            QuerySnapshot q = (QuerySnapshot) t.getResult();
-            List<DocumentSnapshot> list = q.getDocuments();
-            return list;
+            pass.reset();
+            if(local != null && local.scanDistributions(from, to, true, pass)) // Last synced copy
+                return Result.ok(pass.count());
+
+            pass.reset();
         }
-        else
-            return null;
+
+        return r;
     }
 
 
     /**
-     * Pull information from the database with formatted time t1 and t2.
-     * @param t1 Beginning date
-     * @param t2 Ending date
-     * @return Array of Distributions
+     * Fills aggregates on a worker thread.
+     * @param from First time included
+     * @param to First time not included
+     * @param aggregates Empty aggregates to fill
+     * @return Task resolving to the result of aggregate()
      */
-    private Distribution[] getDistributions(Date t1, Date t2)
+    public Task<Result<Integer>> aggregateAsync(final Date from, final Date to, final Aggregate... aggregates)
     {
-        Distribution[] dists;
-        CollectionReference ref = getDatabase().collection("Distribution");
+        return runAsync(new Callable<Result<Integer>>()
+        {
+            @Override
+            public Result<Integer> call()
+            {
+                return aggregate(from, to, aggregates);
+            }
+        });
+    }
 
-        Task t = ref.whereGreaterThanOrEqualTo("date", new Timestamp(t1)).whereLessThan("date", new Timestamp(t2)).get();
-        waitForResponse(t);
 
-        if(t.isSuccessful())
+    /**
+     * Passes distributions and their lines read from
+     * the database. Distributions, their Dist_Item
+     * records and the items not in the barcode index
+     * are each read once, and nothing is passed unless
+     * every read succeeds.
+     * @param from First time included
+     * @param to First time not included
+     * @param pass Pass to feed
+     * @return OK with the number of distributions passed, TIMED_OUT or FAILED
+     */
+    private Result<Integer> scanDistributions(Date from, Date to, AggregatePass pass)
+    {
+        long deadline = RetryPolicy.READ.deadlineFromNow();
+        Query q = getDatabase().collection("Distribution").whereGreaterThanOrEqualTo("date", new Timestamp(from))
+                .whereLessThan("date", new Timestamp(to)).orderBy("date");
+        Result<QuerySnapshot> dists = readQuery(q, deadline);
+        if(!dists.isOk())
+            return Result.from(dists);
+
+        List<DocumentSnapshot> docs = dists.getValue().getDocuments();
+        ArrayList<String> ids = new ArrayList<>(docs.size());
+        for(DocumentSnapshot doc : docs)
+        {
+            ids.add(doc.getId());
+        }
+
+        // Group lines by distribution
+        Result<List<DocumentSnapshot>> items = queryIn("Dist_Item", FieldPath.of("dist"), ids, deadline);
+        if(!items.isOk())
+            return Result.from(items);
+
+        HashMap<String, List<DocumentSnapshot>> lines = new HashMap<>();
+        HashSet<String> itemIDs = new HashSet<>();
+        for(DocumentSnapshot doc : items.getValue())
         {
-            QuerySnapshot q = (QuerySnapshot) t.getResult();
+            String dist = Codecs.string(doc, "dist");
+            if(!lines.containsKey(dist))
+                lines.put(dist, new ArrayList<DocumentSnapshot>());
 
-            List<DocumentSnapshot> list = q.getDocuments();
-            dists = new Distribution[list.size()];
+            lines.get(dist).add(doc);
+            itemIDs.add(Codecs.string(doc, "item"));
+        }
+
+        // Price and category name of each item
+        HashMap<String, Long> prices = new HashMap<>(itemIDs.size());
+        HashMap<String, String> categories = new HashMap<>(itemIDs.size());
+        ArrayList<String> missed = new ArrayList<>();
+        for(String id : itemIDs)
+        {
+            BarcodeMatch hit = (id != null) ? resolveCached(id) : null;
+            Item item = (hit == null) ? null : (hit.getSellable() != null) ? hit.getSellable() : hit.getNonSellable();
+            if(item == null)
+            {
+                missed.add(id);
+                continue;
+            }
+
+            prices.put(id, Math.round(item.getPrice() * 100));
+            categories.put(id, (item.getCategory() != null) ? item.getCategory().getName() : null);
+        }
+        if(!missed.isEmpty())
+        {
+            Result<HashMap<String, DocumentSnapshot>> r = getDocuments("Item", missed, deadline);
+            if(!r.isOk())
+                return Result.from(r);
 
-            for(int i = 0; i < dists.length; i++)
+            for(DocumentSnapshot doc : r.getValue().values())
             {
-                String id = list.get(i).getId();
-                double amount = list.get(i).getDouble("amount");
-                Date date = list.get(i).getDate("date");
-                User u = getUser(list.get(i).getString("user"));
+                String cat = Codecs.string(doc, "category");
+                Category c = (cat != null) ? lookupCategory(cat, deadline).getValue() : null;
 
-                dists[i] = new Distribution(id, amount, date, u);
+                prices.put(doc.getId(), Math.round(Codecs.decimal(doc, "price") * 100));
+                categories.put(doc.getId(), (c != null) ? c.getName() : null);
             }
         }
-        else // Default empty list
-            dists = new Distribution[0];
 
-        return dists;
+        List<DocumentSnapshot> none = Collections.emptyList();
+        for(DocumentSnapshot doc : docs)
+        {
+            Date date = Codecs.date(doc, "date");
+            if(date == null)
+                continue;
+
+            List<DocumentSnapshot> list = lines.containsKey(doc.getId()) ? lines.get(doc.getId()) : none;
+            pass.distribution(date.getTime(), Math.round(Codecs.decimal(doc, "amount") * 100), Codecs.DISTRIBUTION.userOf(doc), list.size());
+            for(DocumentSnapshot line : list)
+            {
+                String item = Codecs.string(line, "item");
+                Long price = prices.get(item);
+                pass.line(item, Codecs.flag(line, "sellable"), Codecs.integer(line, "quantity"), (price != null) ? price : 0, categories.get(item));
+            }
+        }
+
+        return Result.ok(pass.count());
     }
 
 
     /**
-     * Creates a location in the database.
-     * @param name Name of location
-     * @return Location object
+     * Builds the month and day sales rollups from every
+     * distribution and marks them complete. Rollups are
+     * replaced, so a sale made while it runs may be lost
+     * from its month; run it when no sales are being made.
+     * Never run implicitly, see rebuildSummariesAsync().
+     * @return Number of rollup documents written or -1 if it failed
      */
-    public Location createLocation(String name)
+    public int rebuildSalesRollups()
     {
-        HashMap<String, Object> map = new HashMap();
-        map.put("name", name);
+        Result<QuerySnapshot> r = readQuery(getDatabase().collection("Distribution"), RetryPolicy.READ.deadlineFromNow());
+        if(!r.isOk())
+            return -1;
+
+        // Sum every month and day
+        HashMap<String, SalesRollup.Sum> months = new HashMap<>();
+        HashMap<String, SalesRollup.Sum> days = new HashMap<>();
+        HashMap<String, String> monthOfDay = new HashMap<>();
+        Calendar cal = Calendar.getInstance();
+        for(DocumentSnapshot doc : r.getValue().getDocuments())
+        {
+            Date date = Codecs.date(doc, "date");
+            if(date == null)
+                continue;
+
+            cal.setTime(date);
+            String month = SalesRollup.monthKey(cal);
+            String day = SalesRollup.dayKey(cal);
+            if(!months.containsKey(month))
+                months.put(month, new SalesRollup.Sum());
+            if(!days.containsKey(day))
+            {
+                days.put(day, new SalesRollup.Sum());
+                monthOfDay.put(day, month);
+            }
 
+            double amount = Codecs.decimal(doc, "amount");
+            months.get(month).add(amount);
+            days.get(day).add(amount);
+        }
 
-        Task t = getDatabase().collection("Location").add(map);
+        // Write rollups in full batches
+        CollectionReference ref = getDatabase().collection(SalesRollup.COLLECTION);
+        ArrayList<Task<Void>> tasks = new ArrayList<>();
+        WriteBatch batch = getDatabase().batch();
+        int count = 0;
+        for(Map.Entry<String, SalesRollup.Sum> e : months.entrySet())
+        {
+            batch.set(ref.document(e.getKey()), e.getValue().toMap(null));
+            if(++count % BATCH_LIMIT == 0)
+            {
+                tasks.add(batch.commit());
+                batch = getDatabase().batch();
+            }
+        }
+        for(Map.Entry<String, SalesRollup.Sum> e : days.entrySet())
+        {
+            batch.set(ref.document(e.getKey()), e.getValue().toMap(monthOfDay.get(e.getKey())));
+            if(++count % BATCH_LIMIT == 0)
+            {
+                tasks.add(batch.commit());
+                batch = getDatabase().batch();
+            }
+        }
+        if(count % BATCH_LIMIT != 0)
+            tasks.add(batch.commit());
+
+        Task all = Tasks.whenAllSuccess(tasks);
+        waitForResponse(all);
+        if(!all.isSuccessful())
+            return -1;
+
+        // Only now can a missing month be trusted
+        HashMap<String, Object> head = new HashMap();
+        head.put("complete", true);
+        Task t = ref.document(SalesRollup.HEAD).set(head);
         waitForResponse(t);
+        if(!t.isSuccessful())
+            return -1;
 
+        salesComplete = true;
+        return count;
+    }
 
-        DocumentReference ref = (DocumentReference) t.getResult();
-        return new Location(ref.getId(), name);
+
+    /**
+     * Rebuilds the summaries kept next to the data from
+     * the data itself, one step after another, and
+     * fills the Barcode registry and catalog. Steps
+     * replace documents that checkouts increment, so this
+     * is an admin action to run when no sales are being
+     * made, never something a read triggers.
+     * @return Task resolving to the names of the steps that failed, empty if none
+     */
+    public Task<List<String>> rebuildSummariesAsync()
+    {
+        return runAsync(new Callable<List<String>>()
+        {
+            @Override
+            public List<String> call()
+            {
+                ArrayList<String> failed = new ArrayList<>();
+                if(rebuildSalesRollups() < 0)
+                    failed.add("sales totals");
+                if(rebuildOutflow() < 0)
+                    failed.add("item outflow");
+                if(backfillBarcodes() < 0)
+                    failed.add("barcode registry");
+                if(rebuildCatalog() < 0)
+                    failed.add("catalog");
+
+                return failed;
+            }
+        });
     }
 
 
     /**
-     * Returns a locatino from the database.
-     * @param id ID of location
-     * @return Null if read failed
+     * Returns an array of hashmaps that hold the
+     * item ID and quantity sold in given
+     * month and year. Quantities are stored
+     * in each item's attribute, quantity.
+     * @param month Month 0-11 for JAN-DEC
+     * @param year Year to search
+     * @return Array containing two hashmaps. [0] for SellableItem, [1] for NonSellableItem
      */
-    public Location getLocation(String id)
+    public HashMap<String, Item>[] getDistItemCountByDate(int month, int year)
     {
-        Task t = getDatabase().collection("Location").document(id).get();
-        waitForResponse(t);
+        Date[] range = monthRange(month, year);
+        LocalStore local = LOCAL;
 
-        if(t.isSuccessful())
+        HashMap<String, Item>[] cached = (local != null) ? local.distributedItems(range[0], range[1], false) : null;
+        if(cached != null) // Answered by local store
+            return cached;
+
+        // Set up hashmaps
+        HashMap<String, Item>[] maps = new HashMap[2];
+        HashMap<String, Item> sellMap = new HashMap<>();
+        HashMap<String, Item> nonsellMap = new HashMap<>();
+        maps[0] = sellMap;
+        maps[1] = nonsellMap;
+
+        Result<Distribution[]> distRes = readDistributions(range[0], range[1]); // Get all dists for month, year
+        boolean failed = !distRes.isOk();
+        Distribution[] dists = failed ? new Distribution[0] : distRes.getValue();
+        HashMap<String, Integer> sellCount = new HashMap<>();
+        HashMap<String, Integer> nonsellCount = new HashMap<>();
+
+        // Dist_Item has no date; read the month's records in whereIn() chunks sent together
+        ArrayList<String> distIDs = new ArrayList<>(dists.length);
+        for(Distribution d : dists)
+        {
+            distIDs.add(d.getID());
+        }
+
+        long deadline = RetryPolicy.READ.deadlineFromNow();
+        Result<List<DocumentSnapshot>> lines = queryIn("Dist_Item", FieldPath.of("dist"), distIDs, deadline);
+        failed |= !lines.isOk();
+
+        if(lines.isOk())
         {
-            DocumentSnapshot doc = (DocumentSnapshot) t.getResult();
+            for(DocumentSnapshot doc : lines.getValue()) // Total each item's quantity
+            {
+                String itemID = Codecs.string(doc, "item");
+                int quantity = Codecs.integer(doc, "quantity");
+
+                if(Codecs.flag(doc, "sellable"))
+                    updateCount(sellCount, quantity, itemID);
+                else
+                    updateCount(nonsellCount, quantity, itemID);
+            }
+        }
+
+        // Load every distinct item at once
+        deadline = RetryPolicy.READ.deadlineFromNow();
+        Result<HashMap<String, Item>> sellRes = loadItems(sellCount.keySet(), true, deadline);
+        Result<HashMap<String, Item>> nonsellRes = loadItems(nonsellCount.keySet(), false, deadline);
+        fillCountMap(sellMap, sellCount, sellRes.getValue());
+        fillCountMap(nonsellMap, nonsellCount, nonsellRes.getValue());
 
-            return new Location(id, doc.getString("name"));
+        if(failed || !sellRes.isOk() || !nonsellRes.isOk()) // Offline, last synced copy beats a partial count
+        {
+            HashMap<String, Item>[] stale = (local != null) ? local.distributedItems(range[0], range[1], true) : null;
+            if(stale != null)
+                return stale;
         }
-        else
-            return null;
+
+        return maps;
     }
 
 
     /**
-     * Update location with given object data.
-     * @param loc Location to update
-     * @return True if successful
+     * Counts the items distributed in month and year on a worker thread.
+     * @param month Month 0-11 for JAN-DEC
+     * @param year Year to search
+     * @return Task resolving to [0] SellableItem map, [1] NonSellableItem map
      */
-    public boolean updateLocation(Location loc)
+    public Task<HashMap<String, Item>[]> getDistItemCountByDateAsync(final int month, final int year)
     {
-        if (loc == null)
-            return false;
-
-        DocumentReference ref = getDatabase().collection("Location").document(loc.getID());
-        Task t = ref.update("name", loc.getName());
-        waitForResponse(t);
-
-        return t.isSuccessful();
+        return runAsync(new Callable<HashMap<String, Item>[]>()
+        {
+            @Override
+            public HashMap<String, Item>[] call()
+            {
+                return getDistItemCountByDate(month, year);
+            }
+        });
     }
 
 
     /**
-     * Returns an array of all locations in the database.
-     * Will never return null. If no locations are found,
-     * it returns an array of zero length.
-     * @return Array of locations
+     * Returns the quantity and value of every item
+     * distributed in a month from its outflow counters,
+     * with descriptions from the barcode index or one
+     * read of the items it doesn't hold. Until an admin
+     * has built the counters with rebuildSummariesAsync(),
+     * or if they can't be read, the month is counted with
+     * getDistItemCountByDate() instead.
+     * @param month Month 0-11 for JAN-DEC
+     * @param year Year
+     * @return OK with the entries, TIMED_OUT or FAILED
      */
-    public Location[] getAllLocations()
+    public Result<List<OutflowEntry>> getOutflow(int month, int year)
     {
-        Location[] locs;
-        Task t = getDatabase().collection("Location").get();
-        waitForResponse(t);
+        long deadline = RetryPolicy.READ.deadlineFromNow();
+        CollectionReference ref = getDatabase().collection(OutflowRollup.COLLECTION);
 
-        if(t.isSuccessful())
+        if(!outflowComplete)
         {
-            QuerySnapshot snap = (QuerySnapshot) t.getResult();
-            List<DocumentSnapshot> docs = snap.getDocuments();
-            locs = new Location[docs.size()];
+            Result<DocumentSnapshot> head = readDocument(ref.document(OutflowRollup.HEAD), deadline);
+            if(head.isOk() && OutflowRollup.isComplete(head.getValue()))
+                outflowComplete = true;
+        }
 
-            for(int i = 0; i < locs.length; i++)
+        if(outflowComplete)
+        {
+            deadline = RetryPolicy.READ.deadlineFromNow();
+            Result<QuerySnapshot> r = readQuery(ref.whereEqualTo("month", SalesRollup.monthKey(month, year)), deadline);
+            if(r.isOk())
             {
-                String id = docs.get(i).getId();
-                String name = docs.get(i).getString("name");
+                List<DocumentSnapshot> docs = r.getValue().getDocuments();
+                HashSet<String> ids = new HashSet<>();
+                for(DocumentSnapshot doc : docs)
+                {
+                    ids.add(Codecs.string(doc, "item"));
+                }
+
+                HashMap<String, String> names = describeItems(ids, deadline);
+                ArrayList<OutflowEntry> list = new ArrayList<>(docs.size());
+                for(DocumentSnapshot doc : docs)
+                {
+                    list.add(OutflowRollup.read(doc, names.get(Codecs.string(doc, "item"))));
+                }
 
-                locs[i] = new Location(id, name);
+                return Result.<List<OutflowEntry>>ok(list);
             }
         }
-        else
-            locs = new Location[0];
 
-        return locs;
+        // Count the month from its distributions
+        HashMap<String, Item>[] maps = getDistItemCountByDate(month, year);
+        ArrayList<OutflowEntry> list = new ArrayList<>(maps[0].size() + maps[1].size());
+        for(int i = 0; i < maps.length; i++)
+        {
+            for(Item item : maps[i].values())
+            {
+                list.add(new OutflowEntry(item.getID(), item.getDescription(), i == 0, item.getQuantity(), item.getQuantity() * item.getPrice()));
+            }
+        }
+
+        return Result.<List<OutflowEntry>>ok(list);
     }
 
 
     /**
-     * Creates a category record in the database.
-     * @param name Name of category
-     * @return Category object with given data
+     * Returns the outflow of a month on a worker thread.
+     * @param month Month 0-11 for JAN-DEC
+     * @param year Year
+     * @return Task resolving to the result of getOutflow()
      */
-    public Category createCategory(String name)
+    public Task<Result<List<OutflowEntry>>> getOutflowAsync(final int month, final int year)
     {
-        HashMap<String, Object> map = new HashMap();
-        map.put("name", name);
-
-        Task t = getDatabase().collection("Category").add(map);
-        waitForResponse(t);
-        DocumentReference ref = (DocumentReference) t.getResult();
-
-        return new Category(ref.getId(), name);
+        return runAsync(new Callable<Result<List<OutflowEntry>>>()
+        {
+            @Override
+            public Result<List<OutflowEntry>> call()
+            {
+                return getOutflow(month, year);
+            }
+        });
     }
 
 
     /**
-     * Updates category with attributes in c.
-     * @param c Category to update
+     * Returns the descriptions of items. The barcode
+     * index answers what it holds and the rest are read
+     * from the Item collection together. Items that
+     * can't be read are left out.
+     * @param ids Barcodes of items
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return Map of barcode to description
      */
-    public boolean updateCategory(Category c)
+    private HashMap<String, String> describeItems(Collection<String> ids, long deadline)
     {
-        DocumentReference ref = getDatabase().collection("Category").document(c.getID());
-        Task t = ref.update("name", c.getName());
-        waitForResponse(t);
+        HashMap<String, String> names = new HashMap<>(ids.size());
+        ArrayList<String> missed = new ArrayList<>();
+        for(String id : ids)
+        {
+            BarcodeMatch hit = resolveCached(id);
+            Item item = (hit == null) ? null : (hit.getSellable() != null) ? hit.getSellable() : hit.getNonSellable();
+
+            if(item != null)
+                names.put(id, item.getDescription());
+            else
+                missed.add(id);
+        }
+
+        if(!missed.isEmpty())
+        {
+            Result<HashMap<String, DocumentSnapshot>> r = getDocuments("Item", missed, deadline);
+            if(r.isOk())
+            {
+                for(DocumentSnapshot doc : r.getValue().values())
+                {
+                    names.put(doc.getId(), Codecs.string(doc, "description"));
+                }
+            }
+        }
+
+        return names;
+    }
+
+
+    /**
+     * Builds the outflow counters from every distribution
+     * and marks them complete. Values use the price saved
+     * on each Dist_Item record, or the item's current
+     * price for sales saved before it was kept. Counters
+     * are replaced, so a sale made while it runs may be
+     * lost from its month; run it when no sales are being
+     * made. Never run implicitly, see rebuildSummariesAsync().
+     * @return Number of counters written or -1 if it failed
+     */
+    public int rebuildOutflow()
+    {
+        Result<List<QuerySnapshot>> r = readCollections(RetryPolicy.READ.deadlineFromNow(), "Distribution", "Dist_Item", "Item");
+        if(!r.isOk())
+            return -1;
+
+        // Month of every distribution
+        HashMap<String, String> monthOf = new HashMap<>();
+        Calendar cal = Calendar.getInstance();
+        for(DocumentSnapshot doc : r.getValue().get(0).getDocuments())
+        {
+            Date date = Codecs.date(doc, "date");
+            if(date == null)
+                continue;
+
+            cal.setTime(date);
+            monthOf.put(doc.getId(), SalesRollup.monthKey(cal));
+        }
+
+        // Price of every item
+        HashMap<String, Double> prices = new HashMap<>();
+        for(DocumentSnapshot doc : r.getValue().get(2).getDocuments())
+        {
+            prices.put(doc.getId(), Codecs.decimal(doc, "price"));
+        }
+
+        // Sum every item of every month
+        HashMap<String, OutflowRollup.Sum> sums = new HashMap<>();
+        for(DocumentSnapshot doc : r.getValue().get(1).getDocuments())
+        {
+            String month = monthOf.get(Codecs.string(doc, "dist"));
+            String item = Codecs.string(doc, "item");
+            if(month == null || item == null)
+                continue;
+
+            boolean sellable = Codecs.flag(doc, "sellable");
+            String key = OutflowRollup.key(month, item, sellable);
+            OutflowRollup.Sum sum = sums.get(key);
+            if(sum == null)
+            {
+                sum = new OutflowRollup.Sum(month, item, sellable);
+                sums.put(key, sum);
+            }
+
+            Double price = doc.contains("price") ? Codecs.decimal(doc, "price") : prices.get(item); // Price at the time of sale
+            sum.add(Codecs.integer(doc, "quantity"), (price != null) ? price : 0.0);
+        }
+
+        // Write counters in full batches
+        CollectionReference ref = getDatabase().collection(OutflowRollup.COLLECTION);
+        ArrayList<Task<Void>> tasks = new ArrayList<>();
+        WriteBatch batch = getDatabase().batch();
+        int count = 0;
+        for(Map.Entry<String, OutflowRollup.Sum> e : sums.entrySet())
+        {
+            batch.set(ref.document(e.getKey()), e.getValue().toMap());
+            if(++count % BATCH_LIMIT == 0)
+            {
+                tasks.add(batch.commit());
+                batch = getDatabase().batch();
+            }
+        }
+        if(count % BATCH_LIMIT != 0)
+            tasks.add(batch.commit());
+
+        Task all = Tasks.whenAllSuccess(tasks);
+        waitForResponse(all);
+        if(!all.isSuccessful())
+            return -1;
+
+        // Only now can a missing counter be trusted
+        HashMap<String, Object> head = new HashMap();
+        head.put("complete", true);
+        Task t = ref.document(OutflowRollup.HEAD).set(head);
+        waitForResponse(t);
+        if(!t.isSuccessful())
+            return -1;
+
+        outflowComplete = true;
+        return count;
+    }
+
+
+    /**
+     * Returns a report watermark, which moves every
+     * time a change the report depends on is saved.
+     * Sums its shards, read in one query.
+     * @param depends Watermark to read
+     * @return OK with the watermark, 0 if never moved, TIMED_OUT or FAILED
+     */
+    public Result<Long> getWatermark(ReportCache.Depends depends)
+    {
+        Result<HashMap<String, DocumentSnapshot>> r = getDocuments(ReportCache.COLLECTION, ReportCache.shards(), RetryPolicy.READ.deadlineFromNow());
+        if(!r.isOk())
+            return Result.from(r);
+
+        long sum = 0;
+        for(DocumentSnapshot doc : r.getValue().values()) // Shards never bumped are missing
+        {
+            Object v = doc.get(depends.field);
+            if(v instanceof Number)
+                sum += ((Number) v).longValue();
+        }
+
+        return Result.ok(sum);
+    }
+
+
+    /**
+     * Update the count with quantity using
+     * id as the key.
+     * @param count Map of item ID to quantity
+     * @param quantity Quantity to increment
+     * @param ID Item ID
+     */
+    private void updateCount(HashMap<String, Integer> count, int quantity, String ID)
+    {
+        Integer current = count.get(ID);
+
+        if(current == null) // New map item
+            count.put(ID, quantity);
+        else // Update map
+            count.put(ID, current + quantity);
+    }
+
+
+    /**
+     * Saves each loaded item in map with its quantity
+     * set to the counted quantity. Items that could
+     * not be loaded are left out.
+     * @param map Map to fill
+     * @param count Map of item ID to quantity
+     * @param items Loaded items by ID, null if the read failed
+     */
+    private void fillCountMap(HashMap<String, Item> map, HashMap<String, Integer> count, HashMap<String, Item> items)
+    {
+        if(items == null) // Null if database read failed
+            return;
+
+        for(Item i : items.values())
+        {
+            i.setQuantity(count.get(i.getID()));
+            map.put(i.getID(), i); // Save new mapping
+        }
+    }
+
+
+    /**
+     * Pull information from the database with formatted time t1 and t2.
+     * @param t1 Beginning date
+     * @param t2 Ending date
+     * @return Array of Distributions
+     */
+    private Distribution[] getDistributions(Date t1, Date t2)
+    {
+        Result<Distribution[]> r = readDistributions(t1, t2);
+        return r.isOk() ? r.getValue() : new Distribution[0]; // Default empty list
+    }
+
+
+    /**
+     * Reads the distributions from t1 up to t2. The local
+     * store answers while in sync, and again with its last
+     * synced copy if the database can't be read.
+     * @param t1 Beginning date
+     * @param t2 Ending date
+     * @return OK with the distributions, TIMED_OUT or FAILED
+     */
+    private Result<Distribution[]> readDistributions(Date t1, Date t2)
+    {
+        LocalStore local = LOCAL;
+        Distribution[] cached = (local != null) ? local.distributions(t1, t2, false, this) : null;
+        if(cached != null) // Answered by local store
+            return Result.ok(cached);
+
+        CollectionReference ref = getDatabase().collection("Distribution");
+
+        Query q1 = ref.whereGreaterThanOrEqualTo("date", new Timestamp(t1)).whereLessThan("date", new Timestamp(t2));
+        Result<QuerySnapshot> r = readQuery(q1, RetryPolicy.READ.deadlineFromNow());
+
+        if(!r.isOk())
+        {
+            Distribution[] stale = (local != null) ? local.distributions(t1, t2, true, this) : null;
+            return (stale != null) ? Result.ok(stale) : Result.<Distribution[]>from(r);
+        }
+
+        List<DocumentSnapshot> list = r.getValue().getDocuments();
+        Distribution[] dists = new Distribution[list.size()];
+
+        for(int i = 0; i < dists.length; i++)
+        {
+            Map<String, Object> data = list.get(i).getData();
+            User u = getUser(Codecs.DISTRIBUTION.userOf(data));
+
+            dists[i] = Codecs.DISTRIBUTION.decode(list.get(i).getId(), data, u);
+        }
+
+        return Result.ok(dists);
+    }
+
+
+    /**
+     * Creates a location in the database.
+     * @param name Name of location
+     * @return Location object or null if save failed
+     */
+    public Location createLocation(String name)
+    {
+        HashMap<String, Object> map = new HashMap();
+        map.put("name", name);
+
+
+        Task t = getDatabase().collection("Location").add(map);
+        waitForResponse(t);
+        if(!t.isSuccessful())
+            return null;
+
+        DocumentReference ref = (DocumentReference) t.getResult();
+        LOCATIONS.put(ref.getId(), map); // Write through to cache
+        return new Location(ref.getId(), name);
+    }
+
+
+    /**
+     * Creates a location on a worker thread.
+     * @param name Name of location
+     * @return Task resolving to the new location
+     */
+    public Task<Location> createLocationAsync(final String name)
+    {
+        return runAsync(new Callable<Location>()
+        {
+            @Override
+            public Location call()
+            {
+                return createLocation(name);
+            }
+        });
+    }
+
+
+    /**
+     * Returns a locatino from the database.
+     * @param id ID of location
+     * @return Null if read failed
+     */
+    public Location getLocation(String id)
+    {
+        return lookupLocation(id, RetryPolicy.READ.deadlineFromNow()).getValue();
+    }
+
+
+    /**
+     * Returns a location from the database.
+     * @param id ID of location
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return OK with the location, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    private Result<Location> lookupLocation(String id, long deadline)
+    {
+        Location cached = LOCATIONS.get(id);
+        if(cached != null)
+            return Result.ok(cached);
+
+        Result<DocumentSnapshot> r = readDocument(getDatabase().collection("Location").document(id), deadline);
+
+        if(!r.isOk())
+            return Result.from(r);
+
+        LOCATIONS.put(id, r.getValue().getData());
+        return Result.ok(Codecs.LOCATION.decode(r.getValue()));
+    }
+
+
+
+
+    /**
+     * Update location with given object data.
+     * @param loc Location to update
+     * @return True if successful
+     */
+    public boolean updateLocation(Location loc)
+    {
+        if (loc == null)
+            return false;
+
+        DocumentReference ref = getDatabase().collection("Location").document(loc.getID());
+        Task t = ref.update("name", loc.getName());
+        waitForResponse(t);
+
+        if(t.isSuccessful()) // Write through to cache
+            LOCATIONS.put(loc.getID(), Codecs.LOCATION.encode(loc));
+        else // Unknown state
+            LOCATIONS.invalidate(loc.getID());
+
+        return t.isSuccessful();
+    }
+
+
+    /**
+     * Updates a location on a worker thread.
+     * @param loc Location to update
+     * @return Task resolving to true if successful
+     */
+    public Task<Boolean> updateLocationAsync(final Location loc)
+    {
+        return runAsync(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return updateLocation(loc);
+            }
+        });
+    }
+
+
+    /**
+     * Returns an array of all locations in the database.
+     * Will never return null. If no locations are found,
+     * it returns an array of zero length.
+     * @return Array of locations
+     */
+    public Location[] getAllLocations()
+    {
+        Location[] locs = getCachedLocations();
+        if(locs != null)
+            return locs;
+
+        Result<QuerySnapshot> r = readQuery(getDatabase().collection("Location"), RetryPolicy.READ.deadlineFromNow());
+
+        if(r.isOk())
+        {
+            QuerySnapshot snap = r.getValue();
+            List<DocumentSnapshot> docs = snap.getDocuments();
+            LOCATIONS.fill(docs);
+            locs = new Location[docs.size()];
+
+            for(int i = 0; i < locs.length; i++)
+            {
+                locs[i] = Codecs.LOCATION.decode(docs.get(i));
+            }
+        }
+        else
+            locs = new Location[0];
+
+        return locs;
+    }
+
+
+    /**
+     * Returns all locations on a worker thread.
+     * @return Task resolving to an array of locations, never null
+     */
+    public Task<Location[]> getAllLocationsAsync()
+    {
+        return runAsync(new Callable<Location[]>()
+        {
+            @Override
+            public Location[] call()
+            {
+                return getAllLocations();
+            }
+        });
+    }
+
+
+    /**
+     * Returns all locations from the shared cache
+     * without touching the database. Safe to call
+     * on the UI thread.
+     * @return Array of locations or null if not cached
+     */
+    public Location[] getCachedLocations()
+    {
+        List<Location> list = LOCATIONS.getAll();
+        return (list != null) ? list.toArray(new Location[0]) : null;
+    }
+
+
+    /**
+     * Creates a category record in the database.
+     * @param name Name of category
+     * @return Category object with given data or null if save failed
+     */
+    public Category createCategory(String name)
+    {
+        HashMap<String, Object> map = new HashMap();
+        map.put("name", name);
+
+        Task t = getDatabase().collection("Category").add(map);
+        waitForResponse(t);
+        if(!t.isSuccessful())
+            return null;
+
+        DocumentReference ref = (DocumentReference) t.getResult();
+        CATEGORIES.put(ref.getId(), map); // Write through to cache
+
+        return new Category(ref.getId(), name);
+    }
+
+
+    /**
+     * Creates a category on a worker thread.
+     * @param name Name of category
+     * @return Task resolving to the new category
+     */
+    public Task<Category> createCategoryAsync(final String name)
+    {
+        return runAsync(new Callable<Category>()
+        {
+            @Override
+            public Category call()
+            {
+                return createCategory(name);
+            }
+        });
+    }
+
+
+    /**
+     * Updates category with attributes in c.
+     * @param c Category to update
+     */
+    public boolean updateCategory(Category c)
+    {
+        DocumentReference ref = getDatabase().collection("Category").document(c.getID());
+        Task t = ref.update("name", c.getName());
+        waitForResponse(t);
+
+        if(t.isSuccessful()) // Write through to cache
+            CATEGORIES.put(c.getID(), Codecs.CATEGORY.encode(c));
+        else // Unknown state
+            CATEGORIES.invalidate(c.getID());
+
+        return t.isSuccessful();
+    }
+
+
+    /**
+     * Updates a category on a worker thread.
+     * @param c Category to update
+     * @return Task resolving to true if successful
+     */
+    public Task<Boolean> updateCategoryAsync(final Category c)
+    {
+        return runAsync(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return updateCategory(c);
+            }
+        });
+    }
+
+
+    /**
+     * Returns category with given ID.
+     * @param id ID of category
+     * @return Null if failed to read
+     */
+    public Category getCategory(String id)
+    {
+        return lookupCategory(id, RetryPolicy.READ.deadlineFromNow()).getValue();
+    }
+
+
+    /**
+     * Returns category with given ID.
+     * @param id ID of category
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return OK with the category, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    private Result<Category> lookupCategory(String id, long deadline)
+    {
+        Category cached = CATEGORIES.get(id);
+        if(cached != null)
+            return Result.ok(cached);
+
+        Result<DocumentSnapshot> r = readDocument(getDatabase().collection("Category").document(id), deadline);
+
+        if(!r.isOk())
+            return Result.from(r);
+
+        CATEGORIES.put(id, r.getValue().getData());
+        return Result.ok(Codecs.CATEGORY.decode(r.getValue()));
+    }
+
+
+
+
+    /**
+     * Returns an array of all categories in the database.
+     * @return Array of categories or empty array if no categories exist
+     */
+    public Category[] getAllCategories()
+    {
+        Category[] cats = getCachedCategories();
+        if(cats != null)
+            return cats;
+
+        Result<QuerySnapshot> r = readQuery(getDatabase().collection("Category"), RetryPolicy.READ.deadlineFromNow());
+
+        if(r.isOk())
+        {
+            QuerySnapshot snap = r.getValue();
+            List<DocumentSnapshot> docs = snap.getDocuments();
+            CATEGORIES.fill(docs);
+            cats = new Category[docs.size()];
+
+            for(int i = 0; i < cats.length; i++)
+            {
+                cats[i] = Codecs.CATEGORY.decode(docs.get(i));
+            }
+        }
+        else
+            cats = new Category[0];
+
+        return cats;
+    }
+
+
+    /**
+     * Returns all categories on a worker thread.
+     * @return Task resolving to an array of categories, never null
+     */
+    public Task<Category[]> getAllCategoriesAsync()
+    {
+        return runAsync(new Callable<Category[]>()
+        {
+            @Override
+            public Category[] call()
+            {
+                return getAllCategories();
+            }
+        });
+    }
+
+
+    /**
+     * Returns all categories from the shared cache
+     * without touching the database. Safe to call
+     * on the UI thread.
+     * @return Array of categories or null if not cached
+     */
+    public Category[] getCachedCategories()
+    {
+        List<Category> list = CATEGORIES.getAll();
+        return (list != null) ? list.toArray(new Category[0]) : null;
+    }
+
+
+    /**
+     * Adds an item document to the batch.
+     * @param batch Batch to add to
+     * @param item New item
+     * @param fields Item document fields from its codec
+     */
+    private void createItem(WriteBatch batch, Item item, Map<String, Object> fields)
+    {
+        batch.set(getDatabase().collection("Item").document(item.getID()), fields);
+        CatalogManifest.put(getDatabase(), batch, item.getID(), item.getDescription(), CatalogEntry.Kind.ITEM);
+    }
+
+
+    /**
+     * Adds a Barcode registry entry to the batch. The
+     * entry maps the collection holding the barcode to
+     * its document path and is merged with any other
+     * kinds already registered for the barcode.
+     * @param batch Batch to add to
+     * @param id Barcode
+     * @param collection Sellable, NonSellable or Kit
+     */
+    private void registerBarcode(WriteBatch batch, String id, String collection)
+    {
+        HashMap<String, Object> map = new HashMap();
+        map.put(collection, collection + "/" + id);
+
+        batch.set(getDatabase().collection("Barcode").document(id), map, SetOptions.merge());
+    }
+
+
+    /**
+     * Returns a hashmap of all unique item IDs and their
+     * corresponding descriptions. Key = ID, Val = description.
+     * Will return null if no items exist or process fails.
+     * @return Hashmap of all unique item IDs.
+     */
+    public HashMap<String, String> getUniqueItems()
+    {
+        Result<QuerySnapshot> r = readQuery(getDatabase().collection("Item"), RetryPolicy.READ.deadlineFromNow());
+
+        if(r.isOk())
+        {
+            QuerySnapshot shot = r.getValue();
+            List<DocumentSnapshot> docs = shot.getDocuments();
+
+            if(docs.size() > 0)
+            {
+                HashMap<String, String> map = new HashMap<>(docs.size());
+                String key, val;
+
+                for(int i = 0; i < docs.size(); i++)
+                {
+                    key = docs.get(i).getString("ID"); // Get key
+                    val = docs.get(i).getString("description"); // Get value
+                    map.put(key, val); // Add to map
+                }
+
+                return map;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Returns every item and kit barcode with its
+     * description or name from the catalog manifest.
+     * Reads only the chunks updated since this process
+     * last read them, after checking once that the
+     * manifest is built.
+     * @return OK with items then kits, NOT_FOUND if the manifest isn't built, TIMED_OUT or FAILED
+     */
+    public Result<List<CatalogEntry>> getCatalog()
+    {
+        long deadline = RetryPolicy.READ.deadlineFromNow();
+        CollectionReference ref = getDatabase().collection(CatalogManifest.COLLECTION);
+
+        if(!catalogComplete)
+        {
+            Result<DocumentSnapshot> head = readDocument(ref.document(CatalogManifest.HEAD), deadline);
+            if(!head.isOk())
+                return Result.from(head);
+
+            if(!CatalogManifest.isComplete(head.getValue())) // Not built yet
+                return Result.notFound();
+
+            catalogComplete = true;
+        }
+
+        Result<QuerySnapshot> r = readQuery(ref.whereGreaterThan("updated", CATALOG.updated()), deadline);
+        if(!r.isOk())
+            return Result.from(r);
+
+        CATALOG.apply(r.getValue().getDocuments());
+        return Result.ok(CATALOG.entries());
+    }
+
+
+    /**
+     * Returns the catalog on a worker thread.
+     * @return Task resolving to the result of getCatalog()
+     */
+    public Task<Result<List<CatalogEntry>>> getCatalogAsync()
+    {
+        return runAsync(new Callable<Result<List<CatalogEntry>>>()
+        {
+            @Override
+            public Result<List<CatalogEntry>> call()
+            {
+                return getCatalog();
+            }
+        });
+    }
+
+
+    /**
+     * Builds the catalog manifest from every item and
+     * kit and marks it complete. Chunks are replaced
+     * in one batch with a new time, so clients read
+     * each chunk again. Writes made while it runs may
+     * be lost from the manifest, so run it when the
+     * catalog is not being edited.
+     * @return Number of entries written or -1 if it failed
+     */
+    public int rebuildCatalog()
+    {
+        long deadline = RetryPolicy.READ.deadlineFromNow();
+        CollectionReference ref = getDatabase().collection(CatalogManifest.COLLECTION);
+
+        Result<List<QuerySnapshot>> r = readCollections(deadline, "Item", "Kit");
+        if(!r.isOk())
+            return -1;
+
+        // Pack every entry into its chunk
+        HashMap<String, HashMap<String, Object>> chunks = new HashMap<>();
+        for(int i = 0; i < CatalogManifest.CHUNKS; i++)
+        {
+            chunks.put(CatalogManifest.chunkName(i), new HashMap<String, Object>());
+        }
+
+        int count = 0;
+        for(DocumentSnapshot doc : r.getValue().get(0).getDocuments())
+        {
+            chunks.get(CatalogManifest.chunkOf(doc.getId())).put(doc.getId(), CatalogManifest.pack(doc.getString("description"), CatalogEntry.Kind.ITEM));
+            count++;
+        }
+        for(DocumentSnapshot doc : r.getValue().get(1).getDocuments())
+        {
+            chunks.get(CatalogManifest.chunkOf(doc.getId())).put(doc.getId(), CatalogManifest.pack(doc.getString("name"), CatalogEntry.Kind.KIT));
+            count++;
+        }
+
+        WriteBatch batch = getDatabase().batch();
+        for(Map.Entry<String, HashMap<String, Object>> e : chunks.entrySet())
+        {
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("entries", e.getValue());
+            map.put("updated", FieldValue.serverTimestamp());
+            batch.set(ref.document(e.getKey()), map);
+        }
+
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("complete", true);
+        batch.set(ref.document(CatalogManifest.HEAD), map);
+
+        Task t = batch.commit();
+        waitForResponse(t);
+        if(!t.isSuccessful())
+            return -1;
+
+        catalogComplete = true;
+        return count;
+    }
+
+
+    /**
+     * Rebuilds the catalog manifest on a worker thread.
+     * @return Task resolving to the result of rebuildCatalog()
+     */
+    public Task<Integer> rebuildCatalogAsync()
+    {
+        return runAsync(new Callable<Integer>()
+        {
+            @Override
+            public Integer call()
+            {
+                return rebuildCatalog();
+            }
+        });
+    }
+
+
+    /**
+     * Returns a cursor over item IDs and their
+     * descriptions in ID order.
+     * @param pageSize Items per page
+     * @return Cursor of ID to description pairs, nothing is read until next()
+     */
+    public PageCursor<Map.Entry<String, String>> uniqueItemCursor(int pageSize)
+    {
+        Query q = getDatabase().collection("Item").orderBy(FieldPath.documentId());
+        return new PageCursor<>(q, pageSize, new PageCursor.Loader<Map.Entry<String, String>>()
+        {
+            @Override
+            public Result<List<Map.Entry<String, String>>> load(List<DocumentSnapshot> docs, long deadline)
+            {
+                ArrayList<Map.Entry<String, String>> page = new ArrayList<>(docs.size());
+                for(int i = 0; i < docs.size(); i++)
+                {
+                    page.add(new AbstractMap.SimpleImmutableEntry<>(docs.get(i).getString("ID"), docs.get(i).getString("description")));
+                }
+
+                return Result.<List<Map.Entry<String, String>>>ok(page);
+            }
+        });
+    }
+
+
+    /**
+     * Returns the map of item IDs to descriptions on a worker thread.
+     * @return Task resolving to the map or null if no items exist
+     */
+    public Task<HashMap<String, String>> getUniqueItemsAsync()
+    {
+        return runAsync(new Callable<HashMap<String, String>>()
+        {
+            @Override
+            public HashMap<String, String> call()
+            {
+                return getUniqueItems();
+            }
+        });
+    }
+
+
+    /**
+     * Creates a sellable item in the database.
+     * ID of the item is generated.
+     * @param rec Date received
+     * @param desc Additional description
+     * @param cond Condition of item
+     * @param price Price of item
+     * @param cat Category of item
+     * @param quantity Quantity in stock
+     * @param loc Location of item
+     * @return True if successful
+     */
+    public boolean createSellableItem(Date rec, String desc, Condition cond, double price, Category cat, int quantity, Location loc)
+    {
+        SellableItem item = new SellableItem(makeID(), rec, desc, quantity, cond, price, cat, loc);
+        WriteBatch batch = getDatabase().batch();
+        createItem(batch, item, Codecs.SELLABLE.encodeItem(item)); // Make document in Item collection
+
+        batch.set(getDatabase().collection("Sellable").document(item.getID()), Codecs.SELLABLE.encodeType(item));
+        registerBarcode(batch, item.getID(), "Sellable");
+        ReportCache.bump(getDatabase(), batch, ReportCache.Depends.STOCK);
+
+        Task t = batch.commit();
+        waitForResponse(t);
+
+        return t.isSuccessful();
+    }
+
+
+    /**
+     * Creates a sellable item on a worker thread.
+     * @see #createSellableItem(Date, String, Condition, double, Category, int, Location)
+     * @return Task resolving to true if successful
+     */
+    public Task<Boolean> createSellableItemAsync(final Date rec, final String desc, final Condition cond, final double price, final Category cat, final int quantity, final Location loc)
+    {
+        return runAsync(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return createSellableItem(rec, desc, cond, price, cat, quantity, loc);
+            }
+        });
+    }
+
+
+    /**
+     * Creates a nonsellable item in the database.
+     * ID is generated for item.
+     * @param rec Date received
+     * @param desc Additional description
+     * @param cond Condition of item
+     * @param price Price of item
+     * @param cat Category of item
+     * @param source Source person/business of item
+     * @param quantity Quantity of item
+     * @param loc Location of item
+     * @return True if successful
+     */
+    public boolean createNonSellableItem(Date rec, String desc, Condition cond, double price, Category cat, String source, int quantity, Location loc)
+    {
+        NonSellableItem item = new NonSellableItem(makeID(), rec, desc, quantity, cond, price, cat, source, loc);
+        WriteBatch batch = getDatabase().batch();
+        createItem(batch, item, Codecs.NONSELLABLE.encodeItem(item)); // Make document in Item collection
+
+        batch.set(getDatabase().collection("NonSellable").document(item.getID()), Codecs.NONSELLABLE.encodeType(item));
+        registerBarcode(batch, item.getID(), "NonSellable");
+        ReportCache.bump(getDatabase(), batch, ReportCache.Depends.STOCK);
+
+        Task t = batch.commit();
+        waitForResponse(t);
+
+        return t.isSuccessful();
+    }
+
+
+    /**
+     * Creates a nonsellable item on a worker thread.
+     * @see #createNonSellableItem(Date, String, Condition, double, Category, String, int, Location)
+     * @return Task resolving to true if successful
+     */
+    public Task<Boolean> createNonSellableItemAsync(final Date rec, final String desc, final Condition cond, final double price, final Category cat, final String source, final int quantity, final Location loc)
+    {
+        return runAsync(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return createNonSellableItem(rec, desc, cond, price, cat, source, quantity, loc);
+            }
+        });
+    }
+
+
+    /**
+     * Returns a nonsellable object from the database
+     * with the given ID.
+     * @param id Barcode of item
+     * @return Null if read failed
+     */
+    public NonSellableItem getNonSellableItem(String id)
+    {
+        return lookupNonSellableItem(id).getValue();
+    }
+
+
+    /**
+     * Returns a nonsellable object from the database
+     * with the given ID. All reads share one deadline.
+     * @param id Barcode of item
+     * @return OK with the item, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    public Result<NonSellableItem> lookupNonSellableItem(String id)
+    {
+        return lookupNonSellableItem(id, ReadPolicy.STRICT);
+    }
+
+
+    /**
+     * Returns a nonsellable object from the database
+     * with the given ID. All reads share one deadline.
+     * @param id Barcode of item
+     * @param policy Where reads may be answered from
+     * @return OK with the item, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    public Result<NonSellableItem> lookupNonSellableItem(String id, ReadPolicy policy)
+    {
+        LocalStore local = policy.isStrict() ? null : LOCAL; // STRICT reads skip every copy
+        if(!policy.isStrict())
+        {
+            Result<NonSellableItem> cached = INDEX.findNonSellable(id);
+            if(cached != null) // Answered by index
+                return cached;
+
+            cached = (local != null) ? local.findNonSellable(id, false) : null;
+            if(cached != null) // Answered by local store
+                return cached;
+        }
+
+        Result<NonSellableItem> r = fetchNonSellableItem(id, policy);
+        if(r.isError() && local != null) // Offline, use the last synced copy
+        {
+            Result<NonSellableItem> stale = local.findNonSellable(id, true);
+            if(stale != null)
+                return stale;
+        }
+
+        return r;
+    }
+
+
+    /**
+     * Reads a nonsellable item from the database.
+     * @param id Barcode of item
+     * @param policy Where reads may be answered from
+     * @return OK with the item, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    private Result<NonSellableItem> fetchNonSellableItem(String id, ReadPolicy policy)
+    {
+        Result<Item> r = fetchItem(id, false, policy);
+        return r.isOk() ? Result.ok((NonSellableItem) r.getValue()) : Result.<NonSellableItem>from(r);
+    }
+
+
+    /**
+     * Returns a nonsellable item on a worker thread.
+     * @param id Barcode of item
+     * @return Task resolving to the result of lookupNonSellableItem()
+     */
+    public Task<Result<NonSellableItem>> lookupNonSellableItemAsync(final String id)
+    {
+        return runAsync(new Callable<Result<NonSellableItem>>()
+        {
+            @Override
+            public Result<NonSellableItem> call()
+            {
+                return lookupNonSellableItem(id);
+            }
+        });
+    }
+
+
+    /**
+     * Returns a sellable object from the database
+     * with the given ID.
+     * @param id Barcode of item
+     * @return Null if read failed
+     */
+    public SellableItem getSellableItem(String id)
+    {
+        return lookupSellableItem(id).getValue();
+    }
+
+
+    /**
+     * Returns a sellable object from the database
+     * with the given ID. All reads share one deadline.
+     * @param id Barcode of item
+     * @return OK with the item, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    public Result<SellableItem> lookupSellableItem(String id)
+    {
+        return lookupSellableItem(id, ReadPolicy.STRICT);
+    }
+
+
+    /**
+     * Returns a sellable object from the database
+     * with the given ID. All reads share one deadline.
+     * @param id Barcode of item
+     * @param policy Where reads may be answered from
+     * @return OK with the item, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    public Result<SellableItem> lookupSellableItem(String id, ReadPolicy policy)
+    {
+        LocalStore local = policy.isStrict() ? null : LOCAL; // STRICT reads skip every copy
+        if(!policy.isStrict())
+        {
+            Result<SellableItem> cached = INDEX.findSellable(id);
+            if(cached != null) // Answered by index
+                return cached;
+
+            cached = (local != null) ? local.findSellable(id, false) : null;
+            if(cached != null) // Answered by local store
+                return cached;
+        }
+
+        Result<SellableItem> r = fetchSellableItem(id, policy);
+        if(r.isError() && local != null) // Offline, use the last synced copy
+        {
+            Result<SellableItem> stale = local.findSellable(id, true);
+            if(stale != null)
+                return stale;
+        }
+
+        return r;
+    }
+
+
+    /**
+     * Reads a sellable item from the database.
+     * @param id Barcode of item
+     * @param policy Where reads may be answered from
+     * @return OK with the item, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    private Result<SellableItem> fetchSellableItem(String id, ReadPolicy policy)
+    {
+        Result<Item> r = fetchItem(id, true, policy);
+        return r.isOk() ? Result.ok((SellableItem) r.getValue()) : Result.<SellableItem>from(r);
+    }
+
+
+    /**
+     * Reads one item in two round trips. The Item and
+     * Sellable/NonSellable documents don't depend on each
+     * other, so they are read together; the category and
+     * location they name are then read together, unless
+     * cached. All reads share one deadline.
+     * @param id Barcode of item
+     * @param sellable True for SellableItem, false for NonSellableItem
+     * @param policy Where reads may be answered from
+     * @return OK with the item, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    private Result<Item> fetchItem(final String id, boolean sellable, final ReadPolicy policy)
+    {
+        final long deadline = RetryPolicy.READ.deadlineFromNow();
+        final DocumentReference typeRef = getDatabase().collection(sellable ? "Sellable" : "NonSellable").document(id);
+
+        // Round trip 1: both documents
+        Task<Result<DocumentSnapshot>> itemTask = fork(new Callable<Result<DocumentSnapshot>>()
+        {
+            @Override
+            public Result<DocumentSnapshot> call()
+            {
+                return getItem(id, deadline, policy);
+            }
+        });
+        Task<Result<DocumentSnapshot>> typeTask = fork(new Callable<Result<DocumentSnapshot>>()
+        {
+            @Override
+            public Result<DocumentSnapshot> call()
+            {
+                return readDocument(typeRef, deadline, policy);
+            }
+        });
+
+        awaitTask(Tasks.whenAll(itemTask, typeTask), deadline);
+        Result<DocumentSnapshot> itemRes = join(itemTask);
+        Result<DocumentSnapshot> typeRes = join(typeTask);
+
+        if(!itemRes.isOk())
+            return Result.from(itemRes);
+        if(!typeRes.isOk())
+            return Result.from(typeRes);
+
+        // Round trip 2: what the documents point to
+        Task<HashMap<String, Category>> catTask = forkResolve(CATEGORIES, Collections.singleton(itemRes.getValue().getString("category")), deadline);
+        Task<HashMap<String, Location>> locTask = forkResolve(LOCATIONS, Collections.singleton(typeRes.getValue().getString("location")), deadline);
+        awaitTask(Tasks.whenAll(catTask, locTask), deadline);
+
+        // Item keeps placeholders for what couldn't be read
+        HashMap<String, Category> cats = catTask.isSuccessful() ? catTask.getResult() : new HashMap<String, Category>();
+        HashMap<String, Location> locs = locTask.isSuccessful() ? locTask.getResult() : new HashMap<String, Location>();
+
+        return Result.ok(buildItem(itemRes.getValue(), typeRes.getValue(), cats, locs, sellable));
+    }
+
+
+    /**
+     * Starts one branch of a hydration step on the
+     * fan-out pool.
+     * @param call Blocking read
+     * @return Task resolving to the result of call
+     */
+    private static <T> Task<T> fork(Callable<T> call)
+    {
+        return Tasks.call(FANOUT, call);
+    }
+
+
+    /**
+     * Returns the result of a forked read once its
+     * step has been waited for.
+     * @param t Forked read
+     * @return Its result, TIMED_OUT if still running or FAILED
+     */
+    private static <T> Result<T> join(Task<Result<T>> t)
+    {
+        if(!t.isComplete())
+            return Result.timedOut();
+        if(!t.isSuccessful())
+            return Result.failed(t.getException());
+
+        return t.getResult();
+    }
+
+
+    /**
+     * Returns a sellable item on a worker thread.
+     * @param id Barcode of item
+     * @return Task resolving to the result of lookupSellableItem()
+     */
+    public Task<Result<SellableItem>> lookupSellableItemAsync(final String id)
+    {
+        return runAsync(new Callable<Result<SellableItem>>()
+        {
+            @Override
+            public Result<SellableItem> call()
+            {
+                return lookupSellableItem(id);
+            }
+        });
+    }
+
+
+    /**
+     * Retrieves all of the sellable items from the database.
+     * @return Array of sellable items or null
+     */
+    public SellableItem[] getAllSellable()
+    {
+        SellableItem[] items = null;
+        Result<ArrayList<Item>> r = loadAllItems(true, RetryPolicy.READ.deadlineFromNow()); // Scan and join collections
+
+        if(r.isOk() && r.getValue().size() > 0)
+            items = r.getValue().toArray(new SellableItem[0]);
+
+
+        return items;
+    }
+
+
+    /**
+     * Retrieves all sellable items on a worker thread.
+     * @return Task resolving to an array of sellable items or null
+     */
+    public Task<SellableItem[]> getAllSellableAsync()
+    {
+        return runAsync(new Callable<SellableItem[]>()
+        {
+            @Override
+            public SellableItem[] call()
+            {
+                return getAllSellable();
+            }
+        });
+    }
+
+
+    /**
+     * Retrieves all of the sellable items from the database.
+     * @return Array of sellable items or null
+     */
+    public NonSellableItem[] getAllNonSellable()
+    {
+        NonSellableItem[] items = null;
+        Result<ArrayList<Item>> r = loadAllItems(false, RetryPolicy.READ.deadlineFromNow()); // Scan and join collections
+
+        if(r.isOk() && r.getValue().size() > 0)
+            items = r.getValue().toArray(new NonSellableItem[0]);
+
+        return items;
+    }
+
+
+    /**
+     * Retrieves all nonsellable items on a worker thread.
+     * @return Task resolving to an array of nonsellable items or null
+     */
+    public Task<NonSellableItem[]> getAllNonSellableAsync()
+    {
+        return runAsync(new Callable<NonSellableItem[]>()
+        {
+            @Override
+            public NonSellableItem[] call()
+            {
+                return getAllNonSellable();
+            }
+        });
+    }
+
+
+    /**
+     * Generate a random ID of length
+     * BARCODE_SIZE consisting of integers.
+     * @return Random ID
+     */
+    private String makeID()
+    {
+        Random rand = new Random();
+        int[] id = new int[BARCODE_SIZE];
+
+        for(int i = 0; i < BARCODE_SIZE; i++)
+        {
+            id[i] = rand.nextInt(10); // [0, 10)
+        }
+
+        return Arrays.toString(id).replaceAll("\\[|\\]|,|\\s", "");
+    }
+
+
+
+    /**
+     * Updates the quantity of the passed sellable item to
+     * the database. Use this function instead of
+     * updateSellable() to save database read and writes.
+     * @param item Item to update
+     * @return True if successful
+     */
+    public boolean updateItemQuantity(SellableItem item)
+    {
+        if(item == null)
+            return false;
+
+
+        WriteBatch batch = getDatabase().batch();
+        batch.update(getDatabase().collection("Sellable").document(item.getID()), "quantity", item.getQuantity());
+        ReportCache.bump(getDatabase(), batch, ReportCache.Depends.STOCK);
+        Task t = batch.commit();
+
+        waitForResponse(t);
+
+        if(t.isSuccessful())
+            item.clearChanges(EnumSet.of(Item.Field.QUANTITY));
+
+        return t.isSuccessful();
+    }
+
+
+    /**
+     * Updates the quantity of the passed sellable item to
+     * the database. Use this function instead of
+     * updateNonSellable() to save database read and writes.
+     * @param item Item to update
+     * @return True if successful
+     */
+    public boolean updateItemQuantity(NonSellableItem item)
+    {
+        if(item == null)
+            return false;
+
+
+        WriteBatch batch = getDatabase().batch();
+        batch.update(getDatabase().collection("NonSellable").document(item.getID()), "quantity", item.getQuantity());
+        ReportCache.bump(getDatabase(), batch, ReportCache.Depends.STOCK);
+        Task t = batch.commit();
+
+        waitForResponse(t);
+
+        if(t.isSuccessful())
+            item.clearChanges(EnumSet.of(Item.Field.QUANTITY));
+
+        return t.isSuccessful();
+    }
+
+
+    /**
+     * Saves the fields changed in item. Changes to the
+     * Item document and the Sellable/NonSellable document
+     * are each sent as one update in a single batch.
+     * @param item Item to update
+     * @param collection Sellable or NonSellable
+     * @return True if successful or nothing changed
+     */
+    private boolean saveItemChanges(Item item, String collection)
+    {
+        Set<Item.Field> changes = item.getChanges();
+        if(changes.isEmpty()) // Nothing to save
+            return true;
+
+        HashMap<String, Object> itemFields = new HashMap<>();
+        HashMap<String, Object> typeFields = new HashMap<>();
+        for(Item.Field f : changes)
+        {
+            switch(f)
+            {
+                case RECEIVED:
+                    itemFields.put("received", new Timestamp(item.getReceived()));
+                    break;
+                case DESCRIPTION:
+                    itemFields.put("description", item.getDescription());
+                    break;
+                case CONDITION:
+                    itemFields.put("condition", Condition.toInt(item.getCondition()));
+                    break;
+                case PRICE:
+                    itemFields.put("price", item.getPrice());
+                    break;
+                case CATEGORY:
+                    itemFields.put("category", item.getCategory().getID());
+                    break;
+                case QUANTITY:
+                    typeFields.put("quantity", item.getQuantity());
+                    break;
+                case LOCATION:
+                    typeFields.put("location", item.getLocation().getID());
+                    break;
+                case SOURCE:
+                    typeFields.put("source", ((NonSellableItem) item).getSource());
+                    break;
+            }
+        }
+
+        WriteBatch batch = getDatabase().batch();
+        if(!itemFields.isEmpty())
+            batch.update(getDatabase().collection("Item").document(item.getID()), itemFields);
+        if(changes.contains(Item.Field.DESCRIPTION))
+            CatalogManifest.put(getDatabase(), batch, item.getID(), item.getDescription(), CatalogEntry.Kind.ITEM);
+        if(!typeFields.isEmpty())
+            batch.update(getDatabase().collection(collection).document(item.getID()), typeFields);
+        ReportCache.bump(getDatabase(), batch, ReportCache.Depends.STOCK);
+
+        Task t = batch.commit();
+        waitForResponse(t);
+
+        if(t.isSuccessful())
+            item.clearChanges(changes);
+
+        return t.isSuccessful();
+    }
+
+
+    /**
+     * Saves the fields changed in item to its Item
+     * and Sellable documents.
+     * @param item Item to update
+     * @return True if successful
+     */
+    public boolean updateSellable(SellableItem item)
+    {
+        if(item == null)
+            return false;
+
+        return saveItemChanges(item, "Sellable");
+    }
+
+
+    /**
+     * Updates a sellable item on a worker thread.
+     * @param item Item to update
+     * @return Task resolving to true if successful
+     */
+    public Task<Boolean> updateSellableAsync(final SellableItem item)
+    {
+        return runAsync(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return updateSellable(item);
+            }
+        });
+    }
+
+
+    /**
+     * Saves the fields changed in item to its Item
+     * and NonSellable documents.
+     * @param item Item to update
+     * @return True is successful
+     */
+    public boolean updateNonSellable(NonSellableItem item)
+    {
+        if(item == null)
+            return false;
+
+        return saveItemChanges(item, "NonSellable");
+    }
+
+
+    /**
+     * Updates a nonsellable item on a worker thread.
+     * @param item Item to update
+     * @return Task resolving to true if successful
+     */
+    public Task<Boolean> updateNonSellableAsync(final NonSellableItem item)
+    {
+        return runAsync(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return updateNonSellable(item);
+            }
+        });
+    }
+
+
+    /**
+     * Returns a new distribution ID. A cart keeps its
+     * ID until it is saved, so saving it again can never
+     * make a second distribution.
+     * @return Distribution ID
+     */
+    public String newDistributionID()
+    {
+        return getDatabase().collection("Distribution").document().getId();
+    }
+
+
+    /**
+     * Create a distribution of sellable items in the database.
+     * item and quantity are arrays of items and the number of each item sold
+     * and should be ordered with matching indices.
+     * The distribution, its items and the stock changes are
+     * saved in one batch so a sale is never partly saved.
+     * Stock is decremented on the server so concurrent sales
+     * of the same item are both counted. If the server
+     * doesn't confirm in time the batch stays queued and
+     * is saved once it is reached; the result is then
+     * TIMED_OUT, and saving the same ID again while it is
+     * queued writes nothing. Unless the save FAILED, the
+     * quantities of the passed items are decremented too.
+     * @param id ID from newDistributionID(), the same for every attempt at one cart
+     * @param sell Array of items in distribution
+     * @param sellQuant Array of quantities of each item sold
+     * @param nonSell Array of items in distribution
+     * @param nonSellQuant Array of quantities of each item sold
+     * @param amount Total + tax of sale
+     * @param date Date of sale
+     * @param user User who performed sale
+     * @return OK with the ID if saved, TIMED_OUT if queued, or FAILED
+     */
+    public Result<String> createDistItemRelation(final String id, SellableItem[] sell, int[] sellQuant, NonSellableItem[] nonSell, int[] nonSellQuant, double amount, Date date, User user, String memo)
+    {
+        if((sell.length != sellQuant.length) || (nonSell.length != nonSellQuant.length)) // Stop if arrays are different lengths
+            return Result.failed(null);
+
+        if(4 + 3 * (sell.length + nonSell.length) > BATCH_LIMIT) // Four for the sale, three per item
+            return Result.failed(null);
+
+        synchronized(CHECKOUTS)
+        {
+            if(CHECKOUTS.containsKey(id)) // An earlier attempt is still queued
+                return Result.timedOut();
+        }
+
+        WriteBatch batch = getDatabase().batch();
+        addDistribution(batch, id, amount, date, user, memo, sell.length + nonSell.length); // Make distribution
+        addDistItems(batch, nonSell, nonSellQuant, id, date);
+        addDistItems(batch, sell, sellQuant, id, date);
+        ReportCache.bump(getDatabase(), batch, ReportCache.Depends.DISTRIBUTIONS, ReportCache.Depends.STOCK);
+
+        Task<Void> t = batch.commit();
+        synchronized(CHECKOUTS)
+        {
+            CHECKOUTS.put(id, t);
+        }
+        t.addOnCompleteListener(EXECUTOR, new OnCompleteListener<Void>()
+        {
+            @Override
+            public void onComplete(Task<Void> task)
+            {
+                synchronized(CHECKOUTS)
+                {
+                    CHECKOUTS.remove(id); // Saved, or rejected and safe to save again
+                }
+            }
+        });
+
+        waitForResponse(t);
+        if(t.isComplete() && !t.isSuccessful())
+            return Result.failed(t.getException());
+
+        columnsChecked = 0; // Reports look for it on their next load
+
+        // Match local objects to the saved or queued stock
+        for(int i = 0; i < nonSell.length; i++)
+        {
+            decreaseSaved(nonSell[i], nonSellQuant[i]);
+        }
+        for(int i = 0; i < sell.length; i++)
+        {
+            decreaseSaved(sell[i], sellQuant[i]);
+        }
+
+        return t.isComplete() ? Result.ok(id) : Result.<String>timedOut();
+    }
+
+
+    /**
+     * Saves a distribution and its items on a worker thread.
+     * @see #createDistItemRelation(String, SellableItem[], int[], NonSellableItem[], int[], double, Date, User, String)
+     * @return Task resolving to the result of createDistItemRelation()
+     */
+    public Task<Result<String>> createDistItemRelationAsync(final String id, final SellableItem[] sell, final int[] sellQuant, final NonSellableItem[] nonSell, final int[] nonSellQuant, final double amount, final Date date, final User user, final String memo)
+    {
+        return runAsync(new Callable<Result<String>>()
+        {
+            @Override
+            public Result<String> call()
+            {
+                return createDistItemRelation(id, sell, sellQuant, nonSell, nonSellQuant, amount, date, user, memo);
+            }
+        });
+    }
+
+
+    /**
+     * Decreases the local quantity of an item after
+     * the server has already been decremented, so the
+     * change is not saved a second time.
+     * @param item Item sold
+     * @param quantity Quantity sold
+     */
+    private void decreaseSaved(Item item, int quantity)
+    {
+        boolean pending = item.getChanges().contains(Item.Field.QUANTITY);
+        item.decreaseQuantity(quantity);
+
+        if(!pending) // Server already has this quantity
+            item.clearChanges(EnumSet.of(Item.Field.QUANTITY));
+    }
+
+
+    /**
+     * Adds Dist_Item records, stock decrements and
+     * outflow counters for the items to the batch.
+     * @param batch Batch to add to
+     * @param item Array of items
+     * @param quantity Array of quantities
+     * @param id ID of the distribution
+     * @param date Date of the distribution
+     */
+    private void addDistItems(WriteBatch batch, Item[] item, int[] quantity, String id, Date date)
+    {
+        HashMap<String, Object> map;
+        for(int i = 0; i < item.length; i++)
+        {
+            boolean sellable = item[i] instanceof SellableItem;
+
+            map = new HashMap();
+            map.put("item", item[i].getID());
+            map.put("dist", id);
+            map.put("quantity", quantity[i]);
+            map.put("sellable", sellable);
+            map.put("price", item[i].getPrice()); // Kept so rebuilt values match the sale
+
+            // Create dist_item
+            batch.set(getDatabase().collection("Dist_Item").document(), map);
+
+            // Decrement stock on the server
+            DocumentReference ref = getDatabase().collection(sellable ? "Sellable" : "NonSellable").document(item[i].getID());
+            batch.update(ref, "quantity", FieldValue.increment(-quantity[i]));
+
+            OutflowRollup.add(getDatabase(), batch, date, item[i], quantity[i]);
+        }
+    }
+
+
+
+    /**
+     * Returns the kit with the given barcode ID.
+     * Will return null if no kit is found.
+     * @param id ID of kit
+     * @return Kit object or null
+     */
+    public Kit getKit(String id)
+    {
+        return lookupKit(id).getValue();
+    }
+
+
+    /**
+     * Returns the kit with the given barcode ID.
+     * @param id ID of kit
+     * @return OK with the kit, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    public Result<Kit> lookupKit(String id)
+    {
+        return lookupKit(id, ReadPolicy.STRICT);
+    }
+
+
+    /**
+     * Returns the kit with the given barcode ID.
+     * @param id ID of kit
+     * @param policy Where reads may be answered from
+     * @return OK with the kit, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    public Result<Kit> lookupKit(String id, ReadPolicy policy)
+    {
+        LocalStore local = policy.isStrict() ? null : LOCAL; // STRICT reads skip every copy
+        if(!policy.isStrict())
+        {
+            Result<Kit> cached = INDEX.findKit(id);
+            if(cached != null) // Answered by index
+                return cached;
+
+            cached = (local != null) ? local.findKit(id, false) : null;
+            if(cached != null) // Answered by local store
+                return cached;
+        }
+
+        Result<DocumentSnapshot> r = readDocument(getDatabase().collection("Kit").document(id), RetryPolicy.READ.deadlineFromNow(), policy);
+
+        if(r.isError() && local != null) // Offline, use the last synced copy
+        {
+            Result<Kit> stale = local.findKit(id, true);
+            if(stale != null)
+                return stale;
+        }
+
+        if(!r.isOk())
+            return Result.from(r);
+
+        return Result.ok(Codecs.KIT.decode(r.getValue()));
+    }
+
+
+    /**
+     * Resolves a barcode against the in-memory index
+     * without touching the database. Until the index has
+     * loaded, the catalog image saved by earlier runs
+     * answers instead; its quantities may be behind.
+     * Safe to call on the UI thread.
+     * @param id Barcode
+     * @return Match, possibly empty, or null if neither
+     * can tell and the lookup*() methods must be used
+     */
+    public BarcodeMatch resolveCached(String id)
+    {
+        return resolveCached(id, false);
+    }
+
+
+    /**
+     * Resolves a barcode like resolveCached(String).
+     * STRICT leaves out the catalog image, so a till
+     * that just started never books stock from it; the
+     * index is kept current by its listener.
+     * @param id Barcode
+     * @param policy Whether the catalog image may answer
+     * @return Match, possibly empty, or null if the lookup*() methods must be used
+     */
+    public BarcodeMatch resolveCached(String id, ReadPolicy policy)
+    {
+        return resolveCached(id, policy.isStrict());
+    }
+
+
+    private BarcodeMatch resolveCached(String id, boolean strict)
+    {
+        BarcodeMatch hit = INDEX.resolve(id);
+        CatalogImage image = strict ? null : IMAGE;
+
+        if(hit == null && image != null)
+            hit = image.resolve(id);
+
+        return hit;
+    }
+
+
+    /**
+     * Resolves a barcode to everything it refers to.
+     * The in-memory index is tried first unless policy
+     * is STRICT. Once the Barcode registry is complete,
+     * it names the collections holding the barcode in
+     * one read and only those records are loaded. Until
+     * then every collection is looked in, without
+     * reading the registry.
+     * @param id Barcode
+     * @param policy Where reads may be answered from
+     * @return OK with a match, empty if nothing has the barcode, TIMED_OUT or FAILED
+     */
+    public Result<BarcodeMatch> resolveBarcode(String id, ReadPolicy policy)
+    {
+        BarcodeMatch hit = policy.isStrict() ? null : INDEX.resolve(id); // STRICT reads skip every copy
+        if(hit != null)
+            return Result.ok(hit);
+
+        CollectionReference ref = getDatabase().collection("Barcode");
+        if(!registryChecked)
+        {
+            Result<DocumentSnapshot> meta = readDocument(ref.document(REGISTRY_META), RetryPolicy.READ.deadlineFromNow(), policy);
+            if(!meta.isError()) // Asked again next time if the read did not finish
+            {
+                if(meta.isOk() && Boolean.TRUE.equals(meta.getValue().getBoolean("complete")))
+                    registryComplete = true;
+                registryChecked = true;
+            }
+        }
+
+        DocumentSnapshot entry = null;
+        if(registryComplete)
+        {
+            Result<DocumentSnapshot> r = readDocument(ref.document(id), RetryPolicy.READ.deadlineFromNow(), policy);
+            if(r.isError())
+                return Result.from(r);
+            if(!r.isOk()) // Registry knows every barcode
+                return Result.ok(new BarcodeMatch(null, null, null));
+
+            entry = r.getValue();
+        }
+
+        boolean any = entry == null; // Registry not complete, look everywhere
+        Result<SellableItem> sell = Result.notFound();
+        Result<NonSellableItem> nonSell = Result.notFound();
+        Result<Kit> kit = Result.notFound();
+
+        if(any || entry.contains("Sellable"))
+            sell = lookupSellableItem(id, policy);
+        if(any || entry.contains("NonSellable"))
+            nonSell = lookupNonSellableItem(id, policy);
+        if(any || entry.contains("Kit"))
+            kit = lookupKit(id, policy);
+
+        if(sell.isError())
+            return Result.from(sell);
+        if(nonSell.isError())
+            return Result.from(nonSell);
+        if(kit.isError())
+            return Result.from(kit);
+
+        BarcodeMatch match = new BarcodeMatch(sell.getValue(), nonSell.getValue(), kit.getValue());
+        CatalogImage image = IMAGE;
+        if(image != null) // Save for the next cold start
+            image.put(id, match);
+
+        return Result.ok(match);
+    }
+
+
+    /**
+     * Resolves a barcode on a worker thread.
+     * @param id Barcode
+     * @return Task resolving to the result of resolveBarcode()
+     */
+    public Task<Result<BarcodeMatch>> resolveBarcodeAsync(String id)
+    {
+        return resolveBarcodeAsync(id, ReadPolicy.STRICT);
+    }
+
+
+    /**
+     * Resolves a barcode on a worker thread.
+     * @param id Barcode
+     * @param policy Where reads may be answered from
+     * @return Task resolving to the result of resolveBarcode()
+     */
+    public Task<Result<BarcodeMatch>> resolveBarcodeAsync(final String id, final ReadPolicy policy)
+    {
+        return runAsync(new Callable<Result<BarcodeMatch>>()
+        {
+            @Override
+            public Result<BarcodeMatch> call()
+            {
+                return resolveBarcode(id, policy);
+            }
+        });
+    }
+
+
+    /**
+     * Registers every existing item and kit in the
+     * Barcode registry, then marks the registry as
+     * complete. Entries are merged, so running it
+     * again after a failure is safe.
+     * @return Number of barcodes registered or -1 if it failed
+     */
+    public int backfillBarcodes()
+    {
+        String[] names = {"Sellable", "NonSellable", "Kit"};
+        Result<List<QuerySnapshot>> r = readCollections(RetryPolicy.READ.deadlineFromNow(), names);
+        if(!r.isOk())
+            return -1;
+
+        // Gather kinds of each barcode
+        LinkedHashMap<String, HashMap<String, Object>> entries = new LinkedHashMap<>();
+        for(int i = 0; i < names.length; i++)
+        {
+            for(DocumentSnapshot doc : r.getValue().get(i).getDocuments())
+            {
+                HashMap<String, Object> entry = entries.get(doc.getId());
+                if(entry == null)
+                {
+                    entry = new HashMap<>();
+                    entries.put(doc.getId(), entry);
+                }
+
+                entry.put(names[i], names[i] + "/" + doc.getId());
+            }
+        }
+
+        // Write entries in full batches
+        CollectionReference ref = getDatabase().collection("Barcode");
+        ArrayList<Task<Void>> tasks = new ArrayList<>();
+        WriteBatch batch = getDatabase().batch();
+        int count = 0;
+        for(Map.Entry<String, HashMap<String, Object>> e : entries.entrySet())
+        {
+            batch.set(ref.document(e.getKey()), e.getValue(), SetOptions.merge());
+            if(++count % BATCH_LIMIT == 0)
+            {
+                tasks.add(batch.commit());
+                batch = getDatabase().batch();
+            }
+        }
+        if(count % BATCH_LIMIT != 0)
+            tasks.add(batch.commit());
+
+        Task all = Tasks.whenAllSuccess(tasks);
+        waitForResponse(all);
+        if(!all.isSuccessful())
+            return -1;
+
+        // Only now can a registry miss be trusted
+        HashMap<String, Object> meta = new HashMap();
+        meta.put("complete", true);
+        Task t = ref.document(REGISTRY_META).set(meta);
+        waitForResponse(t);
+        if(!t.isSuccessful())
+            return -1;
+
+        registryComplete = true;
+        registryChecked = true;
+        return count;
+    }
+
+
+    /**
+     * Runs the Barcode registry backfill on a worker thread.
+     * @return Task resolving to the result of backfillBarcodes()
+     */
+    public Task<Integer> backfillBarcodesAsync()
+    {
+        return runAsync(new Callable<Integer>()
+        {
+            @Override
+            public Integer call()
+            {
+                return backfillBarcodes();
+            }
+        });
+    }
+
+
+    /**
+     * Returns the kit with the given barcode on a worker thread.
+     * @param id ID of kit
+     * @return Task resolving to the result of lookupKit()
+     */
+    public Task<Result<Kit>> lookupKitAsync(final String id)
+    {
+        return runAsync(new Callable<Result<Kit>>()
+        {
+            @Override
+            public Result<Kit> call()
+            {
+                return lookupKit(id);
+            }
+        });
+    }
+
+
+    /**
+     * Returns the items in a given kit.
+     * No items in kit will return an empty array.
+     * Items that fail to load are left out.
+     * @param kit Kit to search
+     * @return Array of items in kit
+     */
+    public Item[] getItemsFromKit(Kit kit)
+    {
+        return getItemsFromKit(kit, ReadPolicy.STRICT);
+    }
+
+
+    /**
+     * Returns the items in a given kit.
+     * No items in kit will return an empty array.
+     * Items that fail to load are left out.
+     * @param kit Kit to search
+     * @param policy Where reads may be answered from
+     * @return Array of items in kit
+     */
+    public Item[] getItemsFromKit(Kit kit, ReadPolicy policy)
+    {
+        LocalStore local = policy.isStrict() ? null : LOCAL; // STRICT reads skip every copy
+        List<Item> cached = (local != null) ? local.kitItems(kit.getID(), false) : null;
+        if(cached != null) // Answered by local store
+            return cached.toArray(new Item[0]);
+
+        Query q = getDatabase().collection("Kit_Item").whereEqualTo("kit", kit.getID());
+        Result<QuerySnapshot> r = readQuery(q, RetryPolicy.READ.deadlineFromNow(), policy);
+
+        if(!r.isOk())
+        {
+            List<Item> stale = (local != null) ? local.kitItems(kit.getID(), true) : null;
+            return (stale != null) ? stale.toArray(new Item[0]) : new Item[0];
+        }
+
+        List<DocumentSnapshot> docs = r.getValue().getDocuments();
+        ArrayList<Item> items = new ArrayList<>(docs.size());
+        HashSet<String> sellIDs = new HashSet<>();
+        HashSet<String> nonSellIDs = new HashSet<>();
+
+        for(int i = 0; i < docs.size(); i++) // Sort IDs by type
+        {
+            if(docs.get(i).getBoolean("sellable"))
+                sellIDs.add(docs.get(i).getString("item"));
+            else
+                nonSellIDs.add(docs.get(i).getString("item"));
+        }
+
+        // Load all items in kit at once
+        long deadline = RetryPolicy.READ.deadlineFromNow();
+        HashMap<String, Item> sell = loadItems(sellIDs, true, deadline, policy).getValue();
+        HashMap<String, Item> nonSell = loadItems(nonSellIDs, false, deadline, policy).getValue();
+
+        for(int i = 0; i < docs.size(); i++)
+        {
+            HashMap<String, Item> map = docs.get(i).getBoolean("sellable") ? sell : nonSell;
+            Item item = (map != null) ? map.get(docs.get(i).getString("item")) : null;
+
+            if(item == null) // Skip items that could not be read
+                continue;
+
+            item.setQuantity(Codecs.integer(docs.get(i), "quantity")); // Quantity in the kit
+            items.add(item);
+        }
+
+        return items.toArray(new Item[0]);
+    }
+
+
+    /**
+     * Returns the items in a kit on a worker thread.
+     * @param kit Kit to search
+     * @return Task resolving to an array of items in kit
+     */
+    public Task<Item[]> getItemsFromKitAsync(Kit kit)
+    {
+        return getItemsFromKitAsync(kit, ReadPolicy.STRICT);
+    }
+
+
+    /**
+     * Returns the items in a kit on a worker thread.
+     * @param kit Kit to search
+     * @param policy Where reads may be answered from
+     * @return Task resolving to an array of items in kit
+     */
+    public Task<Item[]> getItemsFromKitAsync(final Kit kit, final ReadPolicy policy)
+    {
+        return runAsync(new Callable<Item[]>()
+        {
+            @Override
+            public Item[] call()
+            {
+                return getItemsFromKit(kit, policy);
+            }
+        });
+    }
+
+
+
+    /**
+     * Saves a kit and its associated items.  If the kit does not exist,
+     * a new one will be created with a 13 character barcode.
+     * The stored items are compared with items and only the
+     * added, changed and removed relations are written, together
+     * with the kit, in one batch.
+     * @param kit Kit to use - Null for new kit
+     * @param name Name of kit
+     * @param desc Description of kit
+     * @param items List of items to put in kit
+     * @param sellable List of item sellable types. i.e. True for SellableItem type.
+     * @param quantity List of quantities
+     * @return Outcome with the operations saved
+     */
+    public KitSave saveKit(Kit kit, String name, String desc, Item[] items, boolean[] sellable, int[] quantity)
+    {
+        if(items == null || sellable == null || quantity == null)
+            return KitSave.failed(KitSave.Status.INVALID, kit);
+
+        if(items.length != sellable.length || items.length != quantity.length)
+            return KitSave.failed(KitSave.Status.INVALID, kit);
+
+        String[] ids = new String[items.length];
+        for(int i = 0; i < items.length; i++)
+        {
+            ids[i] = items[i].getID();
+        }
+        KitSave.Diff diff = new KitSave.Diff(ids, sellable, quantity);
+
+        WriteBatch batch = getDatabase().batch();
+        List<DocumentSnapshot> stored;
+        int writes; // Writes besides relations
+
+        // Does kit exist?
+        if(kit == null || kit.getID().length() != BARCODE_SIZE) // Check if barcode is right
+        {
+            kit = new Kit(this.makeID(), name, desc); // Make the new kit
+            batch.set(getDatabase().collection("Kit").document(kit.getID()), Codecs.KIT.encode(kit));
+            registerBarcode(batch, kit.getID(), "Kit");
+            CatalogManifest.put(getDatabase(), batch, kit.getID(), name, CatalogEntry.Kind.KIT);
+            writes = 3;
+
+            stored = new ArrayList<>(); // Nothing saved yet
+        }
+        else // Update Kit information
+        {
+            boolean renamed = !Objects.equals(kit.getName(), name);
+            kit = new Kit(kit.getID(), name, desc);
+            batch.update(getDatabase().collection("Kit").document(kit.getID()), "name", name, "description", desc);
+            writes = 1;
+
+            if(renamed) // Keep manifest name current
+            {
+                CatalogManifest.put(getDatabase(), batch, kit.getID(), name, CatalogEntry.Kind.KIT);
+                writes += 1;
+            }
+
+            Query q = getDatabase().collection("Kit_Item").whereEqualTo("kit", kit.getID());
+            Result<QuerySnapshot> r = readQuery(q, RetryPolicy.READ.deadlineFromNow());
+            if(!r.isOk()) // Can't compare without stored items
+                return KitSave.failed(KitSave.Status.READ_FAILED, kit);
+
+            stored = r.getValue().getDocuments();
+        }
+
+        ArrayList<String> keys = new ArrayList<>(stored.size());
+        ArrayList<Long> quantities = new ArrayList<>(stored.size());
+        for(DocumentSnapshot doc : stored)
+        {
+            keys.add(KitSave.Diff.key(Codecs.string(doc, "item"), Codecs.flag(doc, "sellable")));
+            quantities.add((long) Codecs.integer(doc, "quantity"));
+        }
+        diff.compare(keys, quantities);
+
+        // Update or remove stored relations
+        for(int i : diff.removed)
+        {
+            batch.delete(stored.get(i).getReference());
+        }
+        for(int i : diff.updated)
+        {
+            batch.update(stored.get(i).getReference(), "quantity", diff.quantityOf(keys.get(i)));
+        }
+
+        // Add new relations
+        for(Map.Entry<String, Integer> e : diff.inserted.entrySet())
+        {
+            HashMap<String, Object> map = new HashMap();
+            map.put("item", KitSave.Diff.idOf(e.getKey()));
+            map.put("kit", kit.getID());
+            map.put("quantity", e.getValue());
+            map.put("sellable", KitSave.Diff.isSellable(e.getKey()));
+
+            batch.set(getDatabase().collection("Kit_Item").document(), map);
+        }
+
+        int inserted = diff.inserted.size(), updated = diff.updated.size(), removed = diff.removed.size();
+        if(writes + inserted + updated + removed > BATCH_LIMIT) // Too large for one commit
+            return KitSave.failed(KitSave.Status.INVALID, kit);
+
+        Task t = batch.commit();
+        waitForResponse(t);
+        if(!t.isSuccessful())
+            return KitSave.failed(KitSave.Status.COMMIT_FAILED, kit);
+
+        return new KitSave(KitSave.Status.SAVED, kit, inserted, updated, removed);
+    }
+
+
+    /**
+     * Saves a kit and its items on a worker thread.
+     * @see #saveKit(Kit, String, String, Item[], boolean[], int[])
+     * @return Task resolving to the outcome of the save
+     */
+    public Task<KitSave> saveKitAsync(final Kit kit, final String name, final String desc, final Item[] items, final boolean[] sellable, final int[] quantity)
+    {
+        return runAsync(new Callable<KitSave>()
+        {
+            @Override
+            public KitSave call()
+            {
+                return saveKit(kit, name, desc, items, sellable, quantity);
+            }
+        });
+    }
+
+
+
+    /**
+     * Returns the item document of ID. Items are
+     * stored under their ID so this is a direct
+     * key lookup.
+     * @param id Document ID
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @param policy Where reads may be answered from
+     * @return OK with the snapshot, NOT_FOUND, TIMED_OUT or FAILED
+     */
+    private Result<DocumentSnapshot> getItem(String id, long deadline, ReadPolicy policy)
+    {
+        return readDocument(getDatabase().collection("Item").document(id), deadline, policy);
+    }
+
+
+    /**
+     * Returns the sellable items with the given IDs.
+     * IDs that don't exist are left out of the map.
+     * @param ids Barcodes of items
+     * @return Map of ID to item or null if read failed
+     */
+    public HashMap<String, SellableItem> getSellableItems(Collection<String> ids)
+    {
+        HashMap<String, Item> items = loadItems(ids, true, RetryPolicy.READ.deadlineFromNow()).getValue();
+        if(items == null)
+            return null;
+
+        HashMap<String, SellableItem> map = new HashMap<>(items.size());
+        for(Item i : items.values())
+        {
+            map.put(i.getID(), (SellableItem) i);
+        }
+
+        return map;
+    }
+
+
+    /**
+     * Returns the sellable items with the given IDs on a worker thread.
+     * @param ids Barcodes of items
+     * @return Task resolving to a map of ID to item or null
+     */
+    public Task<HashMap<String, SellableItem>> getSellableItemsAsync(final Collection<String> ids)
+    {
+        return runAsync(new Callable<HashMap<String, SellableItem>>()
+        {
+            @Override
+            public HashMap<String, SellableItem> call()
+            {
+                return getSellableItems(ids);
+            }
+        });
+    }
+
+
+    /**
+     * Returns the nonsellable items with the given IDs.
+     * IDs that don't exist are left out of the map.
+     * @param ids Barcodes of items
+     * @return Map of ID to item or null if read failed
+     */
+    public HashMap<String, NonSellableItem> getNonSellableItems(Collection<String> ids)
+    {
+        HashMap<String, Item> items = loadItems(ids, false, RetryPolicy.READ.deadlineFromNow()).getValue();
+        if(items == null)
+            return null;
+
+        HashMap<String, NonSellableItem> map = new HashMap<>(items.size());
+        for(Item i : items.values())
+        {
+            map.put(i.getID(), (NonSellableItem) i);
+        }
+
+        return map;
+    }
+
+
+    /**
+     * Returns the nonsellable items with the given IDs on a worker thread.
+     * @param ids Barcodes of items
+     * @return Task resolving to a map of ID to item or null
+     */
+    public Task<HashMap<String, NonSellableItem>> getNonSellableItemsAsync(final Collection<String> ids)
+    {
+        return runAsync(new Callable<HashMap<String, NonSellableItem>>()
+        {
+            @Override
+            public HashMap<String, NonSellableItem> call()
+            {
+                return getNonSellableItems(ids);
+            }
+        });
+    }
+
+
+    /**
+     * Loads many items of one type using a fixed number
+     * of round trips: one for Item documents, one for
+     * Sellable/NonSellable documents, and one each for
+     * their categories and locations. Each round trip
+     * reads its chunks in parallel.
+     * @param ids Barcodes of items
+     * @param sellable True for SellableItem, false for NonSellableItem
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return OK with a map of ID to item, TIMED_OUT or FAILED
+     */
+    private Result<HashMap<String, Item>> loadItems(Collection<String> ids, boolean sellable, long deadline)
+    {
+        return loadItems(ids, sellable, deadline, ReadPolicy.STRICT);
+    }
+
+
+    /**
+     * Loads items like loadItems(), reading Item and
+     * Sellable/NonSellable documents as policy allows.
+     * @param ids Barcodes of items
+     * @param sellable True for SellableItem, false for NonSellableItem
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @param policy Where reads may be answered from
+     * @return OK with a map of ID to item, TIMED_OUT or FAILED
+     */
+    private Result<HashMap<String, Item>> loadItems(Collection<String> ids, boolean sellable, long deadline, ReadPolicy policy)
+    {
+        // Item and Sellable/NonSellable chunks go out together
+        Task<Result<HashMap<String, DocumentSnapshot>>> itemTask = forkDocuments("Item", ids, deadline, policy);
+        Task<Result<HashMap<String, DocumentSnapshot>>> typeTask = forkDocuments(sellable ? "Sellable" : "NonSellable", ids, deadline, policy);
+        awaitTask(Tasks.whenAll(itemTask, typeTask), deadline);
+
+        Result<HashMap<String, DocumentSnapshot>> itemRes = join(itemTask);
+        if(!itemRes.isOk())
+            return Result.from(itemRes);
+
+        Result<HashMap<String, DocumentSnapshot>> typeRes = join(typeTask);
+        if(!typeRes.isOk())
+            return Result.from(typeRes);
+
+        HashMap<String, DocumentSnapshot> typeDocs = typeRes.getValue();
+        List<Item> items = joinItems(typeDocs.keySet(), itemRes.getValue(), typeDocs, sellable, deadline);
+
+        HashMap<String, Item> map = new HashMap<>(items.size());
+        for(Item item : items)
+        {
+            map.put(item.getID(), item);
+        }
+
+        return Result.ok(map);
+    }
+
+
+    /**
+     * Starts getDocuments() as a branch of a hydration step.
+     * @param collection Name of collection
+     * @param ids Document IDs
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @param policy Where reads may be answered from
+     * @return Task resolving to the result of getDocuments()
+     */
+    private Task<Result<HashMap<String, DocumentSnapshot>>> forkDocuments(final String collection, final Collection<String> ids, final long deadline, final ReadPolicy policy)
+    {
+        return fork(new Callable<Result<HashMap<String, DocumentSnapshot>>>()
+        {
+            @Override
+            public Result<HashMap<String, DocumentSnapshot>> call()
+            {
+                return getDocuments(collection, ids, deadline, policy);
+            }
+        });
+    }
+
+
+    /**
+     * Joins Item documents with their Sellable/NonSellable
+     * documents. Categories and locations missing from the
+     * caches are read together in one round trip. IDs
+     * without both documents are skipped.
+     * @param ids Barcodes in the order wanted
+     * @param itemDocs Item documents by ID
+     * @param typeDocs Sellable or NonSellable documents by ID
+     * @param sellable True for SellableItem, false for NonSellableItem
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return Items in ids order
+     */
+    private List<Item> joinItems(Collection<String> ids, Map<String, DocumentSnapshot> itemDocs, Map<String, DocumentSnapshot> typeDocs, boolean sellable, long deadline)
+    {
+        // Gather referenced categories and locations
+        HashSet<String> catIDs = new HashSet<>();
+        HashSet<String> locIDs = new HashSet<>();
+        for(DocumentSnapshot doc : itemDocs.values())
+        {
+            catIDs.add(doc.getString("category"));
+        }
+        for(DocumentSnapshot doc : typeDocs.values())
+        {
+            locIDs.add(doc.getString("location"));
+        }
+
+        Task<HashMap<String, Category>> catTask = forkResolve(CATEGORIES, catIDs, deadline);
+        Task<HashMap<String, Location>> locTask = forkResolve(LOCATIONS, locIDs, deadline);
+        awaitTask(Tasks.whenAll(catTask, locTask), deadline);
+
+        // Items keep placeholders for what couldn't be read
+        HashMap<String, Category> cats = catTask.isSuccessful() ? catTask.getResult() : new HashMap<String, Category>();
+        HashMap<String, Location> locs = locTask.isSuccessful() ? locTask.getResult() : new HashMap<String, Location>();
+
+        ArrayList<Item> items = new ArrayList<>(ids.size());
+        for(String id : ids)
+        {
+            DocumentSnapshot itemSnap = itemDocs.get(id);
+            DocumentSnapshot typeSnap = typeDocs.get(id);
+            if(itemSnap == null || typeSnap == null) // Missing a document
+                continue;
+
+            items.add(buildItem(itemSnap, typeSnap, cats, locs, sellable));
+        }
+
+        return items;
+    }
+
+
+    /**
+     * Returns a cursor over sellable items in ID order.
+     * @param pageSize Items per page
+     * @return Cursor, nothing is read until next()
+     */
+    public PageCursor<SellableItem> sellableCursor(int pageSize)
+    {
+        return typeCursor(true, pageSize);
+    }
+
+
+    /**
+     * Returns a cursor over nonsellable items in ID order.
+     * @param pageSize Items per page
+     * @return Cursor, nothing is read until next()
+     */
+    public PageCursor<NonSellableItem> nonSellableCursor(int pageSize)
+    {
+        return typeCursor(false, pageSize);
+    }
+
+
+    /**
+     * Returns a cursor over sellable items, oldest
+     * received first. Pages walk the Item collection,
+     * so a page may hold fewer items than pageSize.
+     * @param pageSize Item documents per page
+     * @return Cursor, nothing is read until next()
+     */
+    public PageCursor<SellableItem> sellableByReceivedCursor(int pageSize)
+    {
+        Query q = getDatabase().collection("Item").orderBy("received");
+        return new PageCursor<>(q, pageSize, new PageCursor.Loader<SellableItem>()
+        {
+            @Override
+            public Result<List<SellableItem>> load(List<DocumentSnapshot> docs, long deadline)
+            {
+                HashMap<String, DocumentSnapshot> itemDocs = idMap(docs);
+                Result<HashMap<String, DocumentSnapshot>> r = getDocuments("Sellable", itemDocs.keySet(), deadline);
+                if(!r.isOk())
+                    return Result.from(r);
+
+                List<Item> items = joinItems(itemDocs.keySet(), itemDocs, r.getValue(), true, deadline);
+                return Result.ok(Database.<SellableItem>castItems(items));
+            }
+        }, Database.<SellableItem>localItems(true, true));
+    }
+
+
+    /**
+     * Returns a cursor over one type of item. Each page
+     * reads its Sellable/NonSellable documents, then the
+     * matching Item documents in one round trip.
+     * @param sellable True for SellableItem, false for NonSellableItem
+     * @param pageSize Items per page
+     * @return Cursor, nothing is read until next()
+     */
+    private <T extends Item> PageCursor<T> typeCursor(final boolean sellable, int pageSize)
+    {
+        Query q = getDatabase().collection(sellable ? "Sellable" : "NonSellable").orderBy(FieldPath.documentId());
+        return new PageCursor<>(q, pageSize, new PageCursor.Loader<T>()
+        {
+            @Override
+            public Result<List<T>> load(List<DocumentSnapshot> docs, long deadline)
+            {
+                HashMap<String, DocumentSnapshot> typeDocs = idMap(docs);
+                Result<HashMap<String, DocumentSnapshot>> r = getDocuments("Item", typeDocs.keySet(), deadline);
+                if(!r.isOk())
+                    return Result.from(r);
+
+                List<Item> items = joinItems(typeDocs.keySet(), r.getValue(), typeDocs, sellable, deadline);
+                return Result.ok(Database.<T>castItems(items));
+            }
+        }, Database.<T>localItems(sellable, false));
+    }
+
+
+    /**
+     * Returns a cursor source that reads one type of
+     * item from the local store while it is in sync.
+     * @param sellable True for SellableItem, false for NonSellableItem
+     * @param byReceived True to order by received date, false by ID
+     * @return Source for a PageCursor
+     */
+    private static <T extends Item> PageCursor.Source<T> localItems(final boolean sellable, final boolean byReceived)
+    {
+        return new PageCursor.Source<T>()
+        {
+            @Override
+            public List<T> load()
+            {
+                LocalStore local = LOCAL;
+                List<Item> items = (local != null) ? local.listItems(sellable, byReceived, false) : null;
+                return (items != null) ? Database.<T>castItems(items) : null;
+            }
+        };
+    }
+
+
+    /**
+     * Views a list of items as a list of one item type.
+     * Callers only pass lists built by buildItem() with
+     * the matching sellable flag.
+     * @param items Items of type T
+     * @return Same list
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Item> List<T> castItems(List<Item> items)
+    {
+        return (List<T>) (List<?>) items;
+    }
+
+
+    /**
+     * Maps documents by ID, keeping their order.
+     * @param docs Document snapshots
+     * @return Map of ID to document
+     */
+    private HashMap<String, DocumentSnapshot> idMap(List<DocumentSnapshot> docs)
+    {
+        LinkedHashMap<String, DocumentSnapshot> map = new LinkedHashMap<>(docs.size());
+        for(int i = 0; i < docs.size(); i++)
+        {
+            map.put(docs.get(i).getId(), docs.get(i));
+        }
+
+        return map;
+    }
+
+
+    /**
+     * Builds an item from its Item document and its
+     * Sellable/NonSellable document.
+     * @param itemSnap Item document
+     * @param typeSnap Sellable or NonSellable document
+     * @param cats Categories by ID
+     * @param locs Locations by ID
+     * @param sellable True for SellableItem, false for NonSellableItem
+     * @return Item object
+     */
+    private Item buildItem(DocumentSnapshot itemSnap, DocumentSnapshot typeSnap, HashMap<String, Category> cats, HashMap<String, Location> locs, boolean sellable)
+    {
+        if(sellable)
+            return Codecs.SELLABLE.decode(itemSnap, typeSnap, cats, locs);
+        else
+            return Codecs.NONSELLABLE.decode(itemSnap, typeSnap, cats, locs);
+    }
+
+
+    /**
+     * Loads every item of one type by scanning Item and
+     * Sellable/NonSellable once each, in parallel, and
+     * joining them in memory with the cached categories
+     * and locations.
+     * @param sellable True for SellableItem, false for NonSellableItem
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return OK with the items in Sellable/NonSellable order, TIMED_OUT or FAILED
+     */
+    private Result<ArrayList<Item>> loadAllItems(boolean sellable, long deadline)
+    {
+        Result<List<QuerySnapshot>> r = readCollections(deadline, "Item", sellable ? "Sellable" : "NonSellable");
+        if(!r.isOk())
+            return Result.from(r);
+
+        List<QuerySnapshot> snaps = r.getValue();
+        HashMap<String, DocumentSnapshot> itemDocs = toMap(snaps.get(0));
+        HashMap<String, Category> cats = toMap(getAllCategories());
+        HashMap<String, Location> locs = toMap(getAllLocations());
+
+        List<DocumentSnapshot> typeDocs = snaps.get(1).getDocuments();
+        ArrayList<Item> items = new ArrayList<>(typeDocs.size());
+        for(int i = 0; i < typeDocs.size(); i++)
+        {
+            DocumentSnapshot itemSnap = itemDocs.get(typeDocs.get(i).getId());
+            if(itemSnap == null) // No item document
+                continue;
+
+            items.add(buildItem(itemSnap, typeDocs.get(i), cats, locs, sellable));
+        }
 
-        return t.isSuccessful();
+        return Result.ok(items);
     }
 
 
     /**
-     * Returns category with given ID.
-     * @param id ID of category
-     * @return Null if failed to read
+     * Reads whole collections in parallel.
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @param names Names of collections
+     * @return OK with a snapshot per collection in names order, TIMED_OUT or FAILED
      */
-    public Category getCategory(String id)
+    private Result<List<QuerySnapshot>> readCollections(long deadline, final String... names)
     {
-        Task t = getDatabase().collection("Category").document(id).get();
-        waitForResponse(t);
-
-        if(t.isSuccessful())
+        return execute(new Callable<Task<List<QuerySnapshot>>>()
         {
-            DocumentSnapshot doc = (DocumentSnapshot) t.getResult();
+            @Override
+            public Task<List<QuerySnapshot>> call()
+            {
+                ArrayList<Task<QuerySnapshot>> tasks = new ArrayList<>(names.length);
+                for(String name : names)
+                {
+                    tasks.add(getDatabase().collection(name).get());
+                }
 
-            String name = doc.getString("name");
-            return new Category(id, name);
-        }
-        else
-            return null;
+                return Tasks.<QuerySnapshot>whenAllSuccess(tasks);
+            }
+        }, RetryPolicy.READ, deadline);
     }
 
 
     /**
-     * Returns an array of all categories in the database.
-     * @return Array of categories or empty array if no categories exist
+     * Maps the documents of a snapshot by ID.
+     * @param snap Query snapshot
+     * @return Map of ID to document
      */
-    public Category[] getAllCategories()
+    private HashMap<String, DocumentSnapshot> toMap(QuerySnapshot snap)
     {
-        Category[] cats;
-        Task t = getDatabase().collection("Category").get();
-        waitForResponse(t);
+        List<DocumentSnapshot> docs = snap.getDocuments();
+        HashMap<String, DocumentSnapshot> map = new HashMap<>(docs.size());
 
-        if(t.isSuccessful())
+        for(int i = 0; i < docs.size(); i++)
         {
-            QuerySnapshot snap = (QuerySnapshot) t.getResult();
-            List<DocumentSnapshot> docs = snap.getDocuments();
-            cats = new Category[docs.size()];
+            map.put(docs.get(i).getId(), docs.get(i));
+        }
 
-            for(int i = 0; i < cats.length; i++)
-            {
-                String id = docs.get(i).getId();
-                String name = docs.get(i).getString("name");
+        return map;
+    }
 
-                cats[i] = new Category(id, name);
-            }
+
+    /**
+     * Maps categories by ID.
+     * @param cats Categories
+     * @return Map of ID to category
+     */
+    private HashMap<String, Category> toMap(Category[] cats)
+    {
+        HashMap<String, Category> map = new HashMap<>(cats.length);
+        for(Category c : cats)
+        {
+            map.put(c.getID(), c);
         }
-        else
-            cats = new Category[0];
 
-        return cats;
+        return map;
     }
 
 
     /**
-     * Creates an item in the database.
-     * @param id ID of item
-     * @param rec Date received
-     * @param desc Additional description
-     * @param cond Condition of item
-     * @param price Price of item
-     * @param cat Category of item
+     * Maps locations by ID.
+     * @param locs Locations
+     * @return Map of ID to location
      */
-    private boolean createItem(String id, Date rec, String desc, Condition cond, double price, Category cat)
+    private HashMap<String, Location> toMap(Location[] locs)
     {
-        HashMap<String, Object> map = new HashMap();
-        map.put("ID", id);
-        map.put("received", new Timestamp(rec));
-        map.put("description", desc);
-        map.put("condition", Condition.toInt(cond));
-        map.put("price", price);
-        map.put("category", cat.getID());
-
-        Task t = getDatabase().collection("Item").document(id).set(map);
-        waitForResponse(t);
+        HashMap<String, Location> map = new HashMap<>(locs.length);
+        for(Location l : locs)
+        {
+            map.put(l.getID(), l);
+        }
 
-        return t.isSuccessful();
+        return map;
     }
 
 
     /**
-     * Returns a hashmap of all unique item IDs and their
-     * corresponding descriptions. Key = ID, Val = description.
-     * Will return null if no items exist or process fails.
-     * @return Hashmap of all unique item IDs.
+     * Returns the reference objects with the given IDs,
+     * reading only the ones missing from the cache.
+     * IDs that can't be read are left out of the map.
+     * @param cache Cache of the collection
+     * @param ids Document IDs
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return Map of ID to object
      */
-    public HashMap<String, String> getUniqueItems()
+    private <T> HashMap<String, T> resolve(ReferenceCache<T> cache, Collection<String> ids, long deadline)
     {
-        Task t = getDatabase().collection("Item").get();
-        waitForResponse(t);
+        HashMap<String, T> map = new HashMap<>(ids.size());
+        ArrayList<String> missing = new ArrayList<>();
 
-        if(t.isSuccessful())
+        for(String id : ids)
         {
-            QuerySnapshot shot = (QuerySnapshot) t.getResult();
-            List<DocumentSnapshot> docs = shot.getDocuments();
+            T value = (id != null) ? cache.get(id) : null;
+            if(value != null)
+                map.put(id, value);
+            else
+                missing.add(id);
+        }
 
-            if(docs.size() > 0)
+        HashMap<String, DocumentSnapshot> docs = getDocuments(cache.getCollection(), missing, deadline).getValue();
+        if(docs != null)
+        {
+            for(DocumentSnapshot doc : docs.values())
             {
-                HashMap<String, String> map = new HashMap<>(docs.size());
-                String key, val;
-
-                for(int i = 0; i < docs.size(); i++)
-                {
-                    key = docs.get(i).getString("ID"); // Get key
-                    val = docs.get(i).getString("description"); // Get value
-                    map.put(key, val); // Add to map
-                }
-
-                return map;
+                cache.put(doc.getId(), doc.getData());
+                T value = cache.get(doc.getId());
+                if(value != null)
+                    map.put(doc.getId(), value);
             }
         }
 
-        return null;
+        return map;
     }
 
 
     /**
-     * Creates a sellable item in the database.
-     * ID of the item is generated.
-     * @param rec Date received
-     * @param desc Additional description
-     * @param cond Condition of item
-     * @param price Price of item
-     * @param cat Category of item
-     * @param quantity Quantity in stock
-     * @param loc Location of item
-     * @return True if successful
+     * Starts resolve() as a branch of a hydration step.
+     * Answered on the calling thread when every ID is cached.
+     * @param cache Cache of the collection
+     * @param ids Document IDs
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return Task resolving to the result of resolve()
      */
-    public boolean createSellableItem(Date rec, String desc, Condition cond, double price, Category cat, int quantity, Location loc)
+    private <T> Task<HashMap<String, T>> forkResolve(final ReferenceCache<T> cache, final Collection<String> ids, final long deadline)
     {
-        String id = makeID(); // Generate an ID
-        boolean suc = createItem(id, rec, desc, cond, price, cat); // Make document in Item collection
-        if(!suc)
-            return false;
-
+        HashMap<String, T> cached = new HashMap<>(ids.size());
+        for(String id : ids)
+        {
+            if(id == null) // Nothing to read
+                continue;
 
-        HashMap<String, Object> map = new HashMap();
-        map.put("quantity", quantity);
-        map.put("location", loc.getID());
+            T value = cache.get(id);
+            if(value == null) // Needs a read
+            {
+                return fork(new Callable<HashMap<String, T>>()
+                {
+                    @Override
+                    public HashMap<String, T> call()
+                    {
+                        return resolve(cache, ids, deadline);
+                    }
+                });
+            }
 
-        DocumentReference ref = getDatabase().collection("Sellable").document(id);
-        Task t = ref.set(map);
-        waitForResponse(t);
+            cached.put(id, value);
+        }
 
-        return t.isSuccessful();
+        return Tasks.forResult(cached);
     }
 
 
     /**
-     * Creates a nonsellable item in the database.
-     * ID is generated for item.
-     * @param rec Date received
-     * @param desc Additional description
-     * @param cond Condition of item
-     * @param price Price of item
-     * @param cat Category of item
-     * @param source Source person/business of item
-     * @param quantity Quantity of item
-     * @param loc Location of item
-     * @return True if successful
+     * Reads the documents with the given IDs from a
+     * collection. IDs that don't exist are left out
+     * of the map.
+     * @param collection Name of collection
+     * @param ids Document IDs
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return OK with a map of ID to snapshot, TIMED_OUT or FAILED
      */
-    public boolean createNonSellableItem(Date rec, String desc, Condition cond, double price, Category cat, String source, int quantity, Location loc)
+    private Result<HashMap<String, DocumentSnapshot>> getDocuments(String collection, Collection<String> ids, long deadline)
     {
-        String id = makeID(); // Generate an ID
-        boolean suc = createItem(id, rec, desc, cond, price, cat); // Make document in Item collection
-        if(!suc)
-            return false;
+        return getDocuments(collection, ids, deadline, ReadPolicy.STRICT);
+    }
 
 
-        HashMap<String, Object> map = new HashMap();
-        map.put("source", source);
-        map.put("quantity", quantity);
-        map.put("location", loc.getID());
+    /**
+     * Reads documents like getDocuments(), from the
+     * local cache if policy allows.
+     * @param collection Name of collection
+     * @param ids Document IDs
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @param policy Where reads may be answered from
+     * @return OK with a map of ID to snapshot, TIMED_OUT or FAILED
+     */
+    private Result<HashMap<String, DocumentSnapshot>> getDocuments(String collection, Collection<String> ids, long deadline, ReadPolicy policy)
+    {
+        Result<List<DocumentSnapshot>> r = queryIn(collection, FieldPath.documentId(), ids, deadline, policy);
+        if(!r.isOk())
+            return Result.from(r);
 
-        DocumentReference ref = getDatabase().collection("NonSellable").document(id);
-        Task t = ref.set(map);
-        waitForResponse(t);
+        HashMap<String, DocumentSnapshot> map = new HashMap<>(r.getValue().size());
+        for(DocumentSnapshot doc : r.getValue())
+        {
+            map.put(doc.getId(), doc);
+        }
 
-        return t.isSuccessful();
+        return Result.ok(map);
     }
 
 
     /**
-     * Returns a nonsellable object from the database
-     * with the given ID.
-     * @param id Barcode of item
-     * @return Null if read failed
+     * Reads the documents of a collection whose field
+     * matches any of values. Values are split into
+     * whereIn() chunks of IN_QUERY_LIMIT which are all
+     * sent at once.
+     * @param collection Name of collection
+     * @param field Field to match
+     * @param values Values to match
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return OK with the matching documents, TIMED_OUT or FAILED
      */
-    public NonSellableItem getNonSellableItem(String id)
+    private Result<List<DocumentSnapshot>> queryIn(String collection, FieldPath field, Collection<String> values, long deadline)
     {
-        // Get rest of item info
-        DocumentSnapshot itemSnap = getItem(id);
-        if(itemSnap == null) /// Check for success
-            return null;
+        return queryIn(collection, field, values, deadline, ReadPolicy.STRICT);
+    }
 
-        // Pull info from item snapshot
-        Date received = itemSnap.getDate("received");
-        String desc = itemSnap.getString("description");
-        Condition cond = Condition.toCondition(itemSnap.getLong("condition"));
-        double amount = itemSnap.getDouble("price");
-        Category cat = getCategory(itemSnap.getString("category"));
 
+    /**
+     * Runs whereIn() queries like queryIn(). Answered
+     * from the local cache if policy allows every chunk.
+     * @param collection Name of collection
+     * @param field Field matched against values
+     * @param values Values to match
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @param policy Where reads may be answered from
+     * @return OK with the matching documents, TIMED_OUT or FAILED
+     */
+    private Result<List<DocumentSnapshot>> queryIn(String collection, FieldPath field, Collection<String> values, long deadline, ReadPolicy policy)
+    {
+        ArrayList<DocumentSnapshot> docs = new ArrayList<>();
 
+        // Split unique values into chunks
+        final ArrayList<List<String>> chunks = new ArrayList<>();
+        ArrayList<String> chunk = new ArrayList<>(IN_QUERY_LIMIT);
+        for(String v : new LinkedHashSet<>(values))
+        {
+            if(v == null)
+                continue;
 
-        // Pull from NonSellable collection
-        Task t = getDatabase().collection("NonSellable").document(id).get();
-        waitForResponse(t);
+            chunk.add(v);
+            if(chunk.size() == IN_QUERY_LIMIT)
+            {
+                chunks.add(chunk);
+                chunk = new ArrayList<>(IN_QUERY_LIMIT);
+            }
+        }
+        if(chunk.size() > 0)
+            chunks.add(chunk);
 
+        if(chunks.isEmpty()) // Nothing to read
+            return Result.ok((List<DocumentSnapshot>) docs);
 
-        if(t.isSuccessful())
+        CollectionReference ref = getDatabase().collection(collection);
+        final ArrayList<Query> queries = new ArrayList<>(chunks.size());
+        for(List<String> c : chunks)
         {
-            DocumentSnapshot docs = (DocumentSnapshot) t.getResult();
-            if(docs.exists())
+            queries.add(ref.whereIn(field, c));
+        }
+
+        List<QuerySnapshot> snaps = readCachedQueries(queries, policy, deadline);
+        if(snaps == null) // Go to server
+        {
+            Result<List<QuerySnapshot>> r = execute(new Callable<Task<List<QuerySnapshot>>>()
             {
-                String source = docs.getString("source");
-                int quantity = Integer.parseInt(String.valueOf(docs.getLong("quantity")));
-                Location loc = getLocation(docs.getString("location"));
+                @Override
+                public Task<List<QuerySnapshot>> call()
+                {
+                    ArrayList<Task<QuerySnapshot>> tasks = new ArrayList<>(queries.size());
+                    for(Query q : queries)
+                    {
+                        tasks.add(q.get());
+                    }
 
-                return new NonSellableItem(id, received, desc, quantity, cond, amount, cat, source, loc);
+                    return Tasks.<QuerySnapshot>whenAllSuccess(tasks);
+                }
+            }, RetryPolicy.READ, deadline);
+
+            if(!r.isOk())
+                return Result.from(r);
+
+            snaps = r.getValue();
+            for(int i = 0; i < snaps.size(); i++)
+            {
+                markValidated(queries.get(i), snaps.get(i).getMetadata());
             }
         }
 
-        return null;
+        for(QuerySnapshot snap : snaps)
+        {
+            docs.addAll(snap.getDocuments());
+        }
+
+        return Result.ok((List<DocumentSnapshot>) docs);
     }
 
 
+
     /**
-     * Returns a sellable object from the database
-     * with the given ID.
-     * @param id Barcode of item
-     * @return Null if read failed
+     * Deletes all kit/item relations from the database.
+     * @param kitID ID for the kit
+     * @return True if all deletes succeeded
      */
-    public SellableItem getSellableItem(String id)
+    public boolean deleteAllKitItemRelation(final String kitID)
     {
-        // Get rest of item info
-        DocumentSnapshot itemSnap = getItem(id);
-        if(itemSnap == null) /// Check for success
-            return null;
-
-        // Pull info from item snapshot
-        Date received = itemSnap.getDate("received");
-        String desc = itemSnap.getString("description");
-        Condition cond = Condition.toCondition(itemSnap.getLong("condition"));
-        double amount = itemSnap.getDouble("price");
-        Category cat = getCategory(itemSnap.getString("category"));
-
+        DeleteJob job = new DeleteJob(getDatabase(), new DeleteJob.Planner()
+        {
+            @Override
+            public Result<List<List<DocumentReference>>> plan()
+            {
+                Result<List<DocumentSnapshot>> rel = queryIn("Kit_Item", FieldPath.of("kit"), Arrays.asList(kitID), RetryPolicy.READ.deadlineFromNow());
+                if(!rel.isOk())
+                    return Result.from(rel);
 
+                List<List<DocumentReference>> stages = new ArrayList<>();
+                stages.add(refsOf(rel.getValue()));
+                return Result.ok(stages);
+            }
+        });
 
-        // Pull from Sellable collection
-        Task t = getDatabase().collection("Sellable").document(id).get();
-        waitForResponse(t);
+        return job.run(null);
+    }
 
 
-        if(t.isSuccessful())
+    /**
+     * Returns a job that deletes kits, their
+     * Kit_Item relations, Barcode entries and
+     * catalog manifest entries.
+     * Relations are deleted before the kits. Call run() on a worker thread
+     * or use runDeleteAsync().
+     * @param kitIDs IDs of kits
+     * @return Delete job
+     */
+    public DeleteJob deleteKits(final Collection<String> kitIDs)
+    {
+        return new DeleteJob(getDatabase(), new DeleteJob.Planner()
         {
-            DocumentSnapshot docs = (DocumentSnapshot) t.getResult();
-            if(docs.exists())
+            @Override
+            public Result<List<List<DocumentReference>>> plan()
             {
-                int quantity = Integer.parseInt(String.valueOf(docs.getLong("quantity")));
-                Location loc = getLocation(docs.getString("location"));
+                Result<List<DocumentSnapshot>> rel = queryIn("Kit_Item", FieldPath.of("kit"), kitIDs, RetryPolicy.READ.deadlineFromNow());
+                if(!rel.isOk())
+                    return Result.from(rel);
 
-                return new SellableItem(id, received, desc, quantity, cond, amount, cat, loc);
-            }
-        }
+                List<DocumentReference> roots = refsOf("Kit", kitIDs);
+                roots.addAll(refsOf("Barcode", kitIDs));
 
-        return null;
+                List<List<DocumentReference>> stages = new ArrayList<>();
+                stages.add(refsOf(rel.getValue()));
+                stages.add(roots);
+                return Result.ok(stages);
+            }
+        }, catalogCleanup());
     }
 
 
     /**
-     * Retrieves all of the sellable items from the database.
-     * @return Array of sellable items or null
+     * Returns a job that deletes items with their
+     * Sellable/NonSellable records, Barcode and catalog
+     * manifest entries and every Kit_Item relation that
+     * uses them. Dist_Item records are history and stay;
+     * an item that was distributed keeps its Item document
+     * too, so past reports, rollups and distribution
+     * columns don't change. Other Item documents are
+     * deleted last. Call run() on a worker thread or use
+     * runDeleteAsync().
+     * @param itemIDs Barcodes of items
+     * @return Delete job
      */
-    public SellableItem[] getAllSellable()
+    public DeleteJob deleteItems(final Collection<String> itemIDs)
     {
-        SellableItem[] items = null;
-        Task t = getDatabase().collection("Sellable").get(); // Get all documents
-        waitForResponse(t);
-
-        if(t.isSuccessful())
+        return new DeleteJob(getDatabase(), new DeleteJob.Planner()
         {
-            QuerySnapshot snap = (QuerySnapshot) t.getResult();
-            List<DocumentSnapshot> docs = snap.getDocuments();
-
-            if(docs.size() > 0)
+            @Override
+            public Result<List<List<DocumentReference>>> plan()
             {
-                items = new SellableItem[docs.size()];
+                long deadline = RetryPolicy.READ.deadlineFromNow();
+                Result<List<DocumentSnapshot>> kitRel = queryIn("Kit_Item", FieldPath.of("item"), itemIDs, deadline);
+                if(!kitRel.isOk())
+                    return Result.from(kitRel);
 
-                for(int i = 0; i < docs.size(); i++)
+                Result<List<DocumentSnapshot>> distRel = queryIn("Dist_Item", FieldPath.of("item"), itemIDs, deadline);
+                if(!distRel.isOk())
+                    return Result.from(distRel);
+
+                HashSet<String> unsold = new HashSet<>(itemIDs);
+                for(DocumentSnapshot doc : distRel.getValue())
                 {
-                    items[i] = getSellableItem(docs.get(i).getId());
+                    unsold.remove(Codecs.string(doc, "item")); // Kept for the reports
                 }
-            }
-        }
 
+                List<DocumentReference> types = refsOf("Sellable", itemIDs);
+                types.addAll(refsOf("NonSellable", itemIDs));
 
-        return items;
+                List<DocumentReference> roots = refsOf("Item", unsold);
+                roots.addAll(refsOf("Barcode", itemIDs));
+
+                List<List<DocumentReference>> stages = new ArrayList<>();
+                stages.add(refsOf(kitRel.getValue()));
+                stages.add(types);
+                stages.add(roots);
+                return Result.ok(stages);
+            }
+        }, catalogCleanup());
     }
 
 
     /**
-     * Retrieves all of the sellable items from the database.
-     * @return Array of sellable items or null
+     * Returns the delete job cleanup that removes
+     * items and kits from the catalog manifest in the
+     * batch deleting their barcodes, and moves the stock
+     * watermark when items are deleted.
+     * @return Delete job cleanup
      */
-    public NonSellableItem[] getAllNonSellable()
+    private DeleteJob.Cleanup catalogCleanup()
     {
-        NonSellableItem[] items = null;
-        Task t = getDatabase().collection("NonSellable").get(); // Get all documents
-        waitForResponse(t);
-
-        if(t.isSuccessful())
+        return new DeleteJob.Cleanup()
         {
-            QuerySnapshot snap = (QuerySnapshot) t.getResult();
-            List<DocumentSnapshot> docs = snap.getDocuments();
-
-            if(docs.size() > 0)
+            @Override
+            public int reserved()
             {
-                items = new NonSellableItem[docs.size()];
+                return CatalogManifest.CHUNKS + 1;
+            }
 
-                for(int i = 0; i < docs.size(); i++)
+            @Override
+            public void addTo(WriteBatch batch, List<DocumentReference> refs)
+            {
+                ArrayList<String> ids = new ArrayList<>();
+                boolean stock = false;
+                for(DocumentReference ref : refs)
                 {
-                    items[i] = getNonSellableItem(docs.get(i).getId());
+                    String collection = ref.getParent().getId();
+                    if(collection.equals("Barcode")) // Items kept for history lose theirs too
+                        ids.add(ref.getId());
+                    if(collection.equals("Sellable") || collection.equals("NonSellable"))
+                        stock = true;
                 }
-            }
-        }
 
-        return items;
+                CatalogManifest.remove(getDatabase(), batch, ids);
+                if(stock)
+                    ReportCache.bump(getDatabase(), batch, ReportCache.Depends.STOCK);
+            }
+        };
     }
 
 
     /**
-     * Generate a random ID of length
-     * BARCODE_SIZE consisting of integers.
-     * @return Random ID
+     * Runs a delete job on a worker thread.
+     * @param job Job from deleteKits() or deleteItems()
+     * @param listener Progress listener or null, called on the worker thread
+     * @return Task resolving to true if every document was deleted
      */
-    private String makeID()
+    public Task<Boolean> runDeleteAsync(final DeleteJob job, final DeleteJob.Listener listener)
     {
-        Random rand = new Random();
-        int[] id = new int[BARCODE_SIZE];
+        return runAsync(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return job.run(listener);
+            }
+        });
+    }
 
-        for(int i = 0; i < BARCODE_SIZE; i++)
+
+    /**
+     * Returns the references of snapshots.
+     * @param docs Document snapshots
+     * @return List of references
+     */
+    private List<DocumentReference> refsOf(List<DocumentSnapshot> docs)
+    {
+        ArrayList<DocumentReference> refs = new ArrayList<>(docs.size());
+        for(int i = 0; i < docs.size(); i++)
         {
-            id[i] = rand.nextInt(10); // [0, 10)
+            refs.add(docs.get(i).getReference());
         }
 
-        return Arrays.toString(id).replaceAll("\\[|\\]|,|\\s", "");
+        return refs;
     }
 
 
-
     /**
-     * Updates the quantity of the passed sellable item to
-     * the database. Use this function instead of
-     * updateItem() to save database read and writes.
-     * @param item Item to update
-     * @return True if successful
+     * Returns the references of documents in a collection.
+     * @param collection Name of collection
+     * @param ids Document IDs
+     * @return List of references
      */
-    public boolean updateItemQuantity(SellableItem item)
+    private List<DocumentReference> refsOf(String collection, Collection<String> ids)
     {
-        if(item == null)
-            return false;
-
+        CollectionReference ref = getDatabase().collection(collection);
+        ArrayList<DocumentReference> refs = new ArrayList<>(ids.size());
+        for(String id : new LinkedHashSet<>(ids))
+        {
+            refs.add(ref.document(id));
+        }
 
-        DocumentReference ref = getDatabase().collection("Sellable").document(item.getID());
-        Task t = ref.update("quantity", item.getQuantity());
+        return refs;
+    }
 
-        waitForResponse(t);
 
-        return t.isSuccessful();
+    /**
+     * Returns an array of all the kits
+     * in the database. Will never be null.
+     * If no kits exist, function will return
+     * a zero length array.
+     * @return Array of Kit
+     */
+    public Kit[] getAllKits()
+    {
+        return getAllKits(ReadPolicy.STRICT);
     }
 
 
     /**
-     * Updates the quantity of the passed sellable item to
-     * the database. Use this function instead of
-     * updateItem() to save database read and writes.
-     * @param item Item to update
-     * @return True if successful
+     * Returns an array of all the kits
+     * in the database. Will never be null.
+     * If no kits exist, function will return
+     * a zero length array.
+     * @param policy Where reads may be answered from
+     * @return Array of Kit
      */
-    public boolean updateItemQuantity(NonSellableItem item)
+    public Kit[] getAllKits(ReadPolicy policy)
     {
-        if(item == null)
-            return false;
+        Kit[] kits;
 
+        Result<QuerySnapshot> r = readQuery(getDatabase().collection("Kit"), RetryPolicy.READ.deadlineFromNow(), policy); // Get all kits
 
-        DocumentReference ref = getDatabase().collection("NonSellable").document(item.getID());
-        Task t = ref.update("quantity", item.getQuantity());
+        if(r.isOk())
+        {
+            QuerySnapshot snap = r.getValue();
+            List<DocumentSnapshot> docs = snap.getDocuments();
+            kits = new Kit[docs.size()];
 
-        waitForResponse(t);
+            for(int i = 0; i < kits.length; i++)
+            {
+                kits[i] = Codecs.KIT.decode(docs.get(i));
+            }
+        }
+        else
+            kits = new Kit[0];
 
-        return t.isSuccessful();
+        return kits;
     }
 
 
     /**
-     * Updates the item with attributes in the object.
-     * @param item Item to update
-     * @return True if successful update
+     * Returns a cursor over kits in ID order.
+     * @param pageSize Kits per page
+     * @return Cursor, nothing is read until next()
      */
-    private boolean updateItem(Item item)
+    public PageCursor<Kit> kitCursor(int pageSize)
     {
-        DocumentReference ref = getDatabase().collection("Item").document(item.getID());
-        Task t1 = ref.update("received", new Timestamp(item.getReceived()));
-        Task t2 = ref.update("description", item.getDescription());
-        Task t3 = ref.update("condition", Condition.toInt(item.getCondition()));
-        Task t4 = ref.update("price", item.getPrice());
-
-        // Wait for all tasks to complete
-        waitForResponse(t1);
-        waitForResponse(t2);
-        waitForResponse(t3);
-        waitForResponse(t4);
+        Query q = getDatabase().collection("Kit").orderBy(FieldPath.documentId());
+        return new PageCursor<>(q, pageSize, new PageCursor.Loader<Kit>()
+        {
+            @Override
+            public Result<List<Kit>> load(List<DocumentSnapshot> docs, long deadline)
+            {
+                ArrayList<Kit> page = new ArrayList<>(docs.size());
+                for(int i = 0; i < docs.size(); i++)
+                {
+                    page.add(Codecs.KIT.decode(docs.get(i)));
+                }
 
-        return (t1.isSuccessful() && t2.isSuccessful() && t3.isSuccessful() && t4.isSuccessful());
+                return Result.<List<Kit>>ok(page);
+            }
+        });
     }
 
 
     /**
-     * Updates the sellable document with ID in item.
-     * @param item Item to update
-     * @return True if successful
+     * Returns all kits on a worker thread.
+     * @return Task resolving to an array of kits, never null
      */
-    public boolean updateSellable(SellableItem item)
+    public Task<Kit[]> getAllKitsAsync()
     {
-        if(item == null)
-            return false;
-
-        DocumentReference ref = getDatabase().collection("Sellable").document(item.getID());
-        Task t1 = ref.update("quantity", item.getQuantity());
-        Task t2 = ref.update("location", item.getLocation().getID());
-
-        waitForResponse(t1);
-        waitForResponse(t2);
-
-        if (t1.isSuccessful() && t2.isSuccessful())
-            return updateItem(item);
-        else
-            return false;
+        return getAllKitsAsync(ReadPolicy.STRICT);
     }
 
 
     /**
-     * Updates the nonsellable document with ID in item.
-     * @param item Item to update
-     * @return True is successful
+     * Returns all kits on a worker thread.
+     * @param policy Where reads may be answered from
+     * @return Task resolving to an array of kits, never null
      */
-    public boolean updateNonSellable(NonSellableItem item)
+    public Task<Kit[]> getAllKitsAsync(final ReadPolicy policy)
     {
-        if(item == null)
-            return false;
-
-        DocumentReference ref = getDatabase().collection("NonSellable").document(item.getID());
-        Task t1 = ref.update("source", ((NonSellableItem)item).getSource());
-        Task t2 = ref.update("quantity", item.getQuantity());
-        Task t3 = ref.update("location", item.getLocation().getID());
-
-        waitForResponse(t1);
-        waitForResponse(t2);
-        waitForResponse(t3);
-
-        if (t1.isSuccessful() && t2.isSuccessful() && t3.isSuccessful())
-            return updateItem(item);
-        else
-            return false;
+        return runAsync(new Callable<Kit[]>()
+        {
+            @Override
+            public Kit[] call()
+            {
+                return getAllKits(policy);
+            }
+        });
     }
 
 
     /**
-     * Create a distribution of sellable items in the database.
-     * item and quantity are arrays of items and the number of each item sold
-     * and should be ordered with matching indices.
-     * @param sell Array of items in distribution
-     * @param sellQuant Array of quantities of each item sold
-     * @param nonSell Array of items in distribution
-     * @param nonSellQuant Array of quantities of each item sold
-     * @param amount Total + tax of sale
-     * @param date Date of sale
-     * @param user User who performed sale
-     * @return True if successful
+     * Returns the result of a completed task or null
+     * if the task failed or was cancelled.
+     * @param t Completed task
+     * @return Result of t or null
      */
-    public boolean createDistItemRelation(SellableItem[] sell, int[] sellQuant, NonSellableItem[] nonSell, int[] nonSellQuant, double amount, Date date, User user, String memo)
+    public static <T> T resultOf(Task<T> t)
     {
-        if((sell.length != sellQuant.length) || (nonSell.length != nonSellQuant.length)) // Stop if arrays are different lengths
-            return false;
-
-
-        Distribution dist = createDistribution(amount, date, user, memo); // Make distribution
-        if(dist == null)
-            return false;
+        if(t == null || !t.isSuccessful())
+            return null;
 
-        // Save NonSellables
-        for(int i = 0; i < nonSell.length; i++)
-        {
-            boolean suc = saveDistItem(nonSell, nonSellQuant, dist.getID());
+        return t.getResult();
+    }
 
-            if(!suc)
-                return false;
-        }
 
-        // Save Sellables
-        for(int i = 0; i < sell.length; i++)
+    /**
+     * Reads the next page of a cursor on a worker thread.
+     * @param cursor Cursor to read
+     * @return Task resolving to the result of cursor.next()
+     */
+    public <T> Task<Result<List<T>>> nextPageAsync(final PageCursor<T> cursor)
+    {
+        return runAsync(new Callable<Result<List<T>>>()
         {
-            boolean suc = saveDistItem(sell, sellQuant, dist.getID());
+            @Override
+            public Result<List<T>> call()
+            {
+                return cursor.next();
+            }
+        });
+    }
 
-            if(!suc)
-                return false;
-        }
 
-        return true;
+    /**
+     * Reads every page of a cursor, handing each page to
+     * consumer on the UI thread as soon as it is ready.
+     * Stops early if the activity finishes.
+     * @param activity Activity the pages are shown in
+     * @param cursor Cursor to read
+     * @param consumer Receives the pages
+     * @return Task resolving to true if every page was read
+     */
+    public <T> Task<Boolean> streamAsync(Activity activity, PageCursor<T> cursor, PageCursor.Consumer<T> consumer)
+    {
+        TaskCompletionSource<Boolean> done = new TaskCompletionSource<>();
+        streamNext(activity, cursor, consumer, done);
+        return done.getTask();
     }
 
 
     /**
-     * Saves Sellable and NonSellable items to the database.
-     * @param item Array of items
-     * @param quantity Array of quantities
-     * @param id ID of the distribution
-     * @return True if all saves are successful
+     * Reads one page for streamAsync() and
+     * chains the read of the next.
      */
-    private boolean saveDistItem(Item[] item, int[] quantity, String id)
+    private <T> void streamNext(final Activity activity, final PageCursor<T> cursor, final PageCursor.Consumer<T> consumer, final TaskCompletionSource<Boolean> done)
     {
-        boolean suc = false;
-        HashMap<String, Object> map;
-        for(int i = 0; i < item.length; i++)
+        nextPageAsync(cursor).addOnCompleteListener(activity, new OnCompleteListener<Result<List<T>>>()
         {
-            map = new HashMap();
-            map.put("item", item[i].getID());
-            map.put("dist", id);
-            map.put("quantity", quantity[i]);
-
-            if(item[i] instanceof SellableItem)
-                map.put("sellable", true);
-            else
-                map.put("sellable", false);
-
-            // Create dist_item
-            DocumentReference ref = getDatabase().collection("Dist_Item").document();
-            ref.set(map);
-
-            item[i].decreaseQuantity(quantity[i]);
-
-            if(item[i] instanceof NonSellableItem)
-                suc = updateItemQuantity((NonSellableItem) item[i]);
-            else
-                suc = updateItemQuantity((SellableItem) item[i]);
+            @Override
+            public void onComplete(Task<Result<List<T>>> task)
+            {
+                Result<List<T>> page = resultOf(task);
+                if(page == null || !page.isOk())
+                {
+                    done.setResult(false);
+                    return;
+                }
 
-            if(!suc) // If not successful save
-                return false;
-        }
+                consumer.onPage(page.getValue());
 
-        return suc;
+                if(cursor.hasNext() && !activity.isFinishing())
+                    streamNext(activity, cursor, consumer, done);
+                else
+                    done.setResult(!cursor.hasNext());
+            }
+        });
     }
 
 
-
     /**
-     * Creates a kit in the database. ID is automatically
-     * generated to a 13 character barcode.
-     * @param name Name for kit
-     * @param descr Description for kit
-     * @return Null object if save failed
+     * Runs the blocking operation on the worker pool.
+     * Blocking methods must never call back into an
+     * *Async() method or the pool can starve itself.
+     * @param call Operation to run
+     * @return Task resolving to the result of call
      */
-    private Kit createKit(String name, String descr)
+    private <T> Task<T> runAsync(Callable<T> call)
     {
-        String id = this.makeID();
-
-        HashMap<String, Object> map = new HashMap();
-        map.put("ID", id);
-        map.put("name", name);
-        map.put("description", descr);
-
-        DocumentReference ref = getDatabase().collection("Kit").document(id);
-        Task t = ref.set(map);
+        return Tasks.call(EXECUTOR, call);
+    }
 
-        waitForResponse(t);
 
-        return new Kit(id, name, descr);
+    /**
+     * Waits for the task to complete or the write
+     * deadline to pass. Callers must check isSuccessful()
+     * since the task may still be running.
+     * @param t Thread task
+     */
+    private void waitForResponse(Task t)
+    {
+        awaitTask(t, RetryPolicy.WRITE.deadlineFromNow());
     }
 
 
     /**
-     * Returns the kit with the given barcode ID.
-     * Will return null if no kit is found.
-     * @param id ID of kit
-     * @return Kit object or null
+     * Waits for the task to complete or the deadline to
+     * pass, sleeping until either happens. Blocking calls
+     * are refused on the UI thread, since the task may
+     * need it to complete; use the *Async() methods there.
+     * @param t Thread task
+     * @param deadline Deadline on the RetryPolicy.now() clock
+     * @return True if the task completed
+     * @throws IllegalStateException If called on the UI thread
      */
-    public Kit getKit(String id)
+    static boolean awaitTask(Task t, long deadline)
     {
-        Task t = getDatabase().collection("Kit").document(id).get();
-        waitForResponse(t);
+        if(Looper.myLooper() == Looper.getMainLooper())
+            throw new IllegalStateException("Blocking database call on the UI thread, use the Async method");
 
-        if(t.isSuccessful())
+        try
+        {
+            Tasks.await(t, Math.max(0, deadline - RetryPolicy.now()), TimeUnit.MILLISECONDS);
+        }
+        catch(ExecutionException e) {} // Caller checks isSuccessful()
+        catch(TimeoutException e) {}
+        catch(InterruptedException e)
         {
-            DocumentSnapshot snapshot = (DocumentSnapshot) t.getResult();
-            String desc = snapshot.getString("description");
-            String name = snapshot.getString("name");
-            return new Kit(id, name, desc);
+            Thread.currentThread().interrupt();
         }
 
-        return null;
+        return t.isComplete();
     }
 
 
     /**
-     * Returns the items in a given kit.
-     * No items in kit will return an empty array.
-     * @param kit Kit to search
-     * @return Array of items in kit
+     * Runs a read until it succeeds, fails with an error
+     * that retrying won't fix, or runs out of attempts or
+     * time. Each attempt gets a fresh task from op.
+     * @param op Creates the read task
+     * @param policy Attempt limits and backoff
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return OK with the task result, TIMED_OUT or FAILED
      */
-    public Item[] getItemsFromKit(Kit kit)
+    private <T> Result<T> execute(Callable<Task<T>> op, RetryPolicy policy, long deadline)
     {
-        Item[] items;
-
-        Task t = getDatabase().collection("Kit_Item").whereEqualTo("kit", kit.getID()).get();
-        waitForResponse(t);
+        Result<T> last = Result.timedOut();
 
-        if(t.isSuccessful())
+        for(int attempt = 1; attempt <= policy.getMaxAttempts(); attempt++)
         {
-            QuerySnapshot snap = (QuerySnapshot) t.getResult();
-            List<DocumentSnapshot> docs = snap.getDocuments();
-            items = new Item[docs.size()];
+            if(attempt > 1) // Back off before retrying
+            {
+                long delay = policy.backoff(attempt - 1);
+                if(RetryPolicy.now() + delay >= deadline)
+                    break;
+
+                try
+                {
+                    Thread.sleep(delay);
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
 
-            for(int i = 0; i < items.length; i++)
+            long remaining = deadline - RetryPolicy.now();
+            if(remaining <= 0)
+                break;
+
+            Task<T> t;
+            try
             {
-                if(docs.get(i).getBoolean("sellable"))
-                    items[i] = getSellableItem(docs.get(i).getString("item"));
-                else
-                    items[i] = getNonSellableItem(docs.get(i).getString("item"));
+                t = op.call();
+            }
+            catch(Exception e)
+            {
+                return Result.failed(e);
+            }
 
-                // Set quantity
-                long quant = docs.get(i).getLong("quantity");
-                items[i].setQuantity(Integer.parseInt(String.valueOf(quant)));
+            if(!awaitTask(t, RetryPolicy.now() + Math.min(remaining, policy.getAttemptTimeout())))
+            {
+                last = Result.timedOut();
+                continue;
             }
+
+            if(t.isSuccessful())
+                return Result.ok(t.getResult());
+
+            last = Result.failed(t.getException());
+            if(!isRetryable(t.getException()))
+                break;
         }
-        else
-            items = new Item[0];
 
-        return items;
+        return last;
     }
 
 
-
     /**
-     * Saves a kit and its associated items.  If the kit does not exist,
-     * a new one will be created. Then,
-     * The item relations with quantities are updated
-     * or created.
-     * @param kit Kit to use - Null for new kit
-     * @param name Name of kit
-     * @param desc Description of kit
-     * @param items List of items to put in kit
-     * @param sellable List of item sellable types. i.e. True for SellableItem type.
-     * @param quantity List of quantities
-     * @return Returns true if the function is executed, not
-     * if the saves were successful.
+     * Checks if a failed read is worth retrying,
+     * i.e. the failure is transient.
+     * @param e Exception from the task
+     * @return True if retrying may succeed
      */
-    public boolean saveKit(Kit kit, String name, String desc, Item[] items, boolean[] sellable, int[] quantity)
+    private boolean isRetryable(Exception e)
     {
-        if(items == null || sellable == null || quantity == null)
-            return false;
-
-        if(items.length != sellable.length && items.length != quantity.length)
+        if(!(e instanceof FirebaseFirestoreException))
             return false;
 
-        // Does kit exist?
-        if(kit == null || kit.getID().length() != BARCODE_SIZE) // Check if barcode is right
-        {
-            kit = createKit(name, desc); // Make the new kit
-        }
-        else // Update Kit information
-        {
-            updateKit(kit.getID(), name, desc);
-        }
-
-        deleteAllKitItemRelation(kit.getID()); // Delete kit/item relations
-
-        // Save kit items
-        for(int i = 0 ; i < items.length; i++)
+        switch(((FirebaseFirestoreException) e).getCode())
         {
-            createKitItem(kit.getID(), items[i].getID(), quantity[i], sellable[i]);
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case ABORTED:
+            case RESOURCE_EXHAUSTED:
+            case INTERNAL:
+            case UNKNOWN:
+                return true;
+            default:
+                return false;
         }
-
-        return true;
     }
 
 
-
     /**
-     * Update the name and description of a kit
-     * with the given ID. Update will fail
-     * if the kit doesn't exist.
-     * @param id ID of kit
-     * @param name Name of kit
-     * @param desc Description of kit
+     * Reads a document with retries.
+     * @param ref Document to read
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return OK with the snapshot, NOT_FOUND, TIMED_OUT or FAILED
      */
-    private void updateKit(String id, String name, String desc)
+    private Result<DocumentSnapshot> readDocument(DocumentReference ref, long deadline)
     {
-        DocumentReference ref = getDatabase().collection("Kit").document(id);
-        ref.update("name", name);
-        ref.update("description", desc);
+        return readDocument(ref, deadline, ReadPolicy.STRICT);
     }
 
 
-
     /**
-     * Returns reference of the item document of ID.
-     * @param id Document ID
-     * @return DocumentReference to document
+     * Reads a document, from the local cache if
+     * policy allows, otherwise from the server
+     * with retries.
+     * @param ref Document to read
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @param policy Where the read may be answered from
+     * @return OK with the snapshot, NOT_FOUND, TIMED_OUT or FAILED
      */
-    private DocumentSnapshot getItem(String id)
+    private Result<DocumentSnapshot> readDocument(final DocumentReference ref, long deadline, ReadPolicy policy)
     {
-        Task t = getDatabase().collection("Item").whereEqualTo("ID", id).get();
-        waitForResponse(t);
+        Result<DocumentSnapshot> r;
+        List<DocumentSnapshot> cached = readCachedDocuments(Collections.singletonList(ref), policy, deadline);
 
-        if(t.isSuccessful())
+        if(cached != null)
+            r = Result.ok(cached.get(0));
+        else
         {
-            QuerySnapshot snap = (QuerySnapshot) t.getResult();
-            List<DocumentSnapshot> list = snap.getDocuments();
-            if(list.size() > 0)
-                return list.get(0);
+            r = execute(new Callable<Task<DocumentSnapshot>>()
+            {
+                @Override
+                public Task<DocumentSnapshot> call()
+                {
+                    return ref.get();
+                }
+            }, RetryPolicy.READ, deadline);
+
+            if(r.isOk())
+                markValidated(ref, r.getValue().getMetadata());
         }
 
-        return null;
+        if(r.isOk() && !r.getValue().exists()) // Does it exist?
+            return Result.notFound();
+
+        return r;
     }
 
 
+    /**
+     * Runs a query with retries. An empty result is OK.
+     * @param q Query to run
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return OK with the snapshot, TIMED_OUT or FAILED
+     */
+    private Result<QuerySnapshot> readQuery(Query q, long deadline)
+    {
+        return readQuery(q, deadline, ReadPolicy.STRICT);
+    }
+
 
     /**
-     * Creates the kit/item relation in the Kit_Item collection.
-     * @param kit Kit ID to relate
-     * @param item Item ID to relate
-     * @param quantity Quantity to save
+     * Runs a query, from the local cache if policy
+     * allows, otherwise on the server with retries.
+     * @param q Query to run
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @param policy Where the query may be answered from
+     * @return OK with the snapshot, TIMED_OUT or FAILED
      */
-    private void createKitItem(String kit, String item, int quantity, boolean sellable)
+    private Result<QuerySnapshot> readQuery(final Query q, long deadline, ReadPolicy policy)
     {
-        HashMap<String, Object> map = new HashMap();
-        map.put("item", item);
-        map.put("kit", kit);
-        map.put("quantity", quantity);
-        map.put("sellable", sellable);
+        List<QuerySnapshot> cached = readCachedQueries(Collections.singletonList(q), policy, deadline);
+        if(cached != null)
+            return Result.ok(cached.get(0));
 
-        DocumentReference ref = getDatabase().collection("Kit_Item").document();
-        ref.set(map);
+        Result<QuerySnapshot> r = execute(new Callable<Task<QuerySnapshot>>()
+        {
+            @Override
+            public Task<QuerySnapshot> call()
+            {
+                return q.get();
+            }
+        }, RetryPolicy.READ, deadline);
+
+        if(r.isOk())
+            markValidated(q, r.getValue().getMetadata());
+
+        return r;
     }
 
 
     /**
-     * Deletes all kit/item relations from the database.
-     * @param kitID ID for the kit
-     * @return True if all deletes succeeded
+     * Reads documents from the local cache if policy
+     * allows every one, then reads them again from the
+     * server in the background. The policy's listener
+     * is told if the server copy differs.
+     * @param refs Documents to read
+     * @param policy Where the reads may be answered from
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return Cached snapshots in refs order or null if the cache can't answer
      */
-    public boolean deleteAllKitItemRelation(String kitID)
+    private List<DocumentSnapshot> readCachedDocuments(List<DocumentReference> refs, final ReadPolicy policy, long deadline)
     {
-        // Get all records with kit ID in it
-        Task t = getDatabase().collection("Kit_Item").whereEqualTo("kit", kitID).get();
-        waitForResponse(t);
-
+        for(DocumentReference ref : refs)
+        {
+            if(!policy.allowsCache(ref))
+                return null;
+        }
 
-        // Erase all previous documents for specified kit
-        if(t.isSuccessful())
+        ArrayList<Task<DocumentSnapshot>> tasks = new ArrayList<>(refs.size());
+        for(DocumentReference ref : refs)
         {
-            QuerySnapshot snap = (QuerySnapshot) t.getResult();
-            List<DocumentSnapshot> docs = snap.getDocuments();
+            tasks.add(ref.get(Source.CACHE));
+        }
 
-            if(docs.size() > 0)
+        Task<List<DocumentSnapshot>> all = Tasks.whenAllSuccess(tasks);
+        if(!awaitTask(all, deadline) || !all.isSuccessful()) // Not in cache
+            return null;
+
+        final List<DocumentSnapshot> cached = all.getResult();
+        for(int i = 0; i < refs.size(); i++)
+        {
+            final DocumentReference ref = refs.get(i);
+            final DocumentSnapshot old = cached.get(i);
+            ref.get(Source.SERVER).addOnCompleteListener(new OnCompleteListener<DocumentSnapshot>()
             {
-                for(int i = 0; i < docs.size(); i++)
+                @Override
+                public void onComplete(Task<DocumentSnapshot> task)
                 {
-                    Task t1 = docs.get(i).getReference().delete(); // Delete document
-                    waitForResponse(t1);
-                    if(!t1.isSuccessful())
-                        return false;
-                }
+                    if(!task.isSuccessful())
+                        return;
 
-                return true;
-            }
+                    ReadPolicy.validated(ref);
+                    if(!sameData(Collections.singletonList(old), Collections.singletonList(task.getResult())))
+                        policy.changed();
+                }
+            });
         }
 
-        return false;
+        return cached;
     }
 
 
     /**
-     * Returns an array of all the kits
-     * in the database. Will never be null.
-     * If no kits exist, function will return
-     * a zero length array.
-     * @return Array of Kit
+     * Runs queries against the local cache if policy
+     * allows every one, then runs them again on the
+     * server in the background. The policy's listener
+     * is told if the server results differ.
+     * @param queries Queries to run
+     * @param policy Where the queries may be answered from
+     * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+     * @return Cached snapshots in queries order or null if the cache can't answer
      */
-    public Kit[] getAllKits()
+    private List<QuerySnapshot> readCachedQueries(List<Query> queries, final ReadPolicy policy, long deadline)
     {
-        Kit[] kits;
-
-        Task t = getDatabase().collection("Kit").get(); // Get all kits
-        waitForResponse(t);
+        for(Query q : queries)
+        {
+            if(!policy.allowsCache(q))
+                return null;
+        }
 
-        if(t.isSuccessful())
+        ArrayList<Task<QuerySnapshot>> tasks = new ArrayList<>(queries.size());
+        for(Query q : queries)
         {
-            QuerySnapshot snap = (QuerySnapshot) t.getResult();
-            List<DocumentSnapshot> docs = snap.getDocuments();
-            kits = new Kit[docs.size()];
+            tasks.add(q.get(Source.CACHE));
+        }
 
-            for(int i = 0; i < kits.length; i++)
+        Task<List<QuerySnapshot>> all = Tasks.whenAllSuccess(tasks);
+        if(!awaitTask(all, deadline) || !all.isSuccessful())
+            return null;
+
+        final List<QuerySnapshot> cached = all.getResult();
+        for(int i = 0; i < queries.size(); i++)
+        {
+            final Query q = queries.get(i);
+            final QuerySnapshot old = cached.get(i);
+            q.get(Source.SERVER).addOnCompleteListener(new OnCompleteListener<QuerySnapshot>()
             {
-                String id = docs.get(i).getString("ID");
-                String name = docs.get(i).getString("name");
-                String desc = docs.get(i).getString("description");
+                @Override
+                public void onComplete(Task<QuerySnapshot> task)
+                {
+                    if(!task.isSuccessful())
+                        return;
 
-                kits[i] = new Kit(id, name, desc);
-            }
+                    ReadPolicy.validated(q);
+                    if(!sameData(old.getDocuments(), task.getResult().getDocuments()))
+                        policy.changed();
+                }
+            });
         }
-        else
-            kits = new Kit[0];
 
-        return kits;
+        return cached;
     }
 
 
     /**
-     * Loops waiting for the task to complete.
-     * @param t Thread task
+     * Records a read confirmed by the server so later
+     * reads of key may use the local cache.
+     * @param key DocumentReference or Query read
+     * @param meta Metadata of the snapshot read
      */
-    private void waitForResponse(Task t)
+    private void markValidated(Object key, SnapshotMetadata meta)
+    {
+        if(meta != null && !meta.isFromCache()) // Offline reads come from cache
+            ReadPolicy.validated(key);
+    }
+
+
+    /**
+     * Checks if two reads returned the same documents
+     * with the same fields.
+     * @param a Documents of one read
+     * @param b Documents of the other read
+     * @return True if equal
+     */
+    private static boolean sameData(List<DocumentSnapshot> a, List<DocumentSnapshot> b)
     {
-        // Spin lock for now
-        while(!t.isComplete()) {}
+        if(a.size() != b.size())
+            return false;
+
+        for(int i = 0; i < a.size(); i++)
+        {
+            if(!a.get(i).getId().equals(b.get(i).getId()) || !Objects.equals(a.get(i).getData(), b.get(i).getData()))
+                return false;
+        }
+
+        return true;
     }
 }
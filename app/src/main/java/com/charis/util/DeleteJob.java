@@ -0,0 +1,260 @@
+package com.charis.util;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+
+/**
+ * Deletes a set of documents in write batches of up
+ * to Database.BATCH_LIMIT deletes, a few batches at a time.
+ * Documents are deleted in stages so relations are
+ * gone before the documents they point to. A job that
+ * stops on a failed batch keeps the batches it has left
+ * and continues from there when run again. Since the
+ * root documents go last, a new job for the same IDs
+ * also picks up after the app was closed mid-delete.
+ */
+public final class DeleteJob
+{
+    /**
+     * Receives progress of a running job. Called on
+     * the thread running the job.
+     */
+    public interface Listener
+    {
+        /**
+         * Called after each round of batches.
+         * @param deleted Documents deleted so far
+         * @param total Documents to delete
+         */
+        void onProgress(int deleted, int total);
+    }
+
+    /**
+     * Finds the documents to delete.
+     */
+    interface Planner
+    {
+        /**
+         * Returns the documents to delete as stages that
+         * run in order. Documents in a stage are deleted
+         * in parallel.
+         * @return OK with the stages, TIMED_OUT or FAILED
+         */
+        Result<List<List<DocumentReference>>> plan();
+    }
+
+    /**
+     * Adds writes that must commit together with
+     * the deletes of a batch.
+     */
+    interface Cleanup
+    {
+        /**
+         * Returns the most writes addTo() adds to one batch.
+         * @return Writes reserved per batch
+         */
+        int reserved();
+
+        /**
+         * Adds writes for documents being deleted.
+         * @param batch Batch holding the deletes
+         * @param refs Documents deleted by the batch
+         */
+        void addTo(WriteBatch batch, List<DocumentReference> refs);
+    }
+
+    /**
+     * Most batches committed at the same time.
+     */
+    private static final int MAX_IN_FLIGHT = 4;
+
+    private final FirebaseFirestore db;
+    private final Planner planner;
+    private final Cleanup cleanup;
+
+    private LinkedList<LinkedList<List<DocumentReference>>> stages; // Batches left, null until planned
+    private int deleted;
+    private int total;
+
+
+    /**
+     * Builds a job. Nothing is read until run().
+     * @param db Firestore instance
+     * @param planner Finds the documents to delete
+     */
+    DeleteJob(FirebaseFirestore db, Planner planner)
+    {
+        this(db, planner, null);
+    }
+
+
+    /**
+     * Builds a job whose batches also carry the
+     * writes of cleanup.
+     * @param db Firestore instance
+     * @param planner Finds the documents to delete
+     * @param cleanup Adds writes to each batch or null
+     */
+    DeleteJob(FirebaseFirestore db, Planner planner, Cleanup cleanup)
+    {
+        this.db = db;
+        this.planner = planner;
+        this.cleanup = cleanup;
+    }
+
+
+    /**
+     * Deletes the documents left in the job. Blocks until
+     * every batch is committed or one fails.
+     * @param listener Progress listener or null
+     * @return True if every document is deleted
+     */
+    public synchronized boolean run(Listener listener)
+    {
+        if(this.stages == null && !plan())
+            return false;
+
+        report(listener);
+
+        while(!this.stages.isEmpty())
+        {
+            LinkedList<List<DocumentReference>> batches = this.stages.getFirst();
+
+            while(!batches.isEmpty())
+            {
+                // Commit the next few batches together
+                int count = Math.min(MAX_IN_FLIGHT, batches.size());
+                ArrayList<List<DocumentReference>> round = new ArrayList<>(batches.subList(0, count));
+                ArrayList<Task<Void>> tasks = new ArrayList<>(count);
+                for(List<DocumentReference> refs : round)
+                {
+                    tasks.add(commit(refs));
+                }
+
+                Database.awaitTask(Tasks.whenAllComplete(tasks), RetryPolicy.WRITE.deadlineFromNow());
+
+                boolean failed = false;
+                for(int i = 0; i < count; i++)
+                {
+                    if(tasks.get(i).isSuccessful())
+                    {
+                        batches.remove(round.get(i));
+                        this.deleted += round.get(i).size();
+                    }
+                    else
+                        failed = true;
+                }
+
+                report(listener);
+
+                if(failed) // Keep the rest for the next run
+                    return false;
+            }
+
+            this.stages.removeFirst();
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Checks if every document is deleted.
+     * @return True if done
+     */
+    public synchronized boolean isDone()
+    {
+        return this.stages != null && this.stages.isEmpty();
+    }
+
+
+    /**
+     * Returns the number of documents deleted so far.
+     * @return Documents deleted
+     */
+    public synchronized int getDeleted()
+    {
+        return this.deleted;
+    }
+
+
+    /**
+     * Returns the number of documents to delete.
+     * Zero until the job first runs.
+     * @return Documents to delete
+     */
+    public synchronized int getTotal()
+    {
+        return this.total;
+    }
+
+
+    /**
+     * Finds the documents to delete and splits
+     * each stage into batches, leaving room for
+     * the cleanup writes.
+     * @return True if planned
+     */
+    private boolean plan()
+    {
+        Result<List<List<DocumentReference>>> r = this.planner.plan();
+        if(!r.isOk())
+            return false;
+
+        int size = Database.BATCH_LIMIT - ((this.cleanup != null) ? this.cleanup.reserved() : 0);
+
+        this.stages = new LinkedList<>();
+        for(List<DocumentReference> stage : r.getValue())
+        {
+            LinkedList<List<DocumentReference>> batches = new LinkedList<>();
+            for(int i = 0; i < stage.size(); i += size)
+            {
+                batches.add(new ArrayList<>(stage.subList(i, Math.min(stage.size(), i + size))));
+            }
+
+            this.total += stage.size();
+            this.stages.add(batches);
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Commits one batch of deletes.
+     * @param refs Documents to delete
+     * @return Commit task
+     */
+    private Task<Void> commit(List<DocumentReference> refs)
+    {
+        WriteBatch batch = this.db.batch();
+        for(DocumentReference ref : refs)
+        {
+            batch.delete(ref);
+        }
+
+        if(this.cleanup != null)
+            this.cleanup.addTo(batch, refs);
+
+        return batch.commit();
+    }
+
+
+    /**
+     * Sends progress to the listener.
+     * @param listener Progress listener or null
+     */
+    private void report(Listener listener)
+    {
+        if(listener != null)
+            listener.onProgress(this.deleted, this.total);
+    }
+}
@@ -0,0 +1,358 @@
+package com.charis.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+
+
+/**
+ * Every distribution held as columns of primitives
+ * sorted by time: date, amount in cents, user and
+ * number of lines. Running sums of the amounts, sales
+ * and lines are kept next to them, so the totals of
+ * any range are two binary searches and a subtraction.
+ * A snapshot never changes once built. Loading more
+ * distributions builds a new snapshot that shares the
+ * arrays and writes only past the end of the old one.
+ * Distributions older than the last one, such as sales
+ * made offline and synced late, are merged into new
+ * arrays in one copy instead.
+ */
+public final class DistributionColumns
+{
+    static final DistributionColumns EMPTY = new DistributionColumns(new long[0], new long[0], new int[0], new int[0],
+            new long[1], new int[1], new long[1], new String[0], new HashMap<String, Integer>(), 0, 0);
+
+    private final long[] time; // Epoch ms, ascending
+    private final long[] cents; // Total + tax in cents
+    private final int[] user; // Index into users, -1 if none
+    private final int[] lines; // Number of Dist_Item records
+    private final long[] sumCents; // sumCents[i] is the sum of cents[0] to cents[i - 1]
+    private final int[] sumSales; // Same for amounts above zero
+    private final long[] sumLines; // Same for lines
+    private final String[] users; // Usernames by index
+    private final HashMap<String, Integer> userIndex; // Only used by builders
+    private final int size;
+    private final int userCount;
+
+
+    private DistributionColumns(long[] time, long[] cents, int[] user, int[] lines, long[] sumCents, int[] sumSales, long[] sumLines,
+                                String[] users, HashMap<String, Integer> userIndex, int size, int userCount)
+    {
+        this.time = time;
+        this.cents = cents;
+        this.user = user;
+        this.lines = lines;
+        this.sumCents = sumCents;
+        this.sumSales = sumSales;
+        this.sumLines = sumLines;
+        this.users = users;
+        this.userIndex = userIndex;
+        this.size = size;
+        this.userCount = userCount;
+    }
+
+
+    /**
+     * Returns the number of distributions.
+     * @return Number of distributions
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+
+    /**
+     * Returns the index of the first distribution at or
+     * after a time.
+     * @param date Time to search for
+     * @return Index from 0 to size()
+     */
+    public int indexOf(Date date)
+    {
+        return indexOf(date.getTime());
+    }
+
+    int indexOf(long t)
+    {
+        int lo = 0;
+        int hi = this.size;
+        while(lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if(this.time[mid] < t)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo;
+    }
+
+
+    /**
+     * Returns the sales totals of the distributions
+     * from one time up to another.
+     * @param from First time included
+     * @param to First time not included
+     * @return Totals
+     */
+    public SalesTotals totals(Date from, Date to)
+    {
+        int lo = indexOf(from.getTime());
+        int hi = Math.max(lo, indexOf(to.getTime()));
+
+        double total = (this.sumCents[hi] - this.sumCents[lo]) / 100.0;
+        double gross = SalesRollup.grossOf(total);
+        return new SalesTotals(hi - lo, this.sumSales[hi] - this.sumSales[lo], total, gross, total - gross);
+    }
+
+
+    /**
+     * Returns the number of lines distributed from one
+     * time up to another.
+     * @param from First time included
+     * @param to First time not included
+     * @return Number of Dist_Item records
+     */
+    public long lines(Date from, Date to)
+    {
+        int lo = indexOf(from.getTime());
+        int hi = Math.max(lo, indexOf(to.getTime()));
+        return this.sumLines[hi] - this.sumLines[lo];
+    }
+
+
+    public long getTime(int i)
+    {
+        return this.time[i];
+    }
+
+    public long getCents(int i)
+    {
+        return this.cents[i];
+    }
+
+    public int getLines(int i)
+    {
+        return this.lines[i];
+    }
+
+    /**
+     * Returns the user index of a distribution, which
+     * is the same for every distribution by one user.
+     * @param i Index of distribution
+     * @return Index for getUsername() or -1 if none
+     */
+    public int getUser(int i)
+    {
+        return this.user[i];
+    }
+
+    /**
+     * Returns the number of user indexes.
+     * @return Number of users
+     */
+    public int getUserCount()
+    {
+        return this.userCount;
+    }
+
+    public String getUsername(int index)
+    {
+        return this.users[index];
+    }
+
+
+    /**
+     * Starts a snapshot with more distributions. Only
+     * one builder may be used per snapshot, since it
+     * writes into the arrays this one shares.
+     * @return Builder
+     */
+    Builder append()
+    {
+        return new Builder(this);
+    }
+
+
+    /**
+     * Adds distributions, in time order where possible.
+     */
+    static final class Builder
+    {
+        private long[] time;
+        private long[] cents;
+        private int[] user;
+        private int[] lines;
+        private long[] sumCents;
+        private int[] sumSales;
+        private long[] sumLines;
+        private String[] users;
+        private final HashMap<String, Integer> userIndex;
+        private int size;
+        private int userCount;
+        private final ArrayList<long[]> late = new ArrayList<>(); // Time, cents, user and lines of older distributions
+
+
+        private Builder(DistributionColumns base)
+        {
+            this.time = base.time;
+            this.cents = base.cents;
+            this.user = base.user;
+            this.lines = base.lines;
+            this.sumCents = base.sumCents;
+            this.sumSales = base.sumSales;
+            this.sumLines = base.sumLines;
+            this.users = base.users;
+            this.userIndex = new HashMap<>(base.userIndex); // Copied, the base's map is read by its own builders
+            this.size = base.size;
+            this.userCount = base.userCount;
+        }
+
+
+        /**
+         * Adds a distribution. One older than the last
+         * one is held back and merged by build().
+         * @param date Date of distribution
+         * @param amount Total + tax
+         * @param username Username or null
+         * @param count Number of lines
+         */
+        void add(Date date, double amount, String username, int count)
+        {
+            long t = date.getTime();
+            long c = Math.round(amount * 100);
+            if(this.size > 0 && t < this.time[this.size - 1])
+            {
+                this.late.add(new long[] { t, c, indexOf(username), count });
+                return;
+            }
+
+            if(this.size == this.time.length)
+                grow();
+
+            int i = this.size;
+            this.time[i] = t;
+            this.cents[i] = c;
+            this.user[i] = indexOf(username);
+            this.lines[i] = count;
+            this.sumCents[i + 1] = this.sumCents[i] + c;
+            this.sumSales[i + 1] = this.sumSales[i] + ((c > 0) ? 1 : 0);
+            this.sumLines[i + 1] = this.sumLines[i] + count;
+            this.size++;
+        }
+
+
+        DistributionColumns build()
+        {
+            if(!this.late.isEmpty())
+                merge();
+
+            return new DistributionColumns(this.time, this.cents, this.user, this.lines, this.sumCents, this.sumSales, this.sumLines,
+                    this.users, this.userIndex, this.size, this.userCount);
+        }
+
+
+        /**
+         * Merges the older distributions into new arrays,
+         * after any held at the same time, and sums again.
+         * Snapshots built before keep the old arrays.
+         */
+        private void merge()
+        {
+            Collections.sort(this.late, new Comparator<long[]>() // Stable, equal times keep their order
+            {
+                @Override
+                public int compare(long[] a, long[] b)
+                {
+                    return (a[0] < b[0]) ? -1 : (a[0] > b[0]) ? 1 : 0;
+                }
+            });
+
+            int n = this.size + this.late.size();
+            long[] time = new long[n];
+            long[] cents = new long[n];
+            int[] user = new int[n];
+            int[] lines = new int[n];
+            long[] sumCents = new long[n + 1];
+            int[] sumSales = new int[n + 1];
+            long[] sumLines = new long[n + 1];
+
+            int i = 0; // Next held
+            int j = 0; // Next late
+            for(int k = 0; k < n; k++)
+            {
+                if(j == this.late.size() || (i < this.size && this.time[i] <= this.late.get(j)[0]))
+                {
+                    time[k] = this.time[i];
+                    cents[k] = this.cents[i];
+                    user[k] = this.user[i];
+                    lines[k] = this.lines[i];
+                    i++;
+                }
+                else
+                {
+                    long[] row = this.late.get(j++);
+                    time[k] = row[0];
+                    cents[k] = row[1];
+                    user[k] = (int)row[2];
+                    lines[k] = (int)row[3];
+                }
+
+                sumCents[k + 1] = sumCents[k] + cents[k];
+                sumSales[k + 1] = sumSales[k] + ((cents[k] > 0) ? 1 : 0);
+                sumLines[k + 1] = sumLines[k] + lines[k];
+            }
+
+            this.time = time;
+            this.cents = cents;
+            this.user = user;
+            this.lines = lines;
+            this.sumCents = sumCents;
+            this.sumSales = sumSales;
+            this.sumLines = sumLines;
+            this.size = n;
+            this.late.clear();
+        }
+
+
+        private int indexOf(String username)
+        {
+            if(username == null)
+                return -1;
+
+            Integer index = this.userIndex.get(username);
+            if(index != null)
+                return index;
+
+            if(this.userCount == this.users.length)
+                this.users = Arrays.copyOf(this.users, Math.max(8, this.userCount * 2));
+
+            this.users[this.userCount] = username;
+            this.userIndex.put(username, this.userCount);
+            return this.userCount++;
+        }
+
+
+        /**
+         * Moves to larger arrays. Snapshots built before
+         * keep the old ones.
+         */
+        private void grow()
+        {
+            int capacity = Math.max(64, this.size + (this.size >> 1));
+            this.time = Arrays.copyOf(this.time, capacity);
+            this.cents = Arrays.copyOf(this.cents, capacity);
+            this.user = Arrays.copyOf(this.user, capacity);
+            this.lines = Arrays.copyOf(this.lines, capacity);
+            this.sumCents = Arrays.copyOf(this.sumCents, capacity + 1);
+            this.sumSales = Arrays.copyOf(this.sumSales, capacity + 1);
+            this.sumLines = Arrays.copyOf(this.sumLines, capacity + 1);
+        }
+    }
+}
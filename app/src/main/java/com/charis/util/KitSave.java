@@ -0,0 +1,187 @@
+package com.charis.util;
+
+import com.charis.data.Kit;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+
+/**
+ * Outcome of Database.saveKit(). The kit and all of
+ * its item changes are committed together, so either
+ * every counted operation was saved or none were.
+ */
+public final class KitSave
+{
+    /**
+     * Status of a kit save.
+     */
+    public enum Status
+    {
+        SAVED, // Every operation was committed
+        INVALID, // Bad arguments or too many changes for one batch
+        READ_FAILED, // Stored contents could not be read, nothing was written
+        COMMIT_FAILED // Batch was rejected, nothing was written
+    }
+
+    private final Status status;
+    private final Kit kit;
+    private final int inserted;
+    private final int updated;
+    private final int removed;
+
+
+    /**
+     * Builds a kit save outcome.
+     * @param status Status of the save
+     * @param kit Kit saved or null
+     * @param inserted Item relations added
+     * @param updated Item relations with a new quantity
+     * @param removed Item relations deleted
+     */
+    KitSave(Status status, Kit kit, int inserted, int updated, int removed)
+    {
+        this.status = status;
+        this.kit = kit;
+        this.inserted = inserted;
+        this.updated = updated;
+        this.removed = removed;
+    }
+
+
+    /**
+     * Returns an outcome where nothing was written.
+     * @param status Reason for the failure
+     * @param kit Kit being saved or null
+     * @return Failed outcome
+     */
+    static KitSave failed(Status status, Kit kit)
+    {
+        return new KitSave(status, kit, 0, 0, 0);
+    }
+
+
+    public Status getStatus()
+    {
+        return this.status;
+    }
+
+    public boolean isSuccessful()
+    {
+        return this.status == Status.SAVED;
+    }
+
+    public Kit getKit()
+    {
+        return this.kit;
+    }
+
+    public int getInserted()
+    {
+        return this.inserted;
+    }
+
+    public int getUpdated()
+    {
+        return this.updated;
+    }
+
+    public int getRemoved()
+    {
+        return this.removed;
+    }
+
+
+    /**
+     * Changes that turn the stored item relations of a
+     * kit into the wanted ones. An item listed twice is
+     * summed, and a stored duplicate is removed.
+     */
+    static final class Diff
+    {
+        final ArrayList<Integer> removed = new ArrayList<>(); // Indexes of stored relations to delete
+        final ArrayList<Integer> updated = new ArrayList<>(); // Indexes of stored relations with a new quantity
+        final LinkedHashMap<String, Integer> inserted = new LinkedHashMap<>(); // Quantity of new relations by key
+        private final LinkedHashMap<String, Integer> wanted = new LinkedHashMap<>(); // Quantity by key, in list order
+
+
+        /**
+         * Builds the wanted relations from the kit form.
+         * @param ids Item IDs
+         * @param sellable True for SellableItem, per item
+         * @param quantity Quantity per item
+         */
+        Diff(String[] ids, boolean[] sellable, int[] quantity)
+        {
+            for(int i = 0; i < ids.length; i++)
+            {
+                String key = key(ids[i], sellable[i]);
+                Integer q = this.wanted.get(key);
+                this.wanted.put(key, (q == null) ? quantity[i] : q + quantity[i]);
+            }
+        }
+
+
+        /**
+         * Compares the stored relations with the wanted
+         * ones, filling removed, updated and inserted.
+         * @param keys Key of each stored relation
+         * @param quantities Quantity of each stored relation
+         */
+        void compare(List<String> keys, List<Long> quantities)
+        {
+            HashSet<String> seen = new HashSet<>();
+            for(int i = 0; i < keys.size(); i++)
+            {
+                Integer q = this.wanted.get(keys.get(i));
+                if(q == null || !seen.add(keys.get(i))) // Not in kit anymore or duplicate
+                    this.removed.add(i);
+                else if(q.longValue() != quantities.get(i))
+                    this.updated.add(i);
+            }
+
+            for(String key : this.wanted.keySet())
+            {
+                if(!seen.contains(key))
+                    this.inserted.put(key, this.wanted.get(key));
+            }
+        }
+
+
+        /**
+         * Returns the wanted quantity of a relation.
+         * @param key Key of relation
+         * @return Quantity
+         */
+        int quantityOf(String key)
+        {
+            return this.wanted.get(key);
+        }
+
+
+        /**
+         * Returns the key of an item in a kit. The same
+         * barcode can be both sellable and nonsellable.
+         * @param id Item ID
+         * @param sellable True for SellableItem
+         * @return Key of item
+         */
+        static String key(String id, boolean sellable)
+        {
+            return (sellable ? "S" : "N") + id;
+        }
+
+
+        static String idOf(String key)
+        {
+            return key.substring(1);
+        }
+
+        static boolean isSellable(String key)
+        {
+            return key.charAt(0) == 'S';
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.charis.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Backoff for re-attaching a snapshot listener that
+ * Firestore ended with an error. Each failure in a row
+ * waits longer, up to a minute, with jitter so clients
+ * that lost the server together don't come back in
+ * lockstep. The owner checks on re-attach that it
+ * still wants the listener.
+ */
+final class ListenerRetry
+{
+    /**
+     * Never gives up, waits from one second to one minute.
+     */
+    private static final RetryPolicy POLICY = new RetryPolicy(Integer.MAX_VALUE, 0, 0, 1000, 60000);
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "ListenerRetry");
+            t.setDaemon(true); // Never keep the process alive
+            return t;
+        }
+    });
+
+    private int failures; // Errors since the last event from the server
+
+
+    /**
+     * Runs attach after the backoff of one more failure.
+     * @param attach Re-attaches the listener if still wanted
+     */
+    synchronized void schedule(Runnable attach)
+    {
+        this.failures++;
+        TIMER.schedule(attach, POLICY.backoff(this.failures), TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Starts the backoff over once the listener reaches
+     * the server again.
+     */
+    synchronized void succeeded()
+    {
+        this.failures = 0;
+    }
+}
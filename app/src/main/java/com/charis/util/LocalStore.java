@@ -0,0 +1,922 @@
+package com.charis.util;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.charis.data.Category;
+import com.charis.data.Distribution;
+import com.charis.data.Enum.Condition;
+import com.charis.data.Item;
+import com.charis.data.Kit;
+import com.charis.data.Location;
+import com.charis.data.NonSellableItem;
+import com.charis.data.SellableItem;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * SQLite copy of the inventory and distribution
+ * collections. Each collection has a snapshot listener
+ * whose changes are written to its table in order on
+ * one writer thread. Each row keeps a hash of its
+ * values. The first snapshot after attaching, and the
+ * first one confirmed by the server, are compared to
+ * the hashes and only rows that differ are written;
+ * the server one also deletes rows of documents
+ * deleted while the app was closed. A listener ended
+ * by an error is attached again with backoff.
+ * A table is live while its listener is in sync with
+ * the server; it has synced if it ever was, which is
+ * kept across restarts. Every read takes a stale flag:
+ * false answers only from live tables, true from any
+ * table that has synced. Reads return null when the
+ * tables can't answer.
+ */
+final class LocalStore extends SQLiteOpenHelper
+{
+    private static final String NAME = "charis.db";
+    private static final int VERSION = 4;
+
+    static final String ITEM = "item";
+    static final String SELLABLE = "sellable";
+    static final String NONSELLABLE = "nonsellable";
+    static final String KIT = "kit";
+    static final String KIT_ITEM = "kit_item";
+    static final String CATEGORY = "category";
+    static final String LOCATION = "location";
+    static final String DISTRIBUTION = "distribution";
+    static final String DIST_ITEM = "dist_item";
+
+    /**
+     * Mirrored collections. Columns are named after
+     * the document fields they hold.
+     */
+    private static final Table[] TABLES = {
+            new Table("Item", ITEM, "received INTEGER, description TEXT, condition INTEGER, price REAL, category TEXT"),
+            new Table("Sellable", SELLABLE, "quantity INTEGER, location TEXT"),
+            new Table("NonSellable", NONSELLABLE, "quantity INTEGER, location TEXT, source TEXT"),
+            new Table("Kit", KIT, "name TEXT, description TEXT"),
+            new Table("Kit_Item", KIT_ITEM, "kit TEXT, item TEXT, quantity INTEGER, sellable INTEGER"),
+            new Table("Category", CATEGORY, "name TEXT"),
+            new Table("Location", LOCATION, "name TEXT"),
+            new Table("Distribution", DISTRIBUTION, "date INTEGER, amount REAL, user TEXT, memo TEXT, lines INTEGER"),
+            new Table("Dist_Item", DIST_ITEM, "dist TEXT, item TEXT, quantity INTEGER, sellable INTEGER, price REAL")
+    };
+
+    /**
+     * Secondary indexes. Barcode lookups use the primary keys.
+     */
+    private static final String[] INDEXES = {
+            "CREATE INDEX item_received ON item(received)",
+            "CREATE INDEX kit_item_kit ON kit_item(kit)",
+            "CREATE INDEX kit_item_item ON kit_item(item)",
+            "CREATE INDEX distribution_date ON distribution(date)",
+            "CREATE INDEX dist_item_dist ON dist_item(dist)",
+            "CREATE INDEX dist_item_item ON dist_item(item)"
+    };
+
+    private static final String SYNC_STATE = "sync_state";
+
+    /**
+     * Tables needed to build items.
+     */
+    private static final String[] SELLABLE_TABLES = {ITEM, SELLABLE, CATEGORY, LOCATION};
+    private static final String[] NONSELLABLE_TABLES = {ITEM, NONSELLABLE, CATEGORY, LOCATION};
+
+    /**
+     * Applies listener changes in arrival order.
+     */
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "LocalStore-writer");
+            t.setDaemon(true); // Never keep the process alive
+            return t;
+        }
+    });
+
+    private final HashMap<String, Mirror> mirrors = new HashMap<>();
+    private HashMap<String, Long> synced; // Last server sync of each table, loaded on first use
+    private FirebaseFirestore listening; // Instance the listeners are attached to
+
+
+    /**
+     * Builds the store. The file is opened on first use.
+     * @param context Application context
+     */
+    LocalStore(Context context)
+    {
+        super(context, NAME, null, VERSION);
+        setWriteAheadLoggingEnabled(true); // Reports read while listeners write
+
+        for(Table t : TABLES)
+        {
+            this.mirrors.put(t.name, new Mirror(t));
+        }
+    }
+
+
+    @Override
+    public void onCreate(SQLiteDatabase db)
+    {
+        for(Table t : TABLES)
+        {
+            db.execSQL("CREATE TABLE " + t.name + " (id TEXT PRIMARY KEY, hash INTEGER, " + t.columns + ")");
+        }
+
+        for(String index : INDEXES)
+        {
+            db.execSQL(index);
+        }
+
+        db.execSQL("CREATE TABLE " + SYNC_STATE + " (name TEXT PRIMARY KEY, synced_at INTEGER)");
+    }
+
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+    {
+        // Everything here can be read again from Firestore
+        for(Table t : TABLES)
+        {
+            db.execSQL("DROP TABLE IF EXISTS " + t.name);
+        }
+
+        db.execSQL("DROP TABLE IF EXISTS " + SYNC_STATE);
+        onCreate(db);
+    }
+
+
+    /**
+     * Attaches the snapshot listeners to db. Does
+     * nothing if already listening to db.
+     * @param db Firestore instance
+     */
+    synchronized void listen(FirebaseFirestore db)
+    {
+        if(db == null || db == this.listening)
+            return;
+
+        this.listening = db;
+        for(Mirror m : this.mirrors.values())
+        {
+            m.attach(db);
+        }
+    }
+
+
+    /**
+     * Removes the snapshot listeners if they are attached
+     * to db. Rows stay and can still be read as stale.
+     * @param db Firestore instance being closed
+     */
+    synchronized void stop(FirebaseFirestore db)
+    {
+        if(db == null || db != this.listening)
+            return;
+
+        this.listening = null;
+        for(Mirror m : this.mirrors.values())
+        {
+            m.detach();
+        }
+    }
+
+
+    /**
+     * Checks if tables can answer a read.
+     * @param stale True to accept tables that synced before, false for live only
+     * @param tables Table names
+     * @return True if every table can answer
+     */
+    boolean canRead(boolean stale, String... tables)
+    {
+        for(String t : tables)
+        {
+            if(stale ? !hasSynced(t) : !this.mirrors.get(t).isLive())
+                return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Looks up a sellable item.
+     * @param id Barcode
+     * @param stale True to accept tables that are not live
+     * @return OK, NOT_FOUND or null if the tables can't answer
+     */
+    Result<SellableItem> findSellable(String id, boolean stale)
+    {
+        if(!canRead(stale, SELLABLE_TABLES))
+            return null;
+
+        List<Item> items = readItems(itemQuery(true, "t.quantity", "") + " WHERE t.id = ?", new String[]{id}, true);
+        if(items == null)
+            return null;
+
+        return items.isEmpty() ? Result.<SellableItem>notFound() : Result.ok((SellableItem) items.get(0));
+    }
+
+
+    /**
+     * Looks up a nonsellable item.
+     * @param id Barcode
+     * @param stale True to accept tables that are not live
+     * @return OK, NOT_FOUND or null if the tables can't answer
+     */
+    Result<NonSellableItem> findNonSellable(String id, boolean stale)
+    {
+        if(!canRead(stale, NONSELLABLE_TABLES))
+            return null;
+
+        List<Item> items = readItems(itemQuery(false, "t.quantity", "") + " WHERE t.id = ?", new String[]{id}, false);
+        if(items == null)
+            return null;
+
+        return items.isEmpty() ? Result.<NonSellableItem>notFound() : Result.ok((NonSellableItem) items.get(0));
+    }
+
+
+    /**
+     * Looks up a kit.
+     * @param id Barcode
+     * @param stale True to accept a table that is not live
+     * @return OK, NOT_FOUND or null if the table can't answer
+     */
+    Result<Kit> findKit(String id, boolean stale)
+    {
+        if(!canRead(stale, KIT))
+            return null;
+
+        Cursor c = null;
+        try
+        {
+            c = getReadableDatabase().rawQuery("SELECT name, description FROM kit WHERE id = ?", new String[]{id});
+            if(!c.moveToNext())
+                return Result.notFound();
+
+            return Result.ok(new Kit(id, c.getString(0), c.getString(1)));
+        }
+        catch(RuntimeException e) // Treat a broken file as unable to answer
+        {
+            return null;
+        }
+        finally
+        {
+            if(c != null)
+                c.close();
+        }
+    }
+
+
+    /**
+     * Returns every item of one type.
+     * @param sellable True for sellable items
+     * @param byReceived True to order by received date, false by ID
+     * @param stale True to accept tables that are not live
+     * @return Items or null if the tables can't answer
+     */
+    List<Item> listItems(boolean sellable, boolean byReceived, boolean stale)
+    {
+        if(!canRead(stale, sellable ? SELLABLE_TABLES : NONSELLABLE_TABLES))
+            return null;
+
+        String order = byReceived ? " WHERE i.received IS NOT NULL ORDER BY i.received, i.id" : " ORDER BY t.id";
+        return readItems(itemQuery(sellable, "t.quantity", "") + order, null, sellable);
+    }
+
+
+    /**
+     * Returns the items in a kit with their kit quantities.
+     * @param kitID ID of kit
+     * @param stale True to accept tables that are not live
+     * @return Items or null if the tables can't answer
+     */
+    List<Item> kitItems(String kitID, boolean stale)
+    {
+        if(!canRead(stale, KIT_ITEM) || !canRead(stale, SELLABLE_TABLES) || !canRead(stale, NONSELLABLE_TABLES))
+            return null;
+
+        String join = "JOIN kit_item k ON k.item = t.id";
+        List<Item> sell = readItems(itemQuery(true, "k.quantity", join) + " WHERE k.kit = ? AND k.sellable = 1", new String[]{kitID}, true);
+        List<Item> nonSell = readItems(itemQuery(false, "k.quantity", join) + " WHERE k.kit = ? AND k.sellable = 0", new String[]{kitID}, false);
+        if(sell == null || nonSell == null)
+            return null;
+
+        sell.addAll(nonSell);
+        return sell;
+    }
+
+
+    /**
+     * Returns the distributions in a date range.
+     * @param from First date included
+     * @param to First date not included
+     * @param stale True to accept a table that is not live
+     * @param db Used to load the user of each distribution
+     * @return Distributions by date or null if the table can't answer
+     */
+    Distribution[] distributions(Date from, Date to, boolean stale, Database db)
+    {
+        if(!canRead(stale, DISTRIBUTION))
+            return null;
+
+        ArrayList<String[]> rows = new ArrayList<>();
+        ArrayList<Double> amounts = new ArrayList<>();
+        Cursor c = null;
+        try
+        {
+            c = getReadableDatabase().rawQuery("SELECT id, date, user, amount FROM distribution WHERE date >= ? AND date < ? ORDER BY date",
+                    new String[]{String.valueOf(from.getTime()), String.valueOf(to.getTime())});
+
+            while(c.moveToNext())
+            {
+                rows.add(new String[]{c.getString(0), String.valueOf(c.getLong(1)), c.getString(2)});
+                amounts.add(c.getDouble(3));
+            }
+        }
+        catch(RuntimeException e)
+        {
+            return null;
+        }
+        finally
+        {
+            if(c != null)
+                c.close();
+        }
+
+        // Users are loaded after the cursor is closed
+        Distribution[] dists = new Distribution[rows.size()];
+        for(int i = 0; i < dists.length; i++)
+        {
+            String[] row = rows.get(i);
+            dists[i] = new Distribution(row[0], amounts.get(i), new Date(Long.parseLong(row[1])), (row[2] != null) ? db.getUser(row[2]) : null);
+        }
+
+        return dists;
+    }
+
+
+    /**
+     * Totals the quantity of each item distributed in a
+     * date range in one query. Items missing from the
+     * item tables are left out.
+     * @param from First date included
+     * @param to First date not included
+     * @param stale True to accept tables that are not live
+     * @return [0] SellableItem map, [1] NonSellableItem map, quantities
+     * set to the totals, or null if the tables can't answer
+     */
+    HashMap<String, Item>[] distributedItems(Date from, Date to, boolean stale)
+    {
+        if(!canRead(stale, DISTRIBUTION, DIST_ITEM) || !canRead(stale, SELLABLE_TABLES) || !canRead(stale, NONSELLABLE_TABLES))
+            return null;
+
+        String join = "JOIN (SELECT x.item AS item, SUM(x.quantity) AS total FROM dist_item x JOIN distribution y ON y.id = x.dist"
+                + " WHERE y.date >= ? AND y.date < ? AND x.sellable = ? GROUP BY x.item) d ON d.item = t.id";
+        String t1 = String.valueOf(from.getTime());
+        String t2 = String.valueOf(to.getTime());
+
+        List<Item> sell = readItems(itemQuery(true, "d.total", join), new String[]{t1, t2, "1"}, true);
+        List<Item> nonSell = readItems(itemQuery(false, "d.total", join), new String[]{t1, t2, "0"}, false);
+        if(sell == null || nonSell == null)
+            return null;
+
+        HashMap<String, Item>[] maps = new HashMap[2];
+        maps[0] = new HashMap<>();
+        maps[1] = new HashMap<>();
+
+        for(Item i : sell)
+        {
+            maps[0].put(i.getID(), i);
+        }
+
+        for(Item i : nonSell)
+        {
+            maps[1].put(i.getID(), i);
+        }
+
+        return maps;
+    }
+
+
+    /**
+     * Passes the distributions from one time up to
+     * another in time order, each followed by its lines
+     * with the price and category name of their items.
+     * If a read fails part way the pass is left part
+     * filled, so reset it before passing again.
+     * @param from First time included
+     * @param to First time not included
+     * @param stale True to accept tables that are not live
+     * @param pass Pass to feed
+     * @return True if passed, false if the tables can't answer
+     */
+    boolean scanDistributions(Date from, Date to, boolean stale, AggregatePass pass)
+    {
+        if(!canRead(stale, DISTRIBUTION, DIST_ITEM, ITEM, CATEGORY))
+            return false;
+
+        Cursor c = null;
+        try
+        {
+            c = getReadableDatabase().rawQuery("SELECT d.id, d.date, d.amount, d.user, COALESCE(d.lines, (SELECT COUNT(*) FROM dist_item y WHERE y.dist = d.id)),"
+                    + " x.item, x.sellable, x.quantity, i.price, g.name FROM distribution d LEFT JOIN dist_item x ON x.dist = d.id"
+                    + " LEFT JOIN item i ON i.id = x.item LEFT JOIN category g ON g.id = i.category"
+                    + " WHERE d.date >= ? AND d.date < ? ORDER BY d.date, d.id",
+                    new String[]{String.valueOf(from.getTime()), String.valueOf(to.getTime())});
+
+            String last = null;
+            while(c.moveToNext())
+            {
+                String id = c.getString(0);
+                if(!id.equals(last)) // First row of a distribution
+                {
+                    pass.distribution(c.getLong(1), Math.round(c.getDouble(2) * 100), c.getString(3), c.getInt(4));
+                    last = id;
+                }
+
+                if(!c.isNull(5))
+                    pass.line(c.getString(5), c.getInt(6) != 0, c.getInt(7), Math.round(c.getDouble(8) * 100), c.getString(9));
+            }
+
+            return true;
+        }
+        catch(RuntimeException e) // Treat a broken file as unable to answer
+        {
+            return false;
+        }
+        finally
+        {
+            if(c != null)
+                c.close();
+        }
+    }
+
+
+    /**
+     * Builds the query for items of one type joined with
+     * their category and location names. Columns are read
+     * by readItems().
+     * @param sellable True for sellable items
+     * @param quantity Expression for the quantity column
+     * @param join Extra joins on the type table t
+     * @return SQL without a WHERE clause
+     */
+    private static String itemQuery(boolean sellable, String quantity, String join)
+    {
+        return "SELECT i.id, i.received, i.description, i.condition, i.price, i.category, c.name, t.location, l.name, "
+                + quantity + (sellable ? ", NULL" : ", t.source")
+                + " FROM " + (sellable ? SELLABLE : NONSELLABLE) + " t JOIN item i ON i.id = t.id " + join
+                + " LEFT JOIN category c ON c.id = i.category LEFT JOIN location l ON l.id = t.location";
+    }
+
+
+    /**
+     * Runs an item query built by itemQuery().
+     * @param sql Query
+     * @param args Query arguments or null
+     * @param sellable True for sellable items
+     * @return Items in row order or null if the read failed
+     */
+    private List<Item> readItems(String sql, String[] args, boolean sellable)
+    {
+        ArrayList<Item> items = new ArrayList<>();
+        Cursor c = null;
+        try
+        {
+            c = getReadableDatabase().rawQuery(sql, args);
+            while(c.moveToNext())
+            {
+                String id = c.getString(0);
+                Date received = c.isNull(1) ? null : new Date(c.getLong(1));
+                String desc = c.getString(2);
+                Condition cond = Condition.toCondition(c.getLong(3));
+                double price = c.getDouble(4);
+                Category cat = new Category(c.getString(5), c.isNull(6) ? "" : c.getString(6));
+                Location loc = new Location(c.getString(7), c.isNull(8) ? "" : c.getString(8));
+                int quantity = c.getInt(9);
+
+                if(sellable)
+                    items.add(new SellableItem(id, received, desc, quantity, cond, price, cat, loc));
+                else
+                    items.add(new NonSellableItem(id, received, desc, quantity, cond, price, cat, c.getString(10), loc));
+            }
+        }
+        catch(RuntimeException e)
+        {
+            return null;
+        }
+        finally
+        {
+            if(c != null)
+                c.close();
+        }
+
+        return items;
+    }
+
+
+    /**
+     * Checks if a table was ever confirmed by the server.
+     * @param table Table name
+     * @return True if synced
+     */
+    private synchronized boolean hasSynced(String table)
+    {
+        if(this.synced == null)
+            this.synced = readSyncState();
+
+        return this.synced.containsKey(table);
+    }
+
+
+    /**
+     * Records that a table was confirmed by the server.
+     * @param table Table name
+     * @param time When
+     */
+    private synchronized void setSynced(String table, long time)
+    {
+        if(this.synced == null)
+            this.synced = readSyncState();
+
+        this.synced.put(table, time);
+    }
+
+
+    /**
+     * Reads the sync time of every table.
+     * @return Map of table name to time, empty if unreadable
+     */
+    private HashMap<String, Long> readSyncState()
+    {
+        HashMap<String, Long> map = new HashMap<>();
+        Cursor c = null;
+        try
+        {
+            c = getReadableDatabase().rawQuery("SELECT name, synced_at FROM " + SYNC_STATE, null);
+            while(c.moveToNext())
+            {
+                map.put(c.getString(0), c.getLong(1));
+            }
+        }
+        catch(RuntimeException e) // Nothing can be trusted
+        {
+            map.clear();
+        }
+        finally
+        {
+            if(c != null)
+                c.close();
+        }
+
+        return map;
+    }
+
+
+    /**
+     * Writes documents to a table in one transaction.
+     * Runs on the writer thread.
+     * @param table Table to write
+     * @param docs Every document, compared to the table, or null
+     * @param changes Changes to apply, or null
+     * @param server True if the snapshot was confirmed by the server,
+     * which also deletes rows missing from docs
+     * @return True if written
+     */
+    private boolean write(Table table, List<DocumentSnapshot> docs, List<DocumentChange> changes, boolean server)
+    {
+        try
+        {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try
+            {
+                if(docs != null)
+                {
+                    HashMap<String, Long> held = readHashes(db, table);
+                    for(DocumentSnapshot doc : docs)
+                    {
+                        ContentValues row = toRow(table, doc);
+                        Long hash = held.remove(doc.getId());
+                        if(hash == null || !hash.equals(row.getAsLong("hash"))) // New or changed
+                            db.insertWithOnConflict(table.name, null, row, SQLiteDatabase.CONFLICT_REPLACE);
+                    }
+
+                    if(server) // Left over rows were deleted on the server
+                    {
+                        for(String id : held.keySet())
+                        {
+                            db.delete(table.name, "id = ?", new String[]{id});
+                        }
+                    }
+                }
+                else
+                {
+                    for(DocumentChange change : changes)
+                    {
+                        DocumentSnapshot doc = change.getDocument();
+                        if(change.getType() == DocumentChange.Type.REMOVED)
+                            db.delete(table.name, "id = ?", new String[]{doc.getId()});
+                        else
+                            db.insertWithOnConflict(table.name, null, toRow(table, doc), SQLiteDatabase.CONFLICT_REPLACE);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if(server)
+                {
+                    ContentValues state = new ContentValues();
+                    state.put("name", table.name);
+                    state.put("synced_at", now);
+                    db.insertWithOnConflict(SYNC_STATE, null, state, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+
+                db.setTransactionSuccessful();
+                if(server)
+                    setSynced(table.name, now);
+            }
+            finally
+            {
+                db.endTransaction();
+            }
+
+            return true;
+        }
+        catch(RuntimeException e) // Disk full or file broken
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * Reads the hash of every row of a table.
+     * @param db Open database
+     * @param table Table to read
+     * @return Map of ID to hash
+     */
+    private static HashMap<String, Long> readHashes(SQLiteDatabase db, Table table)
+    {
+        HashMap<String, Long> map = new HashMap<>();
+        Cursor c = db.rawQuery("SELECT id, hash FROM " + table.name, null);
+        try
+        {
+            while(c.moveToNext())
+            {
+                if(!c.isNull(1)) // Rows without one are written again
+                    map.put(c.getString(0), c.getLong(1));
+            }
+        }
+        finally
+        {
+            c.close();
+        }
+
+        return map;
+    }
+
+
+    /**
+     * Builds the row of a document with the hash of its
+     * values. Fields without a column are dropped,
+     * missing fields are null.
+     * @param table Table the row is for
+     * @param doc Document
+     * @return Row values
+     */
+    private static ContentValues toRow(Table table, DocumentSnapshot doc)
+    {
+        ContentValues row = new ContentValues();
+        row.put("id", doc.getId());
+
+        long hash = 0;
+        Map<String, Object> data = doc.getData();
+        if(data != null)
+        {
+            for(Map.Entry<String, Object> e : data.entrySet())
+            {
+                String key = e.getKey();
+                Object v = columnValue(e.getValue());
+                if(v == null || !table.names.contains(key))
+                    continue;
+
+                if(v instanceof Long)
+                    row.put(key, (Long) v);
+                else if(v instanceof Double)
+                    row.put(key, (Double) v);
+                else
+                    row.put(key, (String) v);
+
+                // Sum of mixed pairs, so field order doesn't matter
+                long x = key.hashCode() * 0x9E3779B97F4A7C15L + v.hashCode();
+                x = (x ^ (x >>> 31)) * 0xBF58476D1CE4E5B9L;
+                hash += x ^ (x >>> 29);
+            }
+        }
+
+        row.put("hash", hash);
+        return row;
+    }
+
+
+    /**
+     * Converts a field to what its column stores.
+     * @param v Field value
+     * @return Long, Double, String or null if not stored
+     */
+    private static Object columnValue(Object v)
+    {
+        if(v instanceof Timestamp)
+            return ((Timestamp) v).toDate().getTime();
+        if(v instanceof Date)
+            return ((Date) v).getTime();
+        if(v instanceof Boolean)
+            return ((Boolean) v) ? 1L : 0L;
+        if(v instanceof Double || v instanceof Float)
+            return ((Number) v).doubleValue();
+        if(v instanceof Number)
+            return ((Number) v).longValue();
+        if(v instanceof String)
+            return v;
+
+        return null;
+    }
+
+
+    /**
+     * A mirrored collection and its table.
+     */
+    private static final class Table
+    {
+        final String collection;
+        final String name;
+        final String columns; // Column definitions after id
+        final HashSet<String> names = new HashSet<>(); // Column names after id
+
+        Table(String collection, String name, String columns)
+        {
+            this.collection = collection;
+            this.name = name;
+            this.columns = columns;
+
+            for(String column : columns.split(","))
+            {
+                this.names.add(column.trim().split(" ")[0]);
+            }
+        }
+    }
+
+
+    /**
+     * Snapshot listener of one table.
+     */
+    private final class Mirror implements EventListener<QuerySnapshot>
+    {
+        private final Table table;
+        private final ListenerRetry retry = new ListenerRetry();
+        private FirebaseFirestore db; // Instance attached to, kept for re-attaching
+        private ListenerRegistration registration;
+        private int generation; // Changes on every attach and detach
+        private boolean first; // No snapshot since attaching
+        private boolean reconciled; // Table was compared to a server snapshot
+        private boolean live; // Table matches the server
+        private boolean confirmed; // Last event came from the server
+
+        Mirror(Table table)
+        {
+            this.table = table;
+        }
+
+        synchronized void attach(FirebaseFirestore db)
+        {
+            detach();
+            this.db = db;
+            this.first = true;
+            this.registration = db.collection(this.table.collection).addSnapshotListener(MetadataChanges.INCLUDE, this);
+        }
+
+        /**
+         * Attaches again after an error unless the
+         * listener was attached or detached since.
+         */
+        private synchronized void reattach(FirebaseFirestore db, int gen)
+        {
+            if(gen == this.generation && this.registration == null)
+                attach(db);
+        }
+
+        synchronized void detach()
+        {
+            if(this.registration != null)
+                this.registration.remove();
+
+            this.registration = null;
+            this.generation++;
+            this.reconciled = false;
+            this.live = false;
+            this.confirmed = false;
+        }
+
+        synchronized boolean isLive()
+        {
+            return this.live;
+        }
+
+        @Override
+        public synchronized void onEvent(QuerySnapshot snap, FirebaseFirestoreException e)
+        {
+            if(e != null || snap == null) // Listener is dead, rows go stale until it is back
+            {
+                final FirebaseFirestore db = this.db;
+                detach();
+                final int gen = this.generation;
+                if(db != null)
+                {
+                    this.retry.schedule(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            reattach(db, gen);
+                        }
+                    });
+                }
+                return;
+            }
+
+            final boolean server = !snap.getMetadata().isFromCache();
+            this.confirmed = server;
+            if(server)
+                this.retry.succeeded();
+            else
+                this.live = false;
+
+            // Whole snapshot is compared on the first event and the first from the server
+            final boolean compare = this.first || (server && !this.reconciled);
+            this.first = false;
+            if(server)
+                this.reconciled = true;
+
+            final List<DocumentSnapshot> docs = compare ? snap.getDocuments() : null;
+            final List<DocumentChange> changes = compare ? null : snap.getDocumentChanges();
+            if(!compare && changes.isEmpty() && (!server || this.live)) // Nothing to write
+                return;
+
+            final int gen = this.generation;
+            WRITER.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    boolean ok = write(table, docs, changes, server);
+                    written(gen, server, ok);
+                }
+            });
+        }
+
+        /**
+         * Updates the state once a snapshot is written.
+         * Stale writes from an old listener are ignored.
+         */
+        private synchronized void written(int gen, boolean server, boolean ok)
+        {
+            if(gen != this.generation)
+                return;
+
+            if(!ok) // Compare the table on the next server snapshot
+            {
+                this.reconciled = false;
+                this.live = false;
+            }
+            else if(server && this.confirmed) // Not offline again since
+                this.live = true;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.charis.util;
+
+
+/**
+ * Quantity and value of one item distributed in a month.
+ */
+public final class OutflowEntry
+{
+    private final String id;
+    private final String description;
+    private final boolean sellable;
+    private final long quantity;
+    private final double value;
+
+
+    /**
+     * Builds an entry.
+     * @param id Barcode of item
+     * @param description Item description, may be null
+     * @param sellable True for sellable, false for nonsellable
+     * @param quantity Quantity distributed
+     * @param value Value distributed
+     */
+    OutflowEntry(String id, String description, boolean sellable, long quantity, double value)
+    {
+        this.id = id;
+        this.description = description;
+        this.sellable = sellable;
+        this.quantity = quantity;
+        this.value = value;
+    }
+
+
+    public String getID()
+    {
+        return this.id;
+    }
+
+    public String getDescription()
+    {
+        return this.description;
+    }
+
+    public boolean isSellable()
+    {
+        return this.sellable;
+    }
+
+    public long getQuantity()
+    {
+        return this.quantity;
+    }
+
+    public double getValue()
+    {
+        return this.value;
+    }
+}
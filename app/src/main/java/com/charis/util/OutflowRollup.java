@@ -0,0 +1,142 @@
+package com.charis.util;
+
+import com.charis.data.Item;
+import com.charis.data.SellableItem;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Quantity and value of every item distributed in a
+ * month, kept in the Outflow collection with one
+ * document per month and item ("2021-03_S<barcode>",
+ * N for nonsellable). Every checkout increments its
+ * items in the same batch as the distribution, so a
+ * month's outflow is one query on the month field. The
+ * head document is marked complete once the counters
+ * have been built from every earlier distribution.
+ */
+final class OutflowRollup
+{
+    static final String COLLECTION = "Outflow";
+    static final String HEAD = "head";
+
+
+    /**
+     * Adds an item sold to its month in a write batch.
+     * Uses one write.
+     * @param db Firestore instance
+     * @param batch Batch to add to
+     * @param date Date of the distribution
+     * @param item Item distributed
+     * @param quantity Quantity distributed
+     */
+    static void add(FirebaseFirestore db, WriteBatch batch, Date date, Item item, int quantity)
+    {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+
+        String month = SalesRollup.monthKey(cal);
+        boolean sellable = item instanceof SellableItem;
+
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("month", month);
+        map.put("item", item.getID());
+        map.put("sellable", sellable);
+        map.put("quantity", FieldValue.increment(quantity));
+        map.put("value", FieldValue.increment(quantity * item.getPrice()));
+
+        batch.set(db.collection(COLLECTION).document(key(month, item.getID(), sellable)), map, SetOptions.merge());
+    }
+
+
+    /**
+     * Returns the ID of a counter document.
+     * @param month Month key
+     * @param id Barcode of item
+     * @param sellable True for sellable, false for nonsellable
+     * @return Document ID
+     */
+    static String key(String month, String id, boolean sellable)
+    {
+        return month + (sellable ? "_S" : "_N") + id;
+    }
+
+
+    /**
+     * Checks if the head document says the counters
+     * include every distribution.
+     * @param head Head document
+     * @return True if built
+     */
+    static boolean isComplete(DocumentSnapshot head)
+    {
+        return head.exists() && Boolean.TRUE.equals(head.getBoolean("complete"));
+    }
+
+
+    /**
+     * Reads a counter document.
+     * @param doc Counter document
+     * @param description Item description or null
+     * @return Entry
+     */
+    static OutflowEntry read(DocumentSnapshot doc, String description)
+    {
+        Map<String, Object> data = doc.getData();
+        return new OutflowEntry(Codecs.string(data, "item"), description, Codecs.flag(data, "sellable"),
+                Codecs.integer(data, "quantity"), Codecs.decimal(data, "value"));
+    }
+
+
+    /**
+     * Counter being summed on the client.
+     */
+    static final class Sum
+    {
+        private final String month;
+        private final String item;
+        private final boolean sellable;
+        private long quantity;
+        private double value;
+
+
+        Sum(String month, String item, boolean sellable)
+        {
+            this.month = month;
+            this.item = item;
+            this.sellable = sellable;
+        }
+
+
+        void add(int quantity, double price)
+        {
+            this.quantity += quantity;
+            this.value += quantity * price;
+        }
+
+
+        /**
+         * Builds the fields of the counter document.
+         * @return Fields to set
+         */
+        Map<String, Object> toMap()
+        {
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("month", this.month);
+            map.put("item", this.item);
+            map.put("sellable", this.sellable);
+            map.put("quantity", this.quantity);
+            map.put("value", this.value);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.charis.util;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Reads an ordered query one page at a time using
+ * startAfter() and limit(). As soon as a page arrives
+ * the read of the next one starts, so it is usually
+ * ready by the time the caller asks for it. A page
+ * that fails to read can be asked for again and the
+ * cursor continues from the same place. A cursor may
+ * also have a local source, which is tried once before
+ * the first page; if it answers, every page is served
+ * from its rows and the query is never run.
+ * @param <T> Type of object on a page
+ */
+public final class PageCursor<T>
+{
+    /**
+     * Turns the documents of a page into objects.
+     * @param <T> Type of object
+     */
+    interface Loader<T>
+    {
+        /**
+         * Builds the objects of one page. May read
+         * related documents.
+         * @param docs Documents of the page in query order
+         * @param deadline Deadline of the operation on the RetryPolicy.now() clock
+         * @return OK with the objects, TIMED_OUT or FAILED
+         */
+        Result<List<T>> load(List<DocumentSnapshot> docs, long deadline);
+    }
+
+    /**
+     * Reads every row at once from a local copy.
+     * @param <T> Type of object
+     */
+    interface Source<T>
+    {
+        /**
+         * Reads the rows in query order.
+         * @return Rows or null if the copy can't answer
+         */
+        List<T> load();
+    }
+
+    /**
+     * Receives pages streamed by Database.streamAsync().
+     * Called on the UI thread.
+     * @param <T> Type of object on a page
+     */
+    public interface Consumer<T>
+    {
+        /**
+         * Called once for every page in order.
+         * @param page Objects of the page
+         */
+        void onPage(List<T> page);
+    }
+
+    /**
+     * Page size used when none is given.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final Query query;
+    private final int pageSize;
+    private final Loader<T> loader;
+    private Source<T> local; // Tried before the first page, then dropped
+    private List<T> rows; // Rows from local, null if reading the query
+    private int offset; // Next row to serve
+
+    private DocumentSnapshot last; // Last document read, null before the first page
+    private Task<QuerySnapshot> pending; // Read of the next page, null if not started
+    private boolean done;
+
+
+    /**
+     * Builds a cursor. Nothing is read until next().
+     * @param query Query with a stable order
+     * @param pageSize Documents per page
+     * @param loader Builds objects from documents
+     */
+    PageCursor(Query query, int pageSize, Loader<T> loader)
+    {
+        this(query, pageSize, loader, null);
+    }
+
+
+    /**
+     * Builds a cursor with a local source.
+     * Nothing is read until next().
+     * @param query Query with a stable order
+     * @param pageSize Documents per page
+     * @param loader Builds objects from documents
+     * @param local Rows in the same order or null
+     */
+    PageCursor(Query query, int pageSize, Loader<T> loader, Source<T> local)
+    {
+        this.query = query;
+        this.pageSize = (pageSize > 0) ? pageSize : DEFAULT_PAGE_SIZE;
+        this.loader = loader;
+        this.local = local;
+    }
+
+
+    /**
+     * Checks if there may be more pages.
+     * @return False once the last page was read
+     */
+    public synchronized boolean hasNext()
+    {
+        return !this.done;
+    }
+
+
+    /**
+     * Reads the next page. Blocks until it is read.
+     * An empty list is returned once the cursor is done.
+     * @return OK with the page, TIMED_OUT or FAILED
+     */
+    public synchronized Result<List<T>> next()
+    {
+        if(this.done)
+            return Result.<List<T>>ok(new ArrayList<T>());
+
+        if(this.local != null) // First page, try the local copy
+        {
+            this.rows = this.local.load();
+            this.local = null;
+        }
+
+        if(this.rows != null)
+            return nextRows();
+
+        long deadline = RetryPolicy.READ.deadlineFromNow();
+        Task<QuerySnapshot> t = (this.pending != null) ? this.pending : fetch();
+        this.pending = null;
+
+        if(!Database.awaitTask(t, deadline)) // Position is kept for the next try
+            return Result.timedOut();
+        if(!t.isSuccessful())
+            return Result.failed(t.getException());
+
+        DocumentSnapshot before = this.last;
+        List<DocumentSnapshot> docs = t.getResult().getDocuments();
+        if(docs.size() < this.pageSize)
+            this.done = true;
+        else
+        {
+            this.last = docs.get(docs.size() - 1);
+            this.pending = fetch(); // Prefetch while this page loads
+        }
+
+        Result<List<T>> page = this.loader.load(docs, deadline);
+        if(!page.isOk()) // Read this page again next time
+        {
+            this.last = before;
+            this.pending = null;
+            this.done = false;
+        }
+
+        return page;
+    }
+
+
+    /**
+     * Serves the next page of local rows.
+     * @return OK with the page
+     */
+    private Result<List<T>> nextRows()
+    {
+        int end = Math.min(this.offset + this.pageSize, this.rows.size());
+        ArrayList<T> page = new ArrayList<>(this.rows.subList(this.offset, end));
+
+        this.offset = end;
+        this.done = end >= this.rows.size();
+        return Result.<List<T>>ok(page);
+    }
+
+
+    /**
+     * Starts the read of the page after last.
+     * @return Read task
+     */
+    private Task<QuerySnapshot> fetch()
+    {
+        Query q = (this.last != null) ? this.query.startAfter(this.last) : this.query;
+        return q.limit(this.pageSize).get();
+    }
+}
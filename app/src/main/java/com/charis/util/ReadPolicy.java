@@ -0,0 +1,150 @@
+package com.charis.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Where a read may be answered from. STRICT reads always
+ * go to the server. Stale-while-revalidate reads are
+ * answered from Firestore's local cache when the same
+ * document or query was confirmed by the server within
+ * maxStaleness, and are then read again from the server
+ * in the background. If the server copy differs the
+ * listener is told once, so the caller can read again.
+ */
+public final class ReadPolicy
+{
+    /**
+     * Told when a read answered from the cache
+     * turned out to be out of date.
+     */
+    public interface Listener
+    {
+        /**
+         * Called on the UI thread at most once per policy.
+         * Reading again returns the fresh data.
+         */
+        void onChanged();
+    }
+
+    /**
+     * Always read from the server.
+     */
+    public static final ReadPolicy STRICT = new ReadPolicy(0, null);
+
+    /**
+     * Staleness allowed for catalog data that rarely
+     * changes, such as kits and item descriptions.
+     */
+    public static final long DEFAULT_MAX_STALENESS = 30 * 60 * 1000;
+
+    /**
+     * Most documents and queries whose server time is kept.
+     */
+    private static final int VALIDATED_SIZE = 2048;
+
+    /**
+     * Last time each document or query was read from
+     * the server, keyed by DocumentReference or Query.
+     */
+    private static final LinkedHashMap<Object, Long> VALIDATED = new LinkedHashMap<Object, Long>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest)
+        {
+            return size() > VALIDATED_SIZE;
+        }
+    };
+
+    private final long maxStaleness; // ms
+    private final Listener listener;
+    private final AtomicBoolean notified = new AtomicBoolean();
+
+
+    /**
+     * Builds a policy.
+     * @param maxStaleness Time in ms since the last server read that cached data is served, 0 for none
+     * @param listener Told if cached data was out of date or null
+     */
+    private ReadPolicy(long maxStaleness, Listener listener)
+    {
+        this.maxStaleness = maxStaleness;
+        this.listener = listener;
+    }
+
+
+    /**
+     * Returns a stale-while-revalidate policy. Use a new
+     * policy for each call that wants its own listener.
+     * @param maxStaleness Time in ms since the last server read that cached data is served
+     * @param listener Told if cached data was out of date or null
+     * @return Read policy
+     */
+    public static ReadPolicy staleWhileRevalidate(long maxStaleness, Listener listener)
+    {
+        return new ReadPolicy(Math.max(0, maxStaleness), listener);
+    }
+
+
+    public long getMaxStaleness()
+    {
+        return this.maxStaleness;
+    }
+
+
+    /**
+     * Checks if reads must go to the server, skipping
+     * every in-memory and on-device copy.
+     * @return True for STRICT
+     */
+    boolean isStrict()
+    {
+        return this.maxStaleness <= 0;
+    }
+
+
+    /**
+     * Checks if a read may be answered from the cache.
+     * @param key DocumentReference or Query read
+     * @return True if the server confirmed key within maxStaleness
+     */
+    boolean allowsCache(Object key)
+    {
+        if(this.maxStaleness <= 0)
+            return false;
+
+        Long at;
+        synchronized(VALIDATED)
+        {
+            at = VALIDATED.get(key);
+        }
+
+        return at != null && RetryPolicy.now() - at <= this.maxStaleness;
+    }
+
+
+    /**
+     * Records that key was just read from the server.
+     * @param key DocumentReference or Query read
+     */
+    static void validated(Object key)
+    {
+        synchronized(VALIDATED)
+        {
+            VALIDATED.put(key, RetryPolicy.now());
+        }
+    }
+
+
+    /**
+     * Tells the listener that cached data was out of
+     * date, unless it was already told.
+     */
+    void changed()
+    {
+        if(this.listener != null && this.notified.compareAndSet(false, true))
+            this.listener.onChanged();
+    }
+}
@@ -0,0 +1,476 @@
+package com.charis.util;
+
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Process-wide cache of a small reference collection
+ * such as Category, Location or User. Documents are
+ * kept as field maps and decoded on every get so
+ * callers can change the objects they receive without
+ * touching the cache. A snapshot listener keeps the
+ * cache current while it is in sync with the server.
+ * Once it loses the server, entries expire after a TTL,
+ * and a listener ended by an error is attached again
+ * with backoff. Fields named as omitted, such as
+ * secrets, are never stored.
+ * @param <T> Type of object decoded from a document
+ */
+final class ReferenceCache<T>
+{
+    /**
+     * Turns cached document fields into an object.
+     * @param <T> Type of object
+     */
+    interface Decoder<T>
+    {
+        /**
+         * Builds an object from document fields.
+         * @param id Document ID
+         * @param data Document fields
+         * @return Decoded object
+         */
+        T decode(String id, Map<String, Object> data);
+    }
+
+    /**
+     * Told which documents a listener event changed.
+     */
+    interface ChangeListener
+    {
+        /**
+         * Called on the listener's thread after the
+         * cache was updated, outside its lock.
+         * @param ids IDs of documents added, changed or removed
+         */
+        void onChanged(List<String> ids);
+    }
+
+    private final String collection;
+    private final int maxSize;
+    private final long ttl; // ms
+    private final Decoder<T> decoder;
+    private final Set<String> omitted; // Fields never stored
+    private final Executor events; // Runs listener events, null for the main thread
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private boolean complete; // Holds every document of the collection
+    private long completeAt; // When complete was last confirmed
+    private long syncedAt; // Last listener event confirmed by the server
+    private boolean live; // Listener is in sync with the server
+
+    private FirebaseFirestore listening; // Instance the listener is attached to
+    private ListenerRegistration registration;
+    private int generation; // Changes on every detach
+    private final ListenerRetry retry = new ListenerRetry();
+    private volatile ChangeListener changeListener;
+
+
+    /**
+     * Cached fields of one document.
+     */
+    private static final class Entry
+    {
+        final Map<String, Object> data;
+        final long storedAt;
+
+        Entry(Map<String, Object> data, long storedAt)
+        {
+            this.data = data;
+            this.storedAt = storedAt;
+        }
+    }
+
+
+    /**
+     * Builds an empty cache.
+     * @param collection Name of collection cached
+     * @param maxSize Most documents kept
+     * @param ttl Time in ms an entry is trusted without the listener
+     * @param decoder Builds objects from document fields
+     * @param omitted Fields left out of cached documents
+     */
+    ReferenceCache(String collection, int maxSize, long ttl, Decoder<T> decoder, String... omitted)
+    {
+        this(collection, maxSize, ttl, decoder, (Executor) null, omitted);
+    }
+
+
+    /**
+     * Builds an empty cache whose listener events run on
+     * events, for collections too large to copy on the
+     * main thread. Events must run in order, so events
+     * should be a single thread.
+     * @param collection Name of collection cached
+     * @param maxSize Most documents kept
+     * @param ttl Time in ms an entry is trusted without the listener
+     * @param decoder Builds objects from document fields
+     * @param events Runs listener events and change listeners
+     * @param omitted Fields left out of cached documents
+     */
+    ReferenceCache(String collection, int maxSize, long ttl, Decoder<T> decoder, Executor events, String... omitted)
+    {
+        this.events = events;
+        this.collection = collection;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.decoder = decoder;
+        this.omitted = new HashSet<>(Arrays.asList(omitted));
+    }
+
+
+    /**
+     * Returns the name of the collection cached.
+     * @return Collection name
+     */
+    String getCollection()
+    {
+        return this.collection;
+    }
+
+
+    /**
+     * Attaches the snapshot listener to db. Does nothing
+     * if already listening to db. Switching instances
+     * clears the cache since the old listener is gone.
+     * @param db Firestore instance
+     */
+    synchronized void listen(FirebaseFirestore db)
+    {
+        if(db == null || db == this.listening)
+            return;
+
+        detach();
+        clear();
+        attach(db);
+    }
+
+
+    /**
+     * Adds the snapshot listener to db.
+     * @param db Firestore instance
+     */
+    private void attach(FirebaseFirestore db)
+    {
+        EventListener<QuerySnapshot> listener = new EventListener<QuerySnapshot>()
+        {
+            @Override
+            public void onEvent(QuerySnapshot snap, FirebaseFirestoreException e)
+            {
+                List<String> ids = onSnapshot(snap, e);
+                ChangeListener l = changeListener;
+                if(l != null && !ids.isEmpty())
+                    l.onChanged(ids);
+            }
+        };
+
+        this.listening = db;
+        if(this.events != null)
+            this.registration = db.collection(this.collection).addSnapshotListener(this.events, MetadataChanges.INCLUDE, listener);
+        else
+            this.registration = db.collection(this.collection).addSnapshotListener(MetadataChanges.INCLUDE, listener);
+    }
+
+
+    /**
+     * Attaches again after an error unless the
+     * listener was attached or stopped since. Entries
+     * kept meanwhile are dropped, since documents
+     * deleted meanwhile would never be removed; the new
+     * listener's first snapshot fills the cache again.
+     */
+    private synchronized void reattach(FirebaseFirestore db, int gen)
+    {
+        if(gen != this.generation || this.listening != null)
+            return;
+
+        clear();
+        attach(db);
+    }
+
+
+    /**
+     * Sets the listener told about documents changed
+     * by snapshot events.
+     * @param listener Listener or null for none
+     */
+    void setChangeListener(ChangeListener listener)
+    {
+        this.changeListener = listener;
+    }
+
+
+    /**
+     * Removes the snapshot listener if it is attached to db.
+     * Cached entries stay until their TTL runs out.
+     * @param db Firestore instance being closed
+     */
+    synchronized void stop(FirebaseFirestore db)
+    {
+        if(db != null && db == this.listening)
+            detach();
+    }
+
+
+    /**
+     * Returns the object with ID if cached and fresh.
+     * @param id Document ID
+     * @return Decoded object or null on a miss
+     */
+    synchronized T get(String id)
+    {
+        Entry e = this.entries.get(id);
+        if(e == null)
+            return null;
+
+        if(isExpired(e.storedAt))
+        {
+            this.entries.remove(id);
+            this.complete = false;
+            return null;
+        }
+
+        return this.decoder.decode(id, e.data);
+    }
+
+
+    /**
+     * Checks if the cache holds the whole collection
+     * and is fresh, so a miss means the document does
+     * not exist.
+     * @return True if complete
+     */
+    synchronized boolean isComplete()
+    {
+        return this.complete && !isExpired(this.completeAt);
+    }
+
+
+    /**
+     * Returns every cached object if the cache holds the
+     * whole collection and is fresh.
+     * @return List of objects or null if not complete
+     */
+    synchronized List<T> getAll()
+    {
+        if(!this.complete || isExpired(this.completeAt))
+            return null;
+
+        ArrayList<T> list = new ArrayList<>(this.entries.size());
+        for(Map.Entry<String, Entry> e : this.entries.entrySet())
+        {
+            list.add(this.decoder.decode(e.getKey(), e.getValue().data));
+        }
+
+        return list;
+    }
+
+
+    /**
+     * Saves the fields of a document.
+     * @param id Document ID
+     * @param data Document fields
+     */
+    synchronized void put(String id, Map<String, Object> data)
+    {
+        if(id == null || data == null)
+            return;
+
+        HashMap<String, Object> copy = new HashMap<>(data);
+        copy.keySet().removeAll(this.omitted);
+
+        this.entries.remove(id); // Move to the end
+        this.entries.put(id, new Entry(copy, RetryPolicy.now()));
+        trim();
+    }
+
+
+    /**
+     * Saves changed fields of a cached document.
+     * Does nothing if the document is not cached.
+     * @param id Document ID
+     * @param fields Changed fields
+     */
+    synchronized void update(String id, Map<String, Object> fields)
+    {
+        Entry e = this.entries.get(id);
+        if(e == null)
+            return;
+
+        HashMap<String, Object> data = new HashMap<>(e.data);
+        data.putAll(fields);
+        data.keySet().removeAll(this.omitted);
+        this.entries.put(id, new Entry(data, e.storedAt));
+    }
+
+
+    /**
+     * Replaces the cache with a full read of the collection.
+     * @param docs Every document in the collection
+     */
+    synchronized void fill(List<DocumentSnapshot> docs)
+    {
+        this.entries.clear();
+        this.complete = false;
+
+        for(int i = 0; i < docs.size(); i++)
+        {
+            put(docs.get(i).getId(), docs.get(i).getData());
+        }
+
+        markComplete(docs.size());
+    }
+
+
+    /**
+     * Removes a document from the cache.
+     * @param id Document ID
+     */
+    synchronized void invalidate(String id)
+    {
+        if(this.entries.remove(id) != null)
+            this.complete = false;
+    }
+
+
+    /**
+     * Removes everything from the cache.
+     */
+    synchronized void clear()
+    {
+        this.entries.clear();
+        this.complete = false;
+        this.syncedAt = 0;
+        this.live = false;
+    }
+
+
+    /**
+     * Applies a snapshot listener event.
+     * @param snap Snapshot of the collection
+     * @param e Error or null
+     * @return IDs of documents changed
+     */
+    private synchronized List<String> onSnapshot(QuerySnapshot snap, FirebaseFirestoreException e)
+    {
+        ArrayList<String> ids = new ArrayList<>();
+        if(e != null || snap == null) // Listener is dead, fall back to TTL until it is back
+        {
+            final FirebaseFirestore db = this.listening;
+            long synced = this.syncedAt;
+            detach();
+            this.syncedAt = synced; // Entries stay trusted for ttl after the last sync
+
+            final int gen = this.generation;
+            if(db != null)
+            {
+                this.retry.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        reattach(db, gen);
+                    }
+                });
+            }
+            return ids;
+        }
+
+        for(DocumentChange c : snap.getDocumentChanges())
+        {
+            DocumentSnapshot doc = c.getDocument();
+            ids.add(doc.getId());
+            if(c.getType() == DocumentChange.Type.REMOVED) // Deleted, cache stays complete
+                this.entries.remove(doc.getId());
+            else
+                put(doc.getId(), doc.getData());
+        }
+
+        this.live = !snap.getMetadata().isFromCache();
+        if(this.live) // Confirmed by server
+        {
+            this.retry.succeeded();
+            this.syncedAt = RetryPolicy.now();
+            markComplete(snap.size());
+        }
+
+        return ids;
+    }
+
+
+    /**
+     * Marks the cache as holding the whole collection
+     * if every document fit.
+     * @param size Number of documents in the collection
+     */
+    private void markComplete(int size)
+    {
+        this.complete = size <= this.maxSize;
+        this.completeAt = RetryPolicy.now();
+    }
+
+
+    /**
+     * Checks if data stored at time may no longer be trusted.
+     * Data is fresh while the listener is in sync with the
+     * server and for ttl after it last was.
+     * @param time When data was stored
+     * @return True if expired
+     */
+    private boolean isExpired(long time)
+    {
+        if(this.live)
+            return false;
+
+        return RetryPolicy.now() - Math.max(time, this.syncedAt) > this.ttl;
+    }
+
+
+    /**
+     * Drops the oldest entries beyond maxSize.
+     */
+    private void trim()
+    {
+        Iterator<String> it = this.entries.keySet().iterator();
+        while(this.entries.size() > this.maxSize && it.hasNext())
+        {
+            it.next();
+            it.remove();
+            this.complete = false;
+        }
+    }
+
+
+    /**
+     * Removes the snapshot listener.
+     */
+    private void detach()
+    {
+        if(this.registration != null)
+            this.registration.remove();
+
+        this.registration = null;
+        this.listening = null;
+        this.generation++;
+        this.syncedAt = 0;
+        this.live = false;
+    }
+}
@@ -0,0 +1,377 @@
+package com.charis.util;
+
+import android.content.Context;
+
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * Rows of finished reports, kept in memory and in
+ * files under the cache directory, keyed by report and
+ * period. Each result saves the watermark it was built
+ * at: a counter in the Report collection that every
+ * checkout or stock change increments in its batch.
+ * The counter is split over SHARDS documents, each
+ * bump landing on one at random, since Firestore takes
+ * about one write a second on a single document; its
+ * value is the sum of the shards.
+ * A result is reused while the watermark hasn't moved.
+ * Results built after their month ended are reused
+ * without checking, since a closed month doesn't change.
+ */
+public final class ReportCache
+{
+    /**
+     * What a report is built from. Each has its own
+     * watermark field.
+     */
+    public enum Depends
+    {
+        DISTRIBUTIONS("distributions"), STOCK("stock");
+
+        final String field;
+
+        Depends(String field)
+        {
+            this.field = field;
+        }
+    }
+
+    static final String COLLECTION = "Report";
+    static final String WATERMARK = "watermark";
+
+    /**
+     * Documents a watermark is split over.
+     */
+    static final int SHARDS = 8;
+
+    private static final Random RANDOM = new Random();
+
+    /**
+     * Most results kept in memory.
+     */
+    private static final int MEMORY_SIZE = 16;
+
+    /**
+     * Version of the .rows files. 2 since the watermark
+     * became a sum of shards; files of older versions
+     * are misses and get rebuilt.
+     */
+    private static final int FILE_VERSION = 2;
+
+    private static ReportCache SHARED;
+
+    private final File dir;
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<String, Entry>(MEMORY_SIZE, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+        {
+            return size() > MEMORY_SIZE;
+        }
+    };
+
+
+    /**
+     * Returns the cache shared by the app.
+     * @param context Any context
+     * @return Report cache
+     */
+    public static synchronized ReportCache shared(Context context)
+    {
+        if(SHARED == null)
+            SHARED = new ReportCache(new File(context.getApplicationContext().getCacheDir(), "reports"));
+
+        return SHARED;
+    }
+
+
+    ReportCache(File dir)
+    {
+        this.dir = dir;
+    }
+
+
+    /**
+     * Returns the key of a monthly report.
+     * @param report Name of report
+     * @param month Month 0-11 for JAN-DEC
+     * @param year Year
+     * @return Cache key
+     */
+    public static String key(String report, int month, int year)
+    {
+        return report + "_" + SalesRollup.monthKey(month, year);
+    }
+
+
+    /**
+     * Returns the key of a report of the current state.
+     * @param report Name of report
+     * @return Cache key
+     */
+    public static String key(String report)
+    {
+        return report + "_now";
+    }
+
+
+    /**
+     * Checks if a month has ended.
+     * @param month Month 0-11 for JAN-DEC
+     * @param year Year
+     * @return True if the month is before the current one
+     */
+    public static boolean isClosed(int month, int year)
+    {
+        Calendar now = Calendar.getInstance();
+        return year * 12 + month < now.get(Calendar.YEAR) * 12 + now.get(Calendar.MONTH);
+    }
+
+
+    /**
+     * Returns a result built after its period closed.
+     * @param key Cache key
+     * @return Rows or null on a miss
+     */
+    public List<String[]> getClosed(String key)
+    {
+        Entry e = load(key);
+        return (e != null && e.closed) ? e.rows : null;
+    }
+
+
+    /**
+     * Returns a result built at a watermark.
+     * @param key Cache key
+     * @param watermark Current watermark
+     * @return Rows or null on a miss or if changes landed since
+     */
+    public List<String[]> get(String key, long watermark)
+    {
+        Entry e = load(key);
+        return (e != null && e.watermark == watermark) ? e.rows : null;
+    }
+
+
+    /**
+     * Saves a result. Blocks on the file write, so call
+     * it off the UI thread.
+     * @param key Cache key
+     * @param watermark Watermark read before the report was built
+     * @param closed True if the period had closed before it was built
+     * @param rows Rows of the report
+     */
+    public void put(String key, long watermark, boolean closed, List<String[]> rows)
+    {
+        Entry e = new Entry(watermark, closed, new ArrayList<>(rows));
+        synchronized(this)
+        {
+            this.memory.put(key, e);
+        }
+
+        write(key, e);
+    }
+
+
+    /**
+     * Adds an increment of watermarks to a write batch,
+     * on one shard picked at random. Uses one write.
+     * @param db Firestore instance
+     * @param batch Batch to add to
+     * @param depends Watermarks to increment
+     */
+    static void bump(FirebaseFirestore db, WriteBatch batch, Depends... depends)
+    {
+        HashMap<String, Object> map = new HashMap<>();
+        for(Depends d : depends)
+        {
+            map.put(d.field, FieldValue.increment(1));
+        }
+
+        batch.set(db.collection(COLLECTION).document(shard(RANDOM.nextInt(SHARDS))), map, SetOptions.merge());
+    }
+
+
+    /**
+     * Returns the IDs of the watermark shards.
+     * @return IDs in the Report collection
+     */
+    static List<String> shards()
+    {
+        ArrayList<String> ids = new ArrayList<>(SHARDS);
+        for(int k = 0; k < SHARDS; k++)
+        {
+            ids.add(shard(k));
+        }
+
+        return ids;
+    }
+
+
+    private static String shard(int k)
+    {
+        return WATERMARK + "_" + k;
+    }
+
+
+    /**
+     * Returns an entry from memory or its file.
+     */
+    private Entry load(String key)
+    {
+        synchronized(this)
+        {
+            Entry e = this.memory.get(key);
+            if(e != null)
+                return e;
+        }
+
+        Entry e = read(key);
+        if(e != null)
+        {
+            synchronized(this)
+            {
+                this.memory.put(key, e);
+            }
+        }
+
+        return e;
+    }
+
+
+    private Entry read(String key)
+    {
+        File f = new File(this.dir, key + ".rows");
+        if(!f.isFile())
+            return null;
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            if(in.readInt() != FILE_VERSION)
+                return null;
+
+            long watermark = in.readLong();
+            boolean closed = in.readBoolean();
+            int count = in.readInt();
+            ArrayList<String[]> rows = new ArrayList<>(count);
+            for(int i = 0; i < count; i++)
+            {
+                String[] row = new String[in.readInt()];
+                for(int k = 0; k < row.length; k++)
+                {
+                    row[k] = in.readUTF();
+                }
+                rows.add(row);
+            }
+
+            return new Entry(watermark, closed, rows);
+        }
+        catch(IOException e)
+        {
+            return null; // Treated as a miss and rebuilt
+        }
+        finally
+        {
+            closeQuietly(in);
+        }
+    }
+
+
+    /**
+     * Writes an entry to a temporary file and renames
+     * it over the old one, so readers never see half.
+     */
+    private void write(String key, Entry e)
+    {
+        if(!this.dir.isDirectory() && !this.dir.mkdirs())
+            return;
+
+        File tmp = null;
+        DataOutputStream out = null;
+        try
+        {
+            tmp = File.createTempFile(key, ".tmp", this.dir); // Unique if two runs save at once
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FILE_VERSION);
+            out.writeLong(e.watermark);
+            out.writeBoolean(e.closed);
+            out.writeInt(e.rows.size());
+            for(String[] row : e.rows)
+            {
+                out.writeInt(row.length);
+                for(String cell : row)
+                {
+                    out.writeUTF((cell != null) ? cell : "");
+                }
+            }
+            out.close();
+            out = null;
+
+            if(!tmp.renameTo(new File(this.dir, key + ".rows")))
+                tmp.delete();
+        }
+        catch(IOException ex)
+        {
+            if(tmp != null)
+                tmp.delete(); // Kept in memory only
+        }
+        finally
+        {
+            closeQuietly(out);
+        }
+    }
+
+
+    private static void closeQuietly(Closeable c)
+    {
+        if(c == null)
+            return;
+
+        try
+        {
+            c.close();
+        }
+        catch(IOException e) {}
+    }
+
+
+    /**
+     * One saved result.
+     */
+    private static final class Entry
+    {
+        final long watermark;
+        final boolean closed;
+        final List<String[]> rows;
+
+        Entry(long watermark, boolean closed, List<String[]> rows)
+        {
+            this.watermark = watermark;
+            this.closed = closed;
+            this.rows = rows;
+        }
+    }
+}
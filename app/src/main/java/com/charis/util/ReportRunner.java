@@ -0,0 +1,273 @@
+package com.charis.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs reports on a worker pool, one at a time per
+ * runner. A report adds its rows and progress as it
+ * goes, and they reach the screen on the UI thread.
+ * Starting a report cancels the one running, and
+ * anything a cancelled run still produces is dropped.
+ * A report that throws is logged and its error is
+ * passed to the listener with the end of the run.
+ */
+public final class ReportRunner
+{
+    final static private String TAG = "ReportRunner";
+
+    /**
+     * Number of worker threads shared by every runner.
+     */
+    final static private int WORKER_COUNT = 2;
+
+    final static private ExecutorService WORKERS = Executors.newFixedThreadPool(WORKER_COUNT, new ThreadFactory()
+    {
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "ReportRunner-" + this.count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Work of one report. Runs on a worker thread and may
+     * block on Database calls.
+     */
+    public interface Report
+    {
+        /**
+         * Builds the report, checking run.isCancelled()
+         * between steps.
+         * @param run Run to add rows and progress to
+         * @return True if the report is complete
+         */
+        boolean build(Run run);
+    }
+
+    /**
+     * Receives what a run produces. Called on the UI
+     * thread, and never after the run is cancelled.
+     */
+    public interface Listener
+    {
+        /**
+         * Called with rows in the order they were added.
+         * @param rows Rows of cell values
+         */
+        void onRows(List<String[]> rows);
+
+        /**
+         * Called when the report reports progress.
+         * @param done Pages or items processed
+         * @param total Total expected or -1 if unknown
+         */
+        void onProgress(int done, int total);
+
+        /**
+         * Called once when the report has finished.
+         * @param complete True if every row was produced
+         * @param error What the report threw, or null if it returned
+         */
+        void onFinished(boolean complete, RuntimeException error);
+    }
+
+    private final Handler ui = new Handler(Looper.getMainLooper());
+    private Run current; // Run whose output is shown
+
+
+    /**
+     * Starts a report, cancelling the one running.
+     * @param report Report to run
+     * @param listener Receives rows, progress and the end of the run
+     * @return The new run
+     */
+    public synchronized Run start(Report report, Listener listener)
+    {
+        if(this.current != null)
+            this.current.cancel();
+
+        final Run run = new Run(report, listener);
+        this.current = run;
+        WORKERS.execute(run);
+        return run;
+    }
+
+
+    /**
+     * Cancels the report running, if any.
+     */
+    public synchronized void cancel()
+    {
+        if(this.current != null)
+            this.current.cancel();
+
+        this.current = null;
+    }
+
+
+    /**
+     * One execution of a report.
+     */
+    public final class Run implements Runnable
+    {
+        private final Report report;
+        private final Listener listener;
+        private final ArrayList<String[]> rows = new ArrayList<>(); // Every row added, in order
+        private volatile boolean cancelled;
+
+
+        private Run(Report report, Listener listener)
+        {
+            this.report = report;
+            this.listener = listener;
+        }
+
+
+        @Override
+        public void run()
+        {
+            boolean complete = false;
+            RuntimeException error = null;
+            try
+            {
+                if(!this.cancelled)
+                    complete = this.report.build(this);
+            }
+            catch(RuntimeException e) // Finish the run so the screen isn't left waiting
+            {
+                error = e;
+                if(!this.cancelled)
+                    Log.e(TAG, "Report failed", e);
+            }
+
+            final boolean result = complete && !this.cancelled;
+            final RuntimeException thrown = error;
+            post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    listener.onFinished(result, thrown);
+                }
+            });
+        }
+
+
+        /**
+         * Checks if the run was cancelled or replaced.
+         * Reports stop at the next step when it is.
+         * @return True if cancelled
+         */
+        public boolean isCancelled()
+        {
+            return this.cancelled;
+        }
+
+
+        /**
+         * Stops the run. Nothing it produces afterwards
+         * reaches the listener.
+         */
+        public void cancel()
+        {
+            this.cancelled = true;
+        }
+
+
+        /**
+         * Adds one row.
+         * @param row Cell values
+         */
+        public void add(String[] row)
+        {
+            add(Collections.singletonList(row));
+        }
+
+
+        /**
+         * Adds rows together, such as one page.
+         * @param rows Rows of cell values
+         */
+        public void add(List<String[]> rows)
+        {
+            if(rows.isEmpty())
+                return;
+
+            this.rows.addAll(rows);
+            final List<String[]> copy = new ArrayList<>(rows);
+            post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    listener.onRows(copy);
+                }
+            });
+        }
+
+
+        /**
+         * Returns every row added so far. Only the
+         * worker thread running the report may call it.
+         * @return Rows in the order they were added
+         */
+        public List<String[]> getRows()
+        {
+            return this.rows;
+        }
+
+
+        /**
+         * Reports progress.
+         * @param done Pages or items processed
+         * @param total Total expected or -1 if unknown
+         */
+        public void progress(final int done, final int total)
+        {
+            post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    listener.onProgress(done, total);
+                }
+            });
+        }
+
+
+        /**
+         * Runs r on the UI thread unless the run has
+         * been cancelled by then.
+         */
+        private void post(final Runnable r)
+        {
+            if(this.cancelled)
+                return;
+
+            ui.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if(!cancelled) // Checked again, a newer run may have started
+                        r.run();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.charis.util;
+
+
+/**
+ * Outcome of a database read. Separates a record
+ * that does not exist from a read that timed out
+ * or failed, which a plain null cannot.
+ * @param <T> Type of the value read
+ */
+public final class Result<T>
+{
+    /**
+     * Status of a read.
+     */
+    public enum Status
+    {
+        OK, NOT_FOUND, TIMED_OUT, FAILED
+    }
+
+    private final Status status;
+    private final T value;
+    private final Exception exception;
+
+
+    /**
+     * Builds a result.
+     * @param status Status of the read
+     * @param value Value read, only set when OK
+     * @param e Cause of a failure or null
+     */
+    private Result(Status status, T value, Exception e)
+    {
+        this.status = status;
+        this.value = value;
+        this.exception = e;
+    }
+
+
+    /**
+     * Returns a successful result.
+     * @param value Value read
+     * @return OK result
+     */
+    public static <T> Result<T> ok(T value)
+    {
+        return new Result<T>(Status.OK, value, null);
+    }
+
+
+    /**
+     * Returns a result for a record that does not exist.
+     * @return NOT_FOUND result
+     */
+    public static <T> Result<T> notFound()
+    {
+        return new Result<T>(Status.NOT_FOUND, null, null);
+    }
+
+
+    /**
+     * Returns a result for a read that ran past its deadline.
+     * @return TIMED_OUT result
+     */
+    public static <T> Result<T> timedOut()
+    {
+        return new Result<T>(Status.TIMED_OUT, null, null);
+    }
+
+
+    /**
+     * Returns a result for a read that failed.
+     * @param e Cause of the failure, may be null
+     * @return FAILED result
+     */
+    public static <T> Result<T> failed(Exception e)
+    {
+        return new Result<T>(Status.FAILED, null, e);
+    }
+
+
+    /**
+     * Returns a result with the same non-OK status
+     * as r, for passing a failure up to a caller
+     * expecting another type.
+     * @param r Result that was not OK
+     * @return Result with the status of r
+     */
+    public static <T> Result<T> from(Result<?> r)
+    {
+        return new Result<T>(r.status == Status.OK ? Status.FAILED : r.status, null, r.exception);
+    }
+
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isOk() {
+        return status == Status.OK;
+    }
+
+    public boolean isNotFound() {
+        return status == Status.NOT_FOUND;
+    }
+
+
+    /**
+     * True if the read did not finish, i.e. it timed
+     * out or failed. The record may still exist.
+     * @return True if TIMED_OUT or FAILED
+     */
+    public boolean isError()
+    {
+        return status == Status.TIMED_OUT || status == Status.FAILED;
+    }
+
+
+    /**
+     * Returns the value read. Null unless OK.
+     * @return Value or null
+     */
+    public T getValue() {
+        return value;
+    }
+
+    public Exception getException() {
+        return exception;
+    }
+}
@@ -0,0 +1,101 @@
+package com.charis.util;
+
+import java.util.Random;
+
+
+/**
+ * Deadline and retry settings for database operations.
+ * Retries wait with jittered exponential backoff so
+ * clients on a bad connection do not retry in lockstep.
+ */
+public final class RetryPolicy
+{
+    /**
+     * Idempotent reads. Three attempts within eight seconds.
+     */
+    public static final RetryPolicy READ = new RetryPolicy(3, 3000, 8000, 200, 2000);
+
+    /**
+     * Writes are not retried since they may not be idempotent.
+     */
+    public static final RetryPolicy WRITE = new RetryPolicy(1, 10000, 10000, 0, 0);
+
+    private static final Random RANDOM = new Random();
+
+    private final int maxAttempts;
+    private final long attemptTimeout; // Per attempt, ms
+    private final long deadline; // Whole operation, ms
+    private final long baseDelay; // Backoff before second attempt, ms
+    private final long maxDelay; // Backoff cap, ms
+
+
+    /**
+     * Builds a retry policy.
+     * @param maxAttempts Total attempts, at least 1
+     * @param attemptTimeout Time allowed for one attempt in ms
+     * @param deadline Time allowed for the whole operation in ms
+     * @param baseDelay Backoff before the first retry in ms
+     * @param maxDelay Upper bound on backoff in ms
+     */
+    public RetryPolicy(int maxAttempts, long attemptTimeout, long deadline, long baseDelay, long maxDelay)
+    {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.attemptTimeout = attemptTimeout;
+        this.deadline = deadline;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getAttemptTimeout() {
+        return attemptTimeout;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+
+    /**
+     * Returns the absolute deadline for an operation
+     * starting now, on the now() clock.
+     * @return Deadline in ms
+     */
+    public long deadlineFromNow()
+    {
+        return now() + this.deadline;
+    }
+
+
+    /**
+     * Returns the backoff before the given retry using
+     * full jitter, a random delay between zero and
+     * baseDelay * 2^(retry - 1), capped at maxDelay.
+     * @param retry Retry number starting at 1
+     * @return Delay in ms
+     */
+    public long backoff(int retry)
+    {
+        if(this.baseDelay <= 0)
+            return 0;
+
+        long cap = this.baseDelay << Math.min(retry - 1, 20); // Avoid overflow
+        cap = Math.min(cap, this.maxDelay);
+
+        return (long)(RANDOM.nextDouble() * cap);
+    }
+
+
+    /**
+     * Monotonic clock used for deadlines.
+     * @return Current time in ms
+     */
+    public static long now()
+    {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,188 @@
+package com.charis.util;
+
+import com.charis.data.Distribution;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Running sales totals kept in the Sales collection,
+ * one document per month ("2021-03") and one per day
+ * ("2021-03-14"). Every checkout increments its month
+ * and day in the same batch as the distribution, so a
+ * month's totals are one document read. The head
+ * document is marked complete once the totals have
+ * been built from every earlier distribution; until
+ * then a missing month can't be trusted to mean no sales.
+ */
+final class SalesRollup
+{
+    static final String COLLECTION = "Sales";
+    static final String HEAD = "head";
+
+
+    /**
+     * Adds a distribution to its month and day in a
+     * write batch. Uses two writes.
+     * @param db Firestore instance
+     * @param batch Batch to add to
+     * @param date Date of the distribution
+     * @param amount Total + tax of the distribution
+     */
+    static void add(FirebaseFirestore db, WriteBatch batch, Date date, double amount)
+    {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("count", FieldValue.increment(1));
+        map.put("sales", FieldValue.increment((amount > 0.0) ? 1 : 0));
+        map.put("total", FieldValue.increment(amount));
+        map.put("gross", FieldValue.increment(grossOf(amount)));
+        map.put("tax", FieldValue.increment(amount - grossOf(amount)));
+        batch.set(db.collection(COLLECTION).document(monthKey(cal)), map, SetOptions.merge());
+
+        map = new HashMap<>(map);
+        map.put("month", monthKey(cal)); // Lets a month's days be queried
+        batch.set(db.collection(COLLECTION).document(dayKey(cal)), map, SetOptions.merge());
+    }
+
+
+    /**
+     * Returns the ID of a month document.
+     * @param month Month 0-11 for JAN-DEC
+     * @param year Year
+     * @return Document ID
+     */
+    static String monthKey(int month, int year)
+    {
+        return String.format(Locale.US, "%04d-%02d", year, month + 1);
+    }
+
+    static String monthKey(Calendar cal)
+    {
+        return monthKey(cal.get(Calendar.MONTH), cal.get(Calendar.YEAR));
+    }
+
+    static String dayKey(Calendar cal)
+    {
+        return monthKey(cal) + String.format(Locale.US, "-%02d", cal.get(Calendar.DAY_OF_MONTH));
+    }
+
+
+    /**
+     * Returns the part of an amount before sales tax.
+     * @param amount Total + tax
+     * @return Gross amount
+     */
+    static double grossOf(double amount)
+    {
+        return amount / (1 + Database.SALES_TAX);
+    }
+
+
+    /**
+     * Checks if the head document says the totals
+     * include every distribution.
+     * @param head Head document
+     * @return True if built
+     */
+    static boolean isComplete(DocumentSnapshot head)
+    {
+        return head.exists() && Boolean.TRUE.equals(head.getBoolean("complete"));
+    }
+
+
+    /**
+     * Reads the totals in a month or day document.
+     * @param doc Rollup document or null
+     * @return Totals, zero if the document doesn't exist
+     */
+    static SalesTotals read(DocumentSnapshot doc)
+    {
+        Map<String, Object> data = (doc != null) ? doc.getData() : null;
+        if(data == null)
+            return new SalesTotals(0, 0, 0.0, 0.0, 0.0);
+
+        return new SalesTotals(Codecs.integer(data, "count"), Codecs.integer(data, "sales"), Codecs.decimal(data, "total"),
+                Codecs.decimal(data, "gross"), Codecs.decimal(data, "tax"));
+    }
+
+
+    /**
+     * Sums distributions the same way the rollups do.
+     * @param dists Distributions, may be null
+     * @return Totals
+     */
+    static SalesTotals sum(Distribution[] dists)
+    {
+        Sum s = new Sum();
+        if(dists != null)
+        {
+            for(int i = 0; i < dists.length; i++)
+            {
+                s.add(dists[i].getAmount());
+            }
+        }
+
+        return s.toTotals();
+    }
+
+
+    /**
+     * Totals being summed on the client.
+     */
+    static final class Sum
+    {
+        private long count;
+        private long sales;
+        private double total;
+        private double gross;
+
+
+        void add(double amount)
+        {
+            this.count++;
+            if(amount > 0.0)
+                this.sales++;
+
+            this.total += amount;
+            this.gross += grossOf(amount);
+        }
+
+
+        SalesTotals toTotals()
+        {
+            return new SalesTotals(this.count, this.sales, this.total, this.gross, this.total - this.gross);
+        }
+
+
+        /**
+         * Builds the fields of a rollup document.
+         * @param month Month key for day documents or null
+         * @return Fields to set
+         */
+        Map<String, Object> toMap(String month)
+        {
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("count", this.count);
+            map.put("sales", this.sales);
+            map.put("total", this.total);
+            map.put("gross", this.gross);
+            map.put("tax", this.total - this.gross);
+            if(month != null)
+                map.put("month", month);
+
+            return map;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.charis.util;
+
+
+/**
+ * Sales totals of a month or a day, read from its
+ * rollup document or summed from distributions.
+ */
+public final class SalesTotals
+{
+    private final long count;
+    private final long sales;
+    private final double total;
+    private final double gross;
+    private final double tax;
+
+
+    /**
+     * Builds totals.
+     * @param count Number of distributions
+     * @param sales Number of distributions with an amount above zero
+     * @param total Sum of amounts, tax included
+     * @param gross Total without tax
+     * @param tax Tax part of total
+     */
+    SalesTotals(long count, long sales, double total, double gross, double tax)
+    {
+        this.count = count;
+        this.sales = sales;
+        this.total = total;
+        this.gross = gross;
+        this.tax = tax;
+    }
+
+
+    public long getCount()
+    {
+        return this.count;
+    }
+
+    public long getSales()
+    {
+        return this.sales;
+    }
+
+    public double getTotal()
+    {
+        return this.total;
+    }
+
+    public double getGross()
+    {
+        return this.gross;
+    }
+
+    public double getTax()
+    {
+        return this.tax;
+    }
+}
@@ -0,0 +1,93 @@
+package com.charis.util;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+/**
+ * Grouping of distributions and their lines by
+ * AggregatePass into several aggregates at once.
+ * Runs on the development machine (host).
+ */
+public class AggregatePassTest {
+    private static long time(int day, int hour, int minute) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(2020, Calendar.MARCH, day, hour, minute);
+        return cal.getTimeInMillis();
+    }
+
+    @Test
+    public void groupsDistributions() {
+        Aggregate byUser = new Aggregate(Aggregate.Key.USER, Aggregate.Measure.AMOUNT);
+        Aggregate byDay = new Aggregate(Aggregate.Key.DAY, Aggregate.Measure.DISTRIBUTIONS);
+        Aggregate byHour = new Aggregate(Aggregate.Key.HOUR, Aggregate.Measure.LINES);
+        AggregatePass pass = new AggregatePass(new Aggregate[]{byUser, byDay, byHour});
+        assertFalse(pass.needsLines());
+
+        pass.distribution(time(2, 9, 15), 1000, "alice", 2);
+        pass.distribution(time(2, 9, 45), 250, "bob", 1);
+        pass.distribution(time(2, 14, 0), 500, "alice", 3);
+        pass.distribution(time(3, 9, 5), 100, null, 1);
+
+        assertEquals(4, pass.count());
+        assertEquals(1500, byUser.getValue("alice"));
+        assertEquals(250, byUser.getValue("bob"));
+        assertEquals(100, byUser.getValue("")); // No user
+        assertEquals(2, byDay.size());
+        assertEquals(3, byDay.getValue("2020-03-02"));
+        assertEquals(1, byDay.getValue("2020-03-03"));
+        assertEquals(24, byHour.size()); // Every hour, even empty ones
+        assertEquals(4, byHour.getValue("09:00"));
+        assertEquals(3, byHour.getValue("14:00"));
+        assertEquals(0, byHour.getValue("10:00"));
+    }
+
+    @Test
+    public void groupsLines() {
+        Aggregate byCategory = new Aggregate(Aggregate.Key.CATEGORY, Aggregate.Measure.QUANTITY);
+        Aggregate bySellable = new Aggregate(Aggregate.Key.SELLABLE, Aggregate.Measure.VALUE);
+        Aggregate byUser = new Aggregate(Aggregate.Key.USER, Aggregate.Measure.QUANTITY);
+        AggregatePass pass = new AggregatePass(new Aggregate[]{byCategory, bySellable, byUser});
+        assertTrue(pass.needsLines());
+
+        pass.distribution(time(2, 10, 0), 700, "alice", 2);
+        pass.line("i1", true, 2, 300, "Clothes");
+        pass.line("i2", false, 1, 100, null);
+        pass.distribution(time(2, 11, 0), 300, "bob", 1);
+        pass.line("i1", true, 1, 300, "Clothes");
+
+        assertEquals(3, byCategory.getValue("Clothes"));
+        assertEquals(1, byCategory.getValue(""));
+        assertEquals(900, bySellable.getValue("For Sale"));
+        assertEquals(100, bySellable.getValue("For Free"));
+        assertEquals(3, byUser.getValue("alice")); // Lines go to their distribution's group
+        assertEquals(1, byUser.getValue("bob"));
+    }
+
+    @Test
+    public void byValueAndReset() {
+        Aggregate byItem = new Aggregate(Aggregate.Key.ITEM, Aggregate.Measure.LINES);
+        AggregatePass pass = new AggregatePass(new Aggregate[]{byItem});
+
+        pass.distribution(time(4, 8, 0), 0, "alice", 3);
+        pass.line("a", true, 1, 0, null);
+        pass.line("b", true, 1, 0, null);
+        pass.line("b", true, 5, 0, null);
+
+        Integer[] order = byItem.byValue();
+        assertEquals("b", byItem.getLabel(order[0]));
+        assertEquals(2, byItem.getValue(order[0]));
+
+        pass.reset();
+        assertEquals(0, pass.count());
+        assertEquals(0, byItem.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void amountCannotSplitByLine() {
+        new Aggregate(Aggregate.Key.CATEGORY, Aggregate.Measure.AMOUNT);
+    }
+}
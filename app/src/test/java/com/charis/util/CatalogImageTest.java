@@ -0,0 +1,130 @@
+package com.charis.util;
+
+import com.charis.data.Category;
+import com.charis.data.Enum.Condition;
+import com.charis.data.Kit;
+import com.charis.data.Location;
+import com.charis.data.NonSellableItem;
+import com.charis.data.SellableItem;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writing the barcode image, mapping it again as a
+ * cold start would, and finding records in it.
+ * Runs on the development machine (host).
+ */
+public class CatalogImageTest {
+    private static final Category CATEGORY = new Category("cat", "Furniture");
+    private static final Location LOCATION = new Location("loc", "Back room");
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("catalog", ".img");
+        f.delete(); // Start without an image
+        f.deleteOnExit();
+        new File(f.getPath() + ".tmp").deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Waits for the background write to replace the file.
+     */
+    private static void awaitWrite(File f, long after) throws InterruptedException {
+        long end = System.currentTimeMillis() + 15000;
+        while (!(f.isFile() && f.lastModified() >= after) && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(200); // Renamed, then mapped
+        assertTrue("image not written", f.isFile());
+    }
+
+    @Test
+    public void writeMapAndFind() throws Exception {
+        File f = tempFile();
+        CatalogImage image = new CatalogImage(f);
+        image.open();
+        assertNull(image.resolve("00000001")); // Nothing yet
+
+        SellableItem sell = new SellableItem("00000001", new Date(1600000000000L), "Chair", 4, Condition.GOOD, 12.5, CATEGORY, LOCATION);
+        NonSellableItem free = new NonSellableItem("00000002", null, "Coat", 2, Condition.POOR, 0.0, CATEGORY, "Donor", LOCATION);
+        Kit kit = new Kit("00000003", "Starter", "Starter kit");
+
+        // Many barcodes so the lookup has to search
+        for (int i = 100; i < 400; i++) {
+            image.put(String.format("%08d", i), new BarcodeMatch(null, null, new Kit(String.format("%08d", i), "Kit " + i, "")));
+        }
+        image.put("00000001", new BarcodeMatch(sell, null, null));
+        image.put("00000002", new BarcodeMatch(null, free, null));
+        image.put("00000003", new BarcodeMatch(null, null, kit));
+        assertEquals("Chair", image.resolve("00000001").getSellable().getDescription()); // From the deltas
+
+        long start = System.currentTimeMillis() - 1000;
+        awaitWrite(f, start);
+
+        // A new image reads only the mapped file
+        CatalogImage cold = new CatalogImage(f);
+        cold.open();
+
+        BarcodeMatch s = cold.resolve("00000001");
+        assertNotNull(s);
+        assertNull(s.getNonSellable());
+        assertEquals("Chair", s.getSellable().getDescription());
+        assertEquals(4, s.getSellable().getQuantity());
+        assertEquals(12.5, s.getSellable().getPrice(), 0.0);
+        assertEquals(Condition.GOOD, s.getSellable().getCondition());
+        assertEquals(1600000000000L, s.getSellable().getReceived().getTime());
+        assertEquals("Furniture", s.getSellable().getCategory().getName());
+        assertEquals("Back room", s.getSellable().getLocation().getName());
+
+        BarcodeMatch n = cold.resolve("00000002");
+        assertEquals("Donor", n.getNonSellable().getSource());
+        assertNull(n.getNonSellable().getReceived());
+
+        assertEquals("Starter kit", cold.resolve("00000003").getKit().getDescription());
+        assertEquals("Kit 250", cold.resolve("00000250").getKit().getName());
+        assertNull(cold.resolve("00000004"));
+        assertNull(cold.resolve("99999999"));
+    }
+
+    @Test
+    public void deletedBarcodesLeaveTheImage() throws Exception {
+        File f = tempFile();
+        CatalogImage image = new CatalogImage(f);
+        image.open();
+        image.put("00000010", new BarcodeMatch(null, null, new Kit("00000010", "Old", "")));
+        image.put("00000011", new BarcodeMatch(null, null, new Kit("00000011", "Kept", "")));
+        awaitWrite(f, System.currentTimeMillis() - 1000);
+
+        long rewritten = System.currentTimeMillis();
+        Thread.sleep(1100); // File times may only hold seconds
+        image.put("00000010", new BarcodeMatch(null, null, null));
+        assertTrue(image.resolve("00000010").isEmpty());
+        awaitWrite(f, rewritten + 1000);
+
+        CatalogImage cold = new CatalogImage(f);
+        cold.open();
+        assertNull(cold.resolve("00000010"));
+        assertEquals("Kept", cold.resolve("00000011").getKit().getName());
+    }
+
+    @Test
+    public void unreadableFileIsEmpty() throws Exception {
+        File f = tempFile();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(new byte[64]); // Wrong magic
+        } finally {
+            out.close();
+        }
+
+        CatalogImage image = new CatalogImage(f);
+        image.open();
+        assertNull(image.resolve("00000001"));
+    }
+}
@@ -0,0 +1,200 @@
+package com.charis.util;
+
+import com.charis.data.Category;
+import com.charis.data.Location;
+import com.charis.data.User;
+import com.google.firebase.Timestamp;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decode throughput of the entity codecs over synthetic
+ * document maps shaped like what Firestore returns.
+ * Timed, so it is left out of the test run; remove the
+ * Ignore to run it by hand. Correctness is in CodecsTest.
+ */
+@Ignore("Benchmark, run by hand")
+public class CodecBenchmark {
+    private static final int DOCS = 1000; // Distinct documents per codec
+    private static final int WARMUP = 50; // Passes before timing
+    private static final int PASSES = 200; // Timed passes
+
+    private static final Category CATEGORY = new Category("cat", "Furniture");
+    private static final Location LOCATION = new Location("loc", "Back room");
+
+    @Test
+    public void categoryDecode() {
+        final List<Map<String, Object>> docs = new ArrayList<>(DOCS);
+        for(int i = 0; i < DOCS; i++) {
+            docs.add(named("Category " + i));
+        }
+
+        run("Category", new Pass() {
+            @Override
+            public int run() {
+                int n = 0;
+                for(int i = 0; i < DOCS; i++) {
+                    n += Codecs.CATEGORY.decode("c" + i, docs.get(i)).getName().length();
+                }
+                return n;
+            }
+        });
+    }
+
+    @Test
+    public void userDecode() {
+        final List<Map<String, Object>> docs = new ArrayList<>(DOCS);
+        for(int i = 0; i < DOCS; i++) {
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("firstName", "First" + i);
+            map.put("lastName", "Last" + i);
+            map.put("password", "hash" + i);
+            map.put("admin", i % 10 == 0);
+            map.put("active", Boolean.TRUE);
+            docs.add(map);
+        }
+
+        run("User", new Pass() {
+            @Override
+            public int run() {
+                int n = 0;
+                for(int i = 0; i < DOCS; i++) {
+                    n += Codecs.USER.decode("user" + i, docs.get(i)).isAdmin() ? 1 : 0;
+                }
+                return n;
+            }
+        });
+    }
+
+    @Test
+    public void kitDecode() {
+        final List<Map<String, Object>> docs = new ArrayList<>(DOCS);
+        for(int i = 0; i < DOCS; i++) {
+            HashMap<String, Object> map = named("Kit " + i);
+            map.put("ID", "k" + i);
+            map.put("description", "Starter kit " + i);
+            docs.add(map);
+        }
+
+        run("Kit", new Pass() {
+            @Override
+            public int run() {
+                int n = 0;
+                for(int i = 0; i < DOCS; i++) {
+                    n += Codecs.KIT.decode("k" + i, docs.get(i)).getDescription().length();
+                }
+                return n;
+            }
+        });
+    }
+
+    @Test
+    public void distributionDecode() {
+        final List<Map<String, Object>> docs = new ArrayList<>(DOCS);
+        for(int i = 0; i < DOCS; i++) {
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("amount", 10.5 + i);
+            map.put("date", new Timestamp(new Date(1600000000000L + i * 60000L)));
+            map.put("user", "user" + (i % 20));
+            map.put("memo", "");
+            docs.add(map);
+        }
+
+        final User user = new User("user0", "First", "Last", "hash", false, true);
+        run("Distribution", new Pass() {
+            @Override
+            public int run() {
+                int n = 0;
+                for(int i = 0; i < DOCS; i++) {
+                    n += (int) Codecs.DISTRIBUTION.decode("d" + i, docs.get(i), user).getAmount();
+                }
+                return n;
+            }
+        });
+    }
+
+    @Test
+    public void itemDecode() {
+        final List<Map<String, Object>> items = new ArrayList<>(DOCS);
+        final List<Map<String, Object>> sellables = new ArrayList<>(DOCS);
+        final List<Map<String, Object>> nonSellables = new ArrayList<>(DOCS);
+        for(int i = 0; i < DOCS; i++) {
+            HashMap<String, Object> item = new HashMap<>();
+            item.put("ID", "i" + i);
+            item.put("received", new Timestamp(new Date(1600000000000L + i)));
+            item.put("description", "Item " + i);
+            item.put("condition", (long) (i % 3)); // Firestore returns whole numbers as Long
+            item.put("price", 2.25 * i);
+            item.put("category", CATEGORY.getID());
+            items.add(item);
+
+            HashMap<String, Object> sell = new HashMap<>();
+            sell.put("quantity", (long) i);
+            sell.put("location", LOCATION.getID());
+            sellables.add(sell);
+
+            HashMap<String, Object> nonSell = new HashMap<>(sell);
+            nonSell.put("source", "Donor " + i);
+            nonSellables.add(nonSell);
+        }
+
+        run("SellableItem", new Pass() {
+            @Override
+            public int run() {
+                int n = 0;
+                for(int i = 0; i < DOCS; i++) {
+                    n += Codecs.SELLABLE.decode("i" + i, items.get(i), sellables.get(i), CATEGORY, LOCATION).getQuantity();
+                }
+                return n;
+            }
+        });
+
+        run("NonSellableItem", new Pass() {
+            @Override
+            public int run() {
+                int n = 0;
+                for(int i = 0; i < DOCS; i++) {
+                    n += Codecs.NONSELLABLE.decode("i" + i, items.get(i), nonSellables.get(i), CATEGORY, LOCATION).getQuantity();
+                }
+                return n;
+            }
+        });
+    }
+
+
+    private interface Pass {
+        int run(); // Result is used so the work isn't optimized away
+    }
+
+    private static HashMap<String, Object> named(String name) {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("name", name);
+        return map;
+    }
+
+    /**
+     * Warms up, then times passes and prints decodes per second.
+     */
+    private static void run(String name, Pass pass) {
+        int sink = 0;
+        for(int i = 0; i < WARMUP; i++) {
+            sink += pass.run();
+        }
+
+        long start = System.nanoTime();
+        for(int i = 0; i < PASSES; i++) {
+            sink += pass.run();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double perSecond = (double) DOCS * PASSES / (elapsed / 1e9);
+        System.out.println(String.format("%-16s %,12.0f decodes/s (%d)", name, perSecond, sink & 1));
+    }
+}
@@ -0,0 +1,134 @@
+package com.charis.util;
+
+import com.charis.data.Category;
+import com.charis.data.Distribution;
+import com.charis.data.Enum.Condition;
+import com.charis.data.Location;
+import com.charis.data.NonSellableItem;
+import com.charis.data.SellableItem;
+import com.charis.data.User;
+import com.google.firebase.Timestamp;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decoding and encoding of the entity codecs over
+ * document maps shaped like what Firestore returns.
+ * Runs on the development machine (host).
+ */
+public class CodecsTest {
+    private static final Category CATEGORY = new Category("cat", "Furniture");
+    private static final Location LOCATION = new Location("loc", "Back room");
+
+    @Test
+    public void categoryDecode() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("name", "Category 7");
+
+        Category c = Codecs.CATEGORY.decode("c7", map);
+        assertEquals("c7", c.getID());
+        assertEquals("Category 7", c.getName());
+        assertEquals("Category 7", Codecs.CATEGORY.encode(c).get("name"));
+    }
+
+    @Test
+    public void userDecode() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("firstName", "First");
+        map.put("lastName", "Last");
+        map.put("password", "hash");
+        map.put("admin", true);
+        map.put("active", Boolean.TRUE);
+
+        User u = Codecs.USER.decode("user0", map);
+        assertEquals("user0", u.getUsername());
+        assertTrue(u.isAdmin());
+        assertTrue(u.isActive());
+        assertEquals(map, Codecs.USER.encode(u));
+    }
+
+    @Test
+    public void kitDecode() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("ID", "k3");
+        map.put("name", "Kit 3");
+        map.put("description", "Starter kit 3");
+
+        assertEquals(map, Codecs.KIT.encode(Codecs.KIT.decode("k3", map)));
+    }
+
+    @Test
+    public void distributionDecode() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("amount", 11.5);
+        map.put("date", new Timestamp(new Date(1600000060000L)));
+        map.put("user", "user0");
+        map.put("memo", "");
+
+        User user = new User("user0", "First", "Last", "hash", false, true);
+        Distribution d = Codecs.DISTRIBUTION.decode("d1", map, user);
+        assertEquals(11.5, d.getAmount(), 0.0);
+        assertEquals(1600000060000L, d.getDate().getTime());
+        assertEquals("user0", Codecs.DISTRIBUTION.userOf(map));
+        assertEquals(-1, Codecs.DISTRIBUTION.linesOf(map)); // Saved before lines were kept
+
+        Map<String, Object> encoded = Codecs.DISTRIBUTION.encode(d, "memo", 3);
+        assertEquals(3, Codecs.DISTRIBUTION.linesOf(encoded));
+        assertEquals("memo", encoded.get("memo"));
+        assertEquals(d.getDate(), Codecs.date(encoded, "date"));
+    }
+
+    @Test
+    public void itemDecode() {
+        HashMap<String, Object> item = new HashMap<>();
+        item.put("ID", "i5");
+        item.put("received", new Timestamp(new Date(1600000000005L)));
+        item.put("description", "Item 5");
+        item.put("condition", 2L); // Firestore returns whole numbers as Long
+        item.put("price", 11.25);
+        item.put("category", CATEGORY.getID());
+
+        HashMap<String, Object> sell = new HashMap<>();
+        sell.put("quantity", 5L);
+        sell.put("location", LOCATION.getID());
+
+        HashMap<String, Object> nonSell = new HashMap<>(sell);
+        nonSell.put("source", "Donor 5");
+
+        SellableItem s = Codecs.SELLABLE.decode("i5", item, sell, CATEGORY, LOCATION);
+        assertEquals(5, s.getQuantity());
+        assertEquals(Condition.EXCELLENT, s.getCondition());
+        assertEquals(11.25, s.getPrice(), 0.0);
+        assertEquals(CATEGORY, s.getCategory());
+
+        NonSellableItem ns = Codecs.NONSELLABLE.decode("i5", item, nonSell, CATEGORY, LOCATION);
+        assertEquals("Donor 5", ns.getSource());
+
+        // Encoding the decoded item gives back the stored fields
+        Map<String, Object> type = Codecs.NONSELLABLE.encodeType(ns);
+        assertEquals("Donor 5", type.get("source"));
+        assertEquals(LOCATION.getID(), type.get("location"));
+        assertEquals(2, Codecs.NONSELLABLE.encodeItem(ns).get("condition"));
+        assertEquals("Item 5", Codecs.SELLABLE.encodeItem(s).get("description"));
+    }
+
+    @Test
+    public void mistypedFieldsDefault() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("name", 12L);
+        map.put("quantity", "3");
+        map.put("date", "2020-01-01");
+
+        assertNull(Codecs.string(map, "name"));
+        assertEquals(0, Codecs.integer(map, "quantity"));
+        assertEquals(0.0, Codecs.decimal(map, "missing"), 0.0);
+        assertNull(Codecs.date(map, "date"));
+        assertFalse(Codecs.flag(map, "missing"));
+    }
+}
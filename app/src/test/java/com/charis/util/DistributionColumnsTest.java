@@ -0,0 +1,115 @@
+package com.charis.util;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Range totals of DistributionColumns, appends that
+ * share arrays with older snapshots, and distributions
+ * that arrive older than the last one.
+ * Runs on the development machine (host).
+ */
+public class DistributionColumnsTest {
+    private static Date at(long t) {
+        return new Date(t);
+    }
+
+    private static DistributionColumns build(long... times) {
+        DistributionColumns.Builder b = DistributionColumns.EMPTY.append();
+        for (long t : times) {
+            b.add(at(t), 1.5, "user" + (t % 2), 2);
+        }
+        return b.build();
+    }
+
+    @Test
+    public void rangeTotals() {
+        DistributionColumns.Builder b = DistributionColumns.EMPTY.append();
+        b.add(at(100), 10.0, "a", 1);
+        b.add(at(200), 0.0, "b", 3); // Free items, not a sale
+        b.add(at(200), 5.25, "a", 2);
+        b.add(at(300), 4.75, null, 4);
+        DistributionColumns c = b.build();
+
+        assertEquals(4, c.size());
+        SalesTotals all = c.totals(at(0), at(1000));
+        assertEquals(4, all.getCount());
+        assertEquals(3, all.getSales());
+        assertEquals(20.0, all.getTotal(), 0.001);
+        assertEquals(10, c.lines(at(0), at(1000)));
+
+        // From is included, to is not
+        SalesTotals mid = c.totals(at(200), at(300));
+        assertEquals(2, mid.getCount());
+        assertEquals(1, mid.getSales());
+        assertEquals(5.25, mid.getTotal(), 0.001);
+        assertEquals(5, c.lines(at(200), at(300)));
+
+        assertEquals(0, c.totals(at(400), at(500)).getCount());
+        assertEquals(0, c.totals(at(300), at(100)).getCount()); // Reversed range is empty
+    }
+
+    @Test
+    public void usersShareIndexes() {
+        DistributionColumns c = build(1, 2, 3, 4);
+        assertEquals(2, c.getUserCount());
+        assertEquals(c.getUser(0), c.getUser(2));
+        assertEquals("user1", c.getUsername(c.getUser(0)));
+    }
+
+    @Test
+    public void appendKeepsOlderSnapshot() {
+        DistributionColumns first = build(10, 20, 30);
+
+        DistributionColumns.Builder b = first.append();
+        for (int i = 0; i < 100; i++) { // Grows past the first arrays
+            b.add(at(40 + i), 1.0, "late", 1);
+        }
+        DistributionColumns second = b.build();
+
+        assertEquals(3, first.size());
+        assertEquals(4.5, first.totals(at(0), at(1000)).getTotal(), 0.001);
+        assertEquals(103, second.size());
+        assertEquals(104.5, second.totals(at(0), at(1000)).getTotal(), 0.001);
+        assertEquals(30, second.getTime(2));
+    }
+
+    @Test
+    public void olderDistributionsAreMerged() {
+        DistributionColumns first = build(10, 20, 30, 40);
+
+        DistributionColumns.Builder b = first.append();
+        b.add(at(50), 1.0, "u", 1);
+        b.add(at(25), 2.0, "u", 1); // Synced late with an earlier date
+        b.add(at(5), 3.0, "u", 1);
+        b.add(at(20), 4.0, "u", 1); // Same time as one held
+        DistributionColumns merged = b.build();
+
+        assertEquals(8, merged.size());
+        long[] expected = {5, 10, 20, 20, 25, 30, 40, 50};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], merged.getTime(i));
+        }
+        assertEquals(1.5 * 4 + 10.0, merged.totals(at(0), at(100)).getTotal(), 0.001);
+        assertEquals(150, merged.getCents(2)); // Held one stays first at an equal time
+        assertEquals(400, merged.getCents(3));
+        assertEquals(2.0 + 1.5, merged.totals(at(25), at(31)).getTotal(), 0.001);
+
+        // The snapshot merged from is unchanged
+        assertEquals(4, first.size());
+        assertEquals(10, first.getTime(0));
+        assertEquals(6.0, first.totals(at(0), at(100)).getTotal(), 0.001);
+    }
+
+    @Test
+    public void indexOfFindsFirstAtOrAfter() {
+        DistributionColumns c = build(10, 20, 20, 30);
+        assertEquals(0, c.indexOf(at(0)));
+        assertEquals(1, c.indexOf(at(20)));
+        assertEquals(3, c.indexOf(at(21)));
+        assertEquals(4, c.indexOf(at(31)));
+    }
+}
@@ -0,0 +1,79 @@
+package com.charis.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Diffing of a kit's wanted items against its stored
+ * Kit_Item relations.
+ * Runs on the development machine (host).
+ */
+public class KitSaveTest {
+    private static KitSave.Diff diff(String[] ids, boolean[] sellable, int[] quantity, List<String> keys, List<Long> quantities) {
+        KitSave.Diff d = new KitSave.Diff(ids, sellable, quantity);
+        d.compare(keys, quantities);
+        return d;
+    }
+
+    @Test
+    public void newKitInsertsEverything() {
+        KitSave.Diff d = diff(new String[]{"a", "b"}, new boolean[]{true, false}, new int[]{2, 1},
+                Collections.<String>emptyList(), Collections.<Long>emptyList());
+
+        assertTrue(d.removed.isEmpty());
+        assertTrue(d.updated.isEmpty());
+        assertEquals(Arrays.asList("Sa", "Nb"), Arrays.asList(d.inserted.keySet().toArray()));
+        assertEquals(2, (int) d.inserted.get("Sa"));
+        assertEquals("a", KitSave.Diff.idOf("Sa"));
+        assertTrue(KitSave.Diff.isSellable("Sa"));
+        assertFalse(KitSave.Diff.isSellable("Nb"));
+    }
+
+    @Test
+    public void unchangedKitWritesNothing() {
+        KitSave.Diff d = diff(new String[]{"a", "b"}, new boolean[]{true, false}, new int[]{2, 1},
+                Arrays.asList("Nb", "Sa"), Arrays.asList(1L, 2L));
+
+        assertTrue(d.removed.isEmpty());
+        assertTrue(d.updated.isEmpty());
+        assertTrue(d.inserted.isEmpty());
+    }
+
+    @Test
+    public void onlyChangesAreWritten() {
+        // Stored: a x2 sellable, b x1 free, c x4 sellable
+        // Wanted: a x3 sellable, b x1 free, d x1 free
+        KitSave.Diff d = diff(new String[]{"a", "b", "d"}, new boolean[]{true, false, false}, new int[]{3, 1, 1},
+                Arrays.asList("Sa", "Nb", "Sc"), Arrays.asList(2L, 1L, 4L));
+
+        assertEquals(Collections.singletonList(2), d.removed);
+        assertEquals(Collections.singletonList(0), d.updated);
+        assertEquals(3, d.quantityOf("Sa"));
+        assertEquals(Collections.singleton("Nd"), d.inserted.keySet());
+    }
+
+    @Test
+    public void sameBarcodeBothTypes() {
+        KitSave.Diff d = diff(new String[]{"a", "a"}, new boolean[]{true, false}, new int[]{1, 1},
+                Collections.singletonList("Sa"), Collections.singletonList(1L));
+
+        assertTrue(d.removed.isEmpty());
+        assertEquals(Collections.singleton("Na"), d.inserted.keySet());
+    }
+
+    @Test
+    public void repeatsAreSummedAndDuplicatesRemoved() {
+        KitSave.Diff d = diff(new String[]{"a", "a"}, new boolean[]{true, true}, new int[]{2, 3},
+                Arrays.asList("Sa", "Sa"), Arrays.asList(5L, 5L));
+
+        assertEquals(5, d.quantityOf("Sa"));
+        assertTrue(d.updated.isEmpty());
+        assertEquals(Collections.singletonList(1), d.removed); // Second stored copy
+        assertTrue(d.inserted.isEmpty());
+    }
+}
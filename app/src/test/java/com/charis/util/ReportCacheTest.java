@@ -0,0 +1,115 @@
+package com.charis.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Report results saved to files and read back by a
+ * new cache, as after the app restarts.
+ * Runs on the development machine (host).
+ */
+public class ReportCacheTest {
+    private static File tempDir() throws Exception {
+        File dir = File.createTempFile("reports", "");
+        dir.delete();
+        dir.deleteOnExit();
+        return dir; // Created by the cache on first write
+    }
+
+    private static List<String[]> rows() {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(new String[]{"User", "Sales", "Amount"});
+        rows.add(new String[]{"alice", "3", "$12.50"});
+        rows.add(new String[]{"bob", null, "Ünïcode €"}); // Null cells are saved empty
+        return rows;
+    }
+
+    @Test
+    public void roundTripsThroughFile() throws Exception {
+        File dir = tempDir();
+        new ReportCache(dir).put("sales_2020-03", 42, false, rows());
+
+        ReportCache cold = new ReportCache(dir);
+        List<String[]> read = cold.get("sales_2020-03", 42);
+        assertNotNull(read);
+        assertEquals(3, read.size());
+        assertTrue(Arrays.equals(new String[]{"alice", "3", "$12.50"}, read.get(1)));
+        assertTrue(Arrays.equals(new String[]{"bob", "", "Ünïcode €"}, read.get(2)));
+        assertNull(cold.getClosed("sales_2020-03")); // Built while the month was open
+    }
+
+    @Test
+    public void movedWatermarkMisses() throws Exception {
+        File dir = tempDir();
+        ReportCache cache = new ReportCache(dir);
+        cache.put("stock_now", 7, false, rows());
+
+        assertNotNull(cache.get("stock_now", 7));
+        assertNull(cache.get("stock_now", 8));
+        assertNull(new ReportCache(dir).get("stock_now", 8));
+        assertNull(cache.get("age_now", 7)); // Never saved
+    }
+
+    @Test
+    public void closedResultsIgnoreWatermark() throws Exception {
+        File dir = tempDir();
+        new ReportCache(dir).put("outflow_2019-12", 3, true, rows());
+
+        List<String[]> read = new ReportCache(dir).getClosed("outflow_2019-12");
+        assertNotNull(read);
+        assertEquals(3, read.size());
+    }
+
+    @Test
+    public void evictedEntriesReloadFromFile() throws Exception {
+        File dir = tempDir();
+        ReportCache cache = new ReportCache(dir);
+        for (int i = 0; i < 40; i++) { // More than are kept in memory
+            cache.put("report" + i + "_now", i, false, rows());
+        }
+
+        assertNotNull(cache.get("report0_now", 0));
+        assertNotNull(cache.get("report39_now", 39));
+    }
+
+    @Test
+    public void filesFromBeforeShardingMiss() throws Exception {
+        File dir = tempDir();
+        new ReportCache(dir).put("sales_now", 5, true, rows());
+
+        // Same file with the version saved before the watermark was sharded
+        File f = new File(dir, "sales_now.rows");
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.writeInt(1);
+        } finally {
+            raf.close();
+        }
+
+        ReportCache cold = new ReportCache(dir);
+        assertNull(cold.get("sales_now", 5));
+        assertNull(cold.getClosed("sales_now"));
+    }
+
+    @Test
+    public void unreadableFileMisses() throws Exception {
+        File dir = tempDir();
+        assertTrue(dir.mkdirs());
+        FileOutputStream out = new FileOutputStream(new File(dir, "sales_now.rows"));
+        try {
+            out.write(new byte[]{0, 0, 0, 2, 0, 0}); // Right version, cut short
+        } finally {
+            out.close();
+        }
+
+        assertNull(new ReportCache(dir).get("sales_now", 0));
+    }
+}
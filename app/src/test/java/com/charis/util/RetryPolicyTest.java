@@ -0,0 +1,87 @@
+package com.charis.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Backoff and deadlines of RetryPolicy, and the
+ * statuses carried by Result.
+ * Runs on the development machine (host).
+ */
+public class RetryPolicyTest {
+    @Test
+    public void backoffStaysUnderDoublingCap() {
+        RetryPolicy p = new RetryPolicy(5, 1000, 5000, 100, 1000);
+        for (int i = 0; i < 200; i++) {
+            assertTrue(p.backoff(1) < 100);
+            assertTrue(p.backoff(2) < 200);
+            assertTrue(p.backoff(3) < 400);
+            assertTrue(p.backoff(5) < 1000); // Capped at maxDelay
+            assertTrue(p.backoff(1) >= 0);
+        }
+    }
+
+    @Test
+    public void backoffDoesNotOverflow() {
+        RetryPolicy p = new RetryPolicy(Integer.MAX_VALUE, 0, 0, 1000, 60000);
+        for (int i = 0; i < 200; i++) {
+            long d = p.backoff(Integer.MAX_VALUE);
+            assertTrue(d >= 0 && d < 60000);
+        }
+    }
+
+    @Test
+    public void noBackoffWithoutBaseDelay() {
+        assertEquals(0, RetryPolicy.WRITE.backoff(1));
+        assertEquals(0, RetryPolicy.WRITE.backoff(10));
+    }
+
+    @Test
+    public void deadlineFromNow() {
+        RetryPolicy p = new RetryPolicy(3, 3000, 8000, 200, 2000);
+        long before = RetryPolicy.now();
+        long deadline = p.deadlineFromNow();
+        long after = RetryPolicy.now();
+        assertTrue(deadline >= before + 8000);
+        assertTrue(deadline <= after + 8000);
+    }
+
+    @Test
+    public void atLeastOneAttempt() {
+        assertEquals(1, new RetryPolicy(0, 1000, 1000, 0, 0).getMaxAttempts());
+        assertEquals(1, RetryPolicy.WRITE.getMaxAttempts());
+    }
+
+    @Test
+    public void resultStatuses() {
+        Result<String> ok = Result.ok("value");
+        assertTrue(ok.isOk());
+        assertFalse(ok.isError());
+        assertEquals("value", ok.getValue());
+
+        Result<String> missing = Result.notFound();
+        assertTrue(missing.isNotFound());
+        assertFalse(missing.isError()); // Known not to exist
+
+        assertTrue(Result.<String>timedOut().isError());
+        assertTrue(Result.<String>failed(null).isError());
+    }
+
+    @Test
+    public void resultFromKeepsStatusAndCause() {
+        Exception cause = new IllegalStateException("offline");
+        Result<Integer> failed = Result.from(Result.<String>failed(cause));
+        assertEquals(Result.Status.FAILED, failed.getStatus());
+        assertSame(cause, failed.getException());
+        assertNull(failed.getValue());
+
+        assertEquals(Result.Status.TIMED_OUT, Result.<Integer>from(Result.<String>timedOut()).getStatus());
+        assertEquals(Result.Status.NOT_FOUND, Result.<Integer>from(Result.<String>notFound()).getStatus());
+
+        // An OK result has no value of the other type to pass on
+        Result<Integer> fromOk = Result.from(Result.ok("value"));
+        assertEquals(Result.Status.FAILED, fromOk.getStatus());
+        assertNull(fromOk.getValue());
+    }
+}